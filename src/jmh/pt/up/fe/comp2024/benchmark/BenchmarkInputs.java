@@ -0,0 +1,55 @@
+package pt.up.fe.comp2024.benchmark;
+
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Java-- programs used as input of the benchmarks.
+ * <p>
+ * An input is either "corpus", every program under the test folders that compiles without errors, or "scaled-N", a
+ * generated program with N methods (see {@link JmmProgramGenerator}).
+ */
+public class BenchmarkInputs {
+
+    private static final String CORPUS = "corpus";
+    private static final String SCALED_PREFIX = "scaled-";
+
+    // Folder of the corpus, relative to the root of the project
+    private static final String CORPUS_FOLDER = System.getProperty("jmm.corpus", "test/pt/up/fe/comp");
+
+    public static List<String> load(String input) {
+        if (input.equals(CORPUS)) {
+            return loadCorpus(new File(CORPUS_FOLDER));
+        }
+
+        if (input.startsWith(SCALED_PREFIX)) {
+            int scale = Integer.parseInt(input.substring(SCALED_PREFIX.length()));
+            return List.of(new JmmProgramGenerator(1, scale, 8, 2, 4).generate());
+        }
+
+        throw new RuntimeException("Unknown benchmark input '" + input + "', expected '" + CORPUS + "' or '"
+                + SCALED_PREFIX + "<N>'");
+    }
+
+    private static List<String> loadCorpus(File folder) {
+        if (!folder.isDirectory()) {
+            throw new RuntimeException("Could not find the corpus folder '" + folder.getAbsolutePath()
+                    + "', run the benchmarks from the root of the project or set -Djmm.corpus");
+        }
+
+        var compiler = new JmmCompiler();
+        var config = CompilerConfig.getDefault();
+
+        // Programs with errors would stop the pipeline early, and would not measure the later stages
+        return SpecsIo.getFilesRecursive(folder, "jmm").stream()
+                .sorted(Comparator.comparing(File::getPath))
+                .map(SpecsIo::read)
+                .filter(code -> !compiler.compile(code, config).hasErrors())
+                .toList();
+    }
+}
@@ -0,0 +1,206 @@
+package pt.up.fe.comp2024.benchmark;
+
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.comp2024.backend.JasminAssembler;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A Java-- program of the folder of execution benchmarks, compiled and loaded in this JVM, whose main method can be
+ * run with its output discarded.
+ * <p>
+ * An instrumented program also adds the number of bytecodes it executes to {@link ExecutionCounter}: each basic block
+ * of the Jasmin code starts with a call that counts the instructions of the block.
+ */
+public class CompiledProgram {
+
+    // Folders of the programs and of the classes they import, relative to the root of the project
+    private static final String PROGRAMS_FOLDER = System.getProperty("jmm.programs", "src/jmh/programs");
+    private static final String LIBRARY_FOLDER = System.getProperty("jmm.libraries", "libs-jmm/compiled");
+
+    private static final String COUNTER = ExecutionCounter.class.getName().replace('.', '/');
+
+    // Instructions after which the next one starts a new block
+    private static final Set<String> BLOCK_ENDS = Set.of("goto", "return", "ireturn", "areturn", "athrow");
+
+    private final Method main;
+
+    private CompiledProgram(Method main) {
+        this.main = main;
+    }
+
+    /**
+     * @param name       the name of the program, which is also the name of its file and class
+     * @param optimize   whether the program is compiled with '-o'
+     * @param instrument whether the program counts the bytecodes it executes
+     */
+    public static CompiledProgram compile(String name, boolean optimize, boolean instrument) {
+        var file = new File(PROGRAMS_FOLDER, name + ".jmm");
+        if (!file.isFile()) {
+            throw new RuntimeException("Could not find the program '" + file.getAbsolutePath()
+                    + "', run the benchmarks from the root of the project or set -Djmm.programs");
+        }
+
+        var config = CompilerConfig.getDefault();
+        config.put("optimize", Boolean.toString(optimize));
+
+        var result = new JmmCompiler().compile(SpecsIo.read(file), config);
+        if (result.hasErrors() || result.getJasminResult().isEmpty()) {
+            throw new RuntimeException("Benchmark program '" + name + "' has errors: " + result.getReports());
+        }
+
+        var jasminResult = result.getJasminResult().get();
+        var jasminCode = instrument ? instrument(jasminResult.getJasminCode()) : jasminResult.getJasminCode();
+        var className = jasminResult.getClassName();
+        var classBytes = JasminAssembler.assemble(className, jasminCode);
+
+        try {
+            var loader = new ProgramLoader(className, classBytes);
+            var main = loader.loadClass(className).getMethod("main", String[].class);
+
+            // The generated classes are not public
+            main.setAccessible(true);
+            return new CompiledProgram(main);
+        } catch (ReflectiveOperationException | MalformedURLException e) {
+            throw new RuntimeException("Could not load the class of program '" + name + "'", e);
+        }
+    }
+
+    /**
+     * Runs the main method of the program, without printing its output.
+     */
+    public void run() {
+        var out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            main.invoke(null, (Object) new String[0]);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException("Benchmark program failed", e.getCause());
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    /**
+     * @return the number of bytecodes executed by one run of an instrumented program
+     */
+    public long countBytecodes() {
+        ExecutionCounter.reset();
+        run();
+        return ExecutionCounter.getExecuted();
+    }
+
+    /**
+     * Adds the counting calls to the methods of the Jasmin code. The calls push one value, so the stack limit of each
+     * method grows by one. Methods without a stack limit, such as the default constructor, are not counted.
+     */
+    static String instrument(String jasminCode) {
+        var lines = jasminCode.lines().toList();
+        List<String> result = new ArrayList<>(lines.size());
+
+        int method = -1;
+        for (int i = 0; i < lines.size(); i++) {
+            var line = lines.get(i).strip();
+            if (line.startsWith(".method")) {
+                method = i;
+            } else if (line.equals(".end method") && method >= 0) {
+                result.addAll(instrumentMethod(lines.subList(method, i + 1)));
+                method = -1;
+            } else if (method < 0) {
+                result.add(lines.get(i));
+            }
+        }
+
+        return String.join("\n", result) + "\n";
+    }
+
+    private static List<String> instrumentMethod(List<String> lines) {
+        if (lines.stream().noneMatch(line -> line.strip().startsWith(".limit stack"))) {
+            return lines;
+        }
+
+        List<String> result = new ArrayList<>(lines.size());
+        int blockStart = -1;
+        int blockSize = 0;
+        boolean newBlock = true;
+
+        for (var line : lines) {
+            var stripped = line.strip();
+
+            if (stripped.startsWith(".limit stack")) {
+                int limit = Integer.parseInt(stripped.substring(".limit stack".length()).strip());
+                result.add("   .limit stack " + (limit + 1));
+                continue;
+            }
+
+            // Labels can be jumped to, so they always start a block
+            if (stripped.endsWith(":")) {
+                newBlock = true;
+            } else if (!stripped.isEmpty() && !stripped.startsWith(".") && !stripped.startsWith(";")) {
+                if (newBlock) {
+                    addCount(result, blockStart, blockSize);
+                    blockStart = result.size();
+                    blockSize = 0;
+                }
+
+                var opcode = stripped.split("\\s+")[0];
+                newBlock = BLOCK_ENDS.contains(opcode) || opcode.startsWith("if");
+                blockSize++;
+            }
+
+            result.add(line);
+        }
+
+        addCount(result, blockStart, blockSize);
+        return result;
+    }
+
+    /**
+     * Inserts the call that counts a block before its first instruction.
+     */
+    private static void addCount(List<String> result, int blockStart, int blockSize) {
+        if (blockStart >= 0) {
+            result.addAll(blockStart, List.of("   ldc " + blockSize, "   invokestatic " + COUNTER + "/count(I)V"));
+        }
+    }
+
+    /**
+     * Loads the class of the program from its bytes, and the classes it imports from the library folder. The parent
+     * is the loader of the benchmarks, so that the program shares the {@link ExecutionCounter}.
+     */
+    private static class ProgramLoader extends URLClassLoader {
+
+        private final String className;
+        private final byte[] classBytes;
+
+        private ProgramLoader(String className, byte[] classBytes) throws MalformedURLException {
+            super(new URL[]{new File(LIBRARY_FOLDER).toURI().toURL()}, CompiledProgram.class.getClassLoader());
+
+            this.className = className;
+            this.classBytes = classBytes;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            if (name.equals(className)) {
+                return defineClass(name, classBytes, 0, classBytes.length);
+            }
+
+            return super.findClass(name);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Inputs of {@link StageBenchmark}, computed once per trial.
+ */
+@State(Scope.Benchmark)
+public class CompilerState extends PipelineInputs {
+
+    @Param({"corpus", "scaled-10", "scaled-100"})
+    public String input;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        prepare(BenchmarkInputs.load(input));
+    }
+}
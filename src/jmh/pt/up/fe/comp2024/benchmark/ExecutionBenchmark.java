@@ -0,0 +1,23 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Running time of the programs generated by the compiler, with and without '-o'. The JIT hides most of the
+ * differences in the bytecodes, so 'gradle jmhExecutionReport' also counts the bytecodes each program executes (see
+ * {@link ExecutionReport}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExecutionBenchmark {
+
+    @Benchmark
+    public void run(ExecutionState state) {
+        state.compiledProgram.run();
+    }
+}
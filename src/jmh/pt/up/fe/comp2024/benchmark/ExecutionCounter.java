@@ -0,0 +1,22 @@
+package pt.up.fe.comp2024.benchmark;
+
+/**
+ * Counts the bytecodes executed by the programs instrumented by {@link CompiledProgram}, which call
+ * {@link #count(int)} at the start of each basic block with its number of instructions.
+ */
+public class ExecutionCounter {
+
+    private static long executed = 0;
+
+    public static void count(int bytecodes) {
+        executed += bytecodes;
+    }
+
+    public static long getExecuted() {
+        return executed;
+    }
+
+    public static void reset() {
+        executed = 0;
+    }
+}
@@ -0,0 +1,27 @@
+package pt.up.fe.comp2024.benchmark;
+
+import java.util.List;
+
+/**
+ * Prints the number of bytecodes executed by the programs of the execution benchmarks, compiled without and with
+ * '-o', and how much the optimizations save.
+ * <p>
+ * Usage: ExecutionReport [program...]
+ */
+public class ExecutionReport {
+
+    private static final List<String> PROGRAMS = List.of("Quicksort", "NestedLoops", "ArrayKernels");
+
+    public static void main(String[] args) {
+        var programs = args.length > 0 ? List.of(args) : PROGRAMS;
+
+        System.out.printf("%-16s %14s %14s %10s%n", "program", "bytecodes", "with -o", "saved");
+        for (var program : programs) {
+            long plain = CompiledProgram.compile(program, false, true).countBytecodes();
+            long optimized = CompiledProgram.compile(program, true, true).countBytecodes();
+
+            System.out.printf("%-16s %14d %14d %9.1f%%%n", program, plain, optimized,
+                    100.0 * (plain - optimized) / plain);
+        }
+    }
+}
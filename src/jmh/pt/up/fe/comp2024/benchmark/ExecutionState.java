@@ -0,0 +1,23 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * A program of the execution benchmarks, compiled once per trial with or without optimizations.
+ */
+@State(Scope.Benchmark)
+public class ExecutionState {
+
+    @Param({"Quicksort", "NestedLoops", "ArrayKernels"})
+    public String program;
+
+    @Param({"false", "true"})
+    public boolean optimize;
+
+    public CompiledProgram compiledProgram;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        compiledProgram = CompiledProgram.compile(program, optimize, false);
+    }
+}
@@ -0,0 +1,222 @@
+package pt.up.fe.comp2024.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic generator of valid Java-- programs, for scaling benchmarks.
+ * <p>
+ * The size of the generated program is controlled along four axes: the number of methods in the class, the number of
+ * statements per method, the nesting depth of expressions and the number of locals per method. The same parameters
+ * and seed always produce the same program.
+ * <p>
+ * Generated programs only use constructs accepted by the grammar and by the semantic analysis. Binary expressions are
+ * always parenthesized, since the grammar does not encode the usual operator precedence, array sizes are literals, and
+ * every loop has a bounded counter, so the programs also terminate when executed.
+ */
+public class JmmProgramGenerator {
+
+    private static final int ARRAY_SIZE = 16;
+    private static final int LOOP_BOUND = 8;
+    private static final int PARAMS = 2;
+
+    private final long seed;
+    private final int methods;
+    private final int statements;
+    private final int expressionDepth;
+    private final int locals;
+
+    private Random random;
+    private StringBuilder code;
+
+    // Locals of the method being generated
+    private List<String> intVars;
+    private List<String> booleanVars;
+
+    /**
+     * @param seed            seed of the random choices
+     * @param methods         number of methods in the class, besides main
+     * @param statements      number of statements per method, not counting the initialization of locals
+     * @param expressionDepth nesting depth of the generated expressions
+     * @param locals          number of int and boolean locals per method, at least one
+     */
+    public JmmProgramGenerator(long seed, int methods, int statements, int expressionDepth, int locals) {
+        if (locals < 1) {
+            throw new RuntimeException("Generated methods need at least one local, got " + locals);
+        }
+
+        this.seed = seed;
+        this.methods = methods;
+        this.statements = statements;
+        this.expressionDepth = expressionDepth;
+        this.locals = locals;
+    }
+
+    public String generate() {
+        random = new Random(seed);
+        code = new StringBuilder();
+
+        code.append("class Generated {\n\n");
+
+        for (int i = 0; i < methods; i++) {
+            appendMethod(i);
+        }
+
+        code.append("    public static void main(String[] args) {\n");
+        code.append("    }\n");
+        code.append("}\n");
+
+        return code.toString();
+    }
+
+    private void appendMethod(int index) {
+        intVars = new ArrayList<>();
+        booleanVars = new ArrayList<>();
+
+        code.append("    public int m").append(index).append("(");
+        for (int i = 0; i < PARAMS; i++) {
+            code.append(i == 0 ? "" : ", ").append("int p").append(i);
+            intVars.add("p" + i);
+        }
+        code.append(") {\n");
+
+        // One in four locals is a boolean, the others are ints
+        for (int i = 0; i < locals; i++) {
+            var isBoolean = i % 4 == 3;
+            var name = (isBoolean ? "b" : "v") + i;
+            code.append("        ").append(isBoolean ? "boolean " : "int ").append(name).append(";\n");
+            (isBoolean ? booleanVars : intVars).add(name);
+        }
+        code.append("        int[] arr;\n");
+        code.append("        int c;\n");
+
+        // Initialize every local, so all of them have a value when read
+        for (var name : intVars.subList(PARAMS, intVars.size())) {
+            code.append("        ").append(name).append(" = ").append(random.nextInt(100)).append(";\n");
+        }
+        for (var name : booleanVars) {
+            code.append("        ").append(name).append(" = ").append(random.nextBoolean()).append(";\n");
+        }
+        code.append("        arr = new int[").append(ARRAY_SIZE).append("];\n");
+
+        for (int i = 0; i < statements; i++) {
+            appendStatement(index, "        ");
+        }
+
+        code.append("        return ").append(intExpr(expressionDepth)).append(";\n");
+        code.append("    }\n\n");
+    }
+
+    private void appendStatement(int methodIndex, String indent) {
+        switch (random.nextInt(6)) {
+            case 0 -> appendIf(indent);
+            case 1 -> appendWhile(indent);
+            case 2 -> appendArrayStore(indent);
+            case 3 -> appendCall(methodIndex, indent);
+            case 4 -> {
+                if (booleanVars.isEmpty()) {
+                    appendIntAssign(indent);
+                } else {
+                    code.append(indent).append(pick(booleanVars)).append(" = ").append(booleanExpr(expressionDepth))
+                            .append(";\n");
+                }
+            }
+            default -> appendIntAssign(indent);
+        }
+    }
+
+    private void appendIntAssign(String indent) {
+        code.append(indent).append(pickAssignable()).append(" = ").append(intExpr(expressionDepth)).append(";\n");
+    }
+
+    private void appendArrayStore(String indent) {
+        code.append(indent).append("arr[").append(random.nextInt(ARRAY_SIZE)).append("] = ")
+                .append(intExpr(expressionDepth)).append(";\n");
+    }
+
+    private void appendIf(String indent) {
+        code.append(indent).append("if (").append(booleanExpr(expressionDepth)).append(") {\n");
+        appendSimpleStatement(indent + "    ");
+        code.append(indent).append("} else {\n");
+        appendSimpleStatement(indent + "    ");
+        code.append(indent).append("}\n");
+    }
+
+    private void appendWhile(String indent) {
+        code.append(indent).append("c = 0;\n");
+        code.append(indent).append("while (c < ").append(1 + random.nextInt(LOOP_BOUND)).append(") {\n");
+        appendIntAssign(indent + "    ");
+        appendArrayStore(indent + "    ");
+        code.append(indent).append("    c = c + 1;\n");
+        code.append(indent).append("}\n");
+    }
+
+    private void appendCall(int methodIndex, String indent) {
+        // Only earlier methods are called, so the call graph has no cycles
+        if (methodIndex == 0) {
+            appendIntAssign(indent);
+            return;
+        }
+
+        code.append(indent).append(pickAssignable()).append(" = this.m").append(random.nextInt(methodIndex))
+                .append("(");
+        for (int i = 0; i < PARAMS; i++) {
+            code.append(i == 0 ? "" : ", ").append(intExpr(expressionDepth));
+        }
+        code.append(");\n");
+    }
+
+    private void appendSimpleStatement(String indent) {
+        if (random.nextBoolean()) {
+            appendIntAssign(indent);
+        } else {
+            appendArrayStore(indent);
+        }
+    }
+
+    private String intExpr(int depth) {
+        if (depth == 0) {
+            return switch (random.nextInt(4)) {
+                case 0 -> String.valueOf(random.nextInt(100));
+                case 1 -> "arr[" + random.nextInt(ARRAY_SIZE) + "]";
+                case 2 -> "arr.length";
+                default -> pick(intVars);
+            };
+        }
+
+        return switch (random.nextInt(5)) {
+            case 0 -> "(" + intExpr(depth - 1) + " + " + intExpr(depth - 1) + ")";
+            case 1 -> "(" + intExpr(depth - 1) + " - " + intExpr(depth - 1) + ")";
+            case 2 -> "(" + intExpr(depth - 1) + " * " + intExpr(depth - 1) + ")";
+            // Divisors are positive literals, so the programs never divide by zero
+            case 3 -> "(" + intExpr(depth - 1) + " / " + (1 + random.nextInt(9)) + ")";
+            default -> "arr[((" + intExpr(depth - 1) + " * 0) + " + random.nextInt(ARRAY_SIZE) + ")]";
+        };
+    }
+
+    private String booleanExpr(int depth) {
+        if (depth == 0) {
+            if (booleanVars.isEmpty() || random.nextBoolean()) {
+                return "(" + intExpr(0) + " < " + intExpr(0) + ")";
+            }
+
+            return pick(booleanVars);
+        }
+
+        return switch (random.nextInt(3)) {
+            case 0 -> "(" + booleanExpr(depth - 1) + " && " + booleanExpr(depth - 1) + ")";
+            case 1 -> "!(" + booleanExpr(depth - 1) + ")";
+            default -> "(" + intExpr(depth - 1) + " < " + intExpr(depth - 1) + ")";
+        };
+    }
+
+    private String pickAssignable() {
+        // Parameters are not assigned, so that they keep the values given by the caller
+        return intVars.get(PARAMS + random.nextInt(intVars.size() - PARAMS));
+    }
+
+    private String pick(List<String> names) {
+        return names.get(random.nextInt(names.size()));
+    }
+}
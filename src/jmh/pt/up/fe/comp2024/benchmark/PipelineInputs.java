@@ -0,0 +1,49 @@
+package pt.up.fe.comp2024.benchmark;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+import pt.up.fe.comp2024.utils.ReportUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The inputs of every stage for a list of programs, so that each benchmark only measures its own stage.
+ */
+public abstract class PipelineInputs {
+
+    public Map<String, String> config;
+    public List<String> codes;
+    public List<JmmParserResult> parserResults;
+    public List<JmmSemanticsResult> semanticsResults;
+    public List<OllirResult> ollirResults;
+
+    protected void prepare(List<String> programs) {
+        config = CompilerConfig.getDefault();
+        codes = programs;
+
+        parserResults = new ArrayList<>();
+        semanticsResults = new ArrayList<>();
+        ollirResults = new ArrayList<>();
+
+        for (var code : codes) {
+            var parserResult = new JmmParserImpl().parse(code, config);
+            var semanticsResult = new JmmAnalysisImpl().semanticAnalysis(parserResult);
+            if (ReportUtils.anyError(semanticsResult.getReports())) {
+                throw new RuntimeException("Benchmark input has errors: " + semanticsResult.getReports());
+            }
+
+            var ollirResult = new JmmOptimizationImpl().toOllir(semanticsResult);
+
+            parserResults.add(parserResult);
+            semanticsResults.add(semanticsResult);
+            ollirResults.add(ollirResult);
+        }
+    }
+}
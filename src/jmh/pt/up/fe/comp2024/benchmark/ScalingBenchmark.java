@@ -0,0 +1,84 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.backend.JasminGenerator;
+import pt.up.fe.comp2024.optimization.*;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of each stage over generated programs of increasing size, along each axis of {@link JmmProgramGenerator}.
+ * <p>
+ * Run with 'gradle jmhScaling', which also prints the growth of time and allocations of each stage relative to the
+ * size of the program (see {@link ScalingReport}).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+
+    @Benchmark
+    public JmmParserResult parse(ScalingState state) {
+        return new JmmParserImpl().parse(state.codes.get(0), state.config);
+    }
+
+    @Benchmark
+    public JmmSemanticsResult semanticAnalysis(ScalingState state) {
+        return new JmmAnalysisImpl().semanticAnalysis(state.parserResults.get(0));
+    }
+
+    @Benchmark
+    public String ollirGeneration(ScalingState state) {
+        var semanticsResult = state.semanticsResults.get(0);
+        return new OllirGeneratorVisitor(semanticsResult.getSymbolTable()).visit(semanticsResult.getRootNode());
+    }
+
+    @Benchmark
+    public String jasminGeneration(ScalingState state) {
+        return new JasminGenerator(state.ollirResults.get(0)).build();
+    }
+
+    // The allocators change the registers of the shared OLLIR class, which gives the same result every time
+
+    @Benchmark
+    public List<Report> coloringAllocation(ScalingState state) {
+        return new RegisterAllocator(state.ollirResults.get(0).getOllirClass(), 0).allocate();
+    }
+
+    @Benchmark
+    public List<Report> linearScanAllocation(ScalingState state) {
+        return new LinearScanAllocator(state.ollirResults.get(0).getOllirClass(), 0).allocate();
+    }
+
+    @Benchmark
+    public int dominatorTree(ScalingState state) {
+        int blocks = 0;
+        for (var method : state.ollirResults.get(0).getOllirClass().getMethods()) {
+            var dominatorTree = new DominatorTree(new ControlFlowGraph(method));
+            blocks += dominatorTree.getCfg().getBlocks().size();
+        }
+
+        return blocks;
+    }
+
+    @Benchmark
+    public int ssaRoundTrip(SsaState state) {
+        int instructions = 0;
+        for (var method : state.ollirClass.getMethods()) {
+            if (!method.isConstructMethod()) {
+                SsaForm.toSsa(method).fromSsa();
+            }
+            instructions += method.getInstructions().size();
+        }
+
+        return instructions;
+    }
+}
@@ -0,0 +1,113 @@
+package pt.up.fe.comp2024.benchmark;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Prints the time and allocation curves of {@link ScalingBenchmark}, from the JSON results of JMH.
+ * <p>
+ * For each stage and axis, the growth between consecutive scales is given as an exponent relative to the size of the
+ * program in characters: 1 means linear growth, 2 quadratic. Exponents above the threshold are flagged as
+ * super-linear.
+ * <p>
+ * Usage: ScalingReport &lt;results.json&gt; [threshold]
+ */
+public class ScalingReport {
+
+    private static final double DEFAULT_THRESHOLD = 1.25;
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            throw new RuntimeException("Expected the JMH results file, and optionally the super-linear threshold");
+        }
+
+        var results = JsonParser.parseString(SpecsIo.read(new File(args[0]))).getAsJsonArray();
+        double threshold = args.length > 1 ? Double.parseDouble(args[1]) : DEFAULT_THRESHOLD;
+
+        // stage -> axis -> points sorted by scale
+        Map<String, Map<String, TreeMap<Integer, Point>>> curves = new TreeMap<>();
+        for (var element : results) {
+            var result = element.getAsJsonObject();
+            var benchmark = result.get("benchmark").getAsString();
+            if (!benchmark.contains(ScalingBenchmark.class.getSimpleName() + ".")) {
+                continue;
+            }
+
+            var stage = benchmark.substring(benchmark.lastIndexOf('.') + 1);
+            var params = result.getAsJsonObject("params");
+            var axis = params.get("axis").getAsString();
+            int scale = params.get("scale").getAsInt();
+
+            var point = new Point(ScalingState.generator(axis, scale).generate().length(),
+                    result.getAsJsonObject("primaryMetric").get("score").getAsDouble(),
+                    getAllocation(result.getAsJsonObject("secondaryMetrics")));
+
+            curves.computeIfAbsent(stage, key -> new TreeMap<>())
+                    .computeIfAbsent(axis, key -> new TreeMap<>())
+                    .put(scale, point);
+        }
+
+        int superLinear = 0;
+        for (var stage : curves.entrySet()) {
+            for (var axis : stage.getValue().entrySet()) {
+                System.out.printf("%n%s, growing %s%n", stage.getKey(), axis.getKey());
+                System.out.printf("%8s %10s %14s %8s %14s %8s%n", "scale", "chars", "us/op", "exp", "B/op", "exp");
+
+                Point previous = null;
+                for (var entry : axis.getValue().entrySet()) {
+                    var point = entry.getValue();
+                    var timeExponent = previous == null ? Double.NaN :
+                            exponent(previous.time, point.time, previous, point);
+                    var allocExponent = previous == null ? Double.NaN :
+                            exponent(previous.allocated, point.allocated, previous, point);
+
+                    var flagged = timeExponent > threshold || allocExponent > threshold;
+                    superLinear += flagged ? 1 : 0;
+
+                    System.out.printf("%8d %10d %14.1f %8.2f %14.0f %8.2f%s%n", entry.getKey(), point.size, point.time,
+                            timeExponent, point.allocated, allocExponent, flagged ? "  SUPER-LINEAR" : "");
+                    previous = point;
+                }
+            }
+        }
+
+        System.out.printf("%n%d step(s) grow faster than size^%.2f%n", superLinear, threshold);
+    }
+
+    private static double exponent(double from, double to, Point fromPoint, Point toPoint) {
+        if (from <= 0 || to <= 0) {
+            return Double.NaN;
+        }
+
+        return Math.log(to / from) / Math.log((double) toPoint.size / fromPoint.size);
+    }
+
+    private static double getAllocation(JsonObject secondaryMetrics) {
+        // Older JMH versions prefix the name of the metric with a middle dot
+        for (Map.Entry<String, JsonElement> metric : secondaryMetrics.entrySet()) {
+            if (metric.getKey().endsWith("gc.alloc.rate.norm")) {
+                return metric.getValue().getAsJsonObject().get("score").getAsDouble();
+            }
+        }
+
+        return Double.NaN;
+    }
+
+    private static class Point {
+
+        private final int size;
+        private final double time;
+        private final double allocated;
+
+        private Point(int size, double time, double allocated) {
+            this.size = size;
+            this.time = time;
+            this.allocated = allocated;
+        }
+    }
+}
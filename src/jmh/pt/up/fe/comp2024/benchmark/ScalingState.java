@@ -0,0 +1,48 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+
+/**
+ * A generated program that grows along one axis, while the other axes keep their base size.
+ */
+@State(Scope.Benchmark)
+public class ScalingState extends PipelineInputs {
+
+    public static final long SEED = 42;
+
+    private static final int BASE_METHODS = 4;
+    private static final int BASE_STATEMENTS = 8;
+    private static final int BASE_DEPTH = 1;
+    private static final int BASE_LOCALS = 4;
+
+    @Param({"methods", "statements", "depth", "locals"})
+    public String axis;
+
+    @Param({"1", "2", "4", "8"})
+    public int scale;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        prepare(List.of(generator(axis, scale).generate()));
+    }
+
+    /**
+     * @return the generator of the program for the given axis and scale. The expression depth grows linearly with the
+     * scale, so the size of the expressions grows exponentially
+     */
+    public static JmmProgramGenerator generator(String axis, int scale) {
+        return switch (axis) {
+            case "methods" -> new JmmProgramGenerator(SEED, BASE_METHODS * scale, BASE_STATEMENTS, BASE_DEPTH,
+                    BASE_LOCALS);
+            case "statements" -> new JmmProgramGenerator(SEED, BASE_METHODS, BASE_STATEMENTS * scale, BASE_DEPTH,
+                    BASE_LOCALS);
+            case "depth" -> new JmmProgramGenerator(SEED, BASE_METHODS, BASE_STATEMENTS, BASE_DEPTH * scale,
+                    BASE_LOCALS);
+            case "locals" -> new JmmProgramGenerator(SEED, BASE_METHODS, BASE_STATEMENTS, BASE_DEPTH,
+                    BASE_LOCALS * scale);
+            default -> throw new RuntimeException("Unknown scaling axis '" + axis + "'");
+        };
+    }
+}
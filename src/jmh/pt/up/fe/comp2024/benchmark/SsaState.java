@@ -0,0 +1,19 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.specs.comp.ollir.ClassUnit;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+/**
+ * A fresh copy of the OLLIR class of {@link ScalingState} for each call, since SSA conversion changes the methods.
+ */
+@State(Scope.Benchmark)
+public class SsaState extends ScalingState {
+
+    public ClassUnit ollirClass;
+
+    @Setup(Level.Invocation)
+    public void copyClass() {
+        ollirClass = new OllirResult(ollirResults.get(0).getOllirCode(), config).getOllirClass();
+    }
+}
@@ -0,0 +1,69 @@
+package pt.up.fe.comp2024.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.backend.JasminGenerator;
+import pt.up.fe.comp2024.optimization.OllirGeneratorVisitor;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+import pt.up.fe.comp2024.symboltable.JmmSymbolTableBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of each stage of the compiler. One operation processes every program of the input.
+ * <p>
+ * Run with the GC profiler ('gradle jmh' enables it) to also get the allocation rate of each stage.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StageBenchmark {
+
+    @Benchmark
+    public void parse(CompilerState state, Blackhole blackhole) {
+        for (var code : state.codes) {
+            blackhole.consume(new JmmParserImpl().parse(code, state.config));
+        }
+    }
+
+    @Benchmark
+    public void symbolTable(CompilerState state, Blackhole blackhole) {
+        for (var parserResult : state.parserResults) {
+            blackhole.consume(JmmSymbolTableBuilder.build(parserResult.getRootNode()));
+        }
+    }
+
+    @Benchmark
+    public void semanticAnalysis(CompilerState state, Blackhole blackhole) {
+        for (var parserResult : state.parserResults) {
+            blackhole.consume(new JmmAnalysisImpl().semanticAnalysis(parserResult));
+        }
+    }
+
+    @Benchmark
+    public void ollirGeneration(CompilerState state, Blackhole blackhole) {
+        for (var semanticsResult : state.semanticsResults) {
+            var visitor = new OllirGeneratorVisitor(semanticsResult.getSymbolTable());
+            blackhole.consume(visitor.visit(semanticsResult.getRootNode()));
+        }
+    }
+
+    @Benchmark
+    public void jasminGeneration(CompilerState state, Blackhole blackhole) {
+        for (var ollirResult : state.ollirResults) {
+            blackhole.consume(new JasminGenerator(ollirResult).build());
+        }
+    }
+
+    @Benchmark
+    public void fullPipeline(CompilerState state, Blackhole blackhole) {
+        var compiler = new JmmCompiler();
+        for (var code : state.codes) {
+            blackhole.consume(compiler.compile(code, state.config));
+        }
+    }
+}
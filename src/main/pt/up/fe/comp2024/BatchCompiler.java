@@ -0,0 +1,167 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compiles several Java-- files in parallel, on a work-stealing pool.
+ * <p>
+ * Each file is compiled in isolation: it has its own configuration, stage instances and reports, so the results do
+ * not depend on how the files are scheduled.
+ */
+public class BatchCompiler {
+
+    private static final String JMM_EXTENSION = "jmm";
+
+    private final JmmCompiler compiler;
+    private final int parallelism;
+
+    public BatchCompiler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchCompiler(int parallelism) {
+        this(parallelism, new JmmCompiler());
+    }
+
+    public BatchCompiler(int parallelism, JmmCompiler compiler) {
+        this.compiler = compiler;
+        this.parallelism = parallelism;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Compiles the given files.
+     *
+     * @param files  the files to compile
+     * @param config the configuration shared by all files
+     * @return one entry per file, in the same order as the given files
+     */
+    public List<Entry> compile(List<File> files, Map<String, String> config) {
+        var pool = new ForkJoinPool(parallelism);
+
+        try {
+            List<ForkJoinTask<Entry>> tasks = new ArrayList<>();
+            for (File file : files) {
+                tasks.add(pool.submit(() -> compileFile(file, config)));
+            }
+
+            return tasks.stream()
+                    .map(ForkJoinTask::join)
+                    .toList();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private Entry compileFile(File file, Map<String, String> config) {
+        long start = System.nanoTime();
+
+        CompilationResult result;
+        try {
+            String code = SpecsIo.read(file);
+            result = compiler.compile(code, CompilerConfig.withInputFile(config, file));
+        } catch (Exception e) {
+            var report = Report.newError(Stage.OTHER, -1, -1, "Could not compile file: " + e.getMessage(), e);
+            result = new CompilationResult(null, null, null, null, List.of(report));
+        }
+
+        return new Entry(file, result, System.nanoTime() - start);
+    }
+
+    /**
+     * Collects the files of a batch input.
+     *
+     * @param batchInput a directory, which is searched recursively for .jmm files, or a text file with one path per
+     *                   line. In a list file, empty lines and lines starting with '#' are ignored
+     * @return the files to compile
+     */
+    public static List<File> collectFiles(File batchInput) {
+        if (batchInput.isDirectory()) {
+            var files = new ArrayList<>(SpecsIo.getFilesRecursive(batchInput, JMM_EXTENSION));
+            files.sort(Comparator.comparing(File::getPath));
+            return files;
+        }
+
+        var baseFolder = batchInput.getAbsoluteFile().getParentFile();
+        List<File> files = new ArrayList<>();
+        for (String line : SpecsIo.read(batchInput).split("\\R")) {
+            line = line.strip();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            var file = new File(line);
+            files.add(file.isAbsolute() ? file : new File(baseFolder, line));
+        }
+
+        return files;
+    }
+
+    /**
+     * Builds a textual summary of a batch compilation.
+     *
+     * @param entries     the results of the batch
+     * @param elapsedNano the wall time of the whole batch
+     * @return the summary
+     */
+    public String summary(List<Entry> entries, long elapsedNano) {
+        long failed = entries.stream().filter(entry -> entry.getResult().hasErrors()).count();
+        long errors = countReports(entries, ReportType.ERROR);
+        long warnings = countReports(entries, ReportType.WARNING);
+        long compileTime = entries.stream().mapToLong(Entry::getTimeNano).sum();
+
+        return String.format("Compiled %d file(s): %d succeeded, %d failed (%d error(s), %d warning(s)) in %d ms " +
+                        "(%d ms of compilation time, %d thread(s))",
+                entries.size(), entries.size() - failed, failed, errors, warnings,
+                elapsedNano / 1_000_000, compileTime / 1_000_000, parallelism);
+    }
+
+    private static long countReports(List<Entry> entries, ReportType type) {
+        return entries.stream()
+                .flatMap(entry -> entry.getResult().getReports().stream())
+                .filter(report -> report.getType() == type)
+                .count();
+    }
+
+    /**
+     * The result of compiling one file of the batch.
+     */
+    public static class Entry {
+
+        private final File file;
+        private final CompilationResult result;
+        private final long timeNano;
+
+        public Entry(File file, CompilationResult result, long timeNano) {
+            this.file = file;
+            this.result = result;
+            this.timeNano = timeNano;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        public CompilationResult getResult() {
+            return result;
+        }
+
+        public long getTimeNano() {
+            return timeNano;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package pt.up.fe.comp2024;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Output folder of the class files, organized in folders by package (e.g., class 'a/b/C' goes to 'a/b/C.class').
+ * <p>
+ * Classes are collected with {@link #add(String, byte[])} and written together by {@link #flush()}. Classes whose
+ * file already has the same contents are not written, so that their modification date does not change and
+ * incremental builds do not see them as changed.
+ */
+public class ClassOutputFolder {
+
+    private final File folder;
+
+    // Sorted by path, so that classes of the same package are written together
+    private final Map<Path, byte[]> pending;
+
+    private int written;
+    private int unchanged;
+
+    public ClassOutputFolder(File folder) {
+        this.folder = folder;
+        this.pending = new TreeMap<>();
+        this.written = 0;
+        this.unchanged = 0;
+    }
+
+    /**
+     * @return the output folder configured with option '-d', if any
+     */
+    public static Optional<ClassOutputFolder> fromConfig(Map<String, String> config) {
+        return CompilerConfig.getClassFolder(config).map(ClassOutputFolder::new);
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    /**
+     * Adds a class to be written by the next {@link #flush()}.
+     *
+     * @param className  the name of the class, with the package separated by '/' or '.'
+     * @param classBytes the contents of the class file
+     */
+    public synchronized void add(String className, byte[] classBytes) {
+        var relativePath = className.replace('.', '/') + ".class";
+        pending.put(folder.toPath().resolve(relativePath), classBytes);
+    }
+
+    /**
+     * Writes the classes added since the last flush, skipping the ones that did not change.
+     */
+    public synchronized void flush() {
+        Path createdFolder = null;
+
+        for (var entry : pending.entrySet()) {
+            var path = entry.getKey();
+            var bytes = entry.getValue();
+
+            try {
+                if (isUnchanged(path, bytes)) {
+                    unchanged++;
+                    continue;
+                }
+
+                // Classes are sorted by path, so each package folder only needs to be created once
+                var parent = path.getParent();
+                if (!parent.equals(createdFolder)) {
+                    Files.createDirectories(parent);
+                    createdFolder = parent;
+                }
+
+                // Write to a temporary file first, so that readers never see a partial class
+                var tempFile = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+                Files.write(tempFile, bytes);
+                Files.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                written++;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write class file '" + path + "'", e);
+            }
+        }
+
+        pending.clear();
+    }
+
+    private static boolean isUnchanged(Path path, byte[] bytes) throws IOException {
+        if (!Files.isRegularFile(path) || Files.size(path) != bytes.length) {
+            return false;
+        }
+
+        return Arrays.equals(Files.readAllBytes(path), bytes);
+    }
+
+    public synchronized int getWritten() {
+        return written;
+    }
+
+    public synchronized int getUnchanged() {
+        return unchanged;
+    }
+
+    public synchronized String summary() {
+        return String.format("Classes: %d written, %d unchanged in %s", written, unchanged, folder.getAbsolutePath());
+    }
+}
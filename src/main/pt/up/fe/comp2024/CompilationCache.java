@@ -0,0 +1,362 @@
+package pt.up.fe.comp2024;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.backend.BytecodeResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of compilation outputs, addressed by the contents of the input.
+ * <p>
+ * The key of an entry is a hash of the source code, of the options that change the generated code, of the backend and
+ * of the version of the compiler, so entries never need to be invalidated. The cache is bounded in size: when it grows
+ * past the limit, the least recently used entries are removed. Recency survives between runs through the modification
+ * date of the entry files.
+ * <p>
+ * Only compilations without errors are stored. The cache can be shared between threads.
+ */
+public class CompilationCache {
+
+    public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final String ENTRY_EXTENSION = ".json";
+
+    private static final Gson GSON = new Gson();
+
+    private static String compilerVersion;
+
+    private final File folder;
+    private final long maxBytes;
+
+    // Entry key to size in bytes, from least to most recently used
+    private final LinkedHashMap<String, Long> index;
+    private long totalBytes;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public CompilationCache(File folder) {
+        this(folder, DEFAULT_MAX_BYTES);
+    }
+
+    public CompilationCache(File folder, long maxBytes) {
+        this.folder = SpecsIo.mkdir(folder);
+        this.maxBytes = maxBytes;
+        this.index = new LinkedHashMap<>(16, 0.75f, true);
+        this.totalBytes = 0;
+
+        loadIndex();
+    }
+
+    /**
+     * @return the cache configured with option '-c', if any
+     */
+    public static Optional<CompilationCache> fromConfig(Map<String, String> config) {
+        return CompilerConfig.getCacheFolder(config).map(CompilationCache::new);
+    }
+
+    private void loadIndex() {
+        var files = folder.listFiles((dir, name) -> name.endsWith(ENTRY_EXTENSION));
+        if (files == null) {
+            return;
+        }
+
+        Arrays.stream(files)
+                .sorted(Comparator.comparingLong(File::lastModified))
+                .forEach(file -> {
+                    var name = file.getName();
+                    index.put(name.substring(0, name.length() - ENTRY_EXTENSION.length()), file.length());
+                    totalBytes += file.length();
+                });
+    }
+
+    /**
+     * Computes the key of a compilation.
+     *
+     * @param code   the source code
+     * @param config the configuration of the compilation
+     * @return the key, a SHA-256 hash in hexadecimal
+     */
+    public static String key(String code, Map<String, String> config) {
+        var keyContents = String.join("\0",
+                getCompilerVersion(),
+                "optimize=" + CompilerConfig.getOptimize(config),
+                "registerAllocation=" + CompilerConfig.getRegisterAllocation(config),
+                "registerAllocator=" + CompilerConfig.getRegisterAllocator(config),
+                "inline=" + CompilerConfig.getInlineSize(config),
+                "unroll=" + CompilerConfig.getUnrollFactor(config),
+                // Selected at runtime by config.properties, and the backends do not generate the same class files
+                "backend=" + JmmCompiler.getBackendClass().getName(),
+                code);
+
+        return sha256(keyContents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Looks up a compilation in the cache.
+     *
+     * @return the cached entry, or empty if the compilation is not in the cache
+     */
+    public Optional<Entry> get(String key) {
+        synchronized (this) {
+            if (!index.containsKey(key)) {
+                misses++;
+                return Optional.empty();
+            }
+        }
+
+        var file = getFile(key);
+        Entry entry;
+        try {
+            entry = GSON.fromJson(Files.readString(file.toPath()), Entry.class);
+        } catch (IOException | JsonParseException e) {
+            entry = null;
+        }
+
+        synchronized (this) {
+            if (entry == null) {
+                // The entry was evicted by another thread or the file is damaged
+                remove(key);
+                misses++;
+                return Optional.empty();
+            }
+
+            index.get(key);
+            hits++;
+        }
+
+        file.setLastModified(System.currentTimeMillis());
+        return Optional.of(entry);
+    }
+
+    /**
+     * Stores a compilation in the cache, evicting the least recently used entries if the cache becomes too large.
+     */
+    public void put(String key, Entry entry) {
+        var file = getFile(key);
+        var bytes = GSON.toJson(entry).getBytes(StandardCharsets.UTF_8);
+
+        // Write to a temporary file first, so other readers never see a partial entry
+        try {
+            var tempFile = Files.createTempFile(folder.toPath(), key, ".tmp");
+            Files.write(tempFile, bytes);
+            Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write cache entry '" + file + "'", e);
+        }
+
+        synchronized (this) {
+            var previousSize = index.put(key, (long) bytes.length);
+            totalBytes += bytes.length - (previousSize == null ? 0 : previousSize);
+
+            // Always keep the newest entry, even if it is larger than the cache
+            while (totalBytes > maxBytes && index.size() > 1) {
+                remove(index.keySet().iterator().next());
+                evictions++;
+            }
+        }
+    }
+
+    private void remove(String key) {
+        var size = index.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+
+        getFile(key).delete();
+    }
+
+    private File getFile(String key) {
+        return new File(folder, key + ENTRY_EXTENSION);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized String summary() {
+        return String.format("Cache: %d hit(s), %d miss(es), %d eviction(s), %d entries (%d KB of %d KB) in %s",
+                hits, misses, evictions, index.size(), totalBytes / 1024, maxBytes / 1024, folder.getAbsolutePath());
+    }
+
+    /**
+     * The version of the compiler, so that entries created by other versions are not used.
+     * <p>
+     * It is a fingerprint of the compiled classes of the compiler (the jar, or the folder with the class files),
+     * which changes every time the compiler is rebuilt.
+     */
+    static synchronized String getCompilerVersion() {
+        if (compilerVersion == null) {
+            compilerVersion = computeCompilerVersion();
+        }
+
+        return compilerVersion;
+    }
+
+    private static String computeCompilerVersion() {
+        Path location;
+        try {
+            location = Path.of(CompilationCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        } catch (URISyntaxException | NullPointerException | SecurityException e) {
+            return "unknown";
+        }
+
+        var fingerprint = new StringBuilder();
+        try (Stream<Path> files = Files.isDirectory(location) ? Files.walk(location) : Stream.of(location)) {
+            files.filter(Files::isRegularFile)
+                    .sorted()
+                    .forEach(file -> {
+                        var javaFile = file.toFile();
+                        fingerprint.append(location.relativize(file)).append(':')
+                                .append(javaFile.length()).append(':')
+                                .append(javaFile.lastModified()).append('\n');
+                    });
+        } catch (IOException e) {
+            return "unknown";
+        }
+
+        return sha256(fingerprint.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * The outputs of a compilation that are stored in the cache.
+     */
+    public static class Entry {
+
+        private final String className;
+        private final String ollirCode;
+        private final String jasminCode;
+        private final List<CachedReport> reports;
+        private final String classFile;
+
+        public Entry(String className, String ollirCode, String jasminCode, List<Report> reports) {
+            this(className, ollirCode, jasminCode, reports.stream().map(CachedReport::new).toList(), null);
+        }
+
+        private Entry(String className, String ollirCode, String jasminCode, List<CachedReport> reports,
+                      String classFile) {
+            this.className = className;
+            this.ollirCode = ollirCode;
+            this.jasminCode = jasminCode;
+            this.reports = reports;
+            this.classFile = classFile;
+        }
+
+        /**
+         * @return the entry of a compilation that went until the Jasmin stage at least. A class file written by the
+         * bytecode backend is stored instead of its Jasmin code, which is not generated.
+         */
+        public static Entry fromResult(CompilationResult result) {
+            var jasminResult = result.getJasminResult().orElseThrow();
+            var ollirCode = result.getOllirCode().orElseThrow();
+
+            if (jasminResult instanceof BytecodeResult bytecodeResult) {
+                return new Entry(jasminResult.getClassName(), ollirCode, null, result.getReports())
+                        .withClassFile(bytecodeResult.getClassBytes());
+            }
+
+            var entry = new Entry(jasminResult.getClassName(), ollirCode, jasminResult.getJasminCode(),
+                    result.getReports());
+            return result.getClassFile().map(entry::withClassFile).orElse(entry);
+        }
+
+        /**
+         * @return a copy of this entry that also stores the assembled class
+         */
+        public Entry withClassFile(byte[] classBytes) {
+            return new Entry(className, ollirCode, jasminCode, reports, Base64.getEncoder().encodeToString(classBytes));
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        public String getOllirCode() {
+            return ollirCode;
+        }
+
+        /**
+         * @return the Jasmin code, or null if the class file was written by the bytecode backend
+         */
+        public String getJasminCode() {
+            return jasminCode;
+        }
+
+        /**
+         * @return the contents of the .class file, if the class was assembled when the entry was stored
+         */
+        public Optional<byte[]> getClassFile() {
+            return Optional.ofNullable(classFile).map(Base64.getDecoder()::decode);
+        }
+
+        /**
+         * @return the reports (warnings, logs) of the original compilation
+         */
+        public List<Report> getReports() {
+            List<Report> result = new ArrayList<>();
+            for (var report : reports) {
+                result.add(new Report(report.type, report.stage, report.line, report.column, report.message));
+            }
+
+            return result;
+        }
+    }
+
+    private static class CachedReport {
+
+        private final ReportType type;
+        private final Stage stage;
+        private final int line;
+        private final int column;
+        private final String message;
+
+        private CachedReport(Report report) {
+            this.type = report.getType();
+            this.stage = report.getStage();
+            this.line = report.getLine();
+            this.column = report.getColumn();
+            this.message = report.getMessage();
+        }
+    }
+}
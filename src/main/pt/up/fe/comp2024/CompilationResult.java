@@ -0,0 +1,149 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.backend.BytecodeResult;
+import pt.up.fe.comp2024.utils.ReportUtils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Results of running the compiler pipeline over a single Java-- file.
+ * <p>
+ * Stages that were not executed, either because a previous stage reported errors or because of an exception, have no
+ * result.
+ * <p>
+ * Results that come from a {@link CompilationCache} only have the OLLIR code and the Jasmin result.
+ */
+public class CompilationResult {
+
+    private final JmmParserResult parserResult;
+    private final JmmSemanticsResult semanticsResult;
+    private final OllirResult ollirResult;
+    private final JasminResult jasminResult;
+    private final List<Report> reports;
+    private final String cachedOllirCode;
+    private final byte[] classFile;
+    private final CompilerMetrics metrics;
+
+    public CompilationResult(JmmParserResult parserResult,
+                             JmmSemanticsResult semanticsResult,
+                             OllirResult ollirResult,
+                             JasminResult jasminResult,
+                             List<Report> reports) {
+        this(parserResult, semanticsResult, ollirResult, jasminResult, reports, null, null,
+                CompilerMetrics.disabled());
+    }
+
+    private CompilationResult(JmmParserResult parserResult,
+                              JmmSemanticsResult semanticsResult,
+                              OllirResult ollirResult,
+                              JasminResult jasminResult,
+                              List<Report> reports,
+                              String cachedOllirCode,
+                              byte[] classFile,
+                              CompilerMetrics metrics) {
+        this.parserResult = parserResult;
+        this.semanticsResult = semanticsResult;
+        this.ollirResult = ollirResult;
+        this.jasminResult = jasminResult;
+        this.reports = reports;
+        this.cachedOllirCode = cachedOllirCode;
+        this.classFile = classFile;
+        this.metrics = metrics;
+    }
+
+    public static CompilationResult fromCache(CompilationCache.Entry entry, Map<String, String> config) {
+        var reports = entry.getReports();
+        var classFile = entry.getClassFile().orElse(null);
+
+        // Entries of the bytecode backend have the class file instead of the Jasmin code
+        var jasminResult = entry.getJasminCode() == null ?
+                new BytecodeResult(entry.getClassName(), entry.getOllirCode(), classFile, reports, config) :
+                new JasminResult(entry.getClassName(), entry.getJasminCode(), reports, config);
+
+        return new CompilationResult(null, null, null, jasminResult, reports, entry.getOllirCode(), classFile,
+                CompilerMetrics.disabled());
+    }
+
+    /**
+     * @return a copy of this result with the given assembled class, and the given reports
+     */
+    public CompilationResult withClassFile(byte[] classFile, List<Report> reports) {
+        return new CompilationResult(parserResult, semanticsResult, ollirResult, jasminResult, reports,
+                cachedOllirCode, classFile, metrics);
+    }
+
+    /**
+     * @return a copy of this result with the given metrics
+     */
+    public CompilationResult withMetrics(CompilerMetrics metrics) {
+        return new CompilationResult(parserResult, semanticsResult, ollirResult, jasminResult, reports,
+                cachedOllirCode, classFile, metrics);
+    }
+
+    /**
+     * @return the costs of the stages of the compilation, if metrics were enabled
+     */
+    public Optional<CompilerMetrics> getMetrics() {
+        return metrics.isEnabled() ? Optional.of(metrics) : Optional.empty();
+    }
+
+    /**
+     * @return true if the result was taken from a cache, instead of being compiled
+     */
+    public boolean isCached() {
+        return cachedOllirCode != null;
+    }
+
+    public Optional<JmmParserResult> getParserResult() {
+        return Optional.ofNullable(parserResult);
+    }
+
+    public Optional<JmmSemanticsResult> getSemanticsResult() {
+        return Optional.ofNullable(semanticsResult);
+    }
+
+    public Optional<OllirResult> getOllirResult() {
+        return Optional.ofNullable(ollirResult);
+    }
+
+    /**
+     * @return the OLLIR code, either from the OLLIR result or from the cache
+     */
+    public Optional<String> getOllirCode() {
+        if (ollirResult != null) {
+            return Optional.of(ollirResult.getOllirCode());
+        }
+
+        return Optional.ofNullable(cachedOllirCode);
+    }
+
+    public Optional<JasminResult> getJasminResult() {
+        return Optional.ofNullable(jasminResult);
+    }
+
+    /**
+     * @return the contents of the .class file, if the compilation went until the class stage
+     */
+    public Optional<byte[]> getClassFile() {
+        return Optional.ofNullable(classFile);
+    }
+
+    /**
+     * @return the reports of all the stages that were executed
+     */
+    public List<Report> getReports() {
+        return Collections.unmodifiableList(reports);
+    }
+
+    public boolean hasErrors() {
+        return ReportUtils.anyError(reports);
+    }
+}
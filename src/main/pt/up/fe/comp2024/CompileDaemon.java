@@ -0,0 +1,207 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Long-running compiler process that serves compile requests over a loopback socket.
+ * <p>
+ * Keeping the JVM alive avoids paying, for every file, the JVM startup, the deserialization of the ANTLR ATN and the
+ * JIT warm-up of the compiler stages. Each request gets new stage instances, so requests are isolated from each other.
+ * <p>
+ * Protocol (UTF-8, one item per line). The client sends:
+ * <pre>
+ * JMM &lt;token&gt;
+ * &lt;working directory of the client&gt;
+ * &lt;argument 1&gt;
+ * ...
+ * &lt;empty line&gt;
+ * </pre>
+ * The daemon answers with the output of the compiler, each line prefixed with "1 " (standard output) or "2 "
+ * (standard error), followed by a line "X &lt;exit code&gt;".
+ * <p>
+ * The port and the token are written to the file returned by {@link #getPortFile()}, which is readable only by the
+ * user that started the daemon.
+ */
+public class CompileDaemon {
+
+    private static final String PORT_FILE_PROPERTY = "jmm.daemon.portFile";
+    private static final String PORT_FILE_ENV = "JMM_DAEMON_PORT_FILE";
+    private static final String REQUEST_HEADER = "JMM ";
+
+    private static final String WARM_UP_CODE = """
+            class WarmUp {
+                int[] a;
+                public int foo(int x) {
+                    int i;
+                    i = 0;
+                    while (i < x && true) {
+                        i = i + 1 * 2;
+                    }
+                    return i;
+                }
+                public static void main(String[] args) {
+                }
+            }
+            """;
+
+    private final int port;
+    private final String token;
+    private final ExecutorService executor;
+
+    public CompileDaemon(int port) {
+        this.port = port;
+        this.token = newToken();
+
+        // Java 17 has no virtual threads, requests are served by a cached pool of daemon threads
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            var thread = new Thread(runnable, "jmm-daemon-request");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return the file where a running daemon publishes its port and token. Can be changed with the system property
+     * "jmm.daemon.portFile" or the environment variable JMM_DAEMON_PORT_FILE
+     */
+    public static File getPortFile() {
+        var portFile = System.getProperty(PORT_FILE_PROPERTY, System.getenv(PORT_FILE_ENV));
+        if (portFile != null) {
+            return new File(portFile);
+        }
+
+        return new File(new File(System.getProperty("user.home"), ".jmm"), "daemon.port");
+    }
+
+    /**
+     * Starts serving requests. Only returns if the server socket fails.
+     */
+    public void run() {
+        warmUp();
+
+        try (var serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            var portFile = getPortFile();
+            writePortFile(portFile, serverSocket.getLocalPort());
+            Runtime.getRuntime().addShutdownHook(new Thread(portFile::delete));
+
+            System.out.println("Compile daemon listening on " + serverSocket.getLocalSocketAddress()
+                    + " (port file: " + portFile.getAbsolutePath() + ")");
+
+            while (!serverSocket.isClosed()) {
+                var socket = serverSocket.accept();
+                executor.submit(() -> serve(socket));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Compile daemon stopped", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             var out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+
+            var header = in.readLine();
+            if (header == null || !header.equals(REQUEST_HEADER + token)) {
+                reply(out, "", "Invalid request, check the token in " + getPortFile(), 2);
+                return;
+            }
+
+            var workingDir = new File(in.readLine());
+            List<String> args = new ArrayList<>();
+            for (var line = in.readLine(); line != null && !line.isEmpty(); line = in.readLine()) {
+                args.add(line);
+            }
+
+            var buffer = new ByteArrayOutputStream();
+            int exitCode = compile(args.toArray(String[]::new), workingDir, buffer);
+            var output = buffer.toString(StandardCharsets.UTF_8);
+
+            if (exitCode == 0) {
+                reply(out, output, "", exitCode);
+            } else {
+                reply(out, "", output, exitCode);
+            }
+        } catch (Exception e) {
+            // The client went away, nothing else to do
+            System.err.println("Could not serve compile request: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Compiles as if the compiler had been launched with the given arguments in the given folder.
+     *
+     * @return the exit code of the compilation
+     */
+    int compile(String[] args, File workingDir, OutputStream output) {
+        var out = new PrintStream(output, true, StandardCharsets.UTF_8);
+
+        try {
+            var config = CompilerConfig.parseArgs(args, workingDir);
+            if (CompilerConfig.isDaemon(config)) {
+                throw new RuntimeException("Option '-s' cannot be sent to a running daemon");
+            }
+
+            Launcher.compile(config, out);
+            return 0;
+        } catch (Exception e) {
+            e.printStackTrace(out);
+            return 1;
+        }
+    }
+
+    private static void reply(PrintWriter out, String stdout, String stderr, int exitCode) {
+        stdout.lines().forEach(line -> out.append("1 ").append(line).append('\n'));
+        stderr.lines().forEach(line -> out.append("2 ").append(line).append('\n'));
+        out.append("X ").append(String.valueOf(exitCode)).append('\n');
+        out.flush();
+    }
+
+    /**
+     * Runs every stage once, so that the first request does not pay for class loading and parser initialization.
+     */
+    private static void warmUp() {
+        var result = new JmmCompiler().compile(WARM_UP_CODE, CompilerConfig.getDefault());
+        if (result.hasErrors()) {
+            System.err.println("Warm-up compilation failed: " + result.getReports());
+        }
+    }
+
+    private void writePortFile(File portFile, int localPort) throws IOException {
+        SpecsIo.mkdir(portFile.getParentFile());
+
+        var path = portFile.toPath();
+        Files.deleteIfExists(path);
+        Files.createFile(path);
+
+        try {
+            Files.setPosixFilePermissions(path, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system, keep the default permissions
+        }
+
+        Files.writeString(path, localPort + " " + token + "\n");
+    }
+
+    private static String newToken() {
+        var bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+}
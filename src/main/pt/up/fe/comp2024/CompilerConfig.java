@@ -1,5 +1,7 @@
 package pt.up.fe.comp2024;
 
+import pt.up.fe.specs.util.SpecsIo;
+
 import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
@@ -10,6 +12,22 @@ public class CompilerConfig {
     private static final String INPUT_FILE = "inputFile";
     private static final String OPTIMIZE = "optimize";
     private static final String REGISTER = "registerAllocation";
+    private static final String ALLOCATOR = "registerAllocator";
+    private static final String INLINE = "inline";
+    private static final String UNROLL = "unroll";
+    private static final String BATCH = "batchInput";
+    private static final String DAEMON = "daemon";
+    private static final String CACHE = "cacheFolder";
+    private static final String METRICS = "metrics";
+    private static final String STOP_AFTER = "stopAfter";
+    private static final String QUIET = "quiet";
+    private static final String DUMP_FOLDER = "dumpFolder";
+    private static final String CLASS_FOLDER = "classFolder";
+
+    public static final String COLORING_ALLOCATOR = "coloring";
+    public static final String LINEAR_SCAN_ALLOCATOR = "linear";
+    public static final int DEFAULT_INLINE_SIZE = 12;
+    public static final int DEFAULT_UNROLL_FACTOR = 4;
 
 
     static Map<String, String> shortToLong = new HashMap<>();
@@ -18,6 +36,17 @@ public class CompilerConfig {
         shortToLong.put("i", CompilerConfig.INPUT_FILE);
         shortToLong.put("o", CompilerConfig.OPTIMIZE);
         shortToLong.put("r", CompilerConfig.REGISTER);
+        shortToLong.put("b", CompilerConfig.BATCH);
+        shortToLong.put("s", CompilerConfig.DAEMON);
+        shortToLong.put("c", CompilerConfig.CACHE);
+        shortToLong.put("m", CompilerConfig.METRICS);
+        shortToLong.put("t", CompilerConfig.STOP_AFTER);
+        shortToLong.put("q", CompilerConfig.QUIET);
+        shortToLong.put("w", CompilerConfig.DUMP_FOLDER);
+        shortToLong.put("d", CompilerConfig.CLASS_FOLDER);
+        shortToLong.put("a", CompilerConfig.ALLOCATOR);
+        shortToLong.put("l", CompilerConfig.INLINE);
+        shortToLong.put("u", CompilerConfig.UNROLL);
     }
 
 
@@ -32,6 +61,117 @@ public class CompilerConfig {
         return Optional.of(new File(inputFile));
     }
 
+    /**
+     * Batch input, either a directory that is searched recursively for .jmm files, or a text file with one path per
+     * line (relative paths are resolved against the folder of the list file).
+     */
+    public static Optional<File> getBatchInput(Map<String, String> config) {
+        var batchInput = config.get(BATCH);
+
+        if (batchInput == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new File(batchInput));
+    }
+
+    public static boolean isBatch(Map<String, String> config) {
+        return config.containsKey(BATCH);
+    }
+
+    /**
+     * Returns a copy of the given configuration that compiles the given file.
+     */
+    public static Map<String, String> withInputFile(Map<String, String> config, File inputFile) {
+        var fileConfig = new HashMap<>(config);
+        fileConfig.remove(BATCH);
+        fileConfig.put(INPUT_FILE, inputFile.getAbsolutePath());
+
+        return fileConfig;
+    }
+
+    /**
+     * Folder of the compilation cache, if enabled.
+     */
+    public static Optional<File> getCacheFolder(Map<String, String> config) {
+        var cacheFolder = config.get(CACHE);
+
+        if (cacheFolder == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new File(cacheFolder));
+    }
+
+    public static boolean isMetrics(Map<String, String> config) {
+        return config.containsKey(METRICS);
+    }
+
+    /**
+     * File where the metrics are written as JSON. If metrics are enabled without a file, they are printed.
+     */
+    public static Optional<File> getMetricsFile(Map<String, String> config) {
+        var metricsFile = config.get(METRICS);
+
+        if (metricsFile == null || metricsFile.equals("true")) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new File(metricsFile));
+    }
+
+    /**
+     * @return the last stage that is executed (by default, Jasmin generation)
+     */
+    public static CompilerStage getStopAfter(Map<String, String> config) {
+        return CompilerStage.fromName(config.getOrDefault(STOP_AFTER, CompilerStage.JASMIN.getName()));
+    }
+
+    /**
+     * @return true if the AST, OLLIR and Jasmin code should not be printed
+     */
+    public static boolean isQuiet(Map<String, String> config) {
+        return config.containsKey(QUIET);
+    }
+
+    /**
+     * Folder where the AST, OLLIR and Jasmin code are written, instead of being printed.
+     */
+    public static Optional<File> getDumpFolder(Map<String, String> config) {
+        var dumpFolder = config.get(DUMP_FOLDER);
+
+        if (dumpFolder == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new File(dumpFolder));
+    }
+
+    /**
+     * Folder where the class files are written, organized by package.
+     */
+    public static Optional<File> getClassFolder(Map<String, String> config) {
+        var classFolder = config.get(CLASS_FOLDER);
+
+        if (classFolder == null) {
+            return Optional.empty();
+        }
+
+        return Optional.of(new File(classFolder));
+    }
+
+    public static boolean isDaemon(Map<String, String> config) {
+        return config.containsKey(DAEMON);
+    }
+
+    /**
+     * @return the port the compile daemon listens on, or 0 if any free port can be used
+     */
+    public static int getDaemonPort(Map<String, String> config) {
+        var port = config.getOrDefault(DAEMON, "true");
+        return port.equals("true") ? 0 : Integer.parseInt(port);
+    }
+
     public static boolean getOptimize(Map<String, String> config) {
         return Boolean.parseBoolean(config.getOrDefault(OPTIMIZE, "false"));
     }
@@ -40,6 +180,60 @@ public class CompilerConfig {
         return Integer.parseInt(config.getOrDefault(REGISTER, "-1"));
     }
 
+    /**
+     * @return the strategy used to allocate registers with '-r', either graph coloring (the default) or linear scan
+     */
+    public static String getRegisterAllocator(Map<String, String> config) {
+        var allocator = config.getOrDefault(ALLOCATOR, COLORING_ALLOCATOR);
+
+        if (!allocator.equals(COLORING_ALLOCATOR) && !allocator.equals(LINEAR_SCAN_ALLOCATOR)) {
+            throw new RuntimeException("Unknown register allocator '" + allocator + "', expected '"
+                    + COLORING_ALLOCATOR + "' or '" + LINEAR_SCAN_ALLOCATOR + "'");
+        }
+
+        return allocator;
+    }
+
+    /**
+     * @return the most OLLIR instructions a method can have to be inlined with '-l', or -1 if no method is inlined
+     */
+    public static int getInlineSize(Map<String, String> config) {
+        var size = config.get(INLINE);
+
+        if (size == null) {
+            return -1;
+        }
+
+        if (size.equals("true")) {
+            return DEFAULT_INLINE_SIZE;
+        }
+
+        int maxSize = Integer.parseInt(size);
+        if (maxSize < 0) {
+            throw new RuntimeException("Option '-l' expects a number of instructions, e.g. '-l=20'");
+        }
+
+        return maxSize;
+    }
+
+    /**
+     * @return the number of times '-o' repeats the body of a long counted loop, which '-u=1' turns off
+     */
+    public static int getUnrollFactor(Map<String, String> config) {
+        var factor = config.get(UNROLL);
+
+        if (factor == null || factor.equals("true")) {
+            return DEFAULT_UNROLL_FACTOR;
+        }
+
+        int unrollFactor = Integer.parseInt(factor);
+        if (unrollFactor < 1) {
+            throw new RuntimeException("Option '-u' expects a positive unroll factor, e.g. '-u=8'");
+        }
+
+        return unrollFactor;
+    }
+
 
     public static Map<String, String> getDefault() {
 
@@ -62,6 +256,17 @@ public class CompilerConfig {
     }
 
     public static Map<String, String> parseArgs(String[] args) {
+        return parseArgs(args, SpecsIo.getWorkingDir());
+    }
+
+    /**
+     * Parses the command-line arguments, resolving relative paths against the given folder.
+     *
+     * @param args       the command-line arguments
+     * @param workingDir the folder relative paths are relative to
+     * @return the configuration
+     */
+    public static Map<String, String> parseArgs(String[] args, File workingDir) {
 
         // default options for config
         var config = getDefault();
@@ -89,26 +294,93 @@ public class CompilerConfig {
             config.put(getLongOpt(shortOption), value);
         }
 
-        if (!config.containsKey(INPUT_FILE)) {
+        if (config.containsKey(DAEMON)) {
+            if (config.containsKey(INPUT_FILE) || config.containsKey(BATCH)) {
+                throw new RuntimeException("Option '-s' does not accept input files, they are sent by the clients");
+            }
+        } else if (config.containsKey(BATCH)) {
+            if (config.containsKey(INPUT_FILE)) {
+                throw new RuntimeException("Options '-i' and '-b' cannot be used together");
+            }
+
+            var batchInput = resolve(workingDir, config.get(BATCH));
+            if (!batchInput.exists()) {
+                throw new RuntimeException("Could not find batch input '" + batchInput + "'");
+            }
+
+            config.put(BATCH, batchInput.getAbsolutePath());
+        } else {
+            if (!config.containsKey(INPUT_FILE)) {
+
+                throw new RuntimeException("Expected an input file, use '-i=<PATH_TO_FILE>' or '-b=<DIR_OR_LIST>'");
+            }
+
+            // make sure we save the absolute path of the input file
+            var inputFile = resolve(workingDir, config.get(INPUT_FILE));
+            if (!inputFile.isFile()) {
+                throw new RuntimeException("Could not find input file '" + inputFile + "'");
+            }
+
+            var absolutePath = inputFile.getAbsolutePath();
+            config.put(INPUT_FILE, absolutePath);
+        }
+
+        if (config.containsKey(CACHE)) {
+            if (config.get(CACHE).equals("true")) {
+                throw new RuntimeException("Option '-c' expects a folder, e.g. '-c=.jmmcache'");
+            }
+
+            config.put(CACHE, resolve(workingDir, config.get(CACHE)).getAbsolutePath());
+        }
 
-            throw new RuntimeException("Expected an input file, use '-i=<PATH_TO_FILE>'");
+        if (getMetricsFile(config).isPresent()) {
+            config.put(METRICS, resolve(workingDir, config.get(METRICS)).getAbsolutePath());
         }
 
-        // make sure we save the absolute path of the input file
-        var inputFile = new File(config.get(INPUT_FILE));
-        if (!inputFile.isFile()) {
-            throw new RuntimeException("Could not find input file '" + inputFile + "'");
+        if (config.containsKey(DUMP_FOLDER)) {
+            if (config.get(DUMP_FOLDER).equals("true")) {
+                throw new RuntimeException("Option '-w' expects a folder, e.g. '-w=out'");
+            }
+
+            if (config.containsKey(QUIET)) {
+                throw new RuntimeException("Options '-q' and '-w' cannot be used together");
+            }
+
+            config.put(DUMP_FOLDER, resolve(workingDir, config.get(DUMP_FOLDER)).getAbsolutePath());
         }
 
-        var absolutePath = inputFile.getAbsolutePath();
-        config.put(INPUT_FILE, absolutePath);
+        if (config.containsKey(CLASS_FOLDER)) {
+            if (config.get(CLASS_FOLDER).equals("true")) {
+                throw new RuntimeException("Option '-d' expects a folder, e.g. '-d=classes'");
+            }
+
+            // Writing classes needs the class stage
+            var stopAfter = config.putIfAbsent(STOP_AFTER, CompilerStage.CLASS.getName());
+            if (stopAfter != null && CompilerStage.fromName(stopAfter) != CompilerStage.CLASS) {
+                throw new RuntimeException("Option '-d' cannot be used with '-t=" + stopAfter + "'");
+            }
+
+            config.put(CLASS_FOLDER, resolve(workingDir, config.get(CLASS_FOLDER)).getAbsolutePath());
+        }
 
         // Verify if values are valid
         getOptimize(config);
         getRegisterAllocation(config);
+        getRegisterAllocator(config);
+        getInlineSize(config);
+        getUnrollFactor(config);
+        getDaemonPort(config);
+        getStopAfter(config);
 
         return config;
     }
 
+    private static File resolve(File workingDir, String path) {
+        var file = new File(path);
+        var resolved = file.isAbsolute() ? file : new File(workingDir, path);
+
+        return resolved.toPath().toAbsolutePath().normalize().toFile();
+    }
+
 
 }
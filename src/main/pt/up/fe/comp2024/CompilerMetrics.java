@@ -0,0 +1,199 @@
+package pt.up.fe.comp2024;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Records the wall time, CPU time and allocated bytes of the stages of a compilation.
+ * <p>
+ * Measurements can be nested (e.g., the analysis passes inside the semantic analysis stage). Values are measured on
+ * the current thread, so an instance must only be used by the thread running the compilation. CPU time and allocated
+ * bytes are -1 if the JVM does not support measuring them.
+ */
+public class CompilerMetrics {
+
+    private static final CompilerMetrics DISABLED = new CompilerMetrics(false);
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final boolean enabled;
+    private final List<Measurement> stages;
+    private final Deque<Measurement> open;
+
+    private CompilerMetrics(boolean enabled) {
+        this.enabled = enabled;
+        this.stages = new ArrayList<>();
+        this.open = new ArrayDeque<>();
+    }
+
+    public CompilerMetrics() {
+        this(true);
+    }
+
+    /**
+     * @return metrics that measure nothing, for when metrics are not requested
+     */
+    public static CompilerMetrics disabled() {
+        return DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Runs the given code, recording its costs under the given name.
+     *
+     * @param name the name of the stage or pass
+     * @param code the code to measure
+     * @return the value returned by the code
+     */
+    public <T> T measure(String name, Supplier<T> code) {
+        if (!enabled) {
+            return code.get();
+        }
+
+        var measurement = new Measurement(name);
+        var parent = open.peek();
+        if (parent == null) {
+            stages.add(measurement);
+        } else {
+            parent.passes.add(measurement);
+        }
+
+        open.push(measurement);
+        var threadBean = getThreadBean();
+        long cpuStart = getCpuTime(threadBean);
+        long allocatedStart = getAllocatedBytes(threadBean);
+        long wallStart = System.nanoTime();
+
+        try {
+            return code.get();
+        } finally {
+            measurement.wallTimeNs = System.nanoTime() - wallStart;
+            measurement.cpuTimeNs = difference(getCpuTime(threadBean), cpuStart);
+            measurement.allocatedBytes = difference(getAllocatedBytes(threadBean), allocatedStart);
+            open.pop();
+        }
+    }
+
+    /**
+     * @return the measurements of the top-level stages, in the order they were executed
+     */
+    public List<Measurement> getStages() {
+        return stages;
+    }
+
+    /**
+     * Converts the measurements to JSON.
+     *
+     * @param file the file that was compiled, or null
+     * @return a JSON object with the compiler version, the file and the measured stages
+     */
+    public String toJson(String file) {
+        return GSON.toJson(toReport(file));
+    }
+
+    /**
+     * Converts the measurements of several compilations to a JSON array.
+     */
+    public static String toJson(List<String> files, List<CompilerMetrics> metrics) {
+        List<MetricsReport> reports = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            reports.add(metrics.get(i).toReport(files.get(i)));
+        }
+
+        return GSON.toJson(reports);
+    }
+
+    private MetricsReport toReport(String file) {
+        return new MetricsReport(CompilationCache.getCompilerVersion(), file, stages);
+    }
+
+    private static ThreadMXBean getThreadBean() {
+        return ManagementFactory.getThreadMXBean();
+    }
+
+    private static long getCpuTime(ThreadMXBean threadBean) {
+        if (!threadBean.isCurrentThreadCpuTimeSupported()) {
+            return -1;
+        }
+
+        return threadBean.getCurrentThreadCpuTime();
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean threadBean) {
+        if (!(threadBean instanceof com.sun.management.ThreadMXBean sunThreadBean)
+                || !sunThreadBean.isThreadAllocatedMemorySupported()) {
+            return -1;
+        }
+
+        return sunThreadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long difference(long end, long start) {
+        return end < 0 || start < 0 ? -1 : end - start;
+    }
+
+    /**
+     * The costs of one stage or pass.
+     */
+    public static class Measurement {
+
+        private final String name;
+        private long wallTimeNs;
+        private long cpuTimeNs;
+        private long allocatedBytes;
+        private final List<Measurement> passes;
+
+        private Measurement(String name) {
+            this.name = name;
+            this.passes = new ArrayList<>();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getWallTimeNs() {
+            return wallTimeNs;
+        }
+
+        public long getCpuTimeNs() {
+            return cpuTimeNs;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return the measurements nested in this one
+         */
+        public List<Measurement> getPasses() {
+            return passes;
+        }
+    }
+
+    // Layout of the JSON output
+    private static class MetricsReport {
+
+        private final String compilerVersion;
+        private final String file;
+        private final List<Measurement> stages;
+
+        private MetricsReport(String compilerVersion, String file, List<Measurement> stages) {
+            this.compilerVersion = compilerVersion;
+            this.file = file;
+            this.stages = stages;
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package pt.up.fe.comp2024;
+
+/**
+ * The stages of the compiler, in the order they are executed.
+ */
+public enum CompilerStage {
+
+    PARSE("parse"),
+    SEMANTIC("semantic"),
+    OLLIR("ollir"),
+    JASMIN("jasmin"),
+    CLASS("class");
+
+    private final String name;
+
+    CompilerStage(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if this stage runs when the compilation stops after the given stage
+     */
+    public boolean runsUntil(CompilerStage lastStage) {
+        return compareTo(lastStage) <= 0;
+    }
+
+    public static CompilerStage fromName(String name) {
+        for (var stage : values()) {
+            if (stage.name.equals(name)) {
+                return stage;
+            }
+        }
+
+        throw new RuntimeException("Unknown stage '" + name
+                + "', expected one of parse, semantic, ollir, jasmin, class");
+    }
+}
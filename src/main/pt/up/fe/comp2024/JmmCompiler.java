@@ -0,0 +1,195 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.parser.JmmParserResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
+import pt.up.fe.comp2024.backend.JasminAssembler;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.backend.BytecodeResult;
+import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
+import pt.up.fe.comp2024.parser.JmmParserImpl;
+import pt.up.fe.comp2024.utils.ReportUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Runs the compiler pipeline (parsing, semantic analysis, OLLIR generation and optimization, Jasmin generation and,
+ * optionally, assembling) over a single Java-- program, up to the stage selected with option '-t'.
+ * <p>
+ * Each call to {@link #compile(String, Map)} uses new stage instances, so that a JmmCompiler can be shared between
+ * threads compiling different files.
+ * <p>
+ * When a {@link CompilationCache} is given, programs that were already compiled with the same options are not
+ * compiled again.
+ * <p>
+ * The backend is the class named by the property 'BackendClass' of the file config.properties in the working
+ * directory. Without that file, the {@link JasminBackendImpl} is used.
+ */
+public class JmmCompiler {
+
+    private static final String CONFIG_FILE = "config.properties";
+    private static final String BACKEND_PROPERTY = "BackendClass";
+
+    private static Class<?> backendClass;
+
+    private final CompilationCache cache;
+
+    public JmmCompiler() {
+        this(null);
+    }
+
+    public JmmCompiler(CompilationCache cache) {
+        this.cache = cache;
+    }
+
+    public Optional<CompilationCache> getCache() {
+        return Optional.ofNullable(cache);
+    }
+
+    public CompilationResult compile(String code, Map<String, String> config) {
+        var metrics = CompilerConfig.isMetrics(config) ? new CompilerMetrics() : CompilerMetrics.disabled();
+
+        return compile(code, config, metrics).withMetrics(metrics);
+    }
+
+    private CompilationResult compile(String code, Map<String, String> config, CompilerMetrics metrics) {
+        var lastStage = CompilerConfig.getStopAfter(config);
+
+        // Only complete compilations are cached
+        if (cache == null || !CompilerStage.JASMIN.runsUntil(lastStage)) {
+            return assemble(compileStages(code, config, lastStage, metrics), lastStage, metrics);
+        }
+
+        var key = CompilationCache.key(code, config);
+        var cached = metrics.measure("cacheLookup", () -> cache.get(key));
+        if (cached.isPresent()) {
+            var result = CompilationResult.fromCache(cached.get(), config);
+            if (lastStage != CompilerStage.CLASS || result.getClassFile().isPresent()) {
+                return result;
+            }
+
+            // Entries stored by a compilation that stopped at Jasmin do not have the class yet
+            result = assemble(result, lastStage, metrics);
+            result.getClassFile().ifPresent(classFile -> cache.put(key, cached.get().withClassFile(classFile)));
+            return result;
+        }
+
+        var result = assemble(compileStages(code, config, lastStage, metrics), lastStage, metrics);
+        if (!result.hasErrors() && result.getJasminResult().isPresent()) {
+            cache.put(key, CompilationCache.Entry.fromResult(result));
+        }
+
+        return result;
+    }
+
+    private CompilationResult assemble(CompilationResult result, CompilerStage lastStage, CompilerMetrics metrics) {
+        if (lastStage != CompilerStage.CLASS || result.hasErrors() || result.getJasminResult().isEmpty()) {
+            return result;
+        }
+
+        var jasminResult = result.getJasminResult().get();
+        try {
+            // The bytecode backend already wrote the class file
+            var classFile = jasminResult instanceof BytecodeResult bytecodeResult ? bytecodeResult.getClassBytes() :
+                    metrics.measure("assemble",
+                            () -> JasminAssembler.assemble(jasminResult.getClassName(), jasminResult.getJasminCode()));
+            return result.withClassFile(classFile, result.getReports());
+        } catch (Exception e) {
+            List<Report> reports = new ArrayList<>(result.getReports());
+            reports.add(Report.newError(Stage.GENERATION, -1, -1, e.getMessage(), e));
+            return result.withClassFile(null, reports);
+        }
+    }
+
+    private CompilationResult compileStages(String code, Map<String, String> config, CompilerStage lastStage,
+                                            CompilerMetrics metrics) {
+        JmmParserResult parserResult = null;
+        JmmSemanticsResult semanticsResult = null;
+        OllirResult ollirResult = null;
+        JasminResult jasminResult = null;
+        List<Report> reports = new ArrayList<>();
+
+        try {
+            // Parsing stage
+            parserResult = metrics.measure("parse", () -> new JmmParserImpl().parse(code, config));
+            reports = parserResult.getReports();
+            if (ReportUtils.anyError(reports) || lastStage == CompilerStage.PARSE) {
+                return new CompilationResult(parserResult, null, null, null, reports);
+            }
+
+            // Semantic Analysis stage
+            var parsed = parserResult;
+            semanticsResult = metrics.measure("semanticAnalysis",
+                    () -> new JmmAnalysisImpl(metrics).semanticAnalysis(parsed));
+            reports = semanticsResult.getReports();
+            if (ReportUtils.anyError(reports) || lastStage == CompilerStage.SEMANTIC) {
+                return new CompilationResult(parserResult, semanticsResult, null, null, reports);
+            }
+
+            // Optimization stage
+            var optimization = new JmmOptimizationImpl();
+            var analysed = semanticsResult;
+            semanticsResult = metrics.measure("optimizeAst", () -> optimization.optimize(analysed));
+            var optimizedAst = semanticsResult;
+            var ollir = metrics.measure("toOllir", () -> optimization.toOllir(optimizedAst));
+            ollirResult = metrics.measure("optimizeOllir", () -> optimization.optimize(ollir));
+            reports = ollirResult.getReports();
+            if (ReportUtils.anyError(reports) || lastStage == CompilerStage.OLLIR) {
+                return new CompilationResult(parserResult, semanticsResult, ollirResult, null, reports);
+            }
+
+            // Code generation stage
+            var optimizedOllir = ollirResult;
+            jasminResult = metrics.measure("toJasmin", () -> newBackend().toJasmin(optimizedOllir));
+            reports = jasminResult.getReports();
+
+        } catch (Exception e) {
+            reports = new ArrayList<>(reports);
+            reports.add(Report.newError(Stage.OTHER, -1, -1, "Exception during compilation: " + e.getMessage(), e));
+        }
+
+        return new CompilationResult(parserResult, semanticsResult, ollirResult, jasminResult, reports);
+    }
+
+    private static JasminBackend newBackend() {
+        var backend = getBackendClass();
+        try {
+            return (JasminBackend) backend.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new RuntimeException("Could not instantiate JasminBackend from class '" + backend.getName() + "'", e);
+        }
+    }
+
+    /**
+     * @return the backend class named in config.properties, loaded once for every compilation
+     */
+    static synchronized Class<?> getBackendClass() {
+        if (backendClass != null) {
+            return backendClass;
+        }
+
+        String backendClassName = JasminBackendImpl.class.getName();
+        if (new File(CONFIG_FILE).isFile()) {
+            backendClassName = TestUtils.loadProperties(CONFIG_FILE).getProperty(BACKEND_PROPERTY, backendClassName);
+        }
+
+        try {
+            backendClass = Class.forName(backendClassName.strip());
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException("Backend class '" + backendClassName + "' of " + CONFIG_FILE + " does not exist",
+                    e);
+        }
+
+        return backendClass;
+    }
+}
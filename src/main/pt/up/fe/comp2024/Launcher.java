@@ -1,17 +1,12 @@
 package pt.up.fe.comp2024;
 
 import pt.up.fe.comp.TestUtils;
-import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
-import pt.up.fe.comp.jmm.jasmin.JasminResult;
-import pt.up.fe.comp.jmm.ollir.OllirResult;
-import pt.up.fe.comp.jmm.parser.JmmParserResult;
-import pt.up.fe.comp2024.analysis.JmmAnalysisImpl;
-import pt.up.fe.comp2024.backend.JasminBackendImpl;
-import pt.up.fe.comp2024.optimization.JmmOptimizationImpl;
-import pt.up.fe.comp2024.parser.JmmParserImpl;
 import pt.up.fe.specs.util.SpecsIo;
 import pt.up.fe.specs.util.SpecsSystem;
 
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 public class Launcher {
@@ -21,41 +16,103 @@ public class Launcher {
 
         Map<String, String> config = CompilerConfig.parseArgs(args);
 
+        if (CompilerConfig.isDaemon(config)) {
+            new CompileDaemon(CompilerConfig.getDaemonPort(config)).run();
+            return;
+        }
+
+        compile(config, System.out);
+    }
+
+    /**
+     * Compiles the input of the given configuration, printing the results to the given stream.
+     *
+     * @param config the configuration, as returned by {@link CompilerConfig#parseArgs(String[])}
+     * @param out    where the results are printed
+     */
+    public static void compile(Map<String, String> config, PrintStream out) {
+        var compiler = new JmmCompiler(CompilationCache.fromConfig(config).orElse(null));
+
+        try {
+            if (CompilerConfig.isBatch(config)) {
+                compileBatch(config, compiler, out);
+            } else {
+                compileFile(config, compiler, out);
+            }
+        } finally {
+            compiler.getCache().ifPresent(cache -> out.println(cache.summary()));
+        }
+    }
+
+    private static void compileFile(Map<String, String> config, JmmCompiler compiler, PrintStream out) {
         var inputFile = CompilerConfig.getInputFile(config).orElseThrow();
         if (!inputFile.isFile()) {
-            throw new RuntimeException("Option '-i' expects a path to an existing input file, got '" + args[0] + "'.");
+            throw new RuntimeException("Option '-i' expects a path to an existing input file, got '" + inputFile
+                    + "'.");
         }
         String code = SpecsIo.read(inputFile);
 
-        // Parsing stage
-        JmmParserImpl parser = new JmmParserImpl();
-        JmmParserResult parserResult = parser.parse(code, config);
-        TestUtils.noErrors(parserResult.getReports());
+        CompilationResult result = compiler.compile(code, config);
+        result.getMetrics().ifPresent(metrics -> writeMetrics(config, metrics.toJson(inputFile.getPath()), out));
+        TestUtils.noErrors(result.getReports());
 
-        // Print AST
-        System.out.println(parserResult.getRootNode().toTree());
+        var outputWriter = new OutputWriter(config, out);
+        outputWriter.write(inputFile, result, true);
+        outputWriter.flush();
+    }
 
-        // Semantic Analysis stage
-        JmmAnalysisImpl sema = new JmmAnalysisImpl();
-        JmmSemanticsResult semanticsResult = sema.semanticAnalysis(parserResult);
-        TestUtils.noErrors(semanticsResult.getReports());
+    private static void writeMetrics(Map<String, String> config, String json, PrintStream out) {
+        var metricsFile = CompilerConfig.getMetricsFile(config);
+        if (metricsFile.isPresent()) {
+            SpecsIo.write(metricsFile.get(), json);
+        } else {
+            out.println(json);
+        }
+    }
+
+    private static void compileBatch(Map<String, String> config, JmmCompiler compiler, PrintStream out) {
+        var files = BatchCompiler.collectFiles(CompilerConfig.getBatchInput(config).orElseThrow());
+        var batchCompiler = new BatchCompiler(Runtime.getRuntime().availableProcessors(), compiler);
+
+        long start = System.nanoTime();
+        var entries = batchCompiler.compile(files, config);
+        long elapsed = System.nanoTime() - start;
 
+        // Reports are printed per file, in the order of the input. In quiet mode, only failures are printed
+        var outputWriter = new OutputWriter(config, out);
+        var quiet = CompilerConfig.isQuiet(config);
+        for (var entry : entries) {
+            var result = entry.getResult();
+            if (!quiet || result.hasErrors()) {
+                out.println((result.hasErrors() ? "[FAILED] " : "[OK] ") + entry.getFile().getPath());
+                result.getReports().forEach(report -> out.println("    " + report));
+            }
 
-        // Optimization stage
-        JmmOptimizationImpl ollirGen = new JmmOptimizationImpl();
-        OllirResult ollirResult = ollirGen.toOllir(semanticsResult);
-        TestUtils.noErrors(ollirResult.getReports());
+            if (!result.hasErrors()) {
+                outputWriter.write(entry.getFile(), result, false);
+            }
+        }
+
+        outputWriter.flush();
+        out.println(batchCompiler.summary(entries, elapsed));
 
-        // Print OLLIR code
-        System.out.println(ollirResult.getOllirCode());
+        if (CompilerConfig.isMetrics(config)) {
+            List<String> metricsFiles = new ArrayList<>();
+            List<CompilerMetrics> metrics = new ArrayList<>();
+            for (var entry : entries) {
+                entry.getResult().getMetrics().ifPresent(fileMetrics -> {
+                    metricsFiles.add(entry.getFile().getPath());
+                    metrics.add(fileMetrics);
+                });
+            }
 
-        // Code generation stage
-        JasminBackendImpl jasminGen = new JasminBackendImpl();
-        JasminResult jasminResult = jasminGen.toJasmin(ollirResult);
-        TestUtils.noErrors(jasminResult.getReports());
+            writeMetrics(config, CompilerMetrics.toJson(metricsFiles, metrics), out);
+        }
 
-        // Print Jasmin code
-        System.out.println(jasminResult.getJasminCode());
+        long failed = entries.stream().filter(entry -> entry.getResult().hasErrors()).count();
+        if (failed > 0) {
+            throw new RuntimeException(failed + " of " + entries.size() + " file(s) failed to compile");
+        }
     }
 
 }
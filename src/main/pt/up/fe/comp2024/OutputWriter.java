@@ -0,0 +1,90 @@
+package pt.up.fe.comp2024;
+
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Prints, or writes to files, the outputs of a compilation (AST, OLLIR code, Jasmin code and class file).
+ * <p>
+ * Outputs are only built when they are used: with option '-q' the textual dumps are never produced, and with option
+ * '-w' they are written to files instead of being printed. With option '-d', class files are written to the given
+ * folder when {@link #flush()} is called.
+ */
+public class OutputWriter {
+
+    private final boolean quiet;
+    private final File dumpFolder;
+    private final ClassOutputFolder classOutput;
+    private final PrintStream out;
+
+    public OutputWriter(Map<String, String> config, PrintStream out) {
+        this.quiet = CompilerConfig.isQuiet(config);
+        this.dumpFolder = CompilerConfig.getDumpFolder(config).orElse(null);
+        this.classOutput = ClassOutputFolder.fromConfig(config).orElse(null);
+        this.out = out;
+    }
+
+    /**
+     * Writes the outputs of the stages that were executed.
+     *
+     * @param inputFile the compiled file, used to name the output files
+     * @param result    the result of the compilation
+     * @param print     if false, dumps are only written to files, never printed
+     */
+    public void write(File inputFile, CompilationResult result, boolean print) {
+        var name = SpecsIo.removeExtension(inputFile.getName());
+
+        if (!quiet && (print || dumpFolder != null)) {
+            // The AST is not available if the result comes from the cache
+            result.getParserResult().ifPresent(parserResult ->
+                    dump(name + ".ast", parserResult.getRootNode().toTree()));
+            result.getOllirCode().ifPresent(ollirCode -> dump(name + ".ollir", ollirCode));
+            result.getJasminResult().ifPresent(jasminResult -> dump(name + ".j", jasminResult.getJasminCode()));
+        }
+
+        result.getClassFile().ifPresent(classFile -> {
+            var className = result.getJasminResult().orElseThrow().getClassName();
+            if (classOutput != null) {
+                classOutput.add(className, classFile);
+                return;
+            }
+
+            var classFolder = dumpFolder != null ? dumpFolder : inputFile.getAbsoluteFile().getParentFile();
+            var file = new File(SpecsIo.mkdir(classFolder), className + ".class");
+            try {
+                Files.write(file.toPath(), classFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not write class file '" + file + "'", e);
+            }
+        });
+    }
+
+    /**
+     * Writes the pending class files to the folder given with option '-d'.
+     */
+    public void flush() {
+        if (classOutput == null) {
+            return;
+        }
+
+        classOutput.flush();
+        if (!quiet) {
+            out.println(classOutput.summary());
+        }
+    }
+
+    private void dump(String fileName, String contents) {
+        if (dumpFolder == null) {
+            out.println(contents);
+            return;
+        }
+
+        SpecsIo.write(new File(SpecsIo.mkdir(dumpFolder), fileName), contents);
+    }
+}
@@ -7,6 +7,7 @@ import pt.up.fe.comp.jmm.ast.JmmNode;
 import pt.up.fe.comp.jmm.parser.JmmParserResult;
 import pt.up.fe.comp.jmm.report.Report;
 import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerMetrics;
 import pt.up.fe.comp2024.analysis.passes.ExpressionAnalyzer;
 import pt.up.fe.comp2024.analysis.passes.StatementAnalyzer;
 import pt.up.fe.comp2024.analysis.passes.EssentialAnalyzer;
@@ -19,10 +20,19 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
 
     private final List<AnalysisPass> analysisPasses;
+    private final CompilerMetrics metrics;
 
     public JmmAnalysisImpl() {
+        this(CompilerMetrics.disabled());
+    }
+
+    /**
+     * @param metrics where the costs of building the symbol table and of each analysis pass are recorded
+     */
+    public JmmAnalysisImpl(CompilerMetrics metrics) {
 
         this.analysisPasses = List.of(new EssentialAnalyzer(), new ExpressionAnalyzer(), new StatementAnalyzer());
+        this.metrics = metrics;
 
     }
 
@@ -31,14 +41,15 @@ public class JmmAnalysisImpl implements JmmAnalysis {
 
         JmmNode rootNode = parserResult.getRootNode();
 
-        SymbolTable table = JmmSymbolTableBuilder.build(rootNode);
+        SymbolTable table = metrics.measure("symbolTable", () -> JmmSymbolTableBuilder.build(rootNode));
 
         List<Report> reports = new ArrayList<>();
 
         // Visit all nodes in the AST
         for (var analysisPass : analysisPasses) {
             try {
-                var passReports = analysisPass.analyze(rootNode, table);
+                var passReports = metrics.measure(analysisPass.getClass().getSimpleName(),
+                        () -> analysisPass.analyze(rootNode, table));
                 reports.addAll(passReports);
                 if (!reports.isEmpty()) {
                     break;
@@ -0,0 +1,24 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.comp.jmm.jasmin.JasminBackend;
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+
+/**
+ * Backend that writes the .class file directly, instead of generating Jasmin code that must then be assembled.
+ * <p>
+ * The Jasmin code of the class is still available through {@link JasminResult#getJasminCode()}, for debugging, but it
+ * is only generated when requested.
+ */
+public class BytecodeBackendImpl implements JasminBackend {
+
+    @Override
+    public JasminResult toJasmin(OllirResult ollirResult) {
+
+        var bytecodeGenerator = new BytecodeGenerator(ollirResult);
+        var classBytes = bytecodeGenerator.build();
+
+        return new BytecodeResult(ollirResult, classBytes, bytecodeGenerator.getReports());
+    }
+
+}
@@ -0,0 +1,639 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+import org.specs.comp.ollir.tree.TreeNode;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp2024.optimization.StrengthReduction;
+import pt.up.fe.specs.util.classmap.BiConsumerClassMap;
+import pt.up.fe.specs.util.exceptions.NotImplementedException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static pt.up.fe.comp2024.backend.Opcodes.*;
+
+/**
+ * Generates the bytes of a .class file directly from an OllirResult, without going through Jasmin code.
+ * <p>
+ * The instructions selected for each OLLIR instruction are the same as the ones of {@link JasminGenerator}, so both
+ * backends produce equivalent classes. Unlike Jasmin, the class file has a recent version, with the stack map frames
+ * computed by {@link StackMapTable}, so it is checked by the faster type-checking verifier.
+ * <p>
+ * One BytecodeGenerator instance per OllirResult.
+ */
+public class BytecodeGenerator {
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    // Java 8, the first version where stack map frames are required
+    private static final int MAJOR_VERSION = 52;
+
+    private final OllirResult ollirResult;
+
+    private final List<Report> reports;
+
+    private final BiConsumerClassMap<TreeNode, CodeBuilder> generators;
+
+    private byte[] classBytes;
+
+    private ConstantPool constantPool;
+
+    private String className;
+
+    private Method currentMethod;
+
+    // Assignments of the current method that are generated as iinc
+    private IncrementSelection increments;
+
+    private int cmpCounter;
+
+    public BytecodeGenerator(OllirResult ollirResult) {
+        this.ollirResult = ollirResult;
+
+        reports = new ArrayList<>();
+        classBytes = null;
+        currentMethod = null;
+        cmpCounter = 0;
+
+        this.generators = new BiConsumerClassMap<>();
+        // Basic elements
+        generators.put(Operand.class, this::generateLoadOperand);
+        generators.put(LiteralElement.class, this::generateLiteralElement);
+
+        // Instruction handling
+        generators.put(AssignInstruction.class, this::generateAssignmentInstr);
+        generators.put(CallInstruction.class, this::generateCallInstr);
+        generators.put(SingleOpInstruction.class, this::generateSingleOpInstr);
+        generators.put(BinaryOpInstruction.class, this::generateBinaryOperationInstr);
+        generators.put(ReturnInstruction.class, this::generateReturnInstr);
+        generators.put(UnaryOpInstruction.class, this::generateUnaryOpInstr);
+        generators.put(SingleOpCondInstruction.class, this::generateSingleOpCondInstr);
+        generators.put(OpCondInstruction.class, this::generateOpCondInstr);
+        generators.put(GotoInstruction.class, this::generateGoToInstr);
+
+        // Field access instructions
+        generators.put(GetFieldInstruction.class, this::generateGetFieldInstr);
+        generators.put(PutFieldInstruction.class, this::generatePutFieldInstr);
+    }
+
+    public List<Report> getReports() {
+        return reports;
+    }
+
+    /**
+     * @return the contents of the .class file
+     */
+    public byte[] build() {
+        if (classBytes == null) {
+            try {
+                classBytes = generateClass(ollirResult.getOllirClass());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        return classBytes;
+    }
+
+    // Class generation
+    private byte[] generateClass(ClassUnit classUnit) throws IOException {
+        constantPool = new ConstantPool();
+
+        className = classUnit.getClassName();
+        if (classUnit.getPackage() != null) {
+            className = classUnit.getPackage().replace('.', '/') + '/' + className;
+        }
+        String superName = getSuperName(classUnit);
+
+        int thisClass = constantPool.addClass(className);
+        int superClass = constantPool.addClass(superName);
+
+        // Fields and methods are generated first, since they add entries to the constant pool
+        var members = new ByteArrayOutputStream();
+        var out = new DataOutputStream(members);
+
+        out.writeShort(classUnit.getNumFields());
+        for (var field : classUnit.getFields()) {
+            generateField(out, field);
+        }
+
+        var methods = classUnit.getMethods().stream()
+                .filter(method -> !method.isConstructMethod())
+                .toList();
+        out.writeShort(methods.size() + 1);
+        generateDefaultConstructor(out, superName);
+        for (var method : methods) {
+            generateMethod(out, method);
+        }
+
+        // Class attributes
+        out.writeShort(0);
+
+        var bytes = new ByteArrayOutputStream();
+        var classFile = new DataOutputStream(bytes);
+        classFile.writeInt(MAGIC);
+        classFile.writeShort(0);
+        classFile.writeShort(MAJOR_VERSION);
+        constantPool.writeTo(classFile);
+
+        int access = ACC_SUPER | accessFlags(classUnit.getClassAccessModifier());
+        if (classUnit.isStaticClass()) {
+            access |= ACC_STATIC;
+        }
+        if (classUnit.isFinalClass()) {
+            access |= ACC_FINAL;
+        }
+        classFile.writeShort(access);
+        classFile.writeShort(thisClass);
+        classFile.writeShort(superClass);
+
+        // Interfaces
+        classFile.writeShort(0);
+
+        members.writeTo(classFile);
+
+        return bytes.toByteArray();
+    }
+
+    private String getSuperName(ClassUnit classUnit) {
+        String superName = classUnit.getSuperClass();
+        return (superName == null || superName.equals("Object")) ? "java/lang/Object" : generateFullName(superName);
+    }
+
+    // Field generation
+    private void generateField(DataOutputStream out, Field field) throws IOException {
+        int access = accessFlags(field.getFieldAccessModifier());
+        if (field.isStaticField()) {
+            access |= ACC_STATIC;
+        }
+        if (field.isFinalField()) {
+            access |= ACC_FINAL;
+        }
+
+        out.writeShort(access);
+        out.writeShort(constantPool.addUtf8(field.getFieldName()));
+        out.writeShort(constantPool.addUtf8(generateDescriptor(field.getFieldType())));
+
+        if (field.isInitialized()) {
+            out.writeShort(1);
+            out.writeShort(constantPool.addUtf8("ConstantValue"));
+            out.writeInt(2);
+            out.writeShort(constantPool.addInteger(field.getInitialValue()));
+        } else {
+            out.writeShort(0);
+        }
+    }
+
+    private void generateDefaultConstructor(DataOutputStream out, String superName) throws IOException {
+        var code = new CodeBuilder();
+        code.local(ALOAD, 0);
+        code.invoke(INVOKESPECIAL, constantPool.addMethod(superName, "<init>", "()V"), "<init>", "()V");
+        code.op(RETURN);
+
+        out.writeShort(ACC_PUBLIC);
+        out.writeShort(constantPool.addUtf8("<init>"));
+        out.writeShort(constantPool.addUtf8("()V"));
+        writeCodeAttribute(out, code, "<init>", "()V", false, 1);
+    }
+
+    // Method generation
+    private void generateMethod(DataOutputStream out, Method method) throws IOException {
+        currentMethod = method;
+        increments = new IncrementSelection(method);
+
+        int access = accessFlags(method.getMethodAccessModifier());
+        if (method.isStaticMethod()) {
+            access |= ACC_STATIC;
+        }
+        if (method.isFinalMethod()) {
+            access |= ACC_FINAL;
+        }
+
+        var descriptor = new StringBuilder("(");
+        method.getParams().forEach(param -> descriptor.append(generateDescriptor(param.getType())));
+        descriptor.append(')').append(generateDescriptor(method.getReturnType()));
+
+        var code = new CodeBuilder();
+        for (var inst : method.getInstructions()) {
+            for (var label : method.getLabels(inst)) {
+                code.label(label);
+            }
+            if (!increments.isFolded(inst)) {
+                generateInstruction(code, inst);
+            }
+        }
+
+        out.writeShort(access);
+        out.writeShort(constantPool.addUtf8(method.getMethodName()));
+        out.writeShort(constantPool.addUtf8(descriptor.toString()));
+        writeCodeAttribute(out, code, method.getMethodName(), descriptor.toString(), method.isStaticMethod(),
+                computeMaxLocals(method));
+
+        currentMethod = null;
+        increments = null;
+    }
+
+    private void generateInstruction(CodeBuilder code, Instruction inst) {
+        generators.accept(inst, code);
+
+        // The value returned by a call used as a statement is discarded
+        if (inst instanceof CallInstruction call && call.getReturnType().getTypeOfElement() != ElementType.VOID) {
+            code.op(POP);
+        }
+    }
+
+    private void writeCodeAttribute(DataOutputStream out, CodeBuilder code, String methodName, String descriptor,
+                                    boolean isStatic, int maxLocals) throws IOException {
+        var bytecode = code.toBytes();
+        var stackMapTable = StackMapTable.compute(code, bytecode, className, methodName, descriptor, isStatic,
+                maxLocals);
+
+        // Dead code is replaced by code that needs a Throwable on the stack
+        int maxStack = Math.max(code.getMaxStack(), stackMapTable.hasDeadCode() ? 1 : 0);
+
+        var codeAttributes = new ByteArrayOutputStream();
+        var attributesOut = new DataOutputStream(codeAttributes);
+        if (!stackMapTable.isEmpty()) {
+            stackMapTable.writeTo(attributesOut, constantPool);
+        }
+
+        // Method attributes
+        out.writeShort(1);
+        out.writeShort(constantPool.addUtf8("Code"));
+        out.writeInt(12 + bytecode.length + codeAttributes.size());
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(bytecode.length);
+        out.write(bytecode);
+
+        // Exception table and attributes of the code
+        out.writeShort(0);
+        out.writeShort(stackMapTable.isEmpty() ? 0 : 1);
+        codeAttributes.writeTo(out);
+    }
+
+    private int computeMaxLocals(Method method) {
+        int maxLocals = method.isStaticMethod() ? 0 : 1;
+        for (var param : method.getParams()) {
+            maxLocals += param.getType().getTypeOfElement() == ElementType.VOID ? 0 : 1;
+        }
+
+        for (Descriptor desc : method.getVarTable().values()) {
+            maxLocals = Math.max(maxLocals, desc.getVirtualReg() + 1);
+        }
+        return maxLocals;
+    }
+
+    // Field access instructions
+    private int fieldReference(FieldInstruction fieldInstruction) {
+        var object = fieldInstruction.getObject();
+        var owner = object.getType().getTypeOfElement() == ElementType.THIS ? className :
+                generateFullName(((ClassType) object.getType()).getName());
+        var field = fieldInstruction.getField();
+
+        return constantPool.addField(owner, field.getName(), generateDescriptor(field.getType()));
+    }
+
+    private void generateFieldAccess(int opcode, FieldInstruction fieldInstruction, CodeBuilder code) {
+        code.field(opcode, fieldReference(fieldInstruction), generateDescriptor(fieldInstruction.getField().getType()));
+    }
+
+    private void generateGetFieldInstr(GetFieldInstruction getFieldInstr, CodeBuilder code) {
+        generators.accept(getFieldInstr.getObject(), code);
+        generateFieldAccess(GETFIELD, getFieldInstr, code);
+    }
+
+    private void generatePutFieldInstr(PutFieldInstruction putFieldInstr, CodeBuilder code) {
+        generators.accept(putFieldInstr.getObject(), code);
+        generators.accept(putFieldInstr.getValue(), code);
+        generateFieldAccess(PUTFIELD, putFieldInstr, code);
+    }
+
+    private void generateAssignmentInstr(AssignInstruction assign, CodeBuilder code) {
+        Element lhs = assign.getDest();
+
+        if (!(lhs instanceof Operand operand)) {
+            throw new NotImplementedException(lhs.getClass());
+        }
+
+        int register = getRegister(operand);
+
+        if (lhs instanceof ArrayOperand arrayOperand) {
+            code.local(ALOAD, register);
+            generators.accept(arrayOperand.getIndexOperands().get(0), code);
+            generators.accept(assign.getRhs(), code);
+            code.op(isReference(lhs.getType()) ? AASTORE : IASTORE);
+            return;
+        }
+
+        // Use iinc if incrementing a variable
+        var increment = increments.get(assign);
+        if (increment != null) {
+            code.iinc(increment.register(), increment.value());
+            return;
+        }
+
+        generators.accept(assign.getRhs(), code);
+        code.local(isReference(operand.getType()) ? ASTORE : ISTORE, register);
+    }
+
+    private void generateLoadOperand(Operand operand, CodeBuilder code) {
+        if (operand.getType().getTypeOfElement() == ElementType.THIS) {
+            code.local(ALOAD, 0);
+            return;
+        }
+
+        int register = getRegister(operand);
+
+        if (operand instanceof ArrayOperand arrayOperand) {
+            code.local(ALOAD, register);
+            generators.accept(arrayOperand.getIndexOperands().get(0), code);
+            code.op(isReference(operand.getType()) ? AALOAD : IALOAD);
+            return;
+        }
+
+        code.local(isReference(operand.getType()) ? ALOAD : ILOAD, register);
+    }
+
+    private void generateLiteralElement(LiteralElement literal, CodeBuilder code) {
+        var elementType = literal.getType().getTypeOfElement();
+        if (elementType != ElementType.INT32 && elementType != ElementType.BOOLEAN) {
+            var value = literal.getLiteral();
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            code.ldc(constantPool.addString(value), "Ljava/lang/String;");
+            return;
+        }
+
+        int value = Integer.parseInt(literal.getLiteral());
+        if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            code.pushInt(value);
+        } else {
+            code.ldc(constantPool.addInteger(value), "I");
+        }
+    }
+
+    private void generateBinaryOperationInstr(BinaryOpInstruction binaryOp, CodeBuilder code) {
+        generators.accept(binaryOp.getLeftOperand(), code);
+
+        var opType = binaryOp.getOperation().getOpType();
+        int shift = StrengthReduction.getShift(binaryOp.getRightOperand());
+        if (opType == OperationType.DIV && shift > 0) {
+            generateDivisionByShift(shift, code);
+            return;
+        }
+
+        generators.accept(binaryOp.getRightOperand(), code);
+
+        switch (opType) {
+            case ADD -> code.op(IADD);
+            case SUB -> code.op(ISUB);
+            case MUL -> code.op(IMUL);
+            case DIV -> code.op(IDIV);
+            case ANDB, AND -> code.op(IAND);
+            case ORB, OR -> code.op(IOR);
+            case XOR -> code.op(IXOR);
+            case SHL -> code.op(ISHL);
+            case SHR -> code.op(ISHR);
+            case SHRR -> code.op(IUSHR);
+            default -> {
+                // Comparisons push 1 if they hold, 0 otherwise
+                int cmpCounter = getAndIncrementCmpCounter();
+                var trueLabel = "#cmp_true_" + cmpCounter;
+                var endLabel = "#cmp_end_" + cmpCounter;
+
+                code.branch(compareOpcode(opType), trueLabel);
+                code.pushInt(0);
+                code.branch(GOTO, endLabel);
+                code.label(trueLabel);
+                code.pushInt(1);
+                code.label(endLabel);
+            }
+        }
+    }
+
+    /**
+     * Divides the value on top of the stack by 2^shift. An arithmetic shift rounds down, so 2^shift - 1 is added to
+     * negative dividends first, to round towards zero like idiv.
+     */
+    private static void generateDivisionByShift(int shift, CodeBuilder code) {
+        code.op(DUP);
+        code.pushInt(31);
+        if (shift == 1) {
+            code.op(IUSHR);
+        } else {
+            code.op(ISHR);
+            code.pushInt(32 - shift);
+            code.op(IUSHR);
+        }
+        code.op(IADD);
+        code.pushInt(shift);
+        code.op(ISHR);
+    }
+
+    private void generateReturnInstr(ReturnInstruction instruction, CodeBuilder code) {
+        if (instruction.hasReturnValue()) {
+            generators.accept(instruction.getOperand(), code);
+        }
+
+        switch (instruction.getElementType()) {
+            case VOID -> code.op(RETURN);
+            case INT32, BOOLEAN -> code.op(IRETURN);
+            case OBJECTREF, ARRAYREF, STRING, CLASS, THIS -> code.op(ARETURN);
+        }
+    }
+
+    private void generateCallInstr(CallInstruction instruction, CodeBuilder code) {
+        CallType invocationType = instruction.getInvocationType();
+        var arguments = instruction.getArguments();
+
+        switch (invocationType) {
+            case invokevirtual, invokespecial, invokestatic -> {
+                if (invocationType != CallType.invokestatic) {
+                    generators.accept(instruction.getCaller(), code);
+                }
+                arguments.forEach(arg -> generators.accept(arg, code));
+
+                var owner = getCallOwner(instruction);
+                var methodName = ((LiteralElement) instruction.getMethodName()).getLiteral().replace("\"", "");
+                var descriptor = new StringBuilder("(");
+                arguments.forEach(arg -> descriptor.append(generateDescriptor(arg.getType())));
+                var returnType = instruction.getReturnType();
+                descriptor.append(')').append(generateDescriptor(returnType));
+
+                int opcode = switch (invocationType) {
+                    case invokevirtual -> INVOKEVIRTUAL;
+                    case invokespecial -> INVOKESPECIAL;
+                    default -> INVOKESTATIC;
+                };
+                code.invoke(opcode, constantPool.addMethod(owner, methodName, descriptor.toString()), methodName,
+                        descriptor.toString());
+            }
+            case NEW -> {
+                var caller = (Operand) instruction.getCaller();
+                if (caller.getName().equals("array")) {
+                    generators.accept(arguments.get(0), code);
+                    code.newIntArray();
+                    return;
+                }
+
+                var newClass = generateFullName(caller.getName());
+                code.newObject(constantPool.addClass(newClass), newClass);
+            }
+            case arraylength -> {
+                generators.accept(instruction.getCaller(), code);
+                code.op(ARRAYLENGTH);
+            }
+            default -> throw new IllegalStateException("Unsupported invocation type: " + invocationType);
+        }
+    }
+
+    private String getCallOwner(CallInstruction instruction) {
+        var caller = instruction.getCaller();
+        if (caller.getType().getTypeOfElement() == ElementType.THIS) {
+            return className;
+        }
+
+        if (instruction.getInvocationType() == CallType.invokestatic) {
+            return generateFullName(((Operand) caller).getName());
+        }
+
+        return generateFullName(((ClassType) caller.getType()).getName());
+    }
+
+    private void generateSingleOpInstr(SingleOpInstruction singleOp, CodeBuilder code) {
+        generators.accept(singleOp.getSingleOperand(), code);
+    }
+
+    private void generateUnaryOpInstr(UnaryOpInstruction unaryOp, CodeBuilder code) {
+        generators.accept(unaryOp.getOperand(), code);
+
+        switch (unaryOp.getOperation().getOpType()) {
+            case NOTB, NOT -> {
+                code.pushInt(1);
+                code.op(IXOR);
+            }
+            default -> throw new NotImplementedException(unaryOp.getOperation().getOpType());
+        }
+    }
+
+    private void generateSingleOpCondInstr(SingleOpCondInstruction singleOpCond, CodeBuilder code) {
+        generators.accept(singleOpCond.getOperands().get(0), code);
+        code.branch(IFNE, singleOpCond.getLabel());
+    }
+
+    private void generateGoToInstr(GotoInstruction goTo, CodeBuilder code) {
+        code.branch(GOTO, goTo.getLabel());
+    }
+
+    private void generateOpCondInstr(OpCondInstruction opCond, CodeBuilder code) {
+        var operands = opCond.getOperands();
+        var opType = opCond.getCondition().getOperation().getOpType();
+
+        // Comparisons with zero do not need to push the zero
+        if (isZero(operands.get(1))) {
+            generators.accept(operands.get(0), code);
+            code.branch(compareZeroOpcode(opType), opCond.getLabel());
+            return;
+        }
+        if (isZero(operands.get(0))) {
+            generators.accept(operands.get(1), code);
+            code.branch(compareZeroOpcode(swap(opType)), opCond.getLabel());
+            return;
+        }
+
+        operands.forEach(operand -> generators.accept(operand, code));
+        code.branch(compareOpcode(opType), opCond.getLabel());
+    }
+
+    private static boolean isZero(Element element) {
+        return element instanceof LiteralElement literal && literal.getLiteral().equals("0");
+    }
+
+    private static int compareOpcode(OperationType opType) {
+        return switch (opType) {
+            case LTH -> IF_ICMPLT;
+            case GTE -> IF_ICMPGE;
+            case GTH -> IF_ICMPGT;
+            case LTE -> IF_ICMPLE;
+            case EQ -> IF_ICMPEQ;
+            case NEQ -> IF_ICMPNE;
+            default -> throw new NotImplementedException(opType);
+        };
+    }
+
+    private static int compareZeroOpcode(OperationType opType) {
+        return compareOpcode(opType) - (IF_ICMPEQ - IFEQ);
+    }
+
+    // The comparison with the operands in the opposite order (a < b is b > a)
+    private static OperationType swap(OperationType opType) {
+        return switch (opType) {
+            case LTH -> OperationType.GTH;
+            case GTE -> OperationType.LTE;
+            case GTH -> OperationType.LTH;
+            case LTE -> OperationType.GTE;
+            default -> opType;
+        };
+    }
+
+    private int getRegister(Operand operand) {
+        var descriptor = currentMethod.getVarTable().get(operand.getName());
+        if (descriptor == null) {
+            throw new RuntimeException("Variable '" + operand.getName() + "' is not in the variable table of method '"
+                    + currentMethod.getMethodName() + "'");
+        }
+
+        return descriptor.getVirtualReg();
+    }
+
+    private static boolean isReference(Type type) {
+        return switch (type.getTypeOfElement()) {
+            case OBJECTREF, ARRAYREF, STRING, CLASS, THIS -> true;
+            default -> false;
+        };
+    }
+
+    private static int accessFlags(AccessModifier modifier) {
+        return switch (modifier) {
+            case PUBLIC -> ACC_PUBLIC;
+            case PRIVATE -> ACC_PRIVATE;
+            case PROTECTED -> ACC_PROTECTED;
+            default -> 0;
+        };
+    }
+
+    private String generateDescriptor(Type type) {
+        ElementType elementType = type.getTypeOfElement();
+        return switch (elementType) {
+            case BOOLEAN -> "Z";
+            case VOID -> "V";
+            case INT32 -> "I";
+            case STRING -> "Ljava/lang/String;";
+            case CLASS, OBJECTREF, THIS -> "L" + generateFullName(((ClassType) type).getName()) + ";";
+            case ARRAYREF -> {
+                ArrayType arrType = (ArrayType) type;
+                yield "[".repeat(arrType.getNumDimensions()) + generateDescriptor(arrType.getElementType());
+            }
+        };
+    }
+
+    private String generateFullName(String simpleName) {
+        List<String> imports = ollirResult.getOllirClass().getImports();
+        return imports.stream()
+                .filter(imp -> imp.endsWith("." + simpleName))
+                .findFirst()
+                .map(imp -> imp.replace('.', '/'))
+                .orElse(simpleName);
+    }
+
+    private int getAndIncrementCmpCounter() {
+        return cmpCounter++;
+    }
+}
@@ -0,0 +1,89 @@
+package pt.up.fe.comp2024.backend;
+
+import pt.up.fe.comp.jmm.jasmin.JasminResult;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Result of the {@link BytecodeBackendImpl}, which already has the contents of the .class file.
+ * <p>
+ * Compiling and running the result use those contents directly. The Jasmin code is only generated, by
+ * {@link JasminGenerator}, the first time it is requested.
+ * <p>
+ * A result taken from a compilation cache only has the OLLIR code, which is parsed again if the Jasmin code is
+ * requested. The registers allocated with option '-r' are not in that code, so such Jasmin code can use others.
+ */
+public class BytecodeResult extends JasminResult {
+
+    private final Supplier<OllirResult> ollirResult;
+    private final byte[] classBytes;
+    private String jasminCode;
+
+    public BytecodeResult(OllirResult ollirResult, byte[] classBytes, List<Report> reports) {
+        super(ollirResult, null, reports);
+
+        this.ollirResult = () -> ollirResult;
+        this.classBytes = classBytes;
+        this.jasminCode = null;
+    }
+
+    /**
+     * Creates the result of a class file that was written before, such as one from a compilation cache.
+     *
+     * @param ollirCode the OLLIR code the class file was written from
+     */
+    public BytecodeResult(String className, String ollirCode, byte[] classBytes, List<Report> reports,
+                          Map<String, String> config) {
+        super(className, null, reports, config);
+
+        this.ollirResult = () -> new OllirResult(ollirCode, config);
+        this.classBytes = classBytes;
+        this.jasminCode = null;
+    }
+
+    /**
+     * @return the contents of the .class file
+     */
+    public byte[] getClassBytes() {
+        return classBytes;
+    }
+
+    /**
+     * @return the Jasmin code of the class, which is not used to build the class file
+     */
+    @Override
+    public synchronized String getJasminCode() {
+        if (jasminCode == null) {
+            jasminCode = new JasminGenerator(ollirResult.get()).build();
+        }
+
+        return jasminCode;
+    }
+
+    /**
+     * Writes the class file, without assembling the Jasmin code.
+     *
+     * @param outputDir the folder where the class file will written
+     * @return a reference to the .class file
+     */
+    @Override
+    public File compile(File outputDir) {
+        var classFile = new File(SpecsIo.mkdir(outputDir), getClassName() + ".class");
+        try {
+            Files.write(classFile.toPath(), classBytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write class file '" + classFile + "'", e);
+        }
+
+        return classFile;
+    }
+}
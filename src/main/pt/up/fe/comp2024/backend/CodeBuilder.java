@@ -0,0 +1,421 @@
+package pt.up.fe.comp2024.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static pt.up.fe.comp2024.backend.Opcodes.*;
+
+/**
+ * Bytecode of a single method under construction.
+ * <p>
+ * Branches refer to labels by name, and their offsets are resolved when the code is finished, so labels can be used
+ * before they are placed. The depth of the operand stack is tracked while instructions are added: each label takes the
+ * depth of the branches that reach it, which gives the exact maximum depth of the method without a separate pass.
+ * <p>
+ * Besides the bytes, the builder keeps the list of added instructions with the types they use, from which
+ * {@link StackMapTable} computes the stack map frames of the method.
+ */
+public class CodeBuilder {
+
+    // Depth of the stack after an unconditional jump, before the next label
+    private static final int UNREACHABLE = -1;
+
+    private final ByteArrayOutputStream code;
+    private final List<Op> instructions;
+    private final Map<String, Integer> labelOffsets;
+    private final Map<String, Integer> labelDepths;
+
+    private int stackDepth;
+    private int maxStack;
+
+    public CodeBuilder() {
+        this.code = new ByteArrayOutputStream();
+        this.instructions = new ArrayList<>();
+        this.labelOffsets = new HashMap<>();
+        this.labelDepths = new HashMap<>();
+        this.stackDepth = 0;
+        this.maxStack = 0;
+    }
+
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    public int getStackDepth() {
+        return stackDepth;
+    }
+
+    /**
+     * @return the offset of the next instruction
+     */
+    public int getOffset() {
+        return code.size();
+    }
+
+    /**
+     * @return the instructions added so far, in order
+     */
+    public List<Op> getInstructions() {
+        return instructions;
+    }
+
+    /**
+     * @return the offset of the given label
+     */
+    public int getLabelOffset(String label) {
+        var offset = labelOffsets.get(label);
+        if (offset == null) {
+            throw new RuntimeException("Branch to label '" + label + "', which is not placed");
+        }
+
+        return offset;
+    }
+
+    /**
+     * Places a label at the current offset.
+     */
+    public void label(String name) {
+        if (labelOffsets.putIfAbsent(name, getOffset()) != null) {
+            throw new RuntimeException("Label '" + name + "' is placed more than once");
+        }
+
+        var branchDepth = labelDepths.get(name);
+        if (stackDepth == UNREACHABLE) {
+            stackDepth = branchDepth == null ? 0 : branchDepth;
+        } else if (branchDepth != null && branchDepth != stackDepth) {
+            throw inconsistentDepth(name, branchDepth, stackDepth);
+        }
+
+        labelDepths.put(name, stackDepth);
+    }
+
+    /**
+     * Adds an instruction without operands.
+     */
+    public void op(int opcode) {
+        add(new Op(getOffset(), opcode));
+        code.write(opcode);
+
+        switch (opcode) {
+            case ICONST_M1, ICONST_M1 + 1, ICONST_M1 + 2, ICONST_M1 + 3, ICONST_M1 + 4, ICONST_M1 + 5, ICONST_M1 + 6,
+                    DUP -> push(1);
+            case IALOAD, AALOAD, IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR, POP -> pop(1);
+            case IASTORE, AASTORE -> pop(3);
+            case INEG, ARRAYLENGTH -> {
+                // Replaces the value on top of the stack
+            }
+            case IRETURN, ARETURN -> {
+                pop(1);
+                stackDepth = UNREACHABLE;
+            }
+            case RETURN -> stackDepth = UNREACHABLE;
+            default -> throw new RuntimeException("Opcode 0x" + Integer.toHexString(opcode) + " has operands");
+        }
+    }
+
+    /**
+     * Pushes an int constant, using the shortest instruction for it. Constants outside the range of sipush must be
+     * added with {@link #ldc(int, String)}.
+     */
+    public void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            add(new Op(getOffset(), BIPUSH));
+            code.write(BIPUSH);
+            code.write(value);
+            push(1);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            add(new Op(getOffset(), SIPUSH));
+            code.write(SIPUSH);
+            writeShort(value);
+            push(1);
+        } else {
+            throw new RuntimeException("Constant " + value + " does not fit in sipush, use ldc");
+        }
+    }
+
+    /**
+     * Pushes the constant with the given index in the constant pool.
+     *
+     * @param descriptor the type of the constant ("I" or "Ljava/lang/String;")
+     */
+    public void ldc(int index, String descriptor) {
+        add(new Op(getOffset(), LDC, descriptor));
+        if (index <= 0xFF) {
+            code.write(LDC);
+            code.write(index);
+        } else {
+            code.write(LDC_W);
+            writeShort(index);
+        }
+        push(1);
+    }
+
+    /**
+     * Adds a load or store of a local, e.g. {@code local(ILOAD, 4)}.
+     */
+    public void local(int opcode, int register) {
+        int shortForm = switch (opcode) {
+            case ILOAD -> ILOAD_0;
+            case ALOAD -> ALOAD_0;
+            case ISTORE -> ISTORE_0;
+            case ASTORE -> ASTORE_0;
+            default ->
+                    throw new RuntimeException("Opcode 0x" + Integer.toHexString(opcode) + " is not a load or store");
+        };
+
+        add(new Op(getOffset(), opcode, register));
+        if (register <= 3) {
+            code.write(shortForm + register);
+        } else if (register <= 0xFF) {
+            code.write(opcode);
+            code.write(register);
+        } else {
+            code.write(WIDE);
+            code.write(opcode);
+            writeShort(register);
+        }
+
+        if (opcode == ILOAD || opcode == ALOAD) {
+            push(1);
+        } else {
+            pop(1);
+        }
+    }
+
+    public void iinc(int register, int increment) {
+        add(new Op(getOffset(), IINC, register));
+        if (register <= 0xFF && increment >= Byte.MIN_VALUE && increment <= Byte.MAX_VALUE) {
+            code.write(IINC);
+            code.write(register);
+            code.write(increment);
+        } else {
+            code.write(WIDE);
+            code.write(IINC);
+            writeShort(register);
+            writeShort(increment);
+        }
+    }
+
+    /**
+     * Adds a getfield, putfield, getstatic or putstatic.
+     *
+     * @param descriptor the type of the field
+     */
+    public void field(int opcode, int index, String descriptor) {
+        add(new Op(getOffset(), opcode, descriptor));
+        code.write(opcode);
+        writeShort(index);
+
+        switch (opcode) {
+            case GETFIELD -> {
+                // Replaces the object with the value of the field
+            }
+            case PUTFIELD -> pop(2);
+            case GETSTATIC -> push(1);
+            case PUTSTATIC -> pop(1);
+            default -> throw new RuntimeException("Opcode 0x" + Integer.toHexString(opcode) + " is not a field access");
+        }
+    }
+
+    /**
+     * Adds an invokevirtual, invokespecial or invokestatic.
+     *
+     * @param name       the name of the method
+     * @param descriptor the descriptor of the method
+     */
+    public void invoke(int opcode, int index, String name, String descriptor) {
+        add(new Op(getOffset(), opcode, descriptor, name));
+        code.write(opcode);
+        writeShort(index);
+
+        pop(StackMapTable.getArgumentTypes(descriptor).size() + (opcode == INVOKESTATIC ? 0 : 1));
+        push(descriptor.endsWith(")V") ? 0 : 1);
+    }
+
+    /**
+     * Creates an object of the given class, which must then be initialized with a call to its constructor.
+     *
+     * @param className the internal name of the class
+     */
+    public void newObject(int index, String className) {
+        add(new Op(getOffset(), NEW, className));
+        code.write(NEW);
+        writeShort(index);
+        push(1);
+    }
+
+    public void newIntArray() {
+        add(new Op(getOffset(), NEWARRAY, "[I"));
+        code.write(NEWARRAY);
+        code.write(T_INT);
+    }
+
+    /**
+     * Adds a conditional branch or a goto to the given label.
+     */
+    public void branch(int opcode, String label) {
+        add(new Op(getOffset(), opcode, label));
+        code.write(opcode);
+        writeShort(0);
+
+        if (opcode == GOTO) {
+            recordBranchDepth(label);
+            stackDepth = UNREACHABLE;
+            return;
+        }
+
+        pop(opcode >= IF_ICMPEQ && opcode <= IF_ICMPLE ? 2 : 1);
+        recordBranchDepth(label);
+    }
+
+    /**
+     * @return the bytecode of the method, with the offsets of all branches resolved
+     */
+    public byte[] toBytes() {
+        var bytes = code.toByteArray();
+
+        for (var instruction : instructions) {
+            if (!instruction.isBranch()) {
+                continue;
+            }
+
+            int offset = getLabelOffset(instruction.getLabel()) - instruction.getOffset();
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new RuntimeException("Branch to label '" + instruction.getLabel() + "' is too far (" + offset
+                        + " bytes)");
+            }
+
+            bytes[instruction.getOffset() + 1] = (byte) (offset >> 8);
+            bytes[instruction.getOffset() + 2] = (byte) offset;
+        }
+
+        return bytes;
+    }
+
+    private void add(Op instruction) {
+        // Code after an unconditional jump that no label makes reachable is dead, it starts with an empty stack
+        if (stackDepth == UNREACHABLE) {
+            stackDepth = 0;
+        }
+
+        instructions.add(instruction);
+    }
+
+    private void recordBranchDepth(String label) {
+        var previous = labelDepths.putIfAbsent(label, stackDepth);
+        if (previous != null && previous != stackDepth) {
+            throw inconsistentDepth(label, previous, stackDepth);
+        }
+    }
+
+    private void push(int count) {
+        stackDepth += count;
+        maxStack = Math.max(maxStack, stackDepth);
+    }
+
+    private void pop(int count) {
+        stackDepth -= count;
+        if (stackDepth < 0) {
+            throw new RuntimeException("Operand stack underflow at offset " + getOffset());
+        }
+    }
+
+    private void writeShort(int value) {
+        code.write(value >> 8);
+        code.write(value);
+    }
+
+    private static RuntimeException inconsistentDepth(String label, int expected, int actual) {
+        return new RuntimeException("Inconsistent stack depth at label '" + label + "': " + expected + " and "
+                + actual);
+    }
+
+    /**
+     * An instruction added to the builder.
+     * <p>
+     * Besides the opcode, it keeps the operand that matters for the types of the locals and of the stack: the
+     * register of loads and stores, the type of constants, fields, created objects and invoked methods, and the label
+     * of branches. Wide forms are recorded with the opcode of the normal form.
+     */
+    public static class Op {
+
+        private final int offset;
+        private final int opcode;
+        private final int register;
+        private final String operand;
+        private final String name;
+
+        private Op(int offset, int opcode) {
+            this(offset, opcode, -1, null, null);
+        }
+
+        private Op(int offset, int opcode, int register) {
+            this(offset, opcode, register, null, null);
+        }
+
+        private Op(int offset, int opcode, String operand) {
+            this(offset, opcode, -1, operand, null);
+        }
+
+        private Op(int offset, int opcode, String operand, String name) {
+            this(offset, opcode, -1, operand, name);
+        }
+
+        private Op(int offset, int opcode, int register, String operand, String name) {
+            this.offset = offset;
+            this.opcode = opcode;
+            this.register = register;
+            this.operand = operand;
+            this.name = name;
+        }
+
+        public int getOffset() {
+            return offset;
+        }
+
+        public int getOpcode() {
+            return opcode;
+        }
+
+        public int getRegister() {
+            return register;
+        }
+
+        /**
+         * @return the descriptor of constants, fields and methods, the internal name of created classes, or null
+         */
+        public String getType() {
+            return isBranch() ? null : operand;
+        }
+
+        /**
+         * @return the name of invoked methods, or null
+         */
+        public String getName() {
+            return name;
+        }
+
+        public boolean isBranch() {
+            return opcode >= IFEQ && opcode <= GOTO;
+        }
+
+        /**
+         * @return the target of branches, or null
+         */
+        public String getLabel() {
+            return isBranch() ? operand : null;
+        }
+
+        /**
+         * @return true if the next instruction is not executed after this one
+         */
+        public boolean endsFlow() {
+            return opcode == GOTO || (opcode >= IRETURN && opcode <= RETURN);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package pt.up.fe.comp2024.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Constant pool of a class file under construction.
+ * <p>
+ * Equal constants are stored only once: each add method returns the index of the existing entry if there is one.
+ */
+public class ConstantPool {
+
+    private static final int UTF8 = 1;
+    private static final int INTEGER = 3;
+    private static final int CLASS = 7;
+    private static final int STRING = 8;
+    private static final int FIELD_REF = 9;
+    private static final int METHOD_REF = 10;
+    private static final int NAME_AND_TYPE = 12;
+
+    // The largest index allowed by the class file format
+    private static final int MAX_ENTRIES = 0xFFFF;
+
+    private final ByteArrayOutputStream bytes;
+    private final DataOutputStream out;
+    private final Map<String, Integer> indexes;
+    private int count;
+
+    public ConstantPool() {
+        this.bytes = new ByteArrayOutputStream();
+        this.out = new DataOutputStream(bytes);
+        this.indexes = new HashMap<>();
+
+        // Index 0 is not used
+        this.count = 1;
+    }
+
+    public int addUtf8(String value) {
+        return add("U" + value, () -> {
+            out.writeByte(UTF8);
+            out.writeUTF(value);
+        });
+    }
+
+    public int addInteger(int value) {
+        return add("I" + value, () -> {
+            out.writeByte(INTEGER);
+            out.writeInt(value);
+        });
+    }
+
+    public int addString(String value) {
+        int utf8 = addUtf8(value);
+        return add("S" + value, () -> {
+            out.writeByte(STRING);
+            out.writeShort(utf8);
+        });
+    }
+
+    /**
+     * @param internalName the name of the class with '/' as the package separator (e.g., java/lang/Object)
+     */
+    public int addClass(String internalName) {
+        int name = addUtf8(internalName);
+        return add("C" + internalName, () -> {
+            out.writeByte(CLASS);
+            out.writeShort(name);
+        });
+    }
+
+    public int addField(String owner, String name, String descriptor) {
+        return addMember(FIELD_REF, "F", owner, name, descriptor);
+    }
+
+    public int addMethod(String owner, String name, String descriptor) {
+        return addMember(METHOD_REF, "M", owner, name, descriptor);
+    }
+
+    private int addMember(int tag, String kind, String owner, String name, String descriptor) {
+        int ownerIndex = addClass(owner);
+        int nameAndType = addNameAndType(name, descriptor);
+        return add(kind + owner + '.' + name + ':' + descriptor, () -> {
+            out.writeByte(tag);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private int addNameAndType(String name, String descriptor) {
+        int nameIndex = addUtf8(name);
+        int descriptorIndex = addUtf8(descriptor);
+        return add("N" + name + ':' + descriptor, () -> {
+            out.writeByte(NAME_AND_TYPE);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+    }
+
+    private int add(String key, EntryWriter writer) {
+        var index = indexes.get(key);
+        if (index != null) {
+            return index;
+        }
+
+        if (count >= MAX_ENTRIES) {
+            throw new RuntimeException("Constant pool is full, a class can have at most " + MAX_ENTRIES + " constants");
+        }
+
+        try {
+            writer.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        indexes.put(key, count);
+        return count++;
+    }
+
+    /**
+     * Writes the constant_pool_count and the constant_pool items of the class file.
+     */
+    public void writeTo(DataOutputStream classFile) throws IOException {
+        classFile.writeShort(count);
+        bytes.writeTo(classFile);
+    }
+
+    private interface EntryWriter {
+        void write() throws IOException;
+    }
+}
@@ -0,0 +1,159 @@
+package pt.up.fe.comp2024.backend;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp2024.optimization.LivenessAnalysis;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the assignments of a method that both backends can select as iinc.
+ * <p>
+ * An assignment is an increment when it adds a constant to, or subtracts a constant from, a local in the register it
+ * writes. Registers are compared rather than names, so the SSA versions of a local that the register allocators put
+ * in the same register are increments too. Without optimizations, 'x = x + 1' is generated as 'tmp = x + 1; x = tmp',
+ * so such a pair is also an increment of x when tmp is only read by the copy, and the copy is then not generated.
+ */
+public class IncrementSelection {
+
+    /**
+     * @param register the register that is incremented
+     * @param value    the constant added to it, which fits in the wide form of iinc
+     */
+    public record Increment(int register, int value) {
+    }
+
+    private final Method method;
+
+    // The increments of the assignments, and the copies of the pairs that the increment of the first one replaces
+    private final Map<Instruction, Increment> increments;
+    private final Set<Instruction> foldedCopies;
+
+    public IncrementSelection(Method method) {
+        this.method = method;
+        this.increments = new IdentityHashMap<>();
+        this.foldedCopies = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        findIncrements();
+    }
+
+    /**
+     * @return the increment an assignment is selected as, or null if it is not one
+     */
+    public Increment get(Instruction instruction) {
+        return increments.get(instruction);
+    }
+
+    /**
+     * @return true if the instruction is a copy already done by the increment before it, and generates no code
+     */
+    public boolean isFolded(Instruction instruction) {
+        return foldedCopies.contains(instruction);
+    }
+
+    private void findIncrements() {
+        var instructions = method.getInstructions();
+        LivenessAnalysis liveness = null;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign) || !isLocal(assign.getDest())) {
+                continue;
+            }
+
+            var dest = (Operand) assign.getDest();
+            var variable = getIncremented(assign.getRhs());
+            if (variable == null) {
+                continue;
+            }
+
+            int value = getConstant((BinaryOpInstruction) assign.getRhs());
+            if (getRegister(variable) == getRegister(dest)) {
+                increments.put(assign, new Increment(getRegister(dest), value));
+                continue;
+            }
+
+            // tmp = x + c; x = tmp, where nothing jumps to the copy and nothing else reads tmp
+            if (i + 1 >= instructions.size() || !(instructions.get(i + 1) instanceof AssignInstruction copy)
+                    || !method.getLabels(copy).isEmpty() || !isLocal(copy.getDest())
+                    || !(copy.getRhs() instanceof SingleOpInstruction singleOp)
+                    || !isLocal(singleOp.getSingleOperand())
+                    || !((Operand) singleOp.getSingleOperand()).getName().equals(dest.getName())
+                    || getRegister((Operand) copy.getDest()) != getRegister(variable)) {
+                continue;
+            }
+
+            if (liveness == null) {
+                liveness = new LivenessAnalysis(method);
+            }
+            if (countReads(liveness, dest.getName()) == 1) {
+                increments.put(assign, new Increment(getRegister(variable), value));
+                foldedCopies.add(copy);
+            }
+        }
+    }
+
+    /**
+     * @return x if the right side is 'x + c', 'c + x' or 'x - c', with c a constant that fits in a wide iinc, or null
+     */
+    private static Operand getIncremented(Instruction rhs) {
+        if (!(rhs instanceof BinaryOpInstruction binaryOp)) {
+            return null;
+        }
+
+        var opType = binaryOp.getOperation().getOpType();
+        boolean literalLeft = binaryOp.getLeftOperand().isLiteral();
+        boolean literalRight = binaryOp.getRightOperand().isLiteral();
+        if (literalLeft == literalRight || opType == OperationType.SUB && literalLeft
+                || opType != OperationType.ADD && opType != OperationType.SUB) {
+            return null;
+        }
+
+        var variable = literalLeft ? binaryOp.getRightOperand() : binaryOp.getLeftOperand();
+        if (!isLocal(variable)) {
+            return null;
+        }
+
+        // Negating the constant of a subtraction can leave the range of int
+        long increment = getLongConstant(binaryOp);
+        return increment >= Short.MIN_VALUE && increment <= Short.MAX_VALUE ? (Operand) variable : null;
+    }
+
+    private static int getConstant(BinaryOpInstruction binaryOp) {
+        return (int) getLongConstant(binaryOp);
+    }
+
+    private static long getLongConstant(BinaryOpInstruction binaryOp) {
+        var literal = (LiteralElement) (binaryOp.getLeftOperand().isLiteral() ?
+                binaryOp.getLeftOperand() : binaryOp.getRightOperand());
+
+        long increment = Long.parseLong(literal.getLiteral());
+        return binaryOp.getOperation().getOpType() == OperationType.SUB ? -increment : increment;
+    }
+
+    /**
+     * @return true if the element is an int variable of the method, and not an array element or a literal
+     */
+    private static boolean isLocal(Element element) {
+        return element instanceof Operand operand && !(operand instanceof ArrayOperand)
+                && operand.getType().getTypeOfElement() == ElementType.INT32;
+    }
+
+    private int getRegister(Operand operand) {
+        var descriptor = method.getVarTable().get(operand.getName());
+        return descriptor == null ? -1 : descriptor.getVirtualReg();
+    }
+
+    private static int countReads(LivenessAnalysis liveness, String name) {
+        int variable = liveness.getVariableIndex(name);
+        int reads = 0;
+        for (int i = 0; i < liveness.getNumInstructions(); i++) {
+            if (liveness.getUses(i).get(variable)) {
+                reads++;
+            }
+        }
+
+        return reads;
+    }
+}
@@ -0,0 +1,43 @@
+package pt.up.fe.comp2024.backend;
+
+import jasmin.ClassFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+
+/**
+ * Assembles Jasmin code into the bytes of a .class file, in memory.
+ * <p>
+ * The Jasmin library keeps some of its state in static fields, so assembling is serialized between threads.
+ */
+public class JasminAssembler {
+
+    private static final Object LOCK = new Object();
+
+    /**
+     * @param className  the name of the class, used in error messages
+     * @param jasminCode the Jasmin code of the class
+     * @return the contents of the .class file
+     */
+    public static byte[] assemble(String className, String jasminCode) {
+        synchronized (LOCK) {
+            try {
+                var classFile = new ClassFile();
+                classFile.readJasmin(new StringReader(jasminCode), className + ".j", true);
+
+                if (classFile.errorCount() > 0) {
+                    throw new RuntimeException("Found " + classFile.errorCount()
+                            + " errors while assembling the Jasmin code of class '" + className + "'");
+                }
+
+                var bytes = new ByteArrayOutputStream();
+                classFile.write(bytes);
+                return bytes.toByteArray();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException("Could not assemble the Jasmin code of class '" + className + "'", e);
+            }
+        }
+    }
+}
@@ -4,16 +4,18 @@ import org.specs.comp.ollir.*;
 import org.specs.comp.ollir.tree.TreeNode;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
 import pt.up.fe.comp.jmm.report.Report;
-import pt.up.fe.specs.util.classmap.FunctionClassMap;
+import pt.up.fe.comp2024.optimization.StrengthReduction;
+import pt.up.fe.specs.util.classmap.BiConsumerClassMap;
 import pt.up.fe.specs.util.exceptions.NotImplementedException;
-import pt.up.fe.specs.util.utilities.StringLines;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 /**
  * Generates Jasmin code from an OllirResult.
  * <p>
+ * All the code is written to a single buffer that is passed to every generator, which write their instructions
+ * already indented, so no intermediate strings are created and joined for each instruction.
+ * <p>
  * One JasminGenerator instance per OllirResult.
  */
 public class JasminGenerator {
@@ -21,8 +23,6 @@ public class JasminGenerator {
     private static final String NL = "\n";
     private static final String TAB = "   ";
 
-    private static int cmpCounter = 0;
-
     private final OllirResult ollirResult;
 
     List<Report> reports;
@@ -33,12 +33,17 @@ public class JasminGenerator {
 
     Method currentMethod;
 
+    // Assignments of the current method that are generated as iinc
+    private IncrementSelection increments;
+
     int limitLocals;
-    int limitStack;
-    int currentStack;
-    int numArgs;
 
-    private final FunctionClassMap<TreeNode, String> generators;
+    private int cmpCounter;
+
+    // Instructions of the method being generated, reused for every method since its limits are written before it
+    private final StringBuilder methodCode;
+
+    private final BiConsumerClassMap<TreeNode, StringBuilder> generators;
 
     public JasminGenerator(OllirResult ollirResult) {
         this.ollirResult = ollirResult;
@@ -47,8 +52,10 @@ public class JasminGenerator {
         code = null;
         currentMethod = null;
         className = "";
+        cmpCounter = 0;
+        methodCode = new StringBuilder();
 
-        this.generators = new FunctionClassMap<>();
+        this.generators = new BiConsumerClassMap<>();
         // Basic elements
         generators.put(ClassUnit.class, this::generateClassCode);
         generators.put(Field.class, this::generateFieldDeclarationCode);
@@ -79,16 +86,16 @@ public class JasminGenerator {
 
     public String build() {
         if (code == null) {
-            code = generators.apply(ollirResult.getOllirClass());
+            StringBuilder classCode = new StringBuilder();
+            generators.accept(ollirResult.getOllirClass(), classCode);
+            code = classCode.toString();
         }
 
         return code;
     }
 
     // Class generation
-    private String generateClassCode(ClassUnit classUnit) {
-        StringBuilder code = new StringBuilder();
-
+    private void generateClassCode(ClassUnit classUnit, StringBuilder code) {
         appendClassDeclaration(code, classUnit);
         appendSuperClass(code, classUnit);
 
@@ -100,8 +107,6 @@ public class JasminGenerator {
 
         // Methods generation
         generateMethods(code, classUnit);
-
-        return code.toString();
     }
 
     // Helper methods for class generation
@@ -132,9 +137,9 @@ public class JasminGenerator {
     }
 
     private void generateFields(StringBuilder code, ClassUnit classUnit) {
-        classUnit.getFields().stream()
-                .map(field -> generators.apply(field) + NL)
-                .forEach(code::append);
+        for (Field field : classUnit.getFields()) {
+            generators.accept(field, code);
+        }
     }
 
     private void generateDefaultConstructor(StringBuilder code, ClassUnit classUnit) {
@@ -155,15 +160,16 @@ public class JasminGenerator {
 
     // Method generation
     private void generateMethods(StringBuilder code, ClassUnit classUnit) {
-        classUnit.getMethods().stream()
-                .filter(method -> !method.isConstructMethod())  // Filter out constructor methods
-                .map(generators::apply)  // Apply the generator function to each method
-                .forEach(code::append);  // Append each generated string to the StringBuilder
+        for (Method method : classUnit.getMethods()) {
+            // Filter out constructor methods
+            if (!method.isConstructMethod()) {
+                generators.accept(method, code);
+            }
+        }
     }
 
     // Field generation
-    private String generateFieldDeclarationCode(Field field) {
-        StringBuilder code = new StringBuilder();
+    private void generateFieldDeclarationCode(Field field, StringBuilder code) {
         String name = field.getFieldName();
         String jasminType = generateJasminType(field.getFieldType());
         String visibility = "";
@@ -185,7 +191,7 @@ public class JasminGenerator {
             code.append(" = ").append(field.getInitialValue());
         }
 
-        return code.toString();
+        code.append(NL);
     }
 
     // Field access instructions
@@ -203,36 +209,25 @@ public class JasminGenerator {
     }
 
     // Instruction generation
-    private String generateGetFieldInstrCode(GetFieldInstruction getFieldInstr) {
-        StringBuilder code = new StringBuilder();
-        code.append(generators.apply(getFieldInstr.getObject()));
+    private void generateGetFieldInstrCode(GetFieldInstruction getFieldInstr, StringBuilder code) {
+        generators.accept(getFieldInstr.getObject(), code);
 
-        code.append("getfield ");
+        code.append(TAB).append("getfield ");
         generateFieldAccessCode(code, getFieldInstr);
-
-        return code.toString();
     }
 
     // Instruction generation
-    private String generatePutFieldInstrCode(PutFieldInstruction putFieldInstr) {
-        StringBuilder code = new StringBuilder();
+    private void generatePutFieldInstrCode(PutFieldInstruction putFieldInstr, StringBuilder code) {
+        generators.accept(putFieldInstr.getObject(), code);
+        generators.accept(putFieldInstr.getValue(), code);
 
-        code.append(generators.apply(putFieldInstr.getObject()));
-        code.append(generators.apply(putFieldInstr.getValue()));
 
-
-        code.append("putfield ");
-        this.decrementStack(2); // PROVISIONAL
+        code.append(TAB).append("putfield ");
         generateFieldAccessCode(code, putFieldInstr);
-
-        return code.toString();
     }
 
     // Instruction generation
-    private String generateAssignmentInstrCode(AssignInstruction assign) {
-        StringBuilder code = new StringBuilder();
-
-
+    private void generateAssignmentInstrCode(AssignInstruction assign, StringBuilder code) {
         Element lhs = assign.getDest();
 
         if (!(lhs instanceof Operand operand)) {
@@ -242,63 +237,37 @@ public class JasminGenerator {
         if (lhs instanceof ArrayOperand) {
             // load arrayRef
             int register = currentMethod.getVarTable().get(operand.getName()).getVirtualReg();
-            this.incrementStack(1);
 
-            code.append("aload").append(register > 3 ? " " : "_").append(register).append(NL);
+            appendLocal(code, "aload", register);
 
             // load index
-            code.append(generators.apply(((ArrayOperand) lhs).getIndexOperands().get(0)));
+            generators.accept(((ArrayOperand) lhs).getIndexOperands().get(0), code);
             // load value
-            code.append(generators.apply(assign.getRhs()));
+            generators.accept(assign.getRhs(), code);
 
-            code.append("iastore").append(NL);
-            this.decrementStack(3);
+            code.append(TAB).append("iastore").append(NL);
 
-            return code.toString();
+            return;
         }
-        int register = currentMethod.getVarTable().get(operand.getName()).getVirtualReg();
-
-        // use iinc if incrementing a variable
-
-
-        if (assign.getRhs().getInstType().equals(InstructionType.BINARYOPER)) {
-            BinaryOpInstruction binaryOp = (BinaryOpInstruction) assign.getRhs();
-            if (binaryOp.getOperation().getOpType().equals(OperationType.ADD)) {
-                boolean literalLeft = binaryOp.getLeftOperand().isLiteral();
-                boolean literalRight = binaryOp.getRightOperand().isLiteral();
-
-                // if one of the operands is a literal, we can use iinc
-                if ((literalLeft != literalRight)) {
-                    Operand variable = literalLeft ? (Operand) binaryOp.getRightOperand() : (Operand) binaryOp.getLeftOperand();
-
-                    if (variable.getName().equals(((Operand) assign.getDest()).getName())) {
-                        int increment = Integer.parseInt(literalLeft ? ((LiteralElement) binaryOp.getLeftOperand()).getLiteral() : ((LiteralElement) binaryOp.getRightOperand()).getLiteral());
-                        if (increment <= 127 && increment >= -128) {
-                            code.append("iinc ").append(register).append(' ').append(increment).append(NL);
-                            return code.toString();
-                        }
-                    }
-                }
-
-            }
+        // use iinc if incrementing a variable, in its wide form for constants that do not fit in a byte
+        var increment = increments.get(assign);
+        if (increment != null) {
+            int value = increment.value();
+            String iinc = value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE && increment.register() <= 0xFF ?
+                    "iinc " : "iinc_w ";
+            code.append(TAB).append(iinc).append(increment.register()).append(' ').append(value).append(NL);
+            return;
         }
 
-        code.append(generators.apply(assign.getRhs()));
+        int register = currentMethod.getVarTable().get(operand.getName()).getVirtualReg();
 
+        generators.accept(assign.getRhs(), code);
 
-        switch (operand.getType().getTypeOfElement()) {
-            case INT32, BOOLEAN -> {
-                this.decrementStack(1);
-                code.append("istore").append(register > 3 ? " " : "_").append(register).append(NL);
-            }
-            case OBJECTREF, ARRAYREF, STRING, CLASS -> {
-                this.decrementStack(1);
-                code.append("astore").append(register > 3 ? " " : "_").append(register).append(NL);
 
-            }
+        switch (operand.getType().getTypeOfElement()) {
+            case INT32, BOOLEAN -> appendLocal(code, "istore", register);
+            case OBJECTREF, ARRAYREF, STRING, CLASS -> appendLocal(code, "astore", register);
         }
-
-        return code.toString();
     }
 
     private void appendMethodSignature(StringBuilder code, Method method) {
@@ -313,94 +282,116 @@ public class JasminGenerator {
     }
 
     private void appendMethodBody(StringBuilder code, Method method) {
-
-        StringBuilder methodCode = new StringBuilder();
+        methodCode.setLength(0);
         this.limitLocals = computeLimitLocals(method);
-        this.limitStack = 0;
-        this.currentStack = 0;
 
+        var labels = indexLabels(method);
         for (Instruction inst : method.getInstructions()) {
-            for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
-                if (inst.equals(label.getValue())) {
-                    methodCode.append(label.getKey()).append(':').append(NL);
-                }
+            var instLabels = labels.get(inst);
+            if (instLabels != null) {
+                instLabels.forEach(label -> methodCode.append(label).append(':').append(NL));
+            }
+            if (!increments.isFolded(inst)) {
+                appendInstruction(methodCode, inst);
             }
-            appendInstruction(methodCode, inst);
         }
 
-        appendStackAndLocalsLimits(code, this.limitLocals, this.limitStack);
+        // The exact depth of the stack, found by simulating the generated instructions
+        int limitStack = JasminStackSimulator.computeMaxStack(methodCode);
+
+        appendStackAndLocalsLimits(code, this.limitLocals, limitStack);
         code.append(methodCode);
 
         code.append(".end method").append(NL);
     }
 
+    /**
+     * @return the labels placed before each instruction of the method
+     */
+    private static Map<Instruction, List<String>> indexLabels(Method method) {
+        // Instructions do not override equals, so labels are matched to the instruction objects themselves
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (Map.Entry<String, Instruction> label : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), inst -> new ArrayList<>(1)).add(label.getKey());
+        }
+
+        return labels;
+    }
+
     private void appendStackAndLocalsLimits(StringBuilder code, int limitLocals, int limitStack) {
         code.append(TAB).append(".limit stack ").append(limitStack).append(NL);
         code.append(TAB).append(".limit locals ").append(limitLocals).append(NL);
     }
     private void appendInstruction(StringBuilder code, Instruction inst) {
-        String instruction = StringLines.getLines(generators.apply(inst)).stream()
-                .collect(Collectors.joining(NL + TAB, TAB, NL));
-        code.append(instruction);
+        generators.accept(inst, code);
         handlePopAfterInvoke(inst, code);
     }
 
     private void handlePopAfterInvoke(Instruction inst, StringBuilder code) {
         if (inst instanceof CallInstruction && !((CallInstruction) inst).getReturnType().getTypeOfElement().equals(ElementType.VOID)) {
-            if (!((CallInstruction) inst).getReturnType().getTypeOfElement().equals(ElementType.VOID)) {
-                code.append(TAB).append("pop").append(NL);
-                this.decrementStack(1);
-            }
+            code.append(TAB).append("pop").append(NL);
         }
     }
 
-    private String generateMethodSignatureAndBodyCode(Method method) {
-        StringBuilder code = new StringBuilder();
+    private void generateMethodSignatureAndBodyCode(Method method, StringBuilder code) {
         currentMethod = method;
+        increments = new IncrementSelection(method);
         appendMethodSignature(code, method);
         appendMethodBody(code, method);
         currentMethod = null;
-        return code.toString();
+        increments = null;
+    }
+
+    /**
+     * Appends a load or store of a local, using the short form for the first four registers.
+     */
+    private static void appendLocal(StringBuilder code, String instruction, int register) {
+        code.append(TAB).append(instruction).append(register > 3 ? ' ' : '_').append(register).append(NL);
     }
 
 
-    private String generateLoadOperandCode(Operand operand) {
+    private void generateLoadOperandCode(Operand operand, StringBuilder code) {
         int register = currentMethod.getVarTable().get(operand.getName()).getVirtualReg();
 
         // if we put "astore", we load with "aload"
         if (operand instanceof ArrayOperand) {
-            StringBuilder code = new StringBuilder();
-            this.incrementStack(1);
-            code.append("aload").append(register > 3 ? " " : "_").append(register).append(NL);
-            code.append(generators.apply(((ArrayOperand) operand).getIndexOperands().get(0)));
-            code.append("iaload").append(NL);
-            this.decrementStack(1);
-            return code.toString();
+            appendLocal(code, "aload", register);
+            generators.accept(((ArrayOperand) operand).getIndexOperands().get(0), code);
+            code.append(TAB).append("iaload").append(NL);
+            return;
 
         }
 
-        this.incrementStack(1);
-
-        return switch (operand.getType().getTypeOfElement()) {
-            case INT32, BOOLEAN -> "iload" + (register > 3 ? " " : "_") + register + NL;
-            case THIS, OBJECTREF, ARRAYREF, STRING, CLASS -> "aload" + (register > 3 ? " " : "_") + register + NL;
-            default -> "";
-        };
+        switch (operand.getType().getTypeOfElement()) {
+            case INT32, BOOLEAN -> appendLocal(code, "iload", register);
+            case THIS, OBJECTREF, ARRAYREF, STRING, CLASS -> appendLocal(code, "aload", register);
+            default -> {
+            }
+        }
     }
 
 
-    private String generateBinaryOperationInstrCode(BinaryOpInstruction binaryOp) {
-        StringBuilder code = new StringBuilder();
-        code.append(generators.apply(binaryOp.getLeftOperand()));
-        code.append(generators.apply(binaryOp.getRightOperand()));
+    private void generateBinaryOperationInstrCode(BinaryOpInstruction binaryOp, StringBuilder code) {
+        generators.accept(binaryOp.getLeftOperand(), code);
 
         OperationType opType = binaryOp.getOperation().getOpType();
+        int shift = StrengthReduction.getShift(binaryOp.getRightOperand());
+        if (opType.equals(OperationType.DIV) && shift > 0) {
+            generateDivisionByShift(shift, code);
+            return;
+        }
+
+        generators.accept(binaryOp.getRightOperand(), code);
+
         String op = switch (opType) {
             case ADD -> "iadd";
             case SUB -> "isub";
             case MUL -> "imul";
             case DIV -> "idiv";
             case ANDB -> "iand";
+            case SHL -> "ishl";
+            case SHR -> "ishr";
+            case SHRR -> "iushr";
             case LTH -> "if_icmplt";
             case GTE -> "if_icmpge";
             default -> throw new NotImplementedException(binaryOp.getOperation().getOpType());
@@ -408,150 +399,133 @@ public class JasminGenerator {
 
         if (opType.equals(OperationType.LTH) || opType.equals(OperationType.GTE)) {
             int cmpCounter = getAndIncrementCmpCounter();
-            code.append(op).append(' ').append("cmp_true_").append(cmpCounter).append(NL);
-            this.decrementStack(2);
-            code.append("iconst_0").append(NL);
-            this.incrementStack(1);
-            code.append("goto ").append("cmp_end_").append(cmpCounter).append(NL);
+            code.append(TAB).append(op).append(' ').append("cmp_true_").append(cmpCounter).append(NL);
+            code.append(TAB).append("iconst_0").append(NL);
+            code.append(TAB).append("goto ").append("cmp_end_").append(cmpCounter).append(NL);
             code.append("cmp_true_").append(cmpCounter).append(":").append(NL);
-            this.incrementStack(1);
-            code.append("iconst_1").append(NL);
+            code.append(TAB).append("iconst_1").append(NL);
             code.append("cmp_end_").append(cmpCounter).append(":").append(NL);
 
 
         } else {
-            code.append(op).append(NL);
-            this.decrementStack(1);
+            code.append(TAB).append(op).append(NL);
         }
-
-        return code.toString();
     }
 
 
-    private String generateReturnInstrCode(ReturnInstruction instruction) {
-        StringBuilder code = new StringBuilder();  // Explicitly declare as StringBuilder
+    /**
+     * Divides the value on top of the stack by 2^shift. An arithmetic shift rounds down, so 2^shift - 1 is added to
+     * negative dividends first, to round towards zero like idiv.
+     */
+    private void generateDivisionByShift(int shift, StringBuilder code) {
+        code.append(TAB).append("dup").append(NL);
+        if (shift == 1) {
+            appendIntConstant(code, 31);
+            code.append(TAB).append("iushr").append(NL);
+        } else {
+            appendIntConstant(code, 31);
+            code.append(TAB).append("ishr").append(NL);
+            appendIntConstant(code, 32 - shift);
+            code.append(TAB).append("iushr").append(NL);
+        }
+        code.append(TAB).append("iadd").append(NL);
+        appendIntConstant(code, shift);
+        code.append(TAB).append("ishr").append(NL);
+    }
 
+    private void generateReturnInstrCode(ReturnInstruction instruction, StringBuilder code) {
         if (instruction.hasReturnValue()) {
-            code.append(generators.apply(instruction.getOperand()));
+            generators.accept(instruction.getOperand(), code);
         }
 
         ElementType type = instruction.getElementType();
         switch (type) {
-            case VOID -> code.append("return").append(NL);
-            case INT32, BOOLEAN -> code.append("ireturn").append(NL);
-            case OBJECTREF, ARRAYREF, STRING, CLASS -> code.append("areturn").append(NL);
+            case VOID -> code.append(TAB).append("return").append(NL);
+            case INT32, BOOLEAN -> code.append(TAB).append("ireturn").append(NL);
+            case OBJECTREF, ARRAYREF, STRING, CLASS -> code.append(TAB).append("areturn").append(NL);
         }
-
-        return code.toString();
     }
 
 
-    private String generateCallInstrCode(CallInstruction instruction) {
-        StringBuilder code = new StringBuilder();
-
+    private void generateCallInstrCode(CallInstruction instruction, StringBuilder code) {
         CallType invocationType = instruction.getInvocationType();
 
-        this.numArgs = 0;
-
         switch (invocationType) {
             case invokevirtual:
-                code.append(generators.apply(instruction.getCaller()));
-                this.numArgs = 1;
-                for (Element ignored : instruction.getArguments()) {
-                    this.numArgs += 1;
-                }
+                generators.accept(instruction.getCaller(), code);
                 // Fall through to append arguments
             case invokestatic:
-                // Ensure this doesn't happen for invokevirtual twice
-                if (invocationType.equals(CallType.invokestatic)) {
-                    for (Element ignored : instruction.getArguments()) {
-                        this.numArgs += 1;
-                    }
-                }
             case invokespecial:
-                instruction.getArguments().forEach(arg -> code.append(generators.apply(arg)));
+                instruction.getArguments().forEach(arg -> generators.accept(arg, code));
 
                 if (invocationType.equals(CallType.invokespecial)) {
-                    code.append(generators.apply(instruction.getCaller()));
+                    generators.accept(instruction.getCaller(), code);
                 }
 
                 String name = (invocationType.equals(CallType.invokestatic)) ?
                         generateFullName(((Operand) instruction.getCaller()).getName()) :
                         generateFullName(((ClassType) instruction.getCaller().getType()).getName());
 
-                code.append(invocationType.name()).append(' ');
+                code.append(TAB).append(invocationType.name()).append(' ');
                 code.append(name).append('/');
                 String methodName = ((LiteralElement) instruction.getMethodName()).getLiteral().replace("\"", "");
                 code.append(methodName);
                 code.append('(');
                 instruction.getArguments().forEach(arg -> code.append(generateJasminType(arg.getType())));
                 Type ret = instruction.getReturnType();
-
-                this.numArgs = (ret.getTypeOfElement() == ElementType.VOID) ? this.numArgs : this.numArgs - 1;
-
                 code.append(')').append(generateJasminType(ret)).append(NL);
                 break;
 
             case NEW:
-                this.numArgs = -1;
-
-                for (Element ignored : instruction.getArguments()) {
-                    this.numArgs += 1;
-                }
-
                 if (instruction.getCaller() instanceof Operand && ((Operand) instruction.getCaller()).getName().equals("array")) {
-                    code.append(generators.apply(instruction.getArguments().get(0)));
-                    code.append("newarray int").append(NL);
+                    generators.accept(instruction.getArguments().get(0), code);
+                    code.append(TAB).append("newarray int").append(NL);
                     break;
                 }
 
-                code.append(invocationType.name().toLowerCase()).append(' ');
+                code.append(TAB).append(invocationType.name().toLowerCase()).append(' ');
                 Operand operand = (Operand) instruction.getCaller();
                 code.append(operand.getName()).append(NL);
                 break;
 
             case arraylength:
-                code.append(generators.apply(instruction.getCaller()));
-                code.append("arraylength").append(NL);
+                generators.accept(instruction.getCaller(), code);
+                code.append(TAB).append("arraylength").append(NL);
                 break;
 
             default:
                 throw new IllegalStateException("Unsupported invocation type: " + invocationType);
         }
-
-        this.decrementStack(this.numArgs);
-
-        return code.toString();
     }
 
 
-    private String generateSingleOpInstrCode(SingleOpInstruction singleOp) {
-        return generators.apply(singleOp.getSingleOperand());
+    private void generateSingleOpInstrCode(SingleOpInstruction singleOp, StringBuilder code) {
+        generators.accept(singleOp.getSingleOperand(), code);
     }
 
-    private String generateLiteralElementCode(LiteralElement literal) {
+    private void generateLiteralElementCode(LiteralElement literal, StringBuilder code) {
+        if (!literal.getType().getTypeOfElement().equals(ElementType.INT32) && !literal.getType().getTypeOfElement().equals(ElementType.BOOLEAN)) {
+            code.append(TAB).append("ldc ").append(literal.getLiteral()).append(NL);
+        } else {
+            appendIntConstant(code, Integer.parseInt(literal.getLiteral()));
+        }
+    }
 
-        StringBuilder code = new StringBuilder();
+    private static void appendIntConstant(StringBuilder code, int value) {
+        code.append(TAB);
 
-        if (!literal.getType().getTypeOfElement().equals(ElementType.INT32) && !literal.getType().getTypeOfElement().equals(ElementType.BOOLEAN)) {
-            code.append("ldc ").append(literal.getLiteral()).append(NL);
+        if (value == -1) {
+            code.append("iconst_m1").append(NL);
+        }
+        else if (value <= 5 && value >= 0) {
+            code.append("iconst_").append(value).append(NL);
+        } else if (value <= 127 && value >= -128) {
+            code.append("bipush ").append(value).append(NL);
+        } else if (value <= 32767 && value >= -32768) {
+            code.append("sipush ").append(value).append(NL);
         } else {
-            int value = Integer.parseInt(literal.getLiteral());
-            if (value == -1) {
-                code.append("iconst_m1").append(NL);
-            }
-            else if (value <= 5 && value >= 0) {
-                code.append("iconst_").append(value).append(NL);
-            } else if (value <= 127 && value >= -128) {
-                code.append("bipush ").append(value).append(NL);
-            } else if (value <= 32767 && value >= -32768) {
-                code.append("sipush ").append(value).append(NL);
-            } else {
-                code.append("ldc ").append(value).append(NL);
-            }
+            code.append("ldc ").append(value).append(NL);
         }
-        this.incrementStack(1);
-        return code.toString();
     }
 
 
@@ -581,79 +555,60 @@ public class JasminGenerator {
                 .orElse(simpleName);
     }
 
-    private String generateUnaryOpInstrCode(UnaryOpInstruction unaryOp) {
-        StringBuilder code = new StringBuilder();
-        code.append(generators.apply(unaryOp.getOperand()));
-        String op = switch (unaryOp.getOperation().getOpType()) {
-            case NOTB -> "iconst_1" + NL + "ixor";
+    private void generateUnaryOpInstrCode(UnaryOpInstruction unaryOp, StringBuilder code) {
+        generators.accept(unaryOp.getOperand(), code);
+        switch (unaryOp.getOperation().getOpType()) {
+            case NOTB -> {
+                code.append(TAB).append("iconst_1").append(NL);
+                code.append(TAB).append("ixor").append(NL);
+            }
             default -> throw new NotImplementedException(unaryOp.getOperation().getOpType());
-        };
-
-        code.append(op).append(NL);
-        this.incrementStack(1);
-
-
-        return code.toString();
+        }
     }
 
-    private String generateSingleOpCondInstrCode(SingleOpCondInstruction singleOpCond) {
-        StringBuilder code = new StringBuilder();
-        code.append(generators.apply(singleOpCond.getOperands().get(0)));
-        code.append("ifne").append(' ').append(singleOpCond.getLabel()).append(NL);
-        this.decrementStack(1);
-
-        return code.toString();
+    private void generateSingleOpCondInstrCode(SingleOpCondInstruction singleOpCond, StringBuilder code) {
+        generators.accept(singleOpCond.getOperands().get(0), code);
+        code.append(TAB).append("ifne").append(' ').append(singleOpCond.getLabel()).append(NL);
     }
 
 
-    private String generateGoToInstrCode(GotoInstruction goTo) {
-        return "goto " + goTo.getLabel() + NL;
+    private void generateGoToInstrCode(GotoInstruction goTo, StringBuilder code) {
+        code.append(TAB).append("goto ").append(goTo.getLabel()).append(NL);
     }
 
-    private String generateOpCondInstrCode(OpCondInstruction opCond) {
-        StringBuilder code = new StringBuilder();
-
-        code.append(opCond.getOperands().stream()
-                .map(generators::apply)
-                .collect(Collectors.joining()));
-
+    private void generateOpCondInstrCode(OpCondInstruction opCond, StringBuilder code) {
+        opCond.getOperands().forEach(operand -> generators.accept(operand, code));
 
         switch (opCond.getCondition().getOperation().getOpType()) {
             case LTH:
                 if (opCond.getCondition().getOperands().get(1) instanceof LiteralElement) {
-                    code.append("isub").append(NL);
-                    code.append("iflt ").append(opCond.getLabel()).append(NL);
-                    this.decrementStack(2);
+                    code.append(TAB).append("isub").append(NL);
+                    code.append(TAB).append("iflt ").append(opCond.getLabel()).append(NL);
                 }
 
                 else if (opCond.getCondition().getOperands().get(0) instanceof LiteralElement) {
-                    code.append("isub").append(NL);
-                    code.append("ifgt ").append(opCond.getLabel()).append(NL);
-                    this.decrementStack(2);
+                    code.append(TAB).append("isub").append(NL);
+                    code.append(TAB).append("ifgt ").append(opCond.getLabel()).append(NL);
                 }
 
                 else { // In case it's two variables, no need to subtract (do we need this???????)
-                    code.append("if_icmplt ").append(opCond.getLabel()).append(NL);
-                    this.decrementStack(2);
+                    code.append(TAB).append("if_icmplt ").append(opCond.getLabel()).append(NL);
                 }
                 break;
 
             case GTE:
                 if (opCond.getCondition().getOperands().get(1) instanceof LiteralElement) {
-                    code.append("isub").append(NL);
-                    code.append("ifge ").append(opCond.getLabel()).append(NL);
-                    this.decrementStack(2);
+                    code.append(TAB).append("isub").append(NL);
+                    code.append(TAB).append("ifge ").append(opCond.getLabel()).append(NL);
                 }
 
                 else if (opCond.getCondition().getOperands().get(0) instanceof LiteralElement) {
-                    code.append("isub").append(NL);
-                    code.append("ifle ").append(opCond.getLabel()).append(NL);
-                    this.decrementStack(2);
+                    code.append(TAB).append("isub").append(NL);
+                    code.append(TAB).append("ifle ").append(opCond.getLabel()).append(NL);
                 }
 
                 else { // In case it's two variables, no need to subtract (do we need this???????)
-                    code.append("if_icmpge ").append(opCond.getLabel()).append(NL);
-                    this.decrementStack(2);
+                    code.append(TAB).append("if_icmpge ").append(opCond.getLabel()).append(NL);
                 }
                 break;
 
@@ -661,27 +616,18 @@ public class JasminGenerator {
             default:
                 throw new NotImplementedException(opCond.getCondition().getOperation().getOpType());
         }
-
-        return code.toString();
     }
 
     private int computeLimitLocals(Method method) {
-        Set<Integer> registers = new TreeSet<>();
-        registers.add(0); // 'this' reference
+        // 'this' and the parameters always have registers, even if they are not used
+        int limitLocals = method.isStaticMethod() ? 0 : 1;
+        limitLocals += method.getParams().size();
 
+        // After register allocation, variables share registers, and names that are not variables have none
         for (Descriptor desc : method.getVarTable().values()) {
-            registers.add(desc.getVirtualReg());
+            limitLocals = Math.max(limitLocals, desc.getVirtualReg() + 1);
         }
-        return registers.size();
-    }
-
-    private void incrementStack(int increment) {
-        this.currentStack += increment;
-        this.limitStack = Math.max(this.currentStack, this.limitStack);
-    }
-
-    private void decrementStack(int decrement) {
-        this.currentStack -= decrement;
+        return limitLocals;
     }
 
     private int getAndIncrementCmpCounter() {
@@ -0,0 +1,219 @@
+package pt.up.fe.comp2024.backend;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes the maximum depth of the operand stack of a method from its Jasmin instructions.
+ * <p>
+ * The instructions are simulated following every branch, so the result is the exact depth the JVM checks against
+ * '.limit stack'. Since the JVM requires the stack to have the same depth on every path that reaches an instruction,
+ * reaching a label with two different depths is reported as an error, instead of producing a class that fails to
+ * verify.
+ */
+public class JasminStackSimulator {
+
+    private final List<String> mnemonics;
+    private final List<String> operands;
+    private final Map<String, Integer> labels;
+
+    // For error messages, the label placed before each instruction, if any
+    private final Map<Integer, String> labelNames;
+
+    private JasminStackSimulator() {
+        this.mnemonics = new ArrayList<>();
+        this.operands = new ArrayList<>();
+        this.labels = new HashMap<>();
+        this.labelNames = new HashMap<>();
+    }
+
+    /**
+     * @param methodCode the instructions and labels of a method, one per line, without the '.limit' directives
+     * @return the maximum depth of the operand stack
+     */
+    public static int computeMaxStack(CharSequence methodCode) {
+        var simulator = new JasminStackSimulator();
+        simulator.parse(methodCode);
+        return simulator.simulate();
+    }
+
+    private void parse(CharSequence code) {
+        int length = code.length();
+        int lineStart = 0;
+
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && code.charAt(lineEnd) != '\n') {
+                lineEnd++;
+            }
+
+            int start = lineStart;
+            int end = lineEnd;
+            while (start < end && Character.isWhitespace(code.charAt(start))) {
+                start++;
+            }
+            while (end > start && Character.isWhitespace(code.charAt(end - 1))) {
+                end--;
+            }
+
+            // Skip empty lines, comments and directives
+            if (start < end && code.charAt(start) != ';' && code.charAt(start) != '.') {
+                if (code.charAt(end - 1) == ':') {
+                    var label = code.subSequence(start, end - 1).toString();
+                    labels.put(label, mnemonics.size());
+                    labelNames.putIfAbsent(mnemonics.size(), label);
+                } else {
+                    int space = start;
+                    while (space < end && !Character.isWhitespace(code.charAt(space))) {
+                        space++;
+                    }
+
+                    mnemonics.add(code.subSequence(start, space).toString());
+                    operands.add(space < end ? code.subSequence(space, end).toString().strip() : "");
+                }
+            }
+
+            lineStart = lineEnd + 1;
+        }
+    }
+
+    private int simulate() {
+        int size = mnemonics.size();
+        int[] depths = new int[size];
+        Arrays.fill(depths, -1);
+
+        int maxStack = 0;
+        Deque<int[]> worklist = new ArrayDeque<>();
+        worklist.push(new int[]{0, 0});
+
+        while (!worklist.isEmpty()) {
+            var entry = worklist.pop();
+            int index = entry[0];
+            int depth = entry[1];
+
+            while (index < size) {
+                if (depths[index] != -1) {
+                    if (depths[index] != depth) {
+                        throw new RuntimeException("Inconsistent stack depth at " + describe(index) + ": "
+                                + depths[index] + " and " + depth);
+                    }
+                    break;
+                }
+                depths[index] = depth;
+
+                var mnemonic = mnemonics.get(index);
+                var operand = operands.get(index);
+
+                depth -= getPopped(mnemonic, operand);
+                if (depth < 0) {
+                    throw new RuntimeException("Operand stack underflow at " + describe(index));
+                }
+                depth += getPushed(mnemonic, operand);
+                maxStack = Math.max(maxStack, depth);
+
+                if (isBranch(mnemonic)) {
+                    var target = labels.get(operand);
+                    if (target == null) {
+                        throw new RuntimeException("Branch to label '" + operand + "', which is not placed");
+                    }
+                    worklist.push(new int[]{target, depth});
+                }
+
+                if (endsFlow(mnemonic)) {
+                    break;
+                }
+                index++;
+            }
+        }
+
+        return maxStack;
+    }
+
+    private String describe(int index) {
+        var label = labelNames.get(index);
+        var instruction = "'" + mnemonics.get(index) + (operands.get(index).isEmpty() ? "" : " " + operands.get(index))
+                + "'";
+        return label == null ? "instruction " + instruction : "label '" + label + "' (" + instruction + ")";
+    }
+
+    private static boolean isBranch(String mnemonic) {
+        return mnemonic.startsWith("if") || mnemonic.equals("goto");
+    }
+
+    private static boolean endsFlow(String mnemonic) {
+        return mnemonic.equals("goto") || mnemonic.endsWith("return") || mnemonic.equals("athrow");
+    }
+
+    private static int getPopped(String mnemonic, String operand) {
+        if (mnemonic.startsWith("invoke")) {
+            int arguments = countArguments(operand);
+            return mnemonic.equals("invokestatic") ? arguments : arguments + 1;
+        }
+
+        if (mnemonic.startsWith("istore") || mnemonic.startsWith("astore")) {
+            return 1;
+        }
+
+        return switch (mnemonic) {
+            case "iaload", "aaload", "iadd", "isub", "imul", "idiv", "irem", "ishl", "ishr", "iushr", "iand", "ior",
+                    "ixor", "if_icmpeq", "if_icmpne", "if_icmplt", "if_icmpge", "if_icmpgt", "if_icmple", "if_acmpeq",
+                    "if_acmpne", "putfield" -> 2;
+            case "iastore", "aastore" -> 3;
+            case "ifeq", "ifne", "iflt", "ifge", "ifgt", "ifle", "ifnull", "ifnonnull", "pop", "ireturn", "areturn",
+                    "putstatic", "getfield", "newarray", "anewarray", "arraylength", "ineg", "athrow", "dup" -> 1;
+            default -> 0;
+        };
+    }
+
+    private static int getPushed(String mnemonic, String operand) {
+        if (mnemonic.startsWith("invoke")) {
+            return operand.endsWith(")V") ? 0 : 1;
+        }
+
+        if (mnemonic.startsWith("iconst") || mnemonic.startsWith("iload") || mnemonic.startsWith("aload")) {
+            return 1;
+        }
+
+        if (mnemonic.startsWith("istore") || mnemonic.startsWith("astore")) {
+            return 0;
+        }
+
+        return switch (mnemonic) {
+            case "bipush", "sipush", "ldc", "ldc_w", "new", "getstatic", "iaload", "aaload", "iadd", "isub", "imul",
+                    "idiv", "irem", "ishl", "ishr", "iushr", "iand", "ior", "ixor", "getfield", "newarray",
+                    "anewarray", "arraylength", "ineg" -> 1;
+            case "dup" -> 2;
+            case "iastore", "aastore", "iinc", "iinc_w", "pop", "goto", "return", "ireturn", "areturn",
+                    "putfield", "putstatic", "athrow", "nop" -> 0;
+            default -> {
+                if (mnemonic.startsWith("if")) {
+                    yield 0;
+                }
+                throw new RuntimeException("Unknown Jasmin instruction '" + mnemonic + "'");
+            }
+        };
+    }
+
+    /**
+     * @param invocation the operand of an invoke instruction, e.g. 'Foo/bar(I[ILjava/lang/String;)V'
+     */
+    private static int countArguments(String invocation) {
+        int i = invocation.indexOf('(') + 1;
+        int count = 0;
+
+        while (invocation.charAt(i) != ')') {
+            while (invocation.charAt(i) == '[') {
+                i++;
+            }
+            i = invocation.charAt(i) == 'L' ? invocation.indexOf(';', i) + 1 : i + 1;
+            count++;
+        }
+
+        return count;
+    }
+}
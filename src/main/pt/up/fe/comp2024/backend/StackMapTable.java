@@ -0,0 +1,506 @@
+package pt.up.fe.comp2024.backend;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static pt.up.fe.comp2024.backend.Opcodes.*;
+
+/**
+ * Stack map frames of a method, needed by the type-checking verifier of class files of version 50 and later.
+ * <p>
+ * The types of the locals and of the stack are computed by a data-flow analysis over the instructions recorded by a
+ * {@link CodeBuilder}, iterated until the frames at every branch target stop changing. Frames are only kept where the
+ * verifier needs them: at branch targets and after unconditional jumps.
+ * <p>
+ * Dead code has no types, so it is replaced by nops ending in an athrow, which can be verified with a frame that only
+ * has a Throwable on the stack.
+ * <p>
+ * Types are represented by strings: the internal name of a class, the descriptor of an array, or one of the constants
+ * below.
+ */
+public class StackMapTable {
+
+    private static final String TOP = "#top";
+    private static final String INTEGER = "#int";
+    private static final String UNINITIALIZED_THIS = "#uninitializedThis";
+
+    // Followed by the offset of the 'new' that created the object, a space and the class of the object
+    private static final String UNINITIALIZED = "#uninitialized@";
+
+    private static final String OBJECT = "java/lang/Object";
+    private static final String THROWABLE = "java/lang/Throwable";
+
+    private static final int SAME_FRAME_MAX = 63;
+    private static final int SAME_LOCALS_1_STACK_ITEM = 64;
+    private static final int SAME_LOCALS_1_STACK_ITEM_EXTENDED = 247;
+    private static final int SAME_FRAME_EXTENDED = 251;
+
+    // Chop and append frames are encoded as 251 minus or plus the number of locals removed or added
+    private static final int CHOP_FRAME = 251;
+    private static final int APPEND_FRAME = 251;
+    private static final int MAX_CHOPPED_OR_APPENDED = 3;
+    private static final int FULL_FRAME = 255;
+
+    private final String className;
+    private final Frame initialFrame;
+    private final TreeMap<Integer, Frame> frames;
+    private boolean hasDeadCode;
+
+    private StackMapTable(String className, Frame initialFrame) {
+        this.className = className;
+        this.initialFrame = initialFrame;
+        this.frames = new TreeMap<>();
+        this.hasDeadCode = false;
+    }
+
+    /**
+     * Computes the frames of a method.
+     *
+     * @param code       the code of the method
+     * @param bytecode   the bytes of the code, where dead code is replaced
+     * @param className  the internal name of the class of the method
+     * @param methodName the name of the method
+     * @param descriptor the descriptor of the method
+     * @param isStatic   true if the method has no 'this'
+     * @param maxLocals  the number of locals of the method
+     */
+    public static StackMapTable compute(CodeBuilder code, byte[] bytecode, String className, String methodName,
+                                        String descriptor, boolean isStatic, int maxLocals) {
+        var initial = new Frame(maxLocals);
+        int register = 0;
+        if (!isStatic) {
+            initial.locals[register++] = methodName.equals("<init>") ? UNINITIALIZED_THIS : className;
+        }
+        for (var argument : getArgumentTypes(descriptor)) {
+            initial.locals[register++] = fromDescriptor(argument);
+        }
+
+        var table = new StackMapTable(className, initial);
+        table.analyse(code, bytecode);
+        return table;
+    }
+
+    public boolean isEmpty() {
+        return frames.isEmpty();
+    }
+
+    /**
+     * @return true if the method has unreachable code, which was replaced
+     */
+    public boolean hasDeadCode() {
+        return hasDeadCode;
+    }
+
+    private void analyse(CodeBuilder code, byte[] bytecode) {
+        var instructions = code.getInstructions();
+        if (instructions.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, Integer> indexOfOffset = new HashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            indexOfOffset.put(instructions.get(i).getOffset(), i);
+        }
+
+        // Instructions that start a block: branch targets and instructions after unconditional jumps
+        Set<Integer> leaders = new TreeSet<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            if (instruction.isBranch()) {
+                leaders.add(indexOfOffset.get(code.getLabelOffset(instruction.getLabel())));
+            }
+            if (instruction.endsFlow() && i + 1 < instructions.size()) {
+                leaders.add(i + 1);
+            }
+        }
+
+        Map<Integer, Frame> blockFrames = new HashMap<>();
+        Deque<Integer> worklist = new ArrayDeque<>();
+        blockFrames.put(0, initialFrame.copy());
+        worklist.add(0);
+
+        while (!worklist.isEmpty()) {
+            int start = worklist.poll();
+            var frame = blockFrames.get(start).copy();
+
+            for (int i = start; i < instructions.size(); i++) {
+                if (i != start && leaders.contains(i)) {
+                    merge(blockFrames, worklist, i, frame);
+                    break;
+                }
+
+                var instruction = instructions.get(i);
+                execute(instruction, frame);
+
+                if (instruction.isBranch()) {
+                    merge(blockFrames, worklist, indexOfOffset.get(code.getLabelOffset(instruction.getLabel())), frame);
+                }
+                if (instruction.endsFlow()) {
+                    break;
+                }
+            }
+        }
+
+        int deadCodeEnd = 0;
+        for (int leader : leaders) {
+            var offset = instructions.get(leader).getOffset();
+            var frame = blockFrames.get(leader);
+            if (frame != null) {
+                frames.put(offset, frame);
+                continue;
+            }
+
+            if (offset < deadCodeEnd) {
+                continue;
+            }
+
+            // The block is dead, and so are the next ones up to the next reachable block
+            deadCodeEnd = bytecode.length;
+            for (int next : leaders) {
+                if (next > leader && blockFrames.containsKey(next)) {
+                    deadCodeEnd = instructions.get(next).getOffset();
+                    break;
+                }
+            }
+
+            Arrays.fill(bytecode, offset, deadCodeEnd - 1, (byte) NOP);
+            bytecode[deadCodeEnd - 1] = (byte) ATHROW;
+
+            var deadFrame = new Frame(0);
+            deadFrame.stack.add(THROWABLE);
+            frames.put(offset, deadFrame);
+            hasDeadCode = true;
+        }
+    }
+
+    private static void merge(Map<Integer, Frame> blockFrames, Deque<Integer> worklist, int index, Frame frame) {
+        var existing = blockFrames.get(index);
+        if (existing == null) {
+            blockFrames.put(index, frame.copy());
+            worklist.add(index);
+            return;
+        }
+
+        if (existing.mergeWith(frame)) {
+            worklist.add(index);
+        }
+    }
+
+    private void execute(CodeBuilder.Op instruction, Frame frame) {
+        var stack = frame.stack;
+        int opcode = instruction.getOpcode();
+
+        switch (opcode) {
+            case ICONST_M1, ICONST_M1 + 1, ICONST_M1 + 2, ICONST_M1 + 3, ICONST_M1 + 4, ICONST_M1 + 5, ICONST_M1 + 6,
+                    BIPUSH, SIPUSH -> stack.add(INTEGER);
+            case LDC -> stack.add(fromDescriptor(instruction.getType()));
+            case ILOAD -> stack.add(INTEGER);
+            case ALOAD -> stack.add(frame.locals[instruction.getRegister()]);
+            case ISTORE, ASTORE -> frame.locals[instruction.getRegister()] = pop(stack);
+            case IINC -> frame.locals[instruction.getRegister()] = INTEGER;
+            case IALOAD -> {
+                pop(stack, 2);
+                stack.add(INTEGER);
+            }
+            case AALOAD -> {
+                pop(stack);
+                var array = pop(stack);
+                stack.add(array.startsWith("[") ? fromDescriptor(array.substring(1)) : OBJECT);
+            }
+            case IASTORE, AASTORE -> pop(stack, 3);
+            case IADD, ISUB, IMUL, IDIV, IREM, ISHL, ISHR, IUSHR, IAND, IOR, IXOR -> {
+                pop(stack, 2);
+                stack.add(INTEGER);
+            }
+            case INEG -> {
+                pop(stack);
+                stack.add(INTEGER);
+            }
+            case POP -> pop(stack);
+            case DUP -> stack.add(stack.get(stack.size() - 1));
+            case IFEQ, IFNE, IFLT, IFGE, IFGT, IFLE -> pop(stack);
+            case IF_ICMPEQ, IF_ICMPNE, IF_ICMPLT, IF_ICMPGE, IF_ICMPGT, IF_ICMPLE -> pop(stack, 2);
+            case GOTO, RETURN -> {
+            }
+            case IRETURN, ARETURN -> pop(stack);
+            case GETFIELD -> {
+                pop(stack);
+                stack.add(fromDescriptor(instruction.getType()));
+            }
+            case PUTFIELD -> pop(stack, 2);
+            case GETSTATIC -> stack.add(fromDescriptor(instruction.getType()));
+            case PUTSTATIC -> pop(stack);
+            case INVOKEVIRTUAL, INVOKESPECIAL, INVOKESTATIC -> {
+                var descriptor = instruction.getType();
+                pop(stack, getArgumentTypes(descriptor).size());
+
+                if (opcode != INVOKESTATIC) {
+                    var receiver = pop(stack);
+                    if (opcode == INVOKESPECIAL && instruction.getName().equals("<init>")) {
+                        frame.initialize(receiver, className);
+                    }
+                }
+
+                var returnType = descriptor.substring(descriptor.indexOf(')') + 1);
+                if (!returnType.equals("V")) {
+                    stack.add(fromDescriptor(returnType));
+                }
+            }
+            case NEW -> stack.add(UNINITIALIZED + instruction.getOffset() + ' ' + instruction.getType());
+            case NEWARRAY -> {
+                pop(stack);
+                stack.add(instruction.getType());
+            }
+            case ARRAYLENGTH -> {
+                pop(stack);
+                stack.add(INTEGER);
+            }
+            default -> throw new RuntimeException("Opcode 0x" + Integer.toHexString(opcode)
+                    + " is not supported by the stack map computation");
+        }
+    }
+
+    private static String pop(List<String> stack) {
+        if (stack.isEmpty()) {
+            throw new RuntimeException("Operand stack underflow while computing stack map frames");
+        }
+
+        return stack.remove(stack.size() - 1);
+    }
+
+    private static void pop(List<String> stack, int count) {
+        for (int i = 0; i < count; i++) {
+            pop(stack);
+        }
+    }
+
+    /**
+     * Writes the StackMapTable attribute, including its name and length.
+     */
+    public void writeTo(DataOutputStream out, ConstantPool constantPool) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        var entries = new DataOutputStream(bytes);
+
+        entries.writeShort(frames.size());
+        var previousLocals = initialFrame.getLocals();
+        int previousOffset = -1;
+
+        for (var entry : frames.entrySet()) {
+            int delta = entry.getKey() - previousOffset - 1;
+            var frame = entry.getValue();
+            var locals = frame.getLocals();
+
+            if (locals.equals(previousLocals) && frame.stack.isEmpty()) {
+                if (delta <= SAME_FRAME_MAX) {
+                    entries.writeByte(delta);
+                } else {
+                    entries.writeByte(SAME_FRAME_EXTENDED);
+                    entries.writeShort(delta);
+                }
+            } else if (locals.equals(previousLocals) && frame.stack.size() == 1) {
+                if (delta <= SAME_FRAME_MAX) {
+                    entries.writeByte(SAME_LOCALS_1_STACK_ITEM + delta);
+                } else {
+                    entries.writeByte(SAME_LOCALS_1_STACK_ITEM_EXTENDED);
+                    entries.writeShort(delta);
+                }
+                writeType(entries, frame.stack.get(0), constantPool);
+            } else if (frame.stack.isEmpty() && isPrefix(previousLocals, locals)) {
+                int appended = locals.size() - previousLocals.size();
+                entries.writeByte(APPEND_FRAME + appended);
+                entries.writeShort(delta);
+                for (var type : locals.subList(previousLocals.size(), locals.size())) {
+                    writeType(entries, type, constantPool);
+                }
+            } else if (frame.stack.isEmpty() && isPrefix(locals, previousLocals)) {
+                entries.writeByte(CHOP_FRAME - (previousLocals.size() - locals.size()));
+                entries.writeShort(delta);
+            } else {
+                entries.writeByte(FULL_FRAME);
+                entries.writeShort(delta);
+                entries.writeShort(locals.size());
+                for (var type : locals) {
+                    writeType(entries, type, constantPool);
+                }
+                entries.writeShort(frame.stack.size());
+                for (var type : frame.stack) {
+                    writeType(entries, type, constantPool);
+                }
+            }
+
+            previousLocals = locals;
+            previousOffset = entry.getKey();
+        }
+
+        out.writeShort(constantPool.addUtf8("StackMapTable"));
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * @return true if the given locals are the prefix followed by one to three other locals
+     */
+    private static boolean isPrefix(List<String> prefix, List<String> locals) {
+        int difference = locals.size() - prefix.size();
+        return difference > 0 && difference <= MAX_CHOPPED_OR_APPENDED
+                && locals.subList(0, prefix.size()).equals(prefix);
+    }
+
+    private static void writeType(DataOutputStream out, String type, ConstantPool constantPool) throws IOException {
+        switch (type) {
+            case TOP -> out.writeByte(0);
+            case INTEGER -> out.writeByte(1);
+            case UNINITIALIZED_THIS -> out.writeByte(6);
+            default -> {
+                if (type.startsWith(UNINITIALIZED)) {
+                    out.writeByte(8);
+                    out.writeShort(Integer.parseInt(type.substring(UNINITIALIZED.length(), type.indexOf(' '))));
+                } else {
+                    out.writeByte(7);
+                    out.writeShort(constantPool.addClass(type));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the verification type of a value with the given descriptor
+     */
+    static String fromDescriptor(String descriptor) {
+        return switch (descriptor.charAt(0)) {
+            case 'I', 'Z', 'B', 'C', 'S' -> INTEGER;
+            case 'L' -> descriptor.substring(1, descriptor.length() - 1);
+            case '[' -> descriptor;
+            default -> throw new RuntimeException("Type '" + descriptor + "' is not supported in stack map frames");
+        };
+    }
+
+    /**
+     * @return the descriptors of the arguments of a method descriptor
+     */
+    static List<String> getArgumentTypes(String methodDescriptor) {
+        List<String> types = new ArrayList<>();
+        int i = 1;
+        while (methodDescriptor.charAt(i) != ')') {
+            int start = i;
+            while (methodDescriptor.charAt(i) == '[') {
+                i++;
+            }
+            i = methodDescriptor.charAt(i) == 'L' ? methodDescriptor.indexOf(';', i) + 1 : i + 1;
+            types.add(methodDescriptor.substring(start, i));
+        }
+
+        return types;
+    }
+
+    private static boolean isObject(String type) {
+        return !type.startsWith("#");
+    }
+
+    /**
+     * The types of the locals and of the operand stack at an instruction.
+     */
+    private static class Frame {
+
+        private final String[] locals;
+        private final List<String> stack;
+
+        private Frame(int maxLocals) {
+            this.locals = new String[maxLocals];
+            Arrays.fill(locals, TOP);
+            this.stack = new ArrayList<>();
+        }
+
+        private Frame(String[] locals, List<String> stack) {
+            this.locals = locals;
+            this.stack = stack;
+        }
+
+        private Frame copy() {
+            return new Frame(locals.clone(), new ArrayList<>(stack));
+        }
+
+        /**
+         * Replaces an uninitialized object by its class, after the call to its constructor.
+         */
+        private void initialize(String uninitialized, String className) {
+            String initialized;
+            if (uninitialized.equals(UNINITIALIZED_THIS)) {
+                initialized = className;
+            } else if (uninitialized.startsWith(UNINITIALIZED)) {
+                initialized = uninitialized.substring(uninitialized.indexOf(' ') + 1);
+            } else {
+                return;
+            }
+
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i].equals(uninitialized)) {
+                    locals[i] = initialized;
+                }
+            }
+            for (int i = 0; i < stack.size(); i++) {
+                if (stack.get(i).equals(uninitialized)) {
+                    stack.set(i, initialized);
+                }
+            }
+        }
+
+        /**
+         * Merges the types of another path that reaches the same instruction.
+         *
+         * @return true if this frame changed
+         */
+        private boolean mergeWith(Frame other) {
+            if (stack.size() != other.stack.size()) {
+                throw new RuntimeException("Inconsistent stack heights at a branch target: " + stack.size() + " and "
+                        + other.stack.size());
+            }
+
+            boolean changed = false;
+            for (int i = 0; i < locals.length; i++) {
+                var merged = mergeTypes(locals[i], other.locals[i]);
+                changed |= !merged.equals(locals[i]);
+                locals[i] = merged;
+            }
+
+            for (int i = 0; i < stack.size(); i++) {
+                var merged = mergeTypes(stack.get(i), other.stack.get(i));
+                if (merged.equals(TOP)) {
+                    throw new RuntimeException("Inconsistent stack types at a branch target: " + stack.get(i) + " and "
+                            + other.stack.get(i));
+                }
+                changed |= !merged.equals(stack.get(i));
+                stack.set(i, merged);
+            }
+
+            return changed;
+        }
+
+        private static String mergeTypes(String type, String other) {
+            if (type.equals(other)) {
+                return type;
+            }
+
+            // Different classes are merged into Object, without loading them to find their common superclass
+            if (isObject(type) && isObject(other)) {
+                return OBJECT;
+            }
+
+            return TOP;
+        }
+
+        /**
+         * @return the locals as written in a frame, without the unused locals at the end
+         */
+        private List<String> getLocals() {
+            int size = locals.length;
+            while (size > 0 && locals[size - 1].equals(TOP)) {
+                size--;
+            }
+
+            return Arrays.asList(locals).subList(0, size);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.Instruction;
+import org.specs.comp.ollir.InstructionType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A sequence of OLLIR instructions that always run together, from the first to the last.
+ * <p>
+ * Only the last instruction can jump, and only the first can be the target of a jump. The instruction list can be
+ * changed by optimizations, as long as the jumps stay at the end.
+ */
+public class BasicBlock {
+
+    private int index;
+    private final List<String> labels;
+    private final List<Instruction> instructions;
+    private final List<BasicBlock> predecessors;
+    private final List<BasicBlock> successors;
+
+    BasicBlock(int index, List<String> labels) {
+        this.index = index;
+        this.labels = labels;
+        this.instructions = new ArrayList<>();
+        this.predecessors = new ArrayList<>();
+        this.successors = new ArrayList<>();
+    }
+
+    /**
+     * @return the position of the block in the method, which is also its index in {@link ControlFlowGraph#getBlocks()}
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return the labels placed before the first instruction
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    public List<Instruction> getInstructions() {
+        return instructions;
+    }
+
+    public List<BasicBlock> getPredecessors() {
+        return predecessors;
+    }
+
+    /**
+     * @return the blocks that can run next, with the target of a jump before the block that follows in the method
+     */
+    public List<BasicBlock> getSuccessors() {
+        return successors;
+    }
+
+    /**
+     * @return the goto, branch or return that ends the block, or null if the block falls through to the next one
+     */
+    public Instruction getTerminator() {
+        if (instructions.isEmpty()) {
+            return null;
+        }
+
+        var last = instructions.get(instructions.size() - 1);
+        return isTerminator(last) ? last : null;
+    }
+
+    static boolean isTerminator(Instruction instruction) {
+        var type = instruction.getInstType();
+        return type == InstructionType.GOTO || type == InstructionType.BRANCH || type == InstructionType.RETURN;
+    }
+
+    @Override
+    public String toString() {
+        return "B" + index;
+    }
+}
@@ -0,0 +1,545 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Sparse conditional constant propagation over a method in {@link SsaForm}, as described by Wegman and Zadeck.
+ * <p>
+ * Every version starts as undefined and is only lowered to a constant, or to varying, when an instruction that writes
+ * it runs. Blocks are only analyzed once an edge into them is found to run, and a branch whose condition is constant
+ * only follows one of its edges, so constants that flow around a loop are found even when the loop could change them
+ * on a path that never runs. Booleans are kept as 0 and 1, like in OLLIR literals.
+ * <p>
+ * Afterwards, the uses of constant versions become literals, the instructions and phis that write them are removed,
+ * branches with a constant condition become gotos or are removed, and the blocks that never run are removed.
+ */
+public class ConditionalConstantPropagation {
+
+    private final SsaForm ssa;
+    private final ControlFlowGraph cfg;
+
+    // Versions written by an instruction or phi, which are undefined until it runs
+    private final Set<String> definitions;
+    private final Map<String, Value> values;
+
+    private final Map<String, List<Instruction>> instructionUsers;
+    private final Map<String, List<SsaForm.Phi>> phiUsers;
+    private final Map<Instruction, BasicBlock> instructionBlocks;
+    private final Map<SsaForm.Phi, BasicBlock> phiBlocks;
+
+    private final boolean[] reachable;
+    private final Map<BasicBlock, Set<BasicBlock>> executableEdges;
+    private final Deque<BasicBlock[]> flowWorklist;
+    private final Deque<String> ssaWorklist;
+
+    public ConditionalConstantPropagation(SsaForm ssa) {
+        this.ssa = ssa;
+        this.cfg = ssa.getCfg();
+        this.definitions = new HashSet<>();
+        this.values = new HashMap<>();
+        this.instructionUsers = new HashMap<>();
+        this.phiUsers = new HashMap<>();
+        this.instructionBlocks = new IdentityHashMap<>();
+        this.phiBlocks = new IdentityHashMap<>();
+        this.reachable = new boolean[cfg.getBlocks().size()];
+        this.executableEdges = new HashMap<>();
+        this.flowWorklist = new ArrayDeque<>();
+        this.ssaWorklist = new ArrayDeque<>();
+    }
+
+    /**
+     * Propagates the constants and changes the method.
+     *
+     * @return true if the method was changed
+     */
+    public boolean apply() {
+        if (cfg.getEntry() == null) {
+            return false;
+        }
+
+        findUsers();
+        analyze();
+        return transform();
+    }
+
+    private void findUsers() {
+        for (var block : cfg.getBlocks()) {
+            for (var phi : ssa.getPhis(block)) {
+                definitions.add(phi.getTarget());
+                phiBlocks.put(phi, block);
+                for (var source : phi.getSources()) {
+                    if (source instanceof Operand operand) {
+                        phiUsers.computeIfAbsent(operand.getName(), name -> new ArrayList<>()).add(phi);
+                    }
+                }
+            }
+
+            for (var instruction : block.getInstructions()) {
+                instructionBlocks.put(instruction, block);
+                LivenessAnalysis.forEachOperand(instruction, (operand, isDef) -> {
+                    if (isDef) {
+                        definitions.add(operand.getName());
+                    } else {
+                        instructionUsers.computeIfAbsent(operand.getName(), name -> new ArrayList<>()).add(instruction);
+                    }
+                });
+            }
+        }
+    }
+
+    private void analyze() {
+        visitBlock(cfg.getEntry());
+
+        while (!flowWorklist.isEmpty() || !ssaWorklist.isEmpty()) {
+            while (!flowWorklist.isEmpty()) {
+                var edge = flowWorklist.pop();
+                var to = edge[1];
+                if (!executableEdges.computeIfAbsent(edge[0], from -> new HashSet<>()).add(to)) {
+                    continue;
+                }
+
+                ssa.getPhis(to).forEach(this::visitPhi);
+                if (!reachable[to.getIndex()]) {
+                    visitBlock(to);
+                }
+            }
+
+            while (!ssaWorklist.isEmpty()) {
+                var name = ssaWorklist.pop();
+                for (var phi : phiUsers.getOrDefault(name, List.of())) {
+                    if (reachable[phiBlocks.get(phi).getIndex()]) {
+                        visitPhi(phi);
+                    }
+                }
+                for (var instruction : instructionUsers.getOrDefault(name, List.of())) {
+                    if (reachable[instructionBlocks.get(instruction).getIndex()]) {
+                        visitInstruction(instruction, instructionBlocks.get(instruction));
+                    }
+                }
+            }
+        }
+    }
+
+    private void visitBlock(BasicBlock block) {
+        reachable[block.getIndex()] = true;
+        ssa.getPhis(block).forEach(this::visitPhi);
+        block.getInstructions().forEach(instruction -> visitInstruction(instruction, block));
+
+        // Blocks without a jump at the end fall through to the next one
+        if (block.getTerminator() == null && !block.getSuccessors().isEmpty()) {
+            addEdge(block, block.getSuccessors().get(0));
+        }
+    }
+
+    private void visitPhi(SsaForm.Phi phi) {
+        var block = phiBlocks.get(phi);
+        var value = Value.TOP;
+
+        for (int i = 0; i < phi.getSources().size(); i++) {
+            var predecessor = block.getPredecessors().get(i);
+            if (executableEdges.getOrDefault(predecessor, Set.of()).contains(block)) {
+                value = value.meet(getValue(phi.getSources().get(i)));
+            }
+        }
+
+        setValue(phi.getTarget(), value);
+    }
+
+    private void visitInstruction(Instruction instruction, BasicBlock block) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                if (assign.getDest() instanceof Operand dest && !(dest instanceof ArrayOperand)) {
+                    setValue(dest.getName(), isConstantType(dest.getType()) ?
+                            evaluate(assign.getRhs()) : Value.BOTTOM);
+                }
+            }
+            case GOTO -> addEdge(block, block.getSuccessors().get(0));
+            case BRANCH -> {
+                var branch = (CondBranchInstruction) instruction;
+                var condition = evaluate(branch.getCondition());
+                if (condition == Value.TOP) {
+                    return;
+                }
+
+                var target = getBranchTarget(block, branch);
+                var next = getFallthrough(block, branch);
+                if (next == null || condition == Value.BOTTOM || condition.constant != 0) {
+                    addEdge(block, target);
+                }
+                if (next != null && (condition == Value.BOTTOM || condition.constant == 0)) {
+                    addEdge(block, next);
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    private void addEdge(BasicBlock from, BasicBlock to) {
+        if (!executableEdges.getOrDefault(from, Set.of()).contains(to)) {
+            flowWorklist.push(new BasicBlock[]{from, to});
+        }
+    }
+
+    private Value evaluate(Instruction instruction) {
+        return switch (instruction.getInstType()) {
+            case NOPER -> getValue(((SingleOpInstruction) instruction).getSingleOperand());
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                var operand = getValue(unaryOp.getOperand());
+                if (operand.isConstant() && unaryOp.getOperation().getOpType() == OperationType.NOTB) {
+                    yield Value.of(operand.constant == 0 ? 1 : 0);
+                }
+                yield operand == Value.TOP ? Value.TOP : Value.BOTTOM;
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                yield evaluate(binaryOp.getOperation().getOpType(), getValue(binaryOp.getLeftOperand()),
+                        getValue(binaryOp.getRightOperand()));
+            }
+            // Calls, fields, array lengths and new objects are never constant
+            default -> Value.BOTTOM;
+        };
+    }
+
+    private static Value evaluate(OperationType operation, Value left, Value right) {
+        // A constant operand decides some boolean operations by itself
+        if (operation == OperationType.ANDB && (isFalse(left) || isFalse(right))) {
+            return Value.of(0);
+        }
+        if (operation == OperationType.ORB && (isTrue(left) || isTrue(right))) {
+            return Value.of(1);
+        }
+
+        if (left == Value.BOTTOM || right == Value.BOTTOM) {
+            return Value.BOTTOM;
+        }
+        if (left == Value.TOP || right == Value.TOP) {
+            return Value.TOP;
+        }
+
+        int a = left.constant;
+        int b = right.constant;
+        return switch (operation) {
+            case ADD -> Value.of(a + b);
+            case SUB -> Value.of(a - b);
+            case MUL -> Value.of(a * b);
+            // Dividing by zero throws at run time, so it is left to run
+            case DIV -> b == 0 ? Value.BOTTOM : Value.of(a / b);
+            case SHL -> Value.of(a << b);
+            case SHR -> Value.of(a >> b);
+            case SHRR -> Value.of(a >>> b);
+            case AND, ANDB -> Value.of(a & b);
+            case OR, ORB -> Value.of(a | b);
+            case XOR -> Value.of(a ^ b);
+            case LTH -> Value.of(a < b ? 1 : 0);
+            case GTH -> Value.of(a > b ? 1 : 0);
+            case LTE -> Value.of(a <= b ? 1 : 0);
+            case GTE -> Value.of(a >= b ? 1 : 0);
+            case EQ -> Value.of(a == b ? 1 : 0);
+            case NEQ -> Value.of(a != b ? 1 : 0);
+            default -> Value.BOTTOM;
+        };
+    }
+
+    private static boolean isFalse(Value value) {
+        return value.isConstant() && value.constant == 0;
+    }
+
+    private static boolean isTrue(Value value) {
+        return value.isConstant() && value.constant != 0;
+    }
+
+    private Value getValue(Element element) {
+        if (element instanceof LiteralElement literal) {
+            if (!isConstantType(literal.getType())) {
+                return Value.BOTTOM;
+            }
+            return Value.of(Integer.parseInt(literal.getLiteral()));
+        }
+
+        // Array accesses read memory, and parameters or fields were written outside the method
+        if (!(element instanceof Operand operand) || operand instanceof ArrayOperand
+                || !definitions.contains(operand.getName())) {
+            return Value.BOTTOM;
+        }
+
+        return values.getOrDefault(operand.getName(), Value.TOP);
+    }
+
+    private void setValue(String name, Value value) {
+        var old = values.getOrDefault(name, Value.TOP);
+        var lowered = old.meet(value);
+        if (!lowered.equals(old)) {
+            values.put(name, lowered);
+            ssaWorklist.push(name);
+        }
+    }
+
+    private static boolean isConstantType(Type type) {
+        var elementType = type.getTypeOfElement();
+        return elementType == ElementType.INT32 || elementType == ElementType.BOOLEAN;
+    }
+
+    private BasicBlock getBranchTarget(BasicBlock block, CondBranchInstruction branch) {
+        for (var successor : block.getSuccessors()) {
+            if (successor.getLabels().contains(branch.getLabel())) {
+                return successor;
+            }
+        }
+
+        throw new RuntimeException("Label '" + branch.getLabel() + "' of method '"
+                + cfg.getMethod().getMethodName() + "' is not a successor of its branch");
+    }
+
+    /**
+     * @return the block run when the condition is false, or null if it is also the target of the branch
+     */
+    private BasicBlock getFallthrough(BasicBlock block, CondBranchInstruction branch) {
+        var target = getBranchTarget(block, branch);
+        for (var successor : block.getSuccessors()) {
+            if (successor != target) {
+                return successor;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean transform() {
+        boolean changed = false;
+
+        for (var block : cfg.getBlocks()) {
+            if (reachable[block.getIndex()] && block.getTerminator() instanceof CondBranchInstruction branch) {
+                changed |= foldBranch(block, branch);
+            }
+        }
+
+        for (var block : cfg.getBlocks()) {
+            if (!reachable[block.getIndex()]) {
+                changed |= !block.getInstructions().isEmpty() || !block.getLabels().isEmpty();
+                ssa.removeBlock(block);
+                continue;
+            }
+
+            changed |= ssa.getPhis(block).removeIf(phi -> getConstant(phi.getTarget()) != null);
+            for (var phi : ssa.getPhis(block)) {
+                var sources = phi.getSources();
+                for (int i = 0; i < sources.size(); i++) {
+                    var literal = toLiteral(sources.get(i));
+                    if (literal != null) {
+                        sources.set(i, literal);
+                        changed = true;
+                    }
+                }
+            }
+
+            var iterator = block.getInstructions().iterator();
+            while (iterator.hasNext()) {
+                var instruction = iterator.next();
+                if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                        && !(dest instanceof ArrayOperand) && getConstant(dest.getName()) != null) {
+                    iterator.remove();
+                    changed = true;
+                } else {
+                    changed |= replaceUses(instruction);
+                }
+            }
+        }
+
+        ssa.updateDominatorTree();
+        return changed;
+    }
+
+    private boolean foldBranch(BasicBlock block, CondBranchInstruction branch) {
+        var target = getBranchTarget(block, branch);
+        var next = getFallthrough(block, branch);
+        var executable = executableEdges.getOrDefault(block, Set.of());
+        var instructions = block.getInstructions();
+
+        if (next == null) {
+            // Both edges go to the same block
+            instructions.set(instructions.size() - 1, new GotoInstruction(branch.getLabel()));
+            return true;
+        }
+        if (executable.contains(target) && executable.contains(next)) {
+            return false;
+        }
+
+        if (executable.contains(target)) {
+            instructions.set(instructions.size() - 1, new GotoInstruction(branch.getLabel()));
+            ssa.removeEdge(block, next);
+        } else {
+            instructions.remove(instructions.size() - 1);
+            ssa.removeEdge(block, target);
+        }
+
+        return true;
+    }
+
+    private boolean replaceUses(Instruction instruction) {
+        boolean changed = false;
+
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                changed = replaceIndex(assign.getDest()) | replaceUses(assign.getRhs());
+            }
+            case NOPER -> {
+                var singleOp = (SingleOpInstruction) instruction;
+                var literal = toLiteral(singleOp.getSingleOperand());
+                if (literal != null) {
+                    singleOp.setSingleOperand(literal);
+                    changed = true;
+                } else {
+                    changed = replaceIndex(singleOp.getSingleOperand());
+                }
+            }
+            case UNARYOPER -> {
+                var unaryOp = (UnaryOpInstruction) instruction;
+                var literal = toLiteral(unaryOp.getOperand());
+                if (literal != null) {
+                    unaryOp.setOperand(literal);
+                    changed = true;
+                }
+            }
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                var left = toLiteral(binaryOp.getLeftOperand());
+                if (left != null) {
+                    binaryOp.setLeftOperand(left);
+                    changed = true;
+                }
+                var right = toLiteral(binaryOp.getRightOperand());
+                if (right != null) {
+                    binaryOp.setRightOperand(right);
+                    changed = true;
+                }
+            }
+            case CALL -> {
+                // The caller is an object, only the arguments can be constants
+                var arguments = ((CallInstruction) instruction).getArguments();
+                for (int i = 0; i < arguments.size(); i++) {
+                    var literal = toLiteral(arguments.get(i));
+                    if (literal != null) {
+                        arguments.set(i, literal);
+                        changed = true;
+                    } else {
+                        changed |= replaceIndex(arguments.get(i));
+                    }
+                }
+            }
+            case BRANCH -> changed = replaceUses(((CondBranchInstruction) instruction).getCondition());
+            case RETURN -> {
+                var ret = (ReturnInstruction) instruction;
+                if (ret.hasReturnValue()) {
+                    var literal = toLiteral(ret.getOperand());
+                    if (literal != null) {
+                        ret.setOperand(literal);
+                        changed = true;
+                    } else {
+                        changed = replaceIndex(ret.getOperand());
+                    }
+                }
+            }
+            case PUTFIELD -> {
+                var operands = ((PutFieldInstruction) instruction).getOperands();
+                var literal = toLiteral(operands.get(2));
+                if (literal != null) {
+                    operands.set(2, literal);
+                    changed = true;
+                }
+            }
+            default -> {
+            }
+        }
+
+        return changed;
+    }
+
+    private boolean replaceIndex(Element element) {
+        if (!(element instanceof ArrayOperand arrayOperand)) {
+            return false;
+        }
+
+        boolean changed = false;
+        var indexes = arrayOperand.getIndexOperands();
+        for (int i = 0; i < indexes.size(); i++) {
+            var literal = toLiteral(indexes.get(i));
+            if (literal != null) {
+                indexes.set(i, literal);
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * @return the literal that replaces the element, or null if it is not a constant version
+     */
+    private LiteralElement toLiteral(Element element) {
+        if (!(element instanceof Operand operand) || operand instanceof ArrayOperand) {
+            return null;
+        }
+
+        var constant = getConstant(operand.getName());
+        return constant == null ? null : new LiteralElement(String.valueOf(constant), operand.getType());
+    }
+
+    private Integer getConstant(String name) {
+        var value = values.get(name);
+        return value != null && value.isConstant() ? value.constant : null;
+    }
+
+    /**
+     * A value of the lattice: undefined, a constant, or varying.
+     */
+    private static class Value {
+
+        private static final Value TOP = new Value(0);
+        private static final Value BOTTOM = new Value(0);
+
+        private final int constant;
+
+        private Value(int constant) {
+            this.constant = constant;
+        }
+
+        static Value of(int constant) {
+            return new Value(constant);
+        }
+
+        boolean isConstant() {
+            return this != TOP && this != BOTTOM;
+        }
+
+        Value meet(Value other) {
+            if (this == TOP) {
+                return other;
+            }
+            if (other == TOP || this.equals(other)) {
+                return this;
+            }
+
+            return BOTTOM;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+
+            return other instanceof Value value && isConstant() && value.isConstant() && constant == value.constant;
+        }
+
+        @Override
+        public int hashCode() {
+            return isConstant() ? constant : System.identityHashCode(this);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp.jmm.ast.JmmNodeImpl;
+import pt.up.fe.comp2024.ast.TypeUtils;
+
+import java.util.*;
+
+import static pt.up.fe.comp2024.ast.Kind.*;
+
+/**
+ * Replaces reads of local int and boolean variables whose value is known at compile time with literals, and folds
+ * binary and 'not' expressions over literals.
+ * <p>
+ * Each method is walked in order, keeping the value of each variable that holds a constant. At the end of an if, only
+ * the values that every branch agrees on are kept. At a while, the state at the head of the loop is merged with the
+ * state at the end of the body until it does not change, so a variable assigned in the body is only constant inside
+ * the loop if the body keeps its value. Fields are never propagated, since calls can change them.
+ * <p>
+ * Folding an expression can make others constant, so the pass is repeated until nothing changes.
+ */
+public class ConstantPropagation {
+
+    private static final List<String> POSITION_ATTRIBUTES = List.of("lineStart", "colStart", "lineEnd", "colEnd");
+
+    private final SymbolTable table;
+
+    // Names of the int and boolean locals and parameters of the current method
+    private Set<String> trackedVariables;
+    private boolean changed;
+
+    public ConstantPropagation(SymbolTable table) {
+        this.table = table;
+    }
+
+    /**
+     * Changes the AST in place.
+     *
+     * @return true if any expression was replaced
+     */
+    public boolean apply(JmmNode root) {
+        boolean changedAny = false;
+
+        for (var method : root.getDescendants(METHOD_DECL)) {
+            trackedVariables = getTrackedVariables(method.get("name"));
+
+            do {
+                changed = false;
+                var state = new HashMap<String, Object>();
+                for (var child : method.getChildren()) {
+                    if (child.isInstance(METHOD_RETURN)) {
+                        transformExpr(child.getJmmChild(0), state);
+                    } else if (!child.isInstance(VAR_DECL) && !child.isInstance(PARAM) && !child.isInstance(VAR_ARGS)) {
+                        propagate(child, state, true);
+                    }
+                }
+
+                changedAny |= changed;
+            } while (changed);
+        }
+
+        return changedAny;
+    }
+
+    private Set<String> getTrackedVariables(String methodName) {
+        Set<String> variables = new HashSet<>();
+        List<Symbol> symbols = new ArrayList<>(table.getParameters(methodName));
+        symbols.addAll(table.getLocalVariables(methodName));
+
+        for (var symbol : symbols) {
+            var type = symbol.getType();
+            if (!type.isArray() && (type.getName().equals(TypeUtils.getIntTypeName())
+                    || type.getName().equals(TypeUtils.getBoolTypeName()))) {
+                variables.add(symbol.getName());
+            }
+        }
+
+        return variables;
+    }
+
+    /**
+     * Updates the state with the effect of the statement, replacing constant expressions if transform is true.
+     */
+    private void propagate(JmmNode stmt, Map<String, Object> state, boolean transform) {
+        if (stmt.isInstance(ASSIGN_STMT)) {
+            propagateAssign(stmt, state, transform);
+        } else if (stmt.isInstance(CURLY_STMT)) {
+            for (var child : stmt.getChildren()) {
+                propagate(child, state, transform);
+            }
+        } else if (stmt.isInstance(IF_STMT)) {
+            propagateIf(stmt, state, transform);
+        } else if (stmt.isInstance(WHILE_STMT)) {
+            propagateWhile(stmt, state, transform);
+        } else if (transform && stmt.isInstance(EXPR_STMT)) {
+            // The statement itself must stay a call, only its operands can be replaced
+            for (var child : stmt.getJmmChild(0).getChildren()) {
+                transformExpr(child, state);
+            }
+        } else if (transform && stmt.isInstance(RETURN_STMT)) {
+            transformExpr(stmt.getJmmChild(0).getJmmChild(0), state);
+        }
+    }
+
+    private void propagateAssign(JmmNode stmt, Map<String, Object> state, boolean transform) {
+        var lhs = stmt.getJmmChild(0);
+        if (transform) {
+            // The index of an array element is read, the variable being assigned is not
+            if (lhs.isInstance(ARRAY_ACCESS_EXPR)) {
+                transformExpr(lhs.getJmmChild(1), state);
+            }
+            transformExpr(stmt.getJmmChild(1), state);
+        }
+
+        if (lhs.isInstance(VAR_REF_EXPR) && trackedVariables.contains(lhs.get("name"))) {
+            var value = evaluate(stmt.getJmmChild(1), state);
+            if (value == null) {
+                state.remove(lhs.get("name"));
+            } else {
+                state.put(lhs.get("name"), value);
+            }
+        }
+    }
+
+    private void propagateIf(JmmNode stmt, Map<String, Object> state, boolean transform) {
+        Map<String, Object> merged = null;
+
+        // Each child is an if, else if or else, with the condition, if any, before the statement
+        for (var branch : stmt.getChildren()) {
+            if (transform && branch.getNumChildren() == 2) {
+                transformExpr(branch.getJmmChild(0), state);
+            }
+
+            var branchState = new HashMap<>(state);
+            propagate(branch.getJmmChild(branch.getNumChildren() - 1), branchState, transform);
+            merged = merged == null ? branchState : meet(merged, branchState);
+        }
+
+        state.clear();
+        if (merged != null) {
+            state.putAll(merged);
+        }
+    }
+
+    private void propagateWhile(JmmNode stmt, Map<String, Object> state, boolean transform) {
+        Map<String, Object> head = new HashMap<>(state);
+
+        // Each iteration can only remove variables from the head, so this ends
+        while (true) {
+            var bodyState = new HashMap<>(head);
+            propagate(stmt.getJmmChild(1), bodyState, false);
+
+            var newHead = meet(head, bodyState);
+            if (newHead.equals(head)) {
+                break;
+            }
+            head = newHead;
+        }
+
+        if (transform) {
+            transformExpr(stmt.getJmmChild(0), head);
+            propagate(stmt.getJmmChild(1), new HashMap<>(head), true);
+        }
+
+        // The loop is left from its head
+        state.clear();
+        state.putAll(head);
+    }
+
+    private static Map<String, Object> meet(Map<String, Object> first, Map<String, Object> second) {
+        var result = new HashMap<String, Object>();
+        for (var entry : first.entrySet()) {
+            if (entry.getValue().equals(second.get(entry.getKey()))) {
+                result.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Replaces the expression, or its largest constant subexpressions, with literals.
+     */
+    private void transformExpr(JmmNode expr, Map<String, Object> state) {
+        if (expr.isInstance(INTEGER_LITERAL) || expr.isInstance(TRUE_LITERAL) || expr.isInstance(FALSE_LITERAL)) {
+            return;
+        }
+
+        var value = evaluate(expr, state);
+        if (value != null && expr.getParent() != null) {
+            expr.replace(newLiteral(value, expr));
+            changed = true;
+            return;
+        }
+
+        for (var child : new ArrayList<>(expr.getChildren())) {
+            transformExpr(child, state);
+        }
+    }
+
+    /**
+     * @return the value of the expression as an Integer or a Boolean, or null if it is not known
+     */
+    private Object evaluate(JmmNode expr, Map<String, Object> state) {
+        if (expr.isInstance(INTEGER_LITERAL)) {
+            return Integer.parseInt(expr.get("value"));
+        }
+        if (expr.isInstance(TRUE_LITERAL)) {
+            return true;
+        }
+        if (expr.isInstance(FALSE_LITERAL)) {
+            return false;
+        }
+        if (expr.isInstance(VAR_REF_EXPR)) {
+            return state.get(expr.get("name"));
+        }
+        if (expr.isInstance(PAREN_EXPR)) {
+            return evaluate(expr.getJmmChild(0), state);
+        }
+        if (expr.isInstance(NOT_EXPR)) {
+            return evaluate(expr.getJmmChild(0), state) instanceof Boolean value ? !value : null;
+        }
+        if (expr.isInstance(BINARY_EXPR)) {
+            return evaluateBinary(expr, state);
+        }
+
+        return null;
+    }
+
+    private Object evaluateBinary(JmmNode expr, Map<String, Object> state) {
+        var left = evaluate(expr.getJmmChild(0), state);
+
+        // The right side of && is not evaluated when the left is false
+        if (expr.get("op").equals("&&") && Boolean.FALSE.equals(left)) {
+            return false;
+        }
+
+        var right = evaluate(expr.getJmmChild(1), state);
+        if (left == null || right == null) {
+            return null;
+        }
+
+        if (left instanceof Boolean leftBool && right instanceof Boolean rightBool) {
+            return expr.get("op").equals("&&") ? leftBool && rightBool : null;
+        }
+        if (!(left instanceof Integer leftInt) || !(right instanceof Integer rightInt)) {
+            return null;
+        }
+
+        Object result = switch (expr.get("op")) {
+            case "<" -> leftInt < rightInt;
+            case "+" -> leftInt + rightInt;
+            case "-" -> leftInt - rightInt;
+            case "*" -> leftInt * rightInt;
+            // Division by zero must still throw when the program runs
+            case "/" -> rightInt == 0 ? null : leftInt / rightInt;
+            default -> null;
+        };
+
+        // Integer literals cannot be negative, so negative results are left as they are
+        return result instanceof Integer intResult && intResult < 0 ? null : result;
+    }
+
+    private static JmmNode newLiteral(Object value, JmmNode replaced) {
+        JmmNodeImpl literal;
+        if (value instanceof Boolean bool) {
+            literal = new JmmNodeImpl(bool ? TRUE_LITERAL.getNodeName() : FALSE_LITERAL.getNodeName());
+        } else {
+            literal = new JmmNodeImpl(INTEGER_LITERAL.getNodeName());
+        }
+
+        literal.put("value", value.toString());
+        literal.setHierarchy(List.of(literal.getKind(), "Expr"));
+        for (var attribute : POSITION_ATTRIBUTES) {
+            replaced.getOptional(attribute).ifPresent(position -> literal.put(attribute, position));
+        }
+
+        return literal;
+    }
+}
@@ -0,0 +1,168 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * The basic blocks of an OLLIR method and the jumps between them.
+ * <p>
+ * Like {@link LivenessAnalysis}, the graph is built from the instruction list and the labels of the method instead of
+ * the CFG of the OLLIR parser, which is not updated when instructions change. A block starts at the first instruction,
+ * at every labeled instruction and after every jump or return. The blocks keep the order of the method, so a block
+ * without a jump at the end falls through to the next one.
+ * <p>
+ * Nothing jumps to the entry block: if the first instruction is labeled, the entry is an empty block before it.
+ */
+public class ControlFlowGraph {
+
+    private final Method method;
+    private final List<BasicBlock> blocks;
+
+    public ControlFlowGraph(Method method) {
+        this.method = method;
+        this.blocks = new ArrayList<>();
+
+        buildBlocks();
+        connectBlocks();
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the blocks, in the order of the method
+     */
+    public List<BasicBlock> getBlocks() {
+        return blocks;
+    }
+
+    /**
+     * @return the block where the method starts, or null if the method has no instructions
+     */
+    public BasicBlock getEntry() {
+        return blocks.isEmpty() ? null : blocks.get(0);
+    }
+
+    /**
+     * @return the blocks reachable from the entry, each before its successors except along the back edges of loops
+     */
+    public List<BasicBlock> getReversePostorder() {
+        List<BasicBlock> postorder = new ArrayList<>(blocks.size());
+        if (blocks.isEmpty()) {
+            return postorder;
+        }
+
+        // Iterative depth-first search, so long methods do not overflow the stack
+        boolean[] visited = new boolean[blocks.size()];
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<Integer> nextSuccessor = new ArrayDeque<>();
+
+        visited[0] = true;
+        stack.push(getEntry());
+        nextSuccessor.push(0);
+
+        while (!stack.isEmpty()) {
+            var block = stack.peek();
+            int next = nextSuccessor.pop();
+
+            if (next < block.getSuccessors().size()) {
+                nextSuccessor.push(next + 1);
+                var successor = block.getSuccessors().get(next);
+                if (!visited[successor.getIndex()]) {
+                    visited[successor.getIndex()] = true;
+                    stack.push(successor);
+                    nextSuccessor.push(0);
+                }
+            } else {
+                postorder.add(stack.pop());
+            }
+        }
+
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    /**
+     * Adds an empty block at the given position of the method, which shifts the index of the blocks after it. The
+     * block is not connected to the others.
+     */
+    BasicBlock insertBlock(int position, List<String> labels) {
+        var block = new BasicBlock(position, labels);
+        blocks.add(position, block);
+        for (int i = position + 1; i < blocks.size(); i++) {
+            blocks.get(i).setIndex(i);
+        }
+
+        return block;
+    }
+
+    private void buildBlocks() {
+        Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+        for (var label : method.getLabels().entrySet()) {
+            labels.computeIfAbsent(label.getValue(), inst -> new ArrayList<>(1)).add(label.getKey());
+        }
+
+        BasicBlock current = null;
+        if (!method.getInstructions().isEmpty() && labels.containsKey(method.getInstructions().get(0))) {
+            current = new BasicBlock(0, new ArrayList<>(1));
+            blocks.add(current);
+        }
+
+        for (var instruction : method.getInstructions()) {
+            var instLabels = labels.get(instruction);
+
+            if (current == null || instLabels != null) {
+                current = new BasicBlock(blocks.size(), instLabels != null ? instLabels : new ArrayList<>(1));
+                blocks.add(current);
+            }
+
+            current.getInstructions().add(instruction);
+            if (BasicBlock.isTerminator(instruction)) {
+                current = null;
+            }
+        }
+    }
+
+    private void connectBlocks() {
+        Map<String, BasicBlock> labelBlocks = new HashMap<>();
+        for (var block : blocks) {
+            block.getLabels().forEach(label -> labelBlocks.put(label, block));
+        }
+
+        for (var block : blocks) {
+            var next = block.getIndex() + 1 < blocks.size() ? blocks.get(block.getIndex() + 1) : null;
+            var terminator = block.getTerminator();
+
+            if (terminator instanceof GotoInstruction gotoInst) {
+                connect(block, getTarget(labelBlocks, gotoInst.getLabel()));
+            } else if (terminator instanceof CondBranchInstruction branch) {
+                connect(block, getTarget(labelBlocks, branch.getLabel()));
+                if (next != null) {
+                    connect(block, next);
+                }
+            } else if (terminator == null && next != null) {
+                connect(block, next);
+            }
+        }
+    }
+
+    private BasicBlock getTarget(Map<String, BasicBlock> labelBlocks, String label) {
+        var target = labelBlocks.get(label);
+        if (target == null) {
+            throw new RuntimeException("Label '" + label + "' of method '" + method.getMethodName()
+                    + "' is not placed");
+        }
+
+        return target;
+    }
+
+    private static void connect(BasicBlock from, BasicBlock to) {
+        // A branch to the block that follows it is a single edge, so each predecessor has one position in the phis
+        if (!from.getSuccessors().contains(to)) {
+            from.getSuccessors().add(to);
+            to.getPredecessors().add(from);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Removes the copies between locals, which the OLLIR generator writes for almost every temporary.
+ * <p>
+ * Over a method in {@link SsaForm}, a copy like 'a = b' makes 'a' another name for 'b': both are written once, and the
+ * definition of 'b' dominates every use of 'a'. So the uses of 'a' are renamed to 'b', including those in phis and in
+ * the indexes of arrays, and the copy is removed.
+ * <p>
+ * Leaving SSA form adds copies of its own for the phis. Those are removed by {@link #removeCoalescedCopies(Method)}
+ * once the register allocator, which prefers to give both sides of a copy the same register, has run.
+ */
+public class CopyPropagation {
+
+    private final SsaForm ssa;
+
+    // The version each removed copy was another name for
+    private final Map<String, String> copies;
+
+    public CopyPropagation(SsaForm ssa) {
+        this.ssa = ssa;
+        this.copies = new HashMap<>();
+    }
+
+    /**
+     * @return the number of copies removed
+     */
+    public int apply() {
+        var cfg = ssa.getCfg();
+        if (cfg.getEntry() == null) {
+            return 0;
+        }
+
+        int removed = 0;
+        for (var block : cfg.getBlocks()) {
+            var instructions = block.getInstructions();
+            int size = instructions.size();
+            instructions.removeIf(this::addCopy);
+            removed += size - instructions.size();
+        }
+
+        if (removed == 0) {
+            return 0;
+        }
+
+        for (var block : cfg.getBlocks()) {
+            for (var phi : ssa.getPhis(block)) {
+                phi.getSources().forEach(this::rename);
+            }
+            for (var instruction : block.getInstructions()) {
+                LivenessAnalysis.forEachOperand(instruction, (operand, isDef) -> {
+                    if (!isDef) {
+                        rename(operand);
+                    }
+                });
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * @return true if the instruction is a copy between locals, which was recorded to be removed
+     */
+    private boolean addCopy(Instruction instruction) {
+        var varTable = ssa.getMethod().getVarTable();
+
+        if (instruction instanceof AssignInstruction assign
+                && assign.getDest() instanceof Operand dest && !(dest instanceof ArrayOperand)
+                && assign.getRhs() instanceof SingleOpInstruction singleOp
+                && singleOp.getSingleOperand() instanceof Operand source && !(source instanceof ArrayOperand)
+                && isLocal(varTable.get(dest.getName())) && isLocal(varTable.get(source.getName()))) {
+            copies.put(dest.getName(), source.getName());
+            return true;
+        }
+
+        return false;
+    }
+
+    private static boolean isLocal(Descriptor descriptor) {
+        return descriptor != null && descriptor.getScope() != VarScope.FIELD;
+    }
+
+    private void rename(Element element) {
+        if (element instanceof Operand operand) {
+            operand.setName(getOriginal(operand.getName()));
+        }
+    }
+
+    /**
+     * @return the version a name stands for, following copies of copies
+     */
+    private String getOriginal(String name) {
+        var source = copies.get(name);
+        if (source == null) {
+            return name;
+        }
+
+        var original = getOriginal(source);
+        copies.put(name, original);
+        return original;
+    }
+
+    /**
+     * Removes the copies whose two sides were given the same register, moving their labels to the next instruction.
+     *
+     * @return the number of copies removed
+     */
+    public static int removeCoalescedCopies(Method method) {
+        var varTable = method.getVarTable();
+        var instructions = method.getInstructions();
+        int removed = 0;
+
+        // Backwards, so the instruction after a removed copy is already one that stays
+        for (int i = instructions.size() - 2; i >= 0; i--) {
+            if (!(instructions.get(i) instanceof AssignInstruction assign)
+                    || !(assign.getDest() instanceof Operand dest) || dest instanceof ArrayOperand
+                    || !(assign.getRhs() instanceof SingleOpInstruction singleOp)
+                    || !(singleOp.getSingleOperand() instanceof Operand source) || source instanceof ArrayOperand) {
+                continue;
+            }
+
+            var destDescriptor = varTable.get(dest.getName());
+            var sourceDescriptor = varTable.get(source.getName());
+            if (!isLocal(destDescriptor) || !isLocal(sourceDescriptor)
+                    || destDescriptor.getVirtualReg() != sourceDescriptor.getVirtualReg()) {
+                continue;
+            }
+
+            var next = instructions.get(i + 1);
+            for (var label : method.getLabels().entrySet()) {
+                if (label.getValue() == assign) {
+                    label.setValue(next);
+                }
+            }
+
+            instructions.remove(i);
+            removed++;
+        }
+
+        return removed;
+    }
+}
@@ -0,0 +1,152 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Removes the blocks that cannot be reached and the assignments whose value is never read, over a method in
+ * {@link SsaForm}.
+ * <p>
+ * Since every version is written once, a store that is overwritten before being read is simply a version without
+ * uses. The instructions that must run are marked first: jumps, returns, calls, stores to arrays and fields, and
+ * assignments that can throw, such as array loads, array lengths and divisions by a variable. The versions they read
+ * are live, and so are the versions read by the instructions and phis that write live versions. Everything else is
+ * removed, including phis that only feed each other around a loop.
+ */
+public class DeadCodeElimination {
+
+    private final SsaForm ssa;
+
+    // The instruction or phi that writes each version
+    private final Map<String, Object> definitions;
+    private final Set<Object> live;
+    private final Deque<Object> worklist;
+
+    public DeadCodeElimination(SsaForm ssa) {
+        this.ssa = ssa;
+        this.definitions = new HashMap<>();
+        this.live = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.worklist = new ArrayDeque<>();
+    }
+
+    /**
+     * @return the number of instructions removed
+     */
+    public int apply() {
+        var cfg = ssa.getCfg();
+        if (cfg.getEntry() == null) {
+            return 0;
+        }
+
+        int removed = removeUnreachableBlocks();
+
+        for (var block : cfg.getBlocks()) {
+            ssa.getPhis(block).forEach(phi -> definitions.put(phi.getTarget(), phi));
+            for (var instruction : block.getInstructions()) {
+                var dest = getDest(instruction);
+                if (dest != null) {
+                    definitions.put(dest.getName(), instruction);
+                }
+            }
+        }
+
+        for (var block : cfg.getBlocks()) {
+            block.getInstructions().stream()
+                    .filter(instruction -> getDest(instruction) == null || mustRun(instruction))
+                    .forEach(this::markLive);
+        }
+
+        while (!worklist.isEmpty()) {
+            var definition = worklist.pop();
+            if (definition instanceof SsaForm.Phi phi) {
+                phi.getSources().forEach(this::markUsed);
+            } else {
+                LivenessAnalysis.forEachOperand((Instruction) definition, (operand, isDef) -> {
+                    if (!isDef) {
+                        markUsed(operand);
+                    }
+                });
+            }
+        }
+
+        for (var block : cfg.getBlocks()) {
+            ssa.getPhis(block).removeIf(phi -> !live.contains(phi));
+
+            var instructions = block.getInstructions();
+            int size = instructions.size();
+            instructions.removeIf(instruction -> !live.contains(instruction));
+            removed += size - instructions.size();
+        }
+
+        return removed;
+    }
+
+    private int removeUnreachableBlocks() {
+        int removed = 0;
+
+        for (var block : ssa.getCfg().getBlocks()) {
+            if (!ssa.getDominatorTree().isReachable(block) && !block.getInstructions().isEmpty()) {
+                removed += block.getInstructions().size();
+                ssa.removeBlock(block);
+            }
+        }
+
+        if (removed > 0) {
+            ssa.updateDominatorTree();
+        }
+
+        return removed;
+    }
+
+    private void markLive(Object definition) {
+        if (live.add(definition)) {
+            worklist.push(definition);
+        }
+    }
+
+    private void markUsed(Element element) {
+        if (element instanceof Operand operand) {
+            var definition = definitions.get(operand.getName());
+            if (definition != null) {
+                markLive(definition);
+            }
+        }
+    }
+
+    /**
+     * @return the local written by the instruction, or null if it is not an assignment to a local
+     */
+    private static Operand getDest(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign && assign.getDest() instanceof Operand dest
+                && !(dest instanceof ArrayOperand)) {
+            return dest;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return true if the right side of the assignment has side effects or can throw, so it runs even if its value is
+     * not used
+     */
+    private static boolean mustRun(Instruction instruction) {
+        var rhs = ((AssignInstruction) instruction).getRhs();
+
+        if (rhs instanceof CallInstruction) {
+            return true;
+        }
+
+        if (rhs instanceof SingleOpInstruction singleOp) {
+            return singleOp.getSingleOperand() instanceof ArrayOperand;
+        }
+
+        if (rhs instanceof BinaryOpInstruction binaryOp && binaryOp.getOperation().getOpType() == OperationType.DIV) {
+            return !(binaryOp.getRightOperand() instanceof LiteralElement literal)
+                    || literal.getLiteral().equals("0");
+        }
+
+        // Reading a field of 'this' cannot throw, since it is never null
+        return rhs instanceof GetFieldInstruction getField && !getField.getObject().getName().equals("this");
+    }
+}
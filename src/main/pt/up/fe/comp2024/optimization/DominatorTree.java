@@ -0,0 +1,167 @@
+package pt.up.fe.comp2024.optimization;
+
+import java.util.*;
+
+/**
+ * The immediate dominator and the dominance frontier of each block of a {@link ControlFlowGraph}.
+ * <p>
+ * A block dominates another if every path from the entry to the other block goes through it. The immediate dominators
+ * are found with the iterative algorithm of Cooper, Harvey and Kennedy, which intersects the dominators of the
+ * predecessors of each block in reverse postorder. For the reducible graphs of Java-- it stops after two passes, so
+ * the cost grows linearly with the size of the method. Blocks that cannot be reached from the entry are not in the
+ * tree.
+ */
+public class DominatorTree {
+
+    private final ControlFlowGraph cfg;
+
+    // Indexed by block index, with -1 for unreachable blocks and the entry as its own dominator
+    private final int[] idoms;
+    private final int[] rpoNumbers;
+    private final List<List<BasicBlock>> children;
+    private final List<Set<BasicBlock>> frontiers;
+
+    public DominatorTree(ControlFlowGraph cfg) {
+        this.cfg = cfg;
+
+        int size = cfg.getBlocks().size();
+        this.idoms = new int[size];
+        this.rpoNumbers = new int[size];
+        this.children = new ArrayList<>(size);
+        this.frontiers = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            children.add(new ArrayList<>(2));
+            frontiers.add(new LinkedHashSet<>(2));
+        }
+
+        computeIdoms();
+        computeFrontiers();
+    }
+
+    public ControlFlowGraph getCfg() {
+        return cfg;
+    }
+
+    /**
+     * @return the closest block that dominates the given one, or null for the entry and unreachable blocks
+     */
+    public BasicBlock getIdom(BasicBlock block) {
+        int idom = idoms[block.getIndex()];
+        return idom == -1 || block == cfg.getEntry() ? null : cfg.getBlocks().get(idom);
+    }
+
+    /**
+     * @return the blocks immediately dominated by the given one
+     */
+    public List<BasicBlock> getChildren(BasicBlock block) {
+        return children.get(block.getIndex());
+    }
+
+    /**
+     * @return the blocks where the dominance of the given one ends: they are not strictly dominated by it, but one of
+     * their predecessors is dominated by it
+     */
+    public Set<BasicBlock> getDominanceFrontier(BasicBlock block) {
+        return frontiers.get(block.getIndex());
+    }
+
+    public boolean isReachable(BasicBlock block) {
+        return idoms[block.getIndex()] != -1;
+    }
+
+    /**
+     * @return true if every path from the entry to the second block goes through the first, which includes a block
+     * dominating itself
+     */
+    public boolean dominates(BasicBlock dominator, BasicBlock block) {
+        if (!isReachable(dominator) || !isReachable(block)) {
+            return false;
+        }
+
+        // Dominators always come earlier in reverse postorder, so the walk up the tree stops once it passes them
+        int current = block.getIndex();
+        while (rpoNumbers[current] > rpoNumbers[dominator.getIndex()]) {
+            current = idoms[current];
+        }
+
+        return current == dominator.getIndex();
+    }
+
+    private void computeIdoms() {
+        Arrays.fill(idoms, -1);
+        var rpo = cfg.getReversePostorder();
+        if (rpo.isEmpty()) {
+            return;
+        }
+
+        for (int i = 0; i < rpo.size(); i++) {
+            rpoNumbers[rpo.get(i).getIndex()] = i;
+        }
+
+        int entry = cfg.getEntry().getIndex();
+        idoms[entry] = entry;
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = 1; i < rpo.size(); i++) {
+                var block = rpo.get(i);
+                int newIdom = -1;
+
+                for (var predecessor : block.getPredecessors()) {
+                    int pred = predecessor.getIndex();
+                    if (idoms[pred] == -1) {
+                        continue;
+                    }
+                    newIdom = newIdom == -1 ? pred : intersect(pred, newIdom);
+                }
+
+                if (idoms[block.getIndex()] != newIdom) {
+                    idoms[block.getIndex()] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (var block : rpo) {
+            if (block.getIndex() != entry) {
+                children.get(idoms[block.getIndex()]).add(block);
+            }
+        }
+    }
+
+    private int intersect(int first, int second) {
+        while (first != second) {
+            while (rpoNumbers[first] > rpoNumbers[second]) {
+                first = idoms[first];
+            }
+            while (rpoNumbers[second] > rpoNumbers[first]) {
+                second = idoms[second];
+            }
+        }
+
+        return first;
+    }
+
+    private void computeFrontiers() {
+        for (var block : cfg.getBlocks()) {
+            if (block.getPredecessors().size() < 2 || !isReachable(block)) {
+                continue;
+            }
+
+            // Walk up from each predecessor until reaching the block that dominates the join
+            for (var predecessor : block.getPredecessors()) {
+                if (!isReachable(predecessor)) {
+                    continue;
+                }
+
+                int runner = predecessor.getIndex();
+                while (runner != idoms[block.getIndex()]) {
+                    frontiers.get(runner).add(block);
+                    runner = idoms[runner];
+                }
+            }
+        }
+    }
+}
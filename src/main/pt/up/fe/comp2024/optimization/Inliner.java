@@ -0,0 +1,403 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Replaces calls to small methods of the class being compiled with a copy of their instructions.
+ * <p>
+ * Only calls on 'this' to methods of the symbol table are inlined, when the called method has at most the given number
+ * of OLLIR instructions and cannot reach itself through other calls of the class. The copy works on new locals and
+ * labels, prefixed with 'inlN_' so they do not clash with those of the caller: the arguments are first copied to the
+ * new locals of the parameters, and each return becomes a copy to the destination of the call followed by a jump to
+ * the instruction after it. The copies are left for {@link CopyPropagation} to remove with '-o'.
+ * <p>
+ * Each method is inlined as it was before any inlining, so calls copied from a method stay calls. Since the call is
+ * virtual, a subclass compiled on its own could still override the method, which inlining ignores.
+ */
+public class Inliner {
+
+    private static final String PREFIX = "inl";
+
+    private final ClassUnit classUnit;
+    private final int maxSize;
+
+    // The methods that can be inlined, by name, with their instructions before any inlining
+    private final Map<String, Method> candidates;
+    private final Map<String, List<Instruction>> bodies;
+    private final Map<String, Map<Instruction, List<String>>> bodyLabels;
+
+    private int nextPrefix;
+
+    /**
+     * @param maxSize the most instructions a method can have to be inlined
+     */
+    public Inliner(ClassUnit classUnit, SymbolTable table, int maxSize) {
+        this.classUnit = classUnit;
+        this.maxSize = maxSize;
+        this.candidates = new HashMap<>();
+        this.bodies = new HashMap<>();
+        this.bodyLabels = new HashMap<>();
+        this.nextPrefix = 0;
+
+        var methods = new HashSet<>(table.getMethods());
+        for (var method : classUnit.getMethods()) {
+            if (methods.contains(method.getMethodName()) && !method.isConstructMethod() && !method.isStaticMethod()
+                    && method.getInstructions().size() <= maxSize) {
+                candidates.put(method.getMethodName(), method);
+            }
+        }
+
+        candidates.values().removeIf(this::isRecursive);
+
+        for (var method : candidates.values()) {
+            bodies.put(method.getMethodName(), new ArrayList<>(method.getInstructions()));
+
+            Map<Instruction, List<String>> labels = new IdentityHashMap<>();
+            method.getLabels().forEach((label, instruction) ->
+                    labels.computeIfAbsent(instruction, i -> new ArrayList<>()).add(label));
+            bodyLabels.put(method.getMethodName(), labels);
+        }
+    }
+
+    /**
+     * Inlines the calls of every method of the class.
+     *
+     * @return a log of the calls inlined in each method and of how much the methods grew
+     */
+    public List<Report> apply() {
+        List<Report> reports = new ArrayList<>();
+        int sizeBefore = 0;
+        int sizeAfter = 0;
+        int totalInlined = 0;
+
+        for (var method : classUnit.getMethods()) {
+            if (method.isConstructMethod()) {
+                continue;
+            }
+
+            int size = method.getInstructions().size();
+            int inlined = inline(method);
+            int newSize = method.getInstructions().size();
+
+            sizeBefore += size;
+            sizeAfter += newSize;
+            totalInlined += inlined;
+
+            if (inlined > 0) {
+                reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName()
+                        + "': inlined " + inlined + " calls, from " + size + " to " + newSize + " instructions", null));
+            }
+        }
+
+        reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, "Inlined " + totalInlined
+                + " calls of methods with at most " + maxSize + " instructions, the class grew from " + sizeBefore
+                + " to " + sizeAfter + " instructions", null));
+        return reports;
+    }
+
+    /**
+     * @return true if the method can call itself, directly or through other methods of the class
+     */
+    private boolean isRecursive(Method method) {
+        Set<String> visited = new HashSet<>();
+        Deque<Method> worklist = new ArrayDeque<>();
+        worklist.push(method);
+
+        while (!worklist.isEmpty()) {
+            for (var instruction : worklist.pop().getInstructions()) {
+                var call = getInlinableCall(instruction);
+                if (call == null) {
+                    continue;
+                }
+
+                var name = getMethodName(call);
+                if (name.equals(method.getMethodName())) {
+                    return true;
+                }
+
+                // Methods that are not candidates stay calls, but they can still call the method back
+                var callee = findMethod(name);
+                if (callee != null && visited.add(name)) {
+                    worklist.push(callee);
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private Method findMethod(String name) {
+        return classUnit.getMethods().stream()
+                .filter(method -> method.getMethodName().equals(name) && !method.isConstructMethod())
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * @return the number of calls inlined in the method
+     */
+    private int inline(Method method) {
+        var instructions = method.getInstructions();
+        int inlined = 0;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            var call = getInlinableCall(instruction);
+            if (call == null) {
+                continue;
+            }
+
+            var callee = candidates.get(getMethodName(call));
+            if (callee == null || callee == method || call.getArguments().size() != callee.getParams().size()) {
+                continue;
+            }
+
+            // The returns jump to the instruction after the call, which is only missing if the method does not return
+            if (i == instructions.size() - 1) {
+                continue;
+            }
+
+            Operand dest = null;
+            if (instruction instanceof AssignInstruction assign) {
+                if (assign.getDest() instanceof ArrayOperand) {
+                    continue;
+                }
+                dest = (Operand) assign.getDest();
+            }
+            var copy = copyBody(method, callee, call, dest, instructions.get(i + 1));
+
+            // The labels of the call go to the first copied instruction
+            var first = copy.isEmpty() ? instructions.get(i + 1) : copy.get(0);
+            for (var label : method.getLabels().entrySet()) {
+                if (label.getValue() == instruction) {
+                    label.setValue(first);
+                }
+            }
+
+            instructions.remove(i);
+            instructions.addAll(i, copy);
+            i += copy.size() - 1;
+            inlined++;
+        }
+
+        return inlined;
+    }
+
+    /**
+     * @return the call an instruction makes on 'this', alone or as the right side of an assignment, or null
+     */
+    static CallInstruction getInlinableCall(Instruction instruction) {
+        var call = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+
+        if (call instanceof CallInstruction callInstruction
+                && callInstruction.getInvocationType() == CallType.invokevirtual
+                && callInstruction.getCaller() instanceof Operand caller && caller.getName().equals("this")
+                && callInstruction.getMethodName() instanceof LiteralElement) {
+            return callInstruction;
+        }
+
+        return null;
+    }
+
+    static String getMethodName(CallInstruction call) {
+        var literal = ((LiteralElement) call.getMethodName()).getLiteral();
+        return literal.replace("\"", "");
+    }
+
+    /**
+     * Copies the instructions of the callee into the caller, adding its renamed locals and labels.
+     *
+     * @param dest the local the result of the call is assigned to, or null if the result is not used
+     * @param next the instruction of the caller after the call, where the returns jump to
+     */
+    private List<Instruction> copyBody(Method caller, Method callee, CallInstruction call, Operand dest,
+                                       Instruction next) {
+        var locals = new Locals(newPrefix(caller), caller, callee);
+        var endLabel = locals.prefix + "end";
+        List<Instruction> copy = new ArrayList<>();
+
+        for (int i = 0; i < callee.getParams().size(); i++) {
+            var param = (Operand) callee.getParams().get(i);
+            var type = param.getType();
+            copy.add(new AssignInstruction(new Operand(locals.rename(param.getName()), type), type,
+                    new SingleOpInstruction(copyOf(call.getArguments().get(i)))));
+        }
+
+        var body = bodies.get(callee.getMethodName());
+        var labels = bodyLabels.get(callee.getMethodName());
+        boolean jumpsToEnd = false;
+
+        for (int i = 0; i < body.size(); i++) {
+            var instruction = body.get(i);
+            List<Instruction> copied = new ArrayList<>(2);
+
+            if (instruction instanceof ReturnInstruction ret) {
+                // The result is copied to the destination of the call, then the end of the call is reached
+                if (dest != null && ret.hasReturnValue()) {
+                    var value = new SingleOpInstruction(copyOf(ret.getOperand()));
+                    locals.renameAll(value);
+                    copied.add(new AssignInstruction(new Operand(dest.getName(), dest.getType()), dest.getType(),
+                            value));
+                }
+                if (i < body.size() - 1) {
+                    copied.add(new GotoInstruction(endLabel));
+                    jumpsToEnd = true;
+                }
+            } else {
+                var instructionCopy = copyOf(instruction, locals.prefix);
+                locals.renameAll(instructionCopy);
+                copied.add(instructionCopy);
+            }
+
+            var labelTarget = copied.isEmpty() ? next : copied.get(0);
+            labels.getOrDefault(instruction, Collections.emptyList())
+                    .forEach(label -> caller.getLabels().put(locals.prefix + label, labelTarget));
+            copy.addAll(copied);
+        }
+
+        if (jumpsToEnd) {
+            caller.getLabels().put(endLabel, next);
+        }
+
+        return copy;
+    }
+
+    /**
+     * @return a prefix that no local or label of the method starts with
+     */
+    private String newPrefix(Method method) {
+        String prefix;
+        do {
+            prefix = PREFIX + nextPrefix++ + "_";
+            var start = prefix;
+            if (method.getVarTable().keySet().stream().noneMatch(name -> name.startsWith(start))
+                    && method.getLabels().keySet().stream().noneMatch(label -> label.startsWith(start))) {
+                return prefix;
+            }
+        } while (true);
+    }
+
+    /**
+     * @return a copy of the instruction, with new operands and its labels prefixed
+     */
+    private static Instruction copyOf(Instruction instruction, String prefix) {
+        if (instruction instanceof AssignInstruction assign) {
+            return new AssignInstruction(copyOf(assign.getDest()), assign.getTypeOfAssign(),
+                    copyOf(assign.getRhs(), prefix));
+        }
+
+        if (instruction instanceof SingleOpInstruction singleOp) {
+            return new SingleOpInstruction(copyOf(singleOp.getSingleOperand()));
+        }
+
+        if (instruction instanceof BinaryOpInstruction binaryOp) {
+            return new BinaryOpInstruction(copyOf(binaryOp.getLeftOperand()), copyOf(binaryOp.getOperation()),
+                    copyOf(binaryOp.getRightOperand()));
+        }
+
+        if (instruction instanceof UnaryOpInstruction unaryOp) {
+            return new UnaryOpInstruction(copyOf(unaryOp.getOperation()), copyOf(unaryOp.getOperand()));
+        }
+
+        if (instruction instanceof CallInstruction call) {
+            var methodName = call.getMethodNameTry().map(Inliner::copyOf).orElse(null);
+            var arguments = new ArrayList<>(call.getArguments().stream().map(Inliner::copyOf).toList());
+            return new CallInstruction(call.getInvocationType(), copyOf(call.getCaller()), methodName, arguments,
+                    call.getReturnType(), call.isIsolated());
+        }
+
+        if (instruction instanceof GetFieldInstruction getField) {
+            return new GetFieldInstruction((Operand) copyOf(getField.getObject()),
+                    (Operand) copyOf(getField.getField()), getField.getFieldType());
+        }
+
+        if (instruction instanceof PutFieldInstruction putField) {
+            return new PutFieldInstruction((Operand) copyOf(putField.getObject()),
+                    (Operand) copyOf(putField.getField()), copyOf(putField.getValue()), putField.getFieldType());
+        }
+
+        if (instruction instanceof GotoInstruction gotoInstruction) {
+            return new GotoInstruction(prefix + gotoInstruction.getLabel());
+        }
+
+        if (instruction instanceof SingleOpCondInstruction branch) {
+            var copy = new SingleOpCondInstruction((SingleOpInstruction) copyOf(branch.getCondition(), prefix));
+            copy.setLabel(prefix + branch.getLabel());
+            return copy;
+        }
+
+        if (instruction instanceof OpCondInstruction branch) {
+            var copy = new OpCondInstruction((OpInstruction) copyOf(branch.getCondition(), prefix));
+            copy.setLabel(prefix + branch.getLabel());
+            return copy;
+        }
+
+        throw new RuntimeException("Cannot inline instruction " + instruction.getInstType());
+    }
+
+    private static Operation copyOf(Operation operation) {
+        return new Operation(operation.getOpType(), operation.getTypeInfo());
+    }
+
+    private static Element copyOf(Element element) {
+        if (element instanceof LiteralElement literal) {
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        }
+
+        if (element instanceof ArrayOperand arrayOperand) {
+            var indexes = arrayOperand.getIndexOperands().stream().map(Inliner::copyOf).toList();
+            return new ArrayOperand(arrayOperand.getName(), arrayOperand.getType(), indexes);
+        }
+
+        var operand = (Operand) element;
+        return new Operand(operand.getName(), operand.getType());
+    }
+
+    /**
+     * The locals of an inlined copy of a method, which are added to the var table of the caller when first used.
+     */
+    private static class Locals {
+
+        private final String prefix;
+        private final Map<String, Descriptor> varTable;
+        private final Map<String, Descriptor> calleeVarTable;
+        private int nextRegister;
+
+        private Locals(String prefix, Method caller, Method callee) {
+            this.prefix = prefix;
+            this.varTable = caller.getVarTable();
+            this.calleeVarTable = callee.getVarTable();
+
+            this.nextRegister = 0;
+            for (var descriptor : varTable.values()) {
+                nextRegister = Math.max(nextRegister, descriptor.getVirtualReg() + 1);
+            }
+        }
+
+        /**
+         * @return the name of a local of the callee in the caller, or the name itself if it is not a local
+         */
+        private String rename(String name) {
+            var descriptor = calleeVarTable.get(name);
+            if (name.equals("this") || descriptor == null || descriptor.getScope() == VarScope.FIELD) {
+                return name;
+            }
+
+            var newName = prefix + name;
+            if (!varTable.containsKey(newName)) {
+                varTable.put(newName, new Descriptor(VarScope.LOCAL, nextRegister++, descriptor.getVarType()));
+            }
+            return newName;
+        }
+
+        private void renameAll(Instruction instruction) {
+            LivenessAnalysis.forEachOperand(instruction,
+                    (operand, isDef) -> operand.setName(rename(operand.getName())));
+        }
+    }
+}
@@ -1,10 +1,16 @@
 package pt.up.fe.comp2024.optimization;
 
+import org.specs.comp.ollir.ClassUnit;
 import pt.up.fe.comp.jmm.analysis.JmmSemanticsResult;
 import pt.up.fe.comp.jmm.ollir.JmmOptimization;
 import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+import pt.up.fe.comp2024.CompilerConfig;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 public class JmmOptimizationImpl implements JmmOptimization {
 
@@ -17,11 +23,96 @@ public class JmmOptimizationImpl implements JmmOptimization {
         return new OllirResult(semanticsResult, ollirCode, Collections.emptyList());
     }
 
+    @Override
+    public JmmSemanticsResult optimize(JmmSemanticsResult semanticsResult) {
+
+        var config = semanticsResult.getConfig();
+        if (CompilerConfig.getOptimize(config)) {
+            var table = semanticsResult.getSymbolTable();
+            var root = semanticsResult.getRootNode();
+
+            // Propagation can make the bound of a loop constant, and then the copies of an unrolled body constant
+            new ConstantPropagation(table).apply(root);
+            if (new LoopUnrolling(table, CompilerConfig.getUnrollFactor(config)).apply(root) > 0) {
+                new ConstantPropagation(table).apply(root);
+            }
+        }
+
+        return semanticsResult;
+    }
+
     @Override
     public OllirResult optimize(OllirResult ollirResult) {
 
-        //TODO: Do your OLLIR-based optimizations here
+        var config = ollirResult.getConfig();
+        var classUnit = ollirResult.getOllirClass();
+        int registers = CompilerConfig.getRegisterAllocation(config);
+        int inlineSize = CompilerConfig.getInlineSize(config);
+
+        // Inlining first lets the other optimizations work across the inlined calls
+        if (inlineSize >= 0 && ollirResult.getSymbolTable() != null) {
+            ollirResult.getReports().addAll(new Inliner(classUnit, ollirResult.getSymbolTable(), inlineSize).apply());
+        }
+
+        if (CompilerConfig.getOptimize(config)) {
+            ollirResult.getReports().addAll(optimizeMethods(classUnit));
+
+            // Each SSA version has a register of its own, so they are packed again even without '-r'
+            if (registers < 0) {
+                new RegisterAllocator(classUnit, 0).allocate();
+            }
+        }
+
+        if (registers >= 0) {
+            var reports = CompilerConfig.getRegisterAllocator(config).equals(CompilerConfig.LINEAR_SCAN_ALLOCATOR) ?
+                    new LinearScanAllocator(classUnit, registers).allocate() :
+                    new RegisterAllocator(classUnit, registers).allocate();
+            ollirResult.getReports().addAll(reports);
+        }
+
+        // The copies left by SSA form that were coalesced into a single register do nothing
+        if (CompilerConfig.getOptimize(config)) {
+            classUnit.getMethods().stream()
+                    .filter(method -> !method.isConstructMethod())
+                    .forEach(CopyPropagation::removeCoalescedCopies);
+        }
 
         return ollirResult;
     }
+
+    /**
+     * @return a log of the instructions removed from each method
+     */
+    private static List<Report> optimizeMethods(ClassUnit classUnit) {
+        List<Report> reports = new ArrayList<>();
+
+        for (var method : classUnit.getMethods()) {
+            // The constructor is not generated, the backends write a default one
+            if (method.isConstructMethod()) {
+                continue;
+            }
+
+            // The loops left by tail calls are optimized like any other loop
+            int tailCalls = new TailRecursion(method).apply();
+
+            var ssa = SsaForm.toSsa(method);
+            new ConditionalConstantPropagation(ssa).apply();
+            new ValueNumbering(ssa).apply();
+            new LoopInvariantCodeMotion(ssa).apply();
+            new StrengthReduction(ssa).apply();
+            int removed = new DeadCodeElimination(ssa).apply();
+            int copies = new CopyPropagation(ssa).apply();
+            ssa.fromSsa();
+
+            reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName() + "': removed "
+                    + removed + " dead instructions and " + copies + " copies, " + method.getInstructions().size()
+                    + " left", null));
+            if (tailCalls > 0) {
+                reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName()
+                        + "': replaced " + tailCalls + " tail calls with jumps", null));
+            }
+        }
+
+        return reports;
+    }
 }
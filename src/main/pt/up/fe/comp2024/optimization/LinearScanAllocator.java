@@ -0,0 +1,244 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Assigns the local variables of each method to JVM registers by scanning their live intervals in order.
+ * <p>
+ * The live interval of a variable goes from the first to the last point where it is live, so a variable that is dead
+ * in a hole of its interval still keeps its register. In exchange, the allocation takes near-linear time, without the
+ * interference graph of {@link RegisterAllocator}, whose size grows with the square of the number of variables. The
+ * points where each variable is live are found by walking backwards from each of its uses until reaching a definition,
+ * so the cost grows with the total length of the intervals instead of with the number of variables times the number
+ * of instructions.
+ * <p>
+ * Each instruction has two points: its uses are read at the first, and its definition is written at the second. This
+ * lets the result of an instruction reuse the register of an operand that dies in it.
+ * <p>
+ * With a limit of 0, each method uses as many registers as the scan needs. Otherwise, a method that needs more
+ * registers than the limit is reported as an error. For the other methods, the reduction in registers is logged.
+ */
+public class LinearScanAllocator {
+
+    private final ClassUnit classUnit;
+    private final int maxRegisters;
+    private final List<Report> reports;
+
+    /**
+     * @param maxRegisters the maximum number of registers of each method, or 0 for no limit
+     */
+    public LinearScanAllocator(ClassUnit classUnit, int maxRegisters) {
+        this.classUnit = classUnit;
+        this.maxRegisters = maxRegisters;
+        this.reports = new ArrayList<>();
+    }
+
+    /**
+     * Changes the registers in the var table of each method.
+     *
+     * @return the errors of methods that do not fit in the maximum number of registers, and the registers saved in
+     * the others
+     */
+    public List<Report> allocate() {
+        for (var method : classUnit.getMethods()) {
+            // The constructor is not generated, the backends write a default one
+            if (!method.isConstructMethod()) {
+                allocate(method);
+            }
+        }
+
+        return reports;
+    }
+
+    private void allocate(Method method) {
+        var liveness = new LivenessAnalysis(method);
+        var variables = liveness.getVariables();
+        var intervals = computeIntervals(liveness);
+
+        int[] registers = new int[variables.size()];
+        int numRegisters = scan(liveness, intervals, registers);
+
+        if (maxRegisters != 0 && numRegisters > maxRegisters) {
+            reports.add(Report.newError(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName()
+                    + "' needs " + numRegisters + " registers with linear scan, but option '-r' allows "
+                    + maxRegisters, null));
+            return;
+        }
+
+        int previousRegisters = 0;
+        for (var descriptor : method.getVarTable().values()) {
+            previousRegisters = Math.max(previousRegisters, descriptor.getVirtualReg() + 1);
+        }
+
+        for (int i = 0; i < variables.size(); i++) {
+            method.getVarTable().get(variables.get(i)).setVirtualReg(registers[i]);
+        }
+
+        // Names in the var table that are not variables, such as classes of static calls, do not use a register
+        for (var entry : method.getVarTable().entrySet()) {
+            if (entry.getValue().getScope() != VarScope.FIELD && liveness.getVariableIndex(entry.getKey()) == -1) {
+                entry.getValue().setVirtualReg(-1);
+            }
+        }
+
+        reports.add(Report.newLog(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName() + "' uses "
+                + numRegisters + " registers instead of " + previousRegisters, null));
+    }
+
+    /**
+     * @return the first and last point where each variable is live, with -1 for the entry of the method, or null if
+     * the variable is never used nor defined
+     */
+    private static int[][] computeIntervals(LivenessAnalysis liveness) {
+        int numVariables = liveness.getVariables().size();
+        int numInstructions = liveness.getNumInstructions();
+
+        int[][] intervals = new int[numVariables][];
+        List<List<Integer>> usedAt = new ArrayList<>(numVariables);
+        for (int i = 0; i < numVariables; i++) {
+            usedAt.add(new ArrayList<>());
+        }
+
+        // 'this' and the parameters are written when the method starts
+        for (int i = 0; i < numVariables; i++) {
+            if (liveness.isParameter(liveness.getVariables().get(i))) {
+                intervals[i] = new int[]{-1, -1};
+            }
+        }
+
+        List<List<Integer>> predecessors = new ArrayList<>(numInstructions);
+        for (int i = 0; i < numInstructions; i++) {
+            predecessors.add(new ArrayList<>(1));
+        }
+
+        for (int i = 0; i < numInstructions; i++) {
+            for (int successor : liveness.getSuccessors(i)) {
+                predecessors.get(successor).add(i);
+            }
+
+            var uses = liveness.getUses(i);
+            for (int variable = uses.nextSetBit(0); variable >= 0; variable = uses.nextSetBit(variable + 1)) {
+                usedAt.get(variable).add(i);
+            }
+
+            var defs = liveness.getDefs(i);
+            for (int variable = defs.nextSetBit(0); variable >= 0; variable = defs.nextSetBit(variable + 1)) {
+                intervals[variable] = extend(intervals[variable], defPoint(i));
+            }
+        }
+
+        // Instructions where the current variable is known to be live before, marked with its index
+        int[] liveInMark = new int[numInstructions];
+        Arrays.fill(liveInMark, -1);
+        Deque<Integer> worklist = new ArrayDeque<>();
+
+        for (int variable = 0; variable < numVariables; variable++) {
+            for (int use : usedAt.get(variable)) {
+                if (liveInMark[use] != variable) {
+                    liveInMark[use] = variable;
+                    worklist.push(use);
+                }
+            }
+
+            while (!worklist.isEmpty()) {
+                int instruction = worklist.pop();
+                intervals[variable] = extend(intervals[variable], usePoint(instruction));
+
+                // Reaching the start of the method, the variable is live since the entry
+                if (instruction == 0) {
+                    intervals[variable] = extend(intervals[variable], -1);
+                }
+
+                for (int predecessor : predecessors.get(instruction)) {
+                    // Live after the predecessor, and also before it unless the predecessor defines it
+                    intervals[variable] = extend(intervals[variable], defPoint(predecessor));
+                    if (!liveness.getDefs(predecessor).get(variable) && liveInMark[predecessor] != variable) {
+                        liveInMark[predecessor] = variable;
+                        worklist.push(predecessor);
+                    }
+                }
+            }
+        }
+
+        return intervals;
+    }
+
+    private static int usePoint(int instruction) {
+        return 2 * instruction;
+    }
+
+    private static int defPoint(int instruction) {
+        return 2 * instruction + 1;
+    }
+
+    private static int[] extend(int[] interval, int point) {
+        if (interval == null) {
+            return new int[]{point, point};
+        }
+
+        interval[0] = Math.min(interval[0], point);
+        interval[1] = Math.max(interval[1], point);
+        return interval;
+    }
+
+    /**
+     * Gives each variable a register that no other variable uses during its interval.
+     *
+     * @return the number of registers used
+     */
+    private static int scan(LivenessAnalysis liveness, int[][] intervals, int[] registers) {
+        var variables = liveness.getVariables();
+        var varTable = liveness.getMethod().getVarTable();
+
+        // Sorted by start, with 'this' and the parameters first, since their registers are fixed
+        List<Integer> order = new ArrayList<>(variables.size());
+        for (int i = 0; i < variables.size(); i++) {
+            if (intervals[i] != null) {
+                order.add(i);
+            }
+        }
+        order.sort(Comparator.comparingInt((Integer variable) -> intervals[variable][0])
+                .thenComparing(variable -> !liveness.isParameter(variables.get(variable))));
+
+        PriorityQueue<Integer> active =
+                new PriorityQueue<>(Comparator.comparingInt(variable -> intervals[variable][1]));
+        var free = new BitSet();
+        int numRegisters = 0;
+
+        // 'this' and the parameters always have registers, even if they are not used
+        for (int i = 0; i < variables.size(); i++) {
+            if (liveness.isParameter(variables.get(i))) {
+                numRegisters = Math.max(numRegisters, varTable.get(variables.get(i)).getVirtualReg() + 1);
+            }
+        }
+        free.set(0, numRegisters);
+        for (int variable : order) {
+            if (liveness.isParameter(variables.get(variable))) {
+                free.clear(varTable.get(variables.get(variable)).getVirtualReg());
+            }
+        }
+
+        for (int variable : order) {
+            int start = intervals[variable][0];
+            while (!active.isEmpty() && intervals[active.peek()][1] < start) {
+                free.set(registers[active.poll()]);
+            }
+
+            if (liveness.isParameter(variables.get(variable))) {
+                registers[variable] = varTable.get(variables.get(variable)).getVirtualReg();
+            } else {
+                registers[variable] = free.nextSetBit(0) == -1 ? numRegisters : free.nextSetBit(0);
+                free.clear(registers[variable]);
+                numRegisters = Math.max(numRegisters, registers[variable] + 1);
+            }
+
+            active.add(variable);
+        }
+
+        return numRegisters;
+    }
+}
@@ -0,0 +1,310 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Liveness of the local variables of an OLLIR method, at each of its instructions.
+ * <p>
+ * The variables are the parameters, 'this' and the locals of the var table. Names that only appear as the class of a
+ * static call are not variables, even though OLLIR adds them to the var table. The successors of each instruction are
+ * computed from the instruction list and the labels, so the analysis does not depend on the CFG built by the OLLIR
+ * parser, which is not updated when instructions are changed.
+ * <p>
+ * The live sets are only computed when first requested, so the variables, definitions, uses and successors can be used
+ * on their own.
+ */
+public class LivenessAnalysis {
+
+    private final Method method;
+    private final List<Instruction> instructions;
+    private final List<String> variables;
+    private final Map<String, Integer> variableIndexes;
+
+    private final List<BitSet> defs;
+    private final List<BitSet> uses;
+    private List<BitSet> liveIn;
+    private List<BitSet> liveOut;
+    private final List<int[]> successors;
+
+    public LivenessAnalysis(Method method) {
+        this.method = method;
+        this.instructions = method.getInstructions();
+        this.variables = new ArrayList<>();
+        this.variableIndexes = new HashMap<>();
+        this.defs = new ArrayList<>();
+        this.uses = new ArrayList<>();
+        this.liveIn = null;
+        this.liveOut = null;
+        this.successors = new ArrayList<>();
+
+        collectVariables();
+        computeDefsAndUses();
+        computeSuccessors();
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    /**
+     * @return the names of the variables, in the order of their indexes in the sets of this analysis
+     */
+    public List<String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * @return the index of the variable with the given name, or -1 if it is not a variable
+     */
+    public int getVariableIndex(String name) {
+        return variableIndexes.getOrDefault(name, -1);
+    }
+
+    /**
+     * @return true if the variable is assigned by the caller: 'this' or a parameter
+     */
+    public boolean isParameter(String name) {
+        var descriptor = method.getVarTable().get(name);
+        return name.equals("this") || (descriptor != null && descriptor.getScope() == VarScope.PARAMETER);
+    }
+
+    public int getNumInstructions() {
+        return instructions.size();
+    }
+
+    /**
+     * @return the variables written by the instruction at the given index
+     */
+    public BitSet getDefs(int index) {
+        return defs.get(index);
+    }
+
+    /**
+     * @return the variables read by the instruction at the given index
+     */
+    public BitSet getUses(int index) {
+        return uses.get(index);
+    }
+
+    /**
+     * @return the variables live before the instruction at the given index
+     */
+    public BitSet getLiveIn(int index) {
+        computeLiveness();
+        return liveIn.get(index);
+    }
+
+    /**
+     * @return the variables live after the instruction at the given index
+     */
+    public BitSet getLiveOut(int index) {
+        computeLiveness();
+        return liveOut.get(index);
+    }
+
+    /**
+     * @return the indexes of the instructions that can be executed after the one at the given index
+     */
+    public int[] getSuccessors(int index) {
+        return successors.get(index);
+    }
+
+    /**
+     * @return the variables live at the start of the method, which includes 'this' and the parameters
+     */
+    public BitSet getLiveAtEntry() {
+        computeLiveness();
+        var live = instructions.isEmpty() ? new BitSet() : (BitSet) liveIn.get(0).clone();
+        for (int i = 0; i < variables.size(); i++) {
+            if (isParameter(variables.get(i))) {
+                live.set(i);
+            }
+        }
+
+        return live;
+    }
+
+    private void collectVariables() {
+        if (!method.isStaticMethod()) {
+            addVariable("this");
+        }
+        for (var param : method.getParams()) {
+            if (param instanceof Operand operand) {
+                addVariable(operand.getName());
+            }
+        }
+
+        for (var instruction : instructions) {
+            forEachOperand(instruction, (operand, isDef) -> addVariable(operand.getName()));
+        }
+    }
+
+    private void addVariable(String name) {
+        var descriptor = method.getVarTable().get(name);
+        if (descriptor == null || descriptor.getScope() == VarScope.FIELD || variableIndexes.containsKey(name)) {
+            return;
+        }
+
+        variableIndexes.put(name, variables.size());
+        variables.add(name);
+    }
+
+    private void computeDefsAndUses() {
+        for (var instruction : instructions) {
+            var def = new BitSet();
+            var use = new BitSet();
+
+            forEachOperand(instruction, (operand, isDef) -> {
+                int index = getVariableIndex(operand.getName());
+                if (index != -1) {
+                    (isDef ? def : use).set(index);
+                }
+            });
+
+            defs.add(def);
+            uses.add(use);
+        }
+    }
+
+    private void computeSuccessors() {
+        Map<Instruction, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < instructions.size(); i++) {
+            indexes.put(instructions.get(i), i);
+        }
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            int next = i + 1 < instructions.size() ? i + 1 : -1;
+
+            int[] instSuccessors = switch (instruction.getInstType()) {
+                case GOTO -> new int[]{getTarget(indexes, ((GotoInstruction) instruction).getLabel())};
+                case BRANCH -> {
+                    int target = getTarget(indexes, ((CondBranchInstruction) instruction).getLabel());
+                    yield next == -1 ? new int[]{target} : new int[]{target, next};
+                }
+                case RETURN -> new int[0];
+                default -> next == -1 ? new int[0] : new int[]{next};
+            };
+
+            successors.add(instSuccessors);
+        }
+    }
+
+    private int getTarget(Map<Instruction, Integer> indexes, String label) {
+        var target = method.getLabels().get(label);
+        if (target == null) {
+            throw new RuntimeException("Label '" + label + "' of method '" + method.getMethodName()
+                    + "' is not placed");
+        }
+
+        return indexes.get(target);
+    }
+
+    private void computeLiveness() {
+        if (liveIn != null) {
+            return;
+        }
+
+        int size = instructions.size();
+        liveIn = new ArrayList<>(size);
+        liveOut = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            liveIn.add(new BitSet());
+            liveOut.add(new BitSet());
+        }
+
+        // Iterating backwards converges in a few passes, since most successors come after their instruction
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (int i = size - 1; i >= 0; i--) {
+                var out = new BitSet();
+                for (int successor : successors.get(i)) {
+                    out.or(liveIn.get(successor));
+                }
+
+                var in = (BitSet) out.clone();
+                in.andNot(defs.get(i));
+                in.or(uses.get(i));
+
+                if (!out.equals(liveOut.get(i)) || !in.equals(liveIn.get(i))) {
+                    liveOut.set(i, out);
+                    liveIn.set(i, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calls the consumer for each variable an instruction reads or writes.
+     */
+    static void forEachOperand(Instruction instruction, OperandConsumer consumer) {
+        switch (instruction.getInstType()) {
+            case ASSIGN -> {
+                var assign = (AssignInstruction) instruction;
+                var dest = (Operand) assign.getDest();
+
+                // Storing in an array reads the variable with the array
+                if (dest instanceof ArrayOperand) {
+                    forEachUse(dest, consumer);
+                } else {
+                    consumer.accept(dest, true);
+                }
+
+                forEachOperand(assign.getRhs(), consumer);
+            }
+            case CALL -> {
+                var call = (CallInstruction) instruction;
+
+                // The caller of static calls and 'new' is a class, not a variable
+                if (call.getInvocationType() != CallType.invokestatic && call.getInvocationType() != CallType.NEW) {
+                    forEachUse(call.getCaller(), consumer);
+                }
+                call.getArguments().forEach(argument -> forEachUse(argument, consumer));
+            }
+            case BRANCH -> ((CondBranchInstruction) instruction).getOperands()
+                    .forEach(operand -> forEachUse(operand, consumer));
+            case RETURN -> {
+                var ret = (ReturnInstruction) instruction;
+                if (ret.hasReturnValue()) {
+                    forEachUse(ret.getOperand(), consumer);
+                }
+            }
+            case PUTFIELD -> {
+                var putField = (PutFieldInstruction) instruction;
+                forEachUse(putField.getObject(), consumer);
+                forEachUse(putField.getValue(), consumer);
+            }
+            case GETFIELD -> forEachUse(((GetFieldInstruction) instruction).getObject(), consumer);
+            case UNARYOPER -> forEachUse(((UnaryOpInstruction) instruction).getOperand(), consumer);
+            case BINARYOPER -> {
+                var binaryOp = (BinaryOpInstruction) instruction;
+                forEachUse(binaryOp.getLeftOperand(), consumer);
+                forEachUse(binaryOp.getRightOperand(), consumer);
+            }
+            case NOPER -> forEachUse(((SingleOpInstruction) instruction).getSingleOperand(), consumer);
+            default -> {
+            }
+        }
+    }
+
+    private static void forEachUse(Element element, OperandConsumer consumer) {
+        if (!(element instanceof Operand operand)) {
+            return;
+        }
+
+        consumer.accept(operand, false);
+        if (operand instanceof ArrayOperand arrayOperand) {
+            arrayOperand.getIndexOperands().forEach(index -> forEachUse(index, consumer));
+        }
+    }
+
+    @FunctionalInterface
+    interface OperandConsumer {
+        void accept(Operand operand, boolean isDef);
+    }
+}
@@ -0,0 +1,249 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Moves the instructions of a loop that compute the same value in every iteration to a preheader, a block that runs
+ * once before the loop, over a method in {@link SsaForm}.
+ * <p>
+ * The loops are the natural loops of the graph: each edge to a block that dominates its source closes a loop, made of
+ * that block, the header, and every block that reaches the source without going through the header. Inner loops are
+ * handled first, so what leaves them can then leave the loops around them.
+ * <p>
+ * An instruction is invariant if its operands are written outside the loop, or by instructions that were already
+ * moved. Operations, array lengths and loads of fields of 'this' can be moved, but loads only if the loop never
+ * writes memory, and only fields the loop never writes. Since a moved instruction also runs when the loop runs no
+ * iteration, instructions that can throw, such as loads, array lengths and divisions, are only moved from the header,
+ * before anything in it with side effects, where they run at least once anyway. Copies stay in place, since moving
+ * them saves nothing.
+ */
+public class LoopInvariantCodeMotion {
+
+    private final SsaForm ssa;
+    private int moved;
+
+    public LoopInvariantCodeMotion(SsaForm ssa) {
+        this.ssa = ssa;
+        this.moved = 0;
+    }
+
+    /**
+     * @return the number of instructions moved out of a loop, counting once an instruction that left several loops
+     */
+    public int apply() {
+        if (ssa.getCfg().getEntry() == null) {
+            return 0;
+        }
+
+        var loops = findLoops();
+        List<BasicBlock> headers = new ArrayList<>(loops.keySet());
+        headers.sort(Comparator.comparingInt(header -> loops.get(header).size()));
+
+        for (var header : headers) {
+            hoist(header, loops.get(header), loops);
+        }
+
+        return moved;
+    }
+
+    /**
+     * @return the blocks of each loop, by header. Loops that share a header are merged
+     */
+    private Map<BasicBlock, Set<BasicBlock>> findLoops() {
+        var dominatorTree = ssa.getDominatorTree();
+        Map<BasicBlock, Set<BasicBlock>> loops = new LinkedHashMap<>();
+
+        for (var block : ssa.getCfg().getBlocks()) {
+            if (!dominatorTree.isReachable(block)) {
+                continue;
+            }
+
+            for (var header : block.getSuccessors()) {
+                if (!dominatorTree.dominates(header, block)) {
+                    continue;
+                }
+
+                var loop = loops.computeIfAbsent(header, h -> new LinkedHashSet<>(List.of(h)));
+                Deque<BasicBlock> worklist = new ArrayDeque<>();
+                if (loop.add(block)) {
+                    worklist.push(block);
+                }
+
+                while (!worklist.isEmpty()) {
+                    for (var predecessor : worklist.pop().getPredecessors()) {
+                        if (dominatorTree.isReachable(predecessor) && loop.add(predecessor)) {
+                            worklist.push(predecessor);
+                        }
+                    }
+                }
+            }
+        }
+
+        return loops;
+    }
+
+    private void hoist(BasicBlock header, Set<BasicBlock> loop, Map<BasicBlock, Set<BasicBlock>> loops) {
+        var effects = new LoopEffects(ssa, header, loop);
+
+        List<BasicBlock> blocks = new ArrayList<>(loop);
+        blocks.sort(Comparator.comparingInt(BasicBlock::getIndex));
+
+        BasicBlock preheader = null;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+
+            for (var block : blocks) {
+                var instructions = block.getInstructions();
+                boolean sideEffects = false;
+
+                for (int i = 0; i < instructions.size(); i++) {
+                    var instruction = instructions.get(i);
+                    boolean mayThrowHere = block == header && !sideEffects;
+                    sideEffects |= hasSideEffects(instruction);
+
+                    if (!isInvariant(instruction, effects, mayThrowHere)) {
+                        continue;
+                    }
+
+                    if (preheader == null) {
+                        preheader = ssa.insertPreheader(header, loop);
+                        if (preheader == null) {
+                            return;
+                        }
+                        addToOuterLoops(header, preheader, loops);
+                    }
+
+                    instructions.remove(i--);
+                    insertBeforeTerminator(preheader, instruction);
+                    effects.defined.remove(((Operand) ((AssignInstruction) instruction).getDest()).getName());
+                    moved++;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private static void addToOuterLoops(BasicBlock header, BasicBlock preheader,
+                                        Map<BasicBlock, Set<BasicBlock>> loops) {
+        for (var loop : loops.values()) {
+            if (loop.contains(header) && !loop.contains(preheader) && loops.get(header) != loop) {
+                loop.add(preheader);
+            }
+        }
+    }
+
+    private static void insertBeforeTerminator(BasicBlock block, Instruction instruction) {
+        var instructions = block.getInstructions();
+        int position = block.getTerminator() == null ? instructions.size() : instructions.size() - 1;
+        instructions.add(position, instruction);
+    }
+
+    private static boolean hasSideEffects(Instruction instruction) {
+        if (instruction instanceof AssignInstruction assign) {
+            return assign.getDest() instanceof ArrayOperand || hasSideEffects(assign.getRhs());
+        }
+
+        return instruction instanceof CallInstruction call && writesMemory(call)
+                || instruction instanceof PutFieldInstruction;
+    }
+
+    private static boolean writesMemory(CallInstruction call) {
+        var invocationType = call.getInvocationType();
+        return invocationType != CallType.arraylength && invocationType != CallType.NEW;
+    }
+
+    /**
+     * @param mayThrow whether the instruction can be moved even if it throws in some cases
+     */
+    private static boolean isInvariant(Instruction instruction, LoopEffects effects, boolean mayThrow) {
+        if (!(instruction instanceof AssignInstruction assign) || !(assign.getDest() instanceof Operand dest)
+                || dest instanceof ArrayOperand) {
+            return false;
+        }
+
+        var rhs = assign.getRhs();
+        if (rhs instanceof BinaryOpInstruction binaryOp) {
+            boolean divides = binaryOp.getOperation().getOpType() == OperationType.DIV
+                    && !(binaryOp.getRightOperand() instanceof LiteralElement literal
+                    && !literal.getLiteral().equals("0"));
+
+            return (mayThrow || !divides) && effects.isInvariant(binaryOp.getLeftOperand())
+                    && effects.isInvariant(binaryOp.getRightOperand());
+        }
+
+        if (rhs instanceof UnaryOpInstruction unaryOp) {
+            return effects.isInvariant(unaryOp.getOperand());
+        }
+
+        if (rhs instanceof SingleOpInstruction singleOp && singleOp.getSingleOperand() instanceof ArrayOperand load) {
+            return mayThrow && !effects.writesArrays && !effects.callsMethods
+                    && !effects.defined.contains(load.getName())
+                    && load.getIndexOperands().stream().allMatch(effects::isInvariant);
+        }
+
+        if (rhs instanceof CallInstruction call && call.getInvocationType() == CallType.arraylength) {
+            return mayThrow && effects.isInvariant(call.getCaller());
+        }
+
+        if (rhs instanceof GetFieldInstruction getField) {
+            return getField.getObject().getName().equals("this") && !effects.callsMethods
+                    && !effects.writtenFields.contains(getField.getField().getName());
+        }
+
+        return false;
+    }
+
+    /**
+     * The versions written inside a loop, and how the loop changes memory. Calls can change any array or field.
+     */
+    private static class LoopEffects {
+
+        private final Set<String> defined;
+        private final Set<String> writtenFields;
+        private boolean writesArrays;
+        private boolean callsMethods;
+
+        LoopEffects(SsaForm ssa, BasicBlock header, Set<BasicBlock> loop) {
+            this.defined = new HashSet<>();
+            this.writtenFields = new HashSet<>();
+            this.writesArrays = false;
+            this.callsMethods = false;
+
+            for (var block : loop) {
+                // Phis of the header that the loop does not change move to the preheader with the invariants
+                for (var phi : ssa.getPhis(block)) {
+                    if (block != header || !ssa.isLoopInvariant(phi, header, loop)) {
+                        defined.add(phi.getTarget());
+                    }
+                }
+
+                for (var instruction : block.getInstructions()) {
+                    LivenessAnalysis.forEachOperand(instruction, (operand, isDef) -> {
+                        if (isDef) {
+                            defined.add(operand.getName());
+                        }
+                    });
+
+                    var call = instruction instanceof AssignInstruction assign ? assign.getRhs() : instruction;
+                    if (instruction instanceof PutFieldInstruction putField) {
+                        writtenFields.add(putField.getField().getName());
+                    } else if (instruction instanceof AssignInstruction assign
+                            && assign.getDest() instanceof ArrayOperand) {
+                        writesArrays = true;
+                    }
+                    if (call instanceof CallInstruction callInst && writesMemory(callInst)) {
+                        callsMethods = true;
+                    }
+                }
+            }
+        }
+
+        boolean isInvariant(Element element) {
+            return !(element instanceof Operand operand)
+                    || !(operand instanceof ArrayOperand) && !defined.contains(operand.getName());
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package pt.up.fe.comp2024.optimization;
+
+import pt.up.fe.comp.jmm.analysis.table.Symbol;
+import pt.up.fe.comp.jmm.analysis.table.SymbolTable;
+import pt.up.fe.comp.jmm.ast.JmmNode;
+import pt.up.fe.comp2024.ast.TypeUtils;
+
+import java.util.*;
+
+import static pt.up.fe.comp2024.ast.Kind.*;
+
+/**
+ * Unrolls counted while loops, whose number of iterations is known at compile time.
+ * <p>
+ * A loop is counted when it has the form {@code i = a; while (i < b) { ...; i = i + s; }}, with a, b and s integer
+ * literals, s positive, and i a local int that no other statement of the body assigns. Loops with few iterations are
+ * replaced with that many copies of their body. Longer loops get a copy before them whose body repeats the original
+ * one by the unroll factor, and whose bound stops it before the iterations that do not fill a whole copy. The
+ * original loop is left after it as the remainder loop, and runs those iterations.
+ * <p>
+ * Only loops without other loops inside are unrolled, so inner loops are unrolled first and an outer loop can follow
+ * once its inner loops are gone. Running {@link ConstantPropagation} afterwards replaces i with its value in each copy
+ * of a fully unrolled body.
+ */
+public class LoopUnrolling {
+
+    // Loops with at most this many iterations are fully unrolled
+    private static final int MAX_FULL_UNROLL = 8;
+
+    // Most AST nodes the copies of a body can add
+    private static final int MAX_UNROLLED_SIZE = 400;
+
+    private final SymbolTable table;
+    private final int factor;
+
+    // Names of the int locals of the current method
+    private Set<String> intLocals;
+
+    /**
+     * @param factor the number of times the body of a long loop is repeated, where 1 only unrolls loops fully
+     */
+    public LoopUnrolling(SymbolTable table, int factor) {
+        this.table = table;
+        this.factor = factor;
+    }
+
+    /**
+     * Changes the AST in place.
+     *
+     * @return the number of loops unrolled
+     */
+    public int apply(JmmNode root) {
+        int unrolled = 0;
+
+        for (var method : root.getDescendants(METHOD_DECL)) {
+            intLocals = getIntLocals(method.get("name"));
+
+            // Inner loops come after the loops that contain them
+            var loops = new ArrayList<>(method.getDescendants(WHILE_STMT));
+            Collections.reverse(loops);
+
+            for (var loop : loops) {
+                if (unroll(loop)) {
+                    unrolled++;
+                }
+            }
+        }
+
+        return unrolled;
+    }
+
+    private Set<String> getIntLocals(String methodName) {
+        Set<String> variables = new HashSet<>();
+        List<Symbol> symbols = new ArrayList<>(table.getParameters(methodName));
+        symbols.addAll(table.getLocalVariables(methodName));
+
+        for (var symbol : symbols) {
+            var type = symbol.getType();
+            if (!type.isArray() && type.getName().equals(TypeUtils.getIntTypeName())) {
+                variables.add(symbol.getName());
+            }
+        }
+
+        return variables;
+    }
+
+    private boolean unroll(JmmNode loop) {
+        var parent = loop.getParent();
+        var body = loop.getJmmChild(1);
+        if (parent == null || !(parent.isInstance(METHOD_DECL) || parent.isInstance(CURLY_STMT))
+                || !body.isInstance(CURLY_STMT) || !body.getDescendants(WHILE_STMT).isEmpty()) {
+            return false;
+        }
+
+        // i < b
+        var condition = loop.getJmmChild(0);
+        if (!condition.isInstance(BINARY_EXPR) || !condition.get("op").equals("<")
+                || !condition.getJmmChild(0).isInstance(VAR_REF_EXPR)
+                || !condition.getJmmChild(1).isInstance(INTEGER_LITERAL)) {
+            return false;
+        }
+        var variable = condition.getJmmChild(0).get("name");
+        if (!intLocals.contains(variable)) {
+            return false;
+        }
+
+        // i = a, right before the loop
+        int index = loop.getIndexOfSelf();
+        var init = index > 0 ? parent.getJmmChild(index - 1) : null;
+        if (init == null || !isAssignTo(init, variable) || !init.getJmmChild(1).isInstance(INTEGER_LITERAL)) {
+            return false;
+        }
+
+        // i = i + s, at the end of the body and the only assignment to i
+        var statements = body.getChildren();
+        if (statements.isEmpty()) {
+            return false;
+        }
+        int step = getStep(statements.get(statements.size() - 1), variable);
+        if (step <= 0 || statements.stream().limit(statements.size() - 1).anyMatch(stmt -> assigns(stmt, variable))) {
+            return false;
+        }
+
+        long start = Long.parseLong(init.getJmmChild(1).get("value"));
+        long bound = Long.parseLong(condition.getJmmChild(1).get("value"));
+
+        // i must not overflow past the bound, or the loop would not end where it is expected to
+        if (bound - 1 + step > Integer.MAX_VALUE) {
+            return false;
+        }
+
+        long iterations = bound <= start ? 0 : (bound - start + step - 1) / step;
+        int bodySize = countNodes(body);
+
+        if (iterations <= MAX_FULL_UNROLL && iterations * bodySize <= MAX_UNROLLED_SIZE) {
+            parent.removeChild(loop);
+            for (long i = 0; i < iterations; i++) {
+                for (int j = 0; j < statements.size(); j++) {
+                    parent.add(statements.get(j).copy(), index++);
+                }
+            }
+            return true;
+        }
+
+        if (factor <= 1 || iterations < factor || (long) factor * bodySize > MAX_UNROLLED_SIZE) {
+            return false;
+        }
+
+        // Stops after the last iteration that fills a whole copy of the unrolled body
+        long unrolledBound = start + iterations / factor * factor * step;
+
+        var unrolledLoop = loop.copy();
+        unrolledLoop.getJmmChild(0).getJmmChild(1).put("value", Long.toString(unrolledBound));
+
+        List<JmmNode> unrolledBody = new ArrayList<>();
+        for (int i = 0; i < factor; i++) {
+            statements.forEach(stmt -> unrolledBody.add(stmt.copy()));
+        }
+        unrolledLoop.getJmmChild(1).setChildren(unrolledBody);
+
+        parent.add(unrolledLoop, index);
+        return true;
+    }
+
+    private static boolean isAssignTo(JmmNode stmt, String variable) {
+        return stmt.isInstance(ASSIGN_STMT) && stmt.getJmmChild(0).isInstance(VAR_REF_EXPR)
+                && stmt.getJmmChild(0).get("name").equals(variable);
+    }
+
+    private static boolean assigns(JmmNode stmt, String variable) {
+        if (isAssignTo(stmt, variable)) {
+            return true;
+        }
+
+        return stmt.getChildren().stream().anyMatch(child -> assigns(child, variable));
+    }
+
+    /**
+     * @return s if the statement is i = i + s or i = s + i, or 0 otherwise
+     */
+    private static int getStep(JmmNode stmt, String variable) {
+        if (!isAssignTo(stmt, variable)) {
+            return 0;
+        }
+
+        var value = stmt.getJmmChild(1);
+        if (!value.isInstance(BINARY_EXPR) || !value.get("op").equals("+")) {
+            return 0;
+        }
+
+        var left = value.getJmmChild(0);
+        var right = value.getJmmChild(1);
+        if (left.isInstance(INTEGER_LITERAL)) {
+            var swap = left;
+            left = right;
+            right = swap;
+        }
+
+        if (left.isInstance(VAR_REF_EXPR) && left.get("name").equals(variable) && right.isInstance(INTEGER_LITERAL)) {
+            return Integer.parseInt(right.get("value"));
+        }
+
+        return 0;
+    }
+
+    private static int countNodes(JmmNode node) {
+        int count = 1;
+        for (var child : node.getChildren()) {
+            count += countNodes(child);
+        }
+
+        return count;
+    }
+}
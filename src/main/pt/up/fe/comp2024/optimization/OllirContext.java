@@ -0,0 +1,59 @@
+package pt.up.fe.comp2024.optimization;
+
+/**
+ * Counters used to create fresh temporaries and labels while generating OLLIR code.
+ * <p>
+ * One OllirContext instance per compilation, so that concurrent compilations do not share state and the generated
+ * names only depend on the input program.
+ */
+public class OllirContext {
+
+    private int tempNumber = -1;
+    private int trueLabelNumber = -1;
+    private int endLabelNumber = -1;
+    private int whileLabelNumber = -1;
+    private int ifLabelNumber = -1;
+    private int varArgsNumber = -1;
+
+
+    public String getTemp() {
+
+        return getTemp("tmp");
+    }
+
+    public String getTemp(String prefix) {
+
+        return prefix + getNextTempNum();
+    }
+
+    public int getNextTempNum() {
+
+        tempNumber += 1;
+        return tempNumber;
+    }
+
+    public int getNextTrueLabelNum() {
+        trueLabelNumber += 1;
+        return trueLabelNumber;
+    }
+
+    public int getNextEndLabelNum() {
+        endLabelNumber += 1;
+        return endLabelNumber;
+    }
+
+    public int getNextWhileLabelNum() {
+        whileLabelNumber += 1;
+        return whileLabelNumber;
+    }
+
+    public int getNextIfLabelNum() {
+        ifLabelNumber += 1;
+        return ifLabelNumber;
+    }
+
+    public int getNextVarArgsNum() {
+        varArgsNumber += 1;
+        return varArgsNumber;
+    }
+}
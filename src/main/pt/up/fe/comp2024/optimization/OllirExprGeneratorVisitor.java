@@ -23,8 +23,11 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
     private final SymbolTable table;
 
-    public OllirExprGeneratorVisitor(SymbolTable table) {
+    private final OllirContext context;
+
+    public OllirExprGeneratorVisitor(SymbolTable table, OllirContext context) {
         this.table = table;
+        this.context = context;
     }
 
     @Override
@@ -92,13 +95,13 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
             computation.append(lhs.getComputation());
 
-            int trueLabelNum = OptUtils.getNextTrueLabelNum();
+            int trueLabelNum = context.getNextTrueLabelNum();
             computation.append("if(").append(lhs.getCode())
                     .append(") ")
                     .append("goto true_").append(trueLabelNum)
                     .append(END_STMT);
 
-            String temp = OptUtils.getTemp() + OptUtils.toOllirType(TypeUtils.getExprType(node, table));
+            String temp = context.getTemp() + OptUtils.toOllirType(TypeUtils.getExprType(node, table));
 
             computation.append(temp).append(SPACE)
                                     .append(ASSIGN)
@@ -107,7 +110,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
                                     .append("0.bool")
                                     .append(END_STMT);
 
-            int endLabelNum = OptUtils.getNextEndLabelNum();
+            int endLabelNum = context.getNextEndLabelNum();
 
             computation.append("goto end_").append(endLabelNum).append(END_STMT);
 
@@ -139,14 +142,14 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
             computation.append(lhs.getComputation());
             computation.append(rhs.getComputation());
 
-            int trueLabelNum = OptUtils.getNextTrueLabelNum();
+            int trueLabelNum = context.getNextTrueLabelNum();
 
             computation.append("if(").append(lhs.getCode())
                     .append(" <.bool ")
                     .append(rhs.getCode()).append(") goto true_")
                     .append(trueLabelNum).append(END_STMT);
 
-            String temp = OptUtils.getTemp() + OptUtils.toOllirType(TypeUtils.getExprType(node, table));
+            String temp = context.getTemp() + OptUtils.toOllirType(TypeUtils.getExprType(node, table));
 
             computation.append(temp).append(SPACE)
                                     .append(ASSIGN)
@@ -155,7 +158,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
                                     .append("0.bool")
                                     .append(END_STMT);
 
-            int endLabelNum = OptUtils.getNextEndLabelNum();
+            int endLabelNum = context.getNextEndLabelNum();
 
             computation.append("goto end_").append(endLabelNum).append(END_STMT);
 
@@ -181,7 +184,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         Type resType = TypeUtils.getExprType(node, table);
         String resOllirType = OptUtils.toOllirType(resType);
-        String code = OptUtils.getTemp() + resOllirType;
+        String code = context.getTemp() + resOllirType;
 
         computation.append(code).append(SPACE)
                 .append(ASSIGN).append(resOllirType).append(SPACE)
@@ -215,7 +218,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
                 (node.getJmmParent().isInstance(PAREN_EXPR))) )
 
                 {
-            String temp = OptUtils.getTemp() + OptUtils.toOllirType(TypeUtils.getVarType(id, TypeUtils.getMethodName(node), table));
+            String temp = context.getTemp() + OptUtils.toOllirType(TypeUtils.getVarType(id, TypeUtils.getMethodName(node), table));
             computation.append(temp).append(SPACE).append(ASSIGN).append(ollirType).append(SPACE).append("getfield(this, ").append(id).append(ollirType).append(")").append(ollirType).append(END_STMT);
             code.append(temp);
         }
@@ -417,7 +420,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
             return new OllirExprResult(code.toString(), computation.toString());
         }
 
-        temp = OptUtils.getTemp() + OptUtils.toOllirType(thisType);
+        temp = context.getTemp() + OptUtils.toOllirType(thisType);
 
         computation.append(temp).append(SPACE).append(ASSIGN)
                 .append(OptUtils.toOllirType(thisType)).append(SPACE)
@@ -472,7 +475,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         String type = OptUtils.toOllirType(new Type(className, false));
 
-        String temp = OptUtils.getTemp() + type;
+        String temp = context.getTemp() + type;
 
         computation.append(temp).append(SPACE).append(ASSIGN).append(type).append(SPACE).append(code).append(END_STMT);
 
@@ -496,7 +499,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
 
         if (!node.getParent().isInstance(ASSIGN_STMT)) {
-            String temp = OptUtils.getTemp() + resOllirType;
+            String temp = context.getTemp() + resOllirType;
             computation.append(temp).append(SPACE)
                     .append(ASSIGN).append(resOllirType)
                     .append(SPACE).append("!")
@@ -532,7 +535,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         if (node.getParent().isInstance(METHOD_CALL) || isField) {
             String ollirType = OptUtils.toOllirType(new Type(type, true));
-            String temp = OptUtils.getTemp() + ollirType;
+            String temp = context.getTemp() + ollirType;
             computation.append(temp).append(SPACE)
                     .append(ASSIGN).append(ollirType)
                     .append(SPACE).append("new(array, ")
@@ -571,7 +574,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         // a[0] -> a[0.i32].i32
         if (!node.getJmmParent().isInstance(ASSIGN_STMT)) {
             if (isField) {
-                String fieldTempNum = OptUtils.getTemp();
+                String fieldTempNum = context.getTemp();
                 String temp = fieldTempNum + ".array" + arrayType;
 
                 computation.append(temp).append(SPACE)
@@ -579,7 +582,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
                         .append(SPACE).append("getfield(this, ").append(array.get("name")).append(".array").append(arrayType).append(")")
                         .append(".array").append(arrayType).append(END_STMT);
 
-                String indexTemp = OptUtils.getTemp();
+                String indexTemp = context.getTemp();
                 computation.append(indexTemp).append(".i32").append(SPACE)
                         .append(ASSIGN).append(".i32")
                         .append(SPACE).append(fieldTempNum)
@@ -593,7 +596,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
             }
             else {
-                String temp = OptUtils.getTemp() + arrayType;
+                String temp = context.getTemp() + arrayType;
 
                 computation.append(temp).append(SPACE)
                         .append(ASSIGN).append(arrayType.replace(".array", ""))
@@ -607,7 +610,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
         }
         else {
             if (isField) {
-                String fieldTempNum = OptUtils.getTemp();
+                String fieldTempNum = context.getTemp();
                 String temp = fieldTempNum + ".array" + arrayType;
 
                 computation.append(temp).append(SPACE)
@@ -638,7 +641,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         computation.append(arrayVisit.getComputation());
 
-        String temp = OptUtils.getTemp() + ".i32";
+        String temp = context.getTemp() + ".i32";
 
         computation.append(temp).append(SPACE)
                 .append(ASSIGN).append(".i32")
@@ -659,7 +662,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         String type = OptUtils.toOllirType(TypeUtils.getExprType(elem, table));
 
-        String temp = OptUtils.getTemp() + ".array" + type;
+        String temp = context.getTemp() + ".array" + type;
 
         computation.append(temp).append(SPACE)
                 .append(ASSIGN).append(".array").append(type)
@@ -667,7 +670,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
                 .append(node.getNumChildren()).append(".i32)").append(".array").append(type)
                 .append(END_STMT);
 
-        int varArgsNum = OptUtils.getNextVarArgsNum();
+        int varArgsNum = context.getNextVarArgsNum();
 
         computation.append("__varargs_array_").append(varArgsNum).append(".array").append(type)
                 .append(SPACE)
@@ -703,7 +706,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
 
         String type = (nodes.isEmpty()) ? ".i32" : OptUtils.toOllirType(TypeUtils.getExprType(nodes.get(0), table));
 
-        String temp = OptUtils.getTemp() + ".array" + type;
+        String temp = context.getTemp() + ".array" + type;
 
         computation.append(temp).append(SPACE)
                 .append(ASSIGN).append(".array").append(type)
@@ -715,7 +718,7 @@ public class OllirExprGeneratorVisitor extends AJmmVisitor<Void, OllirExprResult
             return new OllirExprResult(temp, computation.toString());
         }
 
-        int varArgsNum = OptUtils.getNextVarArgsNum();
+        int varArgsNum = context.getNextVarArgsNum();
 
         computation.append("__varargs_array_").append(varArgsNum).append(".array").append(type)
                 .append(SPACE)
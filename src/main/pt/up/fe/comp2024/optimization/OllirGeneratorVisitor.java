@@ -26,11 +26,14 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
 
     private final SymbolTable table;
 
+    private final OllirContext context;
+
     private final OllirExprGeneratorVisitor exprVisitor;
 
     public OllirGeneratorVisitor(SymbolTable table) {
         this.table = table;
-        exprVisitor = new OllirExprGeneratorVisitor(table);
+        this.context = new OllirContext();
+        exprVisitor = new OllirExprGeneratorVisitor(table, context);
     }
 
 
@@ -45,6 +48,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         addVisit(ASSIGN_STMT, this::visitAssignStmt);
         addVisit(IF_STMT, this::visitIfStmt);
         addVisit(WHILE_STMT, this::visitWhileStmt);
+        addVisit(EXPR_STMT, this::visitExprStmt);
         setDefaultVisit(this::defaultVisit);
     }
 
@@ -164,21 +168,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         int afterParam = 1 + params.size();
         int stop = (retType.equals(".V")) ? node.getNumChildren() : node.getNumChildren() - 1;
         for (int i = afterParam; i < stop; i++) {
-            JmmNode child = node.getJmmChild(i);
-            String childCode = "";
-            String computation = "";
-            if (child.isInstance(EXPR_STMT)) {
-                child = child.getJmmChild(0);
-                OllirExprResult childResult = exprVisitor.visit(child);
-                childCode = childResult.getCode();
-                computation = childResult.getComputation();
-            }
-            else {
-                childCode = visit(child);
-            }
-            code.append(computation);
-            code.append(childCode);
-
+            code.append(visit(node.getJmmChild(i)));
         }
 
         // return statement
@@ -283,7 +273,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
 
         computation.append(conditionVisit.getComputation());
 
-        int ifLabelNum = OptUtils.getNextIfLabelNum();
+        int ifLabelNum = context.getNextIfLabelNum();
 
         computation.append("if(")
                 .append(conditionVisit.getCode())
@@ -317,6 +307,14 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
         return computation.toString();
     }
 
+    /**
+     * Expression statements are calls, and can be in the body of an if or a while as well as in the method.
+     */
+    private String visitExprStmt(JmmNode node, Void unused) {
+        var expr = exprVisitor.visit(node.getJmmChild(0));
+        return expr.getComputation() + expr.getCode();
+    }
+
     private String visitWhileStmt(JmmNode node, Void unused) {
         StringBuilder code = new StringBuilder();
 
@@ -324,9 +322,11 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
 
         var expr = exprVisitor.visit(breakCondition);
 
-        int whileLabel = OptUtils.getNextWhileLabelNum();
+        int whileLabel = context.getNextWhileLabelNum();
 
-        code.append(expr.getComputation())
+        // The body can change the operands of the condition, so every iteration jumps back to compute it again
+        code.append("whilecond_").append(whileLabel).append(":\n")
+            .append(expr.getComputation())
             .append("if (")
             .append(expr.getCode())
             .append(") goto whilebody_").append(whileLabel).append(";\n");
@@ -341,11 +341,7 @@ public class OllirGeneratorVisitor extends AJmmVisitor<Void, String> {
             code.append(visit(node.getChild(1).getJmmChild(i)));
         }
 
-        code.append("if (")
-            .append(expr.getCode())
-            .append(") goto whilebody_").append(whileLabel).append(";\n");
-
-        code.append("goto endwhile_").append(whileLabel).append(";\n")
+        code.append("goto whilecond_").append(whileLabel).append(";\n")
             .append("endwhile_").append(whileLabel).append(":\n");
 
         return code.toString();
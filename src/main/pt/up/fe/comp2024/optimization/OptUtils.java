@@ -14,60 +14,6 @@ import static pt.up.fe.comp2024.ast.Kind.INT_TYPE;
 import static pt.up.fe.comp2024.ast.Kind.TYPE;
 
 public class OptUtils {
-    private static int tempNumber = -1;
-    private static int trueLabelNumber = -1;
-    private static int endLabelNumber = -1;
-    private static int whileLabelNumber = -1;
-    private static int endWhileLabelNumber = -1;
-    private static int ifLabelNumber = -1;
-    private static int varArgsNumber = -1;
-
-
-    public static String getTemp() {
-
-        return getTemp("tmp");
-    }
-
-    public static String getTemp(String prefix) {
-
-        return prefix + getNextTempNum();
-    }
-
-    public static int getNextTempNum() {
-
-        tempNumber += 1;
-        return tempNumber;
-    }
-
-    public static int getNextTrueLabelNum() {
-        trueLabelNumber += 1;
-        return trueLabelNumber;
-    }
-
-    public static int getNextEndLabelNum() {
-        endLabelNumber += 1;
-        return endLabelNumber;
-    }
-
-    public static int getNextWhileLabelNum() {
-        whileLabelNumber += 1;
-        return whileLabelNumber;
-    }
-
-    public static int getNextEndWhileLabelNum() {
-        endWhileLabelNumber += 1;
-        return endWhileLabelNumber;
-    }
-
-    public static int getNextIfLabelNum() {
-        ifLabelNumber += 1;
-        return ifLabelNumber;
-    }
-
-    public static int getNextVarArgsNum() {
-        varArgsNumber += 1;
-        return varArgsNumber;
-    }
 
     public static String toOllirType(JmmNode typeNode) {
         List<Kind> validTypes = List.of(Kind.INT_TYPE, Kind.BOOLEAN_TYPE, Kind.ARRAY_TYPE, Kind.VOID_TYPE, Kind.STRING_TYPE, Kind.CLASS_TYPE);
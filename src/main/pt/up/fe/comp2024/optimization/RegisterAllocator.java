@@ -0,0 +1,359 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.Stage;
+
+import java.util.*;
+
+/**
+ * Assigns the local variables of each method to JVM registers by coloring their interference graph.
+ * <p>
+ * Two variables interfere if one is written while the other is live, in which case they need different registers.
+ * 'this' and the parameters keep the registers where the JVM places them, but other variables can reuse those registers
+ * once they are dead. The graph is colored by repeatedly removing the variable with the fewest neighbors and then
+ * giving each variable, in reverse order, the lowest register its neighbors do not use.
+ * <p>
+ * The two sides of a copy that do not interfere are first merged into a single variable, as long as the merged
+ * variable does not interfere with itself, so the copy ends up between the same register and can be removed. If the
+ * merged graph needs more registers, the variables are colored without merging them.
+ * <p>
+ * With a limit of 0, each method uses the fewest registers the coloring finds. Otherwise, a method that needs more
+ * registers than the limit is reported as an error.
+ */
+public class RegisterAllocator {
+
+    private final ClassUnit classUnit;
+    private final int maxRegisters;
+    private final List<Report> reports;
+
+    /**
+     * @param maxRegisters the maximum number of registers of each method, or 0 to use as few as possible
+     */
+    public RegisterAllocator(ClassUnit classUnit, int maxRegisters) {
+        this.classUnit = classUnit;
+        this.maxRegisters = maxRegisters;
+        this.reports = new ArrayList<>();
+    }
+
+    /**
+     * Changes the registers in the var table of each method.
+     *
+     * @return the errors of methods that do not fit in the maximum number of registers
+     */
+    public List<Report> allocate() {
+        for (var method : classUnit.getMethods()) {
+            // The constructor is not generated, the backends write a default one
+            if (!method.isConstructMethod()) {
+                allocate(method);
+            }
+        }
+
+        return reports;
+    }
+
+    private void allocate(Method method) {
+        var liveness = new LivenessAnalysis(method);
+        var graph = new InterferenceGraph(liveness);
+
+        int minRegisters = graph.getMinRegisters();
+        int registers = maxRegisters == 0 ? minRegisters : maxRegisters;
+        var colors = graph.color(registers);
+
+        while (colors == null && maxRegisters == 0) {
+            colors = graph.color(++registers);
+        }
+
+        if (colors == null) {
+            // Find how many registers would be enough, so the error is useful
+            int needed = registers;
+            while (colors == null) {
+                colors = graph.color(++needed);
+            }
+
+            reports.add(Report.newError(Stage.OPTIMIZATION, -1, -1, "Method '" + method.getMethodName()
+                    + "' needs at least " + needed + " registers, but option '-r' allows " + maxRegisters, null));
+            return;
+        }
+
+        var variables = liveness.getVariables();
+        for (int i = 0; i < variables.size(); i++) {
+            method.getVarTable().get(variables.get(i)).setVirtualReg(colors[i]);
+        }
+
+        // Names in the var table that are not variables, such as classes of static calls, do not use a register
+        for (var entry : method.getVarTable().entrySet()) {
+            if (entry.getValue().getScope() != VarScope.FIELD && liveness.getVariableIndex(entry.getKey()) == -1) {
+                entry.getValue().setVirtualReg(-1);
+            }
+        }
+    }
+
+    /**
+     * Graph where each variable is connected to the variables it cannot share a register with.
+     */
+    private static class InterferenceGraph {
+
+        private final int size;
+        private final BitSet[] neighbors;
+
+        // The register of 'this' and of the parameters, or -1 for other variables
+        private final int[] fixedRegisters;
+
+        // The variables written and read by each copy, which would rather share a register
+        private final List<int[]> copies;
+
+        // The variable of the merged graph each variable belongs to, or null if no copy was merged
+        private final int[] groups;
+        private final InterferenceGraph merged;
+
+        private InterferenceGraph(LivenessAnalysis liveness) {
+            var variables = liveness.getVariables();
+            var method = liveness.getMethod();
+
+            this.size = variables.size();
+            this.neighbors = new BitSet[size];
+            this.fixedRegisters = new int[size];
+            this.copies = new ArrayList<>();
+
+            for (int i = 0; i < size; i++) {
+                neighbors[i] = new BitSet(size);
+                var name = variables.get(i);
+                fixedRegisters[i] = liveness.isParameter(name) ? method.getVarTable().get(name).getVirtualReg() : -1;
+            }
+
+            // The parameters are all written when the method starts
+            var liveAtEntry = liveness.getLiveAtEntry();
+            for (int i = 0; i < size; i++) {
+                if (fixedRegisters[i] != -1) {
+                    addEdges(i, liveAtEntry, -1);
+                }
+            }
+
+            for (int i = 0; i < liveness.getNumInstructions(); i++) {
+                var instruction = liveness.getMethod().getInstructions().get(i);
+                int copied = getCopiedVariable(liveness, instruction);
+                var liveOut = liveness.getLiveOut(i);
+
+                var defs = liveness.getDefs(i);
+                for (int def = defs.nextSetBit(0); def >= 0; def = defs.nextSetBit(def + 1)) {
+                    addEdges(def, liveOut, copied);
+                    if (copied != -1 && copied != def) {
+                        copies.add(new int[]{def, copied});
+                    }
+                }
+            }
+
+            this.groups = getCopyGroups();
+            this.merged = groups == null ? null : merge(groups);
+        }
+
+        private InterferenceGraph(BitSet[] neighbors, int[] fixedRegisters) {
+            this.size = neighbors.length;
+            this.neighbors = neighbors;
+            this.fixedRegisters = fixedRegisters;
+            this.copies = Collections.emptyList();
+            this.groups = null;
+            this.merged = null;
+        }
+
+        /**
+         * @return the variable copied by an assignment like 'a = b', which can share the register of 'a', or -1
+         */
+        private static int getCopiedVariable(LivenessAnalysis liveness, Instruction instruction) {
+            if (instruction instanceof AssignInstruction assign
+                    && assign.getRhs() instanceof SingleOpInstruction singleOp
+                    && singleOp.getSingleOperand() instanceof Operand operand
+                    && !(operand instanceof ArrayOperand)) {
+                return liveness.getVariableIndex(operand.getName());
+            }
+
+            return -1;
+        }
+
+        private void addEdges(int variable, BitSet others, int except) {
+            for (int other = others.nextSetBit(0); other >= 0; other = others.nextSetBit(other + 1)) {
+                if (other != variable && other != except) {
+                    neighbors[variable].set(other);
+                    neighbors[other].set(variable);
+                }
+            }
+        }
+
+        /**
+         * @return the registers 'this' and the parameters need, which is the least any coloring can use
+         */
+        private int getMinRegisters() {
+            int min = 0;
+            for (int i = 0; i < size; i++) {
+                min = Math.max(min, fixedRegisters[i] + 1);
+            }
+
+            return size > 0 ? Math.max(min, 1) : min;
+        }
+
+        /**
+         * Merges the two sides of each copy when neither they nor the variables already merged with them interfere.
+         * 'this' and the parameters can be merged with other variables, but not with each other.
+         *
+         * @return the merged variable of each variable, numbered from 0, or null if no copy could be merged
+         */
+        private int[] getCopyGroups() {
+            int[] parents = new int[size];
+            var members = new BitSet[size];
+            var groupNeighbors = new BitSet[size];
+            int[] groupRegisters = fixedRegisters.clone();
+
+            for (int i = 0; i < size; i++) {
+                parents[i] = i;
+                members[i] = new BitSet(size);
+                members[i].set(i);
+                groupNeighbors[i] = (BitSet) neighbors[i].clone();
+            }
+
+            int numMerged = 0;
+            for (var copy : copies) {
+                int first = find(parents, copy[0]);
+                int second = find(parents, copy[1]);
+
+                if (first == second || groupNeighbors[first].intersects(members[second])
+                        || (groupRegisters[first] != -1 && groupRegisters[second] != -1)) {
+                    continue;
+                }
+
+                parents[second] = first;
+                members[first].or(members[second]);
+                groupNeighbors[first].or(groupNeighbors[second]);
+                groupRegisters[first] = Math.max(groupRegisters[first], groupRegisters[second]);
+                numMerged++;
+            }
+
+            if (numMerged == 0) {
+                return null;
+            }
+
+            Map<Integer, Integer> numbers = new HashMap<>();
+            int[] groups = new int[size];
+            for (int i = 0; i < size; i++) {
+                groups[i] = numbers.computeIfAbsent(find(parents, i), root -> numbers.size());
+            }
+
+            return groups;
+        }
+
+        private static int find(int[] parents, int variable) {
+            while (parents[variable] != variable) {
+                parents[variable] = parents[parents[variable]];
+                variable = parents[variable];
+            }
+
+            return variable;
+        }
+
+        private InterferenceGraph merge(int[] groups) {
+            int numGroups = Arrays.stream(groups).max().orElse(-1) + 1;
+            var groupNeighbors = new BitSet[numGroups];
+            int[] groupRegisters = new int[numGroups];
+            Arrays.fill(groupRegisters, -1);
+
+            for (int i = 0; i < numGroups; i++) {
+                groupNeighbors[i] = new BitSet(numGroups);
+            }
+
+            for (int i = 0; i < size; i++) {
+                var group = groupNeighbors[groups[i]];
+                for (int other = neighbors[i].nextSetBit(0); other >= 0; other = neighbors[i].nextSetBit(other + 1)) {
+                    group.set(groups[other]);
+                }
+
+                if (fixedRegisters[i] != -1) {
+                    groupRegisters[groups[i]] = fixedRegisters[i];
+                }
+            }
+
+            return new InterferenceGraph(groupNeighbors, groupRegisters);
+        }
+
+        /**
+         * @return the register of each variable, or null if the heuristic could not use only the given registers
+         */
+        private int[] color(int registers) {
+            if (merged != null) {
+                var groupColors = merged.colorVariables(registers);
+                if (groupColors != null) {
+                    int[] colors = new int[size];
+                    for (int i = 0; i < size; i++) {
+                        colors[i] = groupColors[groups[i]];
+                    }
+                    return colors;
+                }
+            }
+
+            return colorVariables(registers);
+        }
+
+        private int[] colorVariables(int registers) {
+            if (registers < getMinRegisters()) {
+                return null;
+            }
+
+            // Simplify: remove the variables with fewer neighbors first
+            Deque<Integer> stack = new ArrayDeque<>();
+            int[] degrees = new int[size];
+            boolean[] removed = new boolean[size];
+            int remaining = 0;
+
+            for (int i = 0; i < size; i++) {
+                degrees[i] = neighbors[i].cardinality();
+                if (fixedRegisters[i] == -1) {
+                    remaining++;
+                } else {
+                    removed[i] = true;
+                }
+            }
+
+            while (remaining > 0) {
+                int next = -1;
+                for (int i = 0; i < size; i++) {
+                    if (!removed[i] && (next == -1 || degrees[i] < degrees[next])) {
+                        next = i;
+                    }
+                }
+
+                // Even if it has too many neighbors, some of them may end up sharing a register
+                stack.push(next);
+                removed[next] = true;
+                remaining--;
+
+                var nextNeighbors = neighbors[next];
+                for (int i = nextNeighbors.nextSetBit(0); i >= 0; i = nextNeighbors.nextSetBit(i + 1)) {
+                    degrees[i]--;
+                }
+            }
+
+            // Select: give each variable the lowest register its neighbors do not use
+            int[] colors = fixedRegisters.clone();
+            var used = new BitSet(registers);
+
+            while (!stack.isEmpty()) {
+                int variable = stack.pop();
+
+                used.clear();
+                var variableNeighbors = neighbors[variable];
+                for (int i = variableNeighbors.nextSetBit(0); i >= 0; i = variableNeighbors.nextSetBit(i + 1)) {
+                    if (colors[i] != -1) {
+                        used.set(colors[i]);
+                    }
+                }
+
+                int color = used.nextClearBit(0);
+                if (color >= registers) {
+                    return null;
+                }
+                colors[variable] = color;
+            }
+
+            return colors;
+        }
+    }
+}
@@ -0,0 +1,538 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Static single assignment form of an OLLIR method, where each variable is written by a single instruction.
+ * <p>
+ * {@link #toSsa(Method)} renames every definition of a local to a new version, named after the local, and places phis
+ * at the dominance frontiers of its definitions. Phis are only placed where the local is live, so dead versions do not
+ * get phis. Reads of a local before any definition, such as parameters, use the original name. The phis are kept
+ * beside the blocks, since OLLIR has no instruction for them, and the new versions are added to the var table, each
+ * with a register of its own.
+ * <p>
+ * {@link #fromSsa()} replaces each phi with copies: every predecessor writes the value of its edge to a new variable
+ * right before its jump, and the block of the phi copies that variable to the target. Since that variable is only read
+ * by the phi, writing it on the other edges of a predecessor is harmless, so edges never need to be split, and phis of
+ * the same block that read each other cannot overwrite each other. The register allocators can later give the copies
+ * the same register.
+ * <p>
+ * Optimizations can change the instructions of the blocks in between, as long as the jumps stay at the end of each
+ * block. The method is rebuilt from the blocks when leaving SSA form.
+ */
+public class SsaForm {
+
+    private static final String VERSION_SEPARATOR = "$";
+
+    private final Method method;
+    private final ControlFlowGraph cfg;
+    private DominatorTree dominatorTree;
+    private final Map<BasicBlock, List<Phi>> phis;
+
+    // Original local of each version
+    private final Map<String, String> originalNames;
+    private final Map<String, Integer> nextVersions;
+    private int nextRegister;
+
+    private SsaForm(Method method) {
+        this.method = method;
+        this.cfg = new ControlFlowGraph(method);
+        this.dominatorTree = new DominatorTree(cfg);
+        this.phis = new HashMap<>();
+        this.originalNames = new HashMap<>();
+        this.nextVersions = new HashMap<>();
+
+        this.nextRegister = 0;
+        for (var descriptor : method.getVarTable().values()) {
+            nextRegister = Math.max(nextRegister, descriptor.getVirtualReg() + 1);
+        }
+    }
+
+    /**
+     * Converts the method to SSA form, renaming its operands in place.
+     */
+    public static SsaForm toSsa(Method method) {
+        var ssa = new SsaForm(method);
+        var liveness = new LivenessAnalysis(method);
+        ssa.insertPhis(liveness);
+        ssa.rename(new HashSet<>(liveness.getVariables()));
+        return ssa;
+    }
+
+    public Method getMethod() {
+        return method;
+    }
+
+    public ControlFlowGraph getCfg() {
+        return cfg;
+    }
+
+    public DominatorTree getDominatorTree() {
+        return dominatorTree;
+    }
+
+    /**
+     * Computes the dominator tree again, after optimizations change the edges of the graph.
+     */
+    public void updateDominatorTree() {
+        dominatorTree = new DominatorTree(cfg);
+    }
+
+    /**
+     * Removes the edge from the graph and its value from the phis of the target. The jump at the end of the source
+     * must be changed by the caller.
+     */
+    public void removeEdge(BasicBlock from, BasicBlock to) {
+        int position = to.getPredecessors().indexOf(from);
+        if (position == -1) {
+            return;
+        }
+
+        to.getPredecessors().remove(position);
+        from.getSuccessors().remove(to);
+        for (var phi : getPhis(to)) {
+            phi.getSources().remove(position);
+        }
+    }
+
+    /**
+     * Removes the block from the graph, with its instructions, labels and phis. It stays in the list of blocks, empty.
+     */
+    public void removeBlock(BasicBlock block) {
+        for (var successor : new ArrayList<>(block.getSuccessors())) {
+            removeEdge(block, successor);
+        }
+        for (var predecessor : new ArrayList<>(block.getPredecessors())) {
+            removeEdge(predecessor, block);
+        }
+
+        block.getInstructions().clear();
+        block.getLabels().clear();
+        getPhis(block).clear();
+    }
+
+    /**
+     * Gives the loop a block that runs right before its header, and only then, where instructions can be moved out of
+     * the loop. If the only predecessor of the header from outside the loop only jumps to the header, that predecessor
+     * is used. Otherwise, a new block is placed before the header, the jumps from outside the loop go to it, and the
+     * phis of the header get their values from outside the loop through new phis in that block.
+     * <p>
+     * Phis of the header that the loop does not change, which appear when the header also joins the branches of an
+     * earlier if, are moved to the preheader.
+     *
+     * @param loop the blocks of the loop, including the header
+     * @return the preheader, or null if the header cannot be reached from outside the loop or is entered by falling
+     * through from a block of the loop
+     */
+    public BasicBlock insertPreheader(BasicBlock header, Set<BasicBlock> loop) {
+        List<BasicBlock> outside = new ArrayList<>();
+        List<BasicBlock> inside = new ArrayList<>();
+        for (var predecessor : header.getPredecessors()) {
+            (loop.contains(predecessor) ? inside : outside).add(predecessor);
+        }
+
+        if (outside.isEmpty()) {
+            return null;
+        }
+
+        boolean reused = outside.size() == 1 && outside.get(0).getSuccessors().size() == 1;
+        var preheader = reused ? outside.get(0) : newPreheader(header, loop, outside);
+        if (preheader == null) {
+            return null;
+        }
+
+        // The value of each phi from outside the loop now comes from the preheader, which chooses between them
+        List<BasicBlock> predecessors = new ArrayList<>(header.getPredecessors());
+        var iterator = getPhis(header).iterator();
+        while (iterator.hasNext()) {
+            var phi = iterator.next();
+            boolean invariant = isLoopInvariant(phi, header, loop);
+
+            var outsideSources = new ArrayList<Element>(outside.size());
+            var insideSources = new ArrayList<Element>(inside.size());
+            for (int i = 0; i < predecessors.size(); i++) {
+                var source = phi.getSources().get(i);
+                (loop.contains(predecessors.get(i)) ? insideSources : outsideSources).add(source);
+            }
+
+            Element entryValue = outsideSources.get(0);
+            if (outsideSources.size() > 1) {
+                var entryPhi = new Phi(phi.getVariable(), phi.getType(), 0);
+                entryPhi.target = invariant ? phi.getTarget() : newVersion(phi.getVariable(), phi.getType());
+                entryPhi.getSources().addAll(outsideSources);
+                getPhis(preheader).add(entryPhi);
+                entryValue = new Operand(entryPhi.getTarget(), phi.getType());
+            } else if (invariant) {
+                insertBeforeTerminator(preheader, newCopy(phi.getTarget(), entryValue, phi.getType()));
+            }
+
+            if (invariant) {
+                iterator.remove();
+            } else {
+                phi.getSources().clear();
+                phi.getSources().add(entryValue);
+                phi.getSources().addAll(insideSources);
+            }
+        }
+
+        if (!reused) {
+            header.getPredecessors().clear();
+            header.getPredecessors().add(preheader);
+            header.getPredecessors().addAll(inside);
+            updateDominatorTree();
+        }
+
+        return preheader;
+    }
+
+    /**
+     * @return true if the phi, placed in the header of the loop, only reads its own value from inside the loop
+     */
+    public boolean isLoopInvariant(Phi phi, BasicBlock header, Set<BasicBlock> loop) {
+        for (int i = 0; i < phi.getSources().size(); i++) {
+            if (loop.contains(header.getPredecessors().get(i))
+                    && !(phi.getSources().get(i) instanceof Operand operand
+                    && operand.getName().equals(phi.getTarget()))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private BasicBlock newPreheader(BasicBlock header, Set<BasicBlock> loop, List<BasicBlock> outside) {
+        // The block before the header falls through to the preheader instead, so it must be outside the loop
+        int position = header.getIndex();
+        var previous = position > 0 ? cfg.getBlocks().get(position - 1) : null;
+        if (previous != null && loop.contains(previous) && header.getPredecessors().contains(previous)
+                && !(previous.getTerminator() instanceof GotoInstruction)) {
+            return null;
+        }
+
+        var label = newLabel("preheader");
+        var preheader = cfg.insertBlock(position, new ArrayList<>(List.of(label)));
+
+        for (var predecessor : outside) {
+            var terminator = predecessor.getTerminator();
+            if (terminator instanceof GotoInstruction gotoInst && header.getLabels().contains(gotoInst.getLabel())) {
+                gotoInst.setLabel(label);
+            } else if (terminator instanceof CondBranchInstruction branch
+                    && header.getLabels().contains(branch.getLabel())) {
+                branch.setLabel(label);
+            }
+
+            var successors = predecessor.getSuccessors();
+            successors.set(successors.indexOf(header), preheader);
+            preheader.getPredecessors().add(predecessor);
+        }
+        preheader.getSuccessors().add(header);
+
+        return preheader;
+    }
+
+    private String newLabel(String prefix) {
+        Set<String> labels = new HashSet<>();
+        cfg.getBlocks().forEach(block -> labels.addAll(block.getLabels()));
+
+        int number = 0;
+        while (labels.contains(prefix + "_" + number)) {
+            number++;
+        }
+
+        return prefix + "_" + number;
+    }
+
+    /**
+     * @return the phis at the start of the block, which can be changed by optimizations
+     */
+    public List<Phi> getPhis(BasicBlock block) {
+        return phis.computeIfAbsent(block, b -> new ArrayList<>());
+    }
+
+    /**
+     * @return the local a version was created from, or the name itself if it is not a version
+     */
+    public String getOriginalName(String name) {
+        return originalNames.getOrDefault(name, name);
+    }
+
+    /**
+     * Replaces the phis with copies and writes the instructions of the blocks back to the method.
+     */
+    public void fromSsa() {
+        for (var block : cfg.getBlocks()) {
+            var blockPhis = getPhis(block);
+            if (blockPhis.isEmpty()) {
+                continue;
+            }
+
+            List<Instruction> targetCopies = new ArrayList<>(blockPhis.size());
+            for (var phi : blockPhis) {
+                var type = phi.getType();
+                var edgeValue = newVersion(phi.getVariable(), type);
+
+                for (int i = 0; i < block.getPredecessors().size(); i++) {
+                    var predecessor = block.getPredecessors().get(i);
+                    insertBeforeTerminator(predecessor, newCopy(edgeValue, phi.getSources().get(i), type));
+                }
+                targetCopies.add(newCopy(phi.getTarget(), new Operand(edgeValue, type), type));
+            }
+
+            block.getInstructions().addAll(0, targetCopies);
+            blockPhis.clear();
+        }
+
+        writeBack();
+    }
+
+    private static void insertBeforeTerminator(BasicBlock block, Instruction instruction) {
+        var instructions = block.getInstructions();
+        int position = block.getTerminator() == null ? instructions.size() : instructions.size() - 1;
+        instructions.add(position, instruction);
+    }
+
+    private static Instruction newCopy(String target, Element source, Type type) {
+        return new AssignInstruction(new Operand(target, type), type, new SingleOpInstruction(source));
+    }
+
+    private void writeBack() {
+        var instructions = method.getInstructions();
+        var labels = method.getLabels();
+        instructions.clear();
+        labels.clear();
+
+        // Labels of empty blocks go to the first instruction after them
+        List<String> pendingLabels = new ArrayList<>();
+        for (var block : cfg.getBlocks()) {
+            pendingLabels.addAll(block.getLabels());
+            if (block.getInstructions().isEmpty()) {
+                continue;
+            }
+
+            var first = block.getInstructions().get(0);
+            pendingLabels.forEach(label -> labels.put(label, first));
+            pendingLabels.clear();
+            instructions.addAll(block.getInstructions());
+        }
+
+        if (!pendingLabels.isEmpty()) {
+            throw new RuntimeException("Labels " + pendingLabels + " of method '" + method.getMethodName()
+                    + "' are at the end of the method, without an instruction");
+        }
+    }
+
+    private void insertPhis(LivenessAnalysis liveness) {
+        var variables = liveness.getVariables();
+
+        // Index of the first instruction of each block, where its live-in variables are read
+        int[] firstIndexes = new int[cfg.getBlocks().size()];
+        int index = 0;
+        for (var block : cfg.getBlocks()) {
+            firstIndexes[block.getIndex()] = index;
+            index += block.getInstructions().size();
+        }
+
+        List<Set<BasicBlock>> defBlocks = new ArrayList<>(variables.size());
+        for (int i = 0; i < variables.size(); i++) {
+            defBlocks.add(new LinkedHashSet<>());
+        }
+
+        index = 0;
+        for (var block : cfg.getBlocks()) {
+            for (int i = 0; i < block.getInstructions().size(); i++, index++) {
+                var defs = liveness.getDefs(index);
+                for (int variable = defs.nextSetBit(0); variable >= 0; variable = defs.nextSetBit(variable + 1)) {
+                    defBlocks.get(variable).add(block);
+                }
+            }
+        }
+
+        for (int variable = 0; variable < variables.size(); variable++) {
+            var name = variables.get(variable);
+            var type = method.getVarTable().get(name).getVarType();
+            Set<BasicBlock> hasPhi = new HashSet<>();
+            Deque<BasicBlock> worklist = new ArrayDeque<>(defBlocks.get(variable));
+
+            while (!worklist.isEmpty()) {
+                var block = worklist.pop();
+                if (!dominatorTree.isReachable(block)) {
+                    continue;
+                }
+
+                for (var frontier : dominatorTree.getDominanceFrontier(block)) {
+                    boolean live = !frontier.getInstructions().isEmpty()
+                            && liveness.getLiveIn(firstIndexes[frontier.getIndex()]).get(variable);
+
+                    if (live && hasPhi.add(frontier)) {
+                        getPhis(frontier).add(new Phi(name, type, frontier.getPredecessors().size()));
+                        if (!defBlocks.get(variable).contains(frontier)) {
+                            worklist.push(frontier);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void rename(Set<String> variables) {
+        if (cfg.getEntry() == null) {
+            return;
+        }
+
+        Map<String, Deque<String>> versions = new HashMap<>();
+        Set<Operand> renamed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        // Depth-first over the dominator tree, undoing the versions of each block after its children
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<List<String>> pushed = new ArrayDeque<>();
+        stack.push(cfg.getEntry());
+        pushed.push(new ArrayList<>());
+        boolean entering = true;
+
+        Deque<Iterator<BasicBlock>> children = new ArrayDeque<>();
+        while (!stack.isEmpty()) {
+            var block = stack.peek();
+
+            if (entering) {
+                renameBlock(block, variables, versions, renamed, pushed.peek());
+                children.push(dominatorTree.getChildren(block).iterator());
+            }
+
+            var blockChildren = children.peek();
+            if (blockChildren.hasNext()) {
+                stack.push(blockChildren.next());
+                pushed.push(new ArrayList<>());
+                entering = true;
+            } else {
+                children.pop();
+                stack.pop();
+                for (var variable : pushed.pop()) {
+                    versions.get(variable).pop();
+                }
+                entering = false;
+            }
+        }
+    }
+
+    private void renameBlock(BasicBlock block, Set<String> variables, Map<String, Deque<String>> versions,
+                             Set<Operand> renamed, List<String> pushed) {
+        for (var phi : getPhis(block)) {
+            phi.target = pushVersion(phi.getVariable(), phi.getType(), versions, pushed);
+        }
+
+        for (var instruction : block.getInstructions()) {
+            // The uses are read before the definition is written, as in 'a = a + 1'
+            LivenessAnalysis.forEachOperand(instruction, (operand, isDef) -> {
+                if (!isDef && variables.contains(operand.getName())) {
+                    checkNotRenamed(operand, renamed);
+                    operand.setName(currentVersion(operand.getName(), versions));
+                }
+            });
+            LivenessAnalysis.forEachOperand(instruction, (operand, isDef) -> {
+                if (isDef && variables.contains(operand.getName())) {
+                    checkNotRenamed(operand, renamed);
+                    operand.setName(pushVersion(operand.getName(), operand.getType(), versions, pushed));
+                }
+            });
+        }
+
+        for (var successor : block.getSuccessors()) {
+            int position = successor.getPredecessors().indexOf(block);
+            for (var phi : getPhis(successor)) {
+                phi.getSources().set(position, new Operand(currentVersion(phi.getVariable(), versions), phi.getType()));
+            }
+        }
+    }
+
+    private void checkNotRenamed(Operand operand, Set<Operand> renamed) {
+        // Renaming changes the operand object, so two instructions cannot share it
+        if (!renamed.add(operand)) {
+            throw new RuntimeException("Operand '" + operand.getName() + "' of method '" + method.getMethodName()
+                    + "' is shared by more than one use or definition");
+        }
+    }
+
+    private static String currentVersion(String variable, Map<String, Deque<String>> versions) {
+        var stack = versions.get(variable);
+        return stack == null || stack.isEmpty() ? variable : stack.peek();
+    }
+
+    private String pushVersion(String variable, Type type, Map<String, Deque<String>> versions, List<String> pushed) {
+        var version = newVersion(variable, type);
+        versions.computeIfAbsent(variable, v -> new ArrayDeque<>()).push(version);
+        pushed.add(variable);
+        return version;
+    }
+
+    /**
+     * Adds a new version of the local to the var table, in a register of its own.
+     */
+    private String newVersion(String variable, Type type) {
+        String name;
+        do {
+            int version = nextVersions.merge(variable, 1, Integer::sum);
+            name = variable + VERSION_SEPARATOR + version;
+        } while (method.getVarTable().containsKey(name));
+
+        method.getVarTable().put(name, new Descriptor(VarScope.LOCAL, nextRegister++, type));
+        originalNames.put(name, variable);
+        return name;
+    }
+
+    /**
+     * Chooses the version of a local depending on the predecessor the block was entered from.
+     */
+    public static class Phi {
+
+        private final String variable;
+        private final Type type;
+        private String target;
+        private final List<Element> sources;
+
+        private Phi(String variable, Type type, int numPredecessors) {
+            this.variable = variable;
+            this.type = type;
+            this.target = variable;
+            this.sources = new ArrayList<>(numPredecessors);
+            for (int i = 0; i < numPredecessors; i++) {
+                sources.add(new Operand(variable, type));
+            }
+        }
+
+        /**
+         * @return the local the phi was placed for
+         */
+        public String getVariable() {
+            return variable;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return the version written by the phi
+         */
+        public String getTarget() {
+            return target;
+        }
+
+        /**
+         * @return the version or literal read from each predecessor, in the order of the predecessors of the block
+         */
+        public List<Element> getSources() {
+            return sources;
+        }
+
+        @Override
+        public String toString() {
+            var names = sources.stream()
+                    .map(source -> source instanceof Operand operand ? operand.getName()
+                            : ((LiteralElement) source).getLiteral())
+                    .toList();
+            return target + " = phi" + names;
+        }
+    }
+}
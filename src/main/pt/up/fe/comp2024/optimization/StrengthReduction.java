@@ -0,0 +1,72 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+/**
+ * Replaces multiplications by a power of two with left shifts, over a method in {@link SsaForm}.
+ * <p>
+ * Divisions by a power of two are not shifts for negative dividends, which a shift rounds down instead of towards
+ * zero. They are left to the backends, which correct the rounding on the stack (see {@link #getShift(Element)}), and
+ * which also select iinc for additions and subtractions of constants.
+ */
+public class StrengthReduction {
+
+    private final SsaForm ssa;
+
+    public StrengthReduction(SsaForm ssa) {
+        this.ssa = ssa;
+    }
+
+    /**
+     * @return the number of multiplications replaced
+     */
+    public int apply() {
+        int reduced = 0;
+
+        for (var block : ssa.getCfg().getBlocks()) {
+            for (var instruction : block.getInstructions()) {
+                if (instruction instanceof AssignInstruction assign
+                        && assign.getRhs() instanceof BinaryOpInstruction binaryOp && reduce(binaryOp)) {
+                    reduced++;
+                }
+            }
+        }
+
+        return reduced;
+    }
+
+    private static boolean reduce(BinaryOpInstruction binaryOp) {
+        var operation = binaryOp.getOperation();
+        if (operation.getOpType() != OperationType.MUL) {
+            return false;
+        }
+
+        // Multiplication is commutative, so the constant can be on either side
+        var constant = binaryOp.getRightOperand();
+        int shift = getShift(constant);
+        if (shift < 0) {
+            constant = binaryOp.getLeftOperand();
+            shift = getShift(constant);
+            if (shift < 0) {
+                return false;
+            }
+            binaryOp.setLeftOperand(binaryOp.getRightOperand());
+        }
+
+        operation.setOpType(OperationType.SHL);
+        binaryOp.setRightOperand(new LiteralElement(String.valueOf(shift), constant.getType()));
+        return true;
+    }
+
+    /**
+     * @return k if the element is the integer literal 2^k, with k at least 1, or -1 otherwise
+     */
+    public static int getShift(Element element) {
+        if (!(element instanceof LiteralElement literal) || literal.getType().getTypeOfElement() != ElementType.INT32) {
+            return -1;
+        }
+
+        int value = Integer.parseInt(literal.getLiteral());
+        return value > 1 && Integer.bitCount(value) == 1 ? Integer.numberOfTrailingZeros(value) : -1;
+    }
+}
@@ -0,0 +1,203 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Replaces the calls a method makes to itself in tail position with a jump to its first instruction.
+ * <p>
+ * A call is in tail position when it is made on 'this' with the arguments of the method and its result is returned
+ * without being changed: right after the call, or after copies of it and jumps, which is how a result assigned to a
+ * local in both branches of an if reaches the return. The arguments are first copied to new locals and then to the
+ * parameters, so an argument that reads another parameter is not overwritten before it is copied. The copies are left
+ * for {@link CopyPropagation} to remove.
+ * <p>
+ * Like {@link Inliner}, this ignores that a subclass compiled on its own could override the method.
+ */
+public class TailRecursion {
+
+    private static final String ENTRY_LABEL = "tailEntry";
+    private static final String ARGUMENT_PREFIX = "tailArg";
+
+    private final Method method;
+    private final Map<String, Descriptor> varTable;
+    private String entryLabel;
+    private int nextRegister;
+
+    public TailRecursion(Method method) {
+        this.method = method;
+        this.varTable = method.getVarTable();
+        this.entryLabel = null;
+
+        this.nextRegister = 0;
+        for (var descriptor : varTable.values()) {
+            nextRegister = Math.max(nextRegister, descriptor.getVirtualReg() + 1);
+        }
+    }
+
+    /**
+     * @return the number of calls replaced with jumps
+     */
+    public int apply() {
+        if (method.isConstructMethod() || method.isStaticMethod()) {
+            return 0;
+        }
+
+        var instructions = method.getInstructions();
+        int replaced = 0;
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+            var call = Inliner.getInlinableCall(instruction);
+            if (call == null || !isSelfCall(call) || !isReturned(instruction, i)) {
+                continue;
+            }
+
+            // A method that starts with the call always recurses, and the entry would be the jump that replaces it
+            if (i == 0) {
+                continue;
+            }
+
+            var jump = jumpToEntry(call);
+
+            // The labels of the call go to the first copy of the arguments
+            for (var label : method.getLabels().entrySet()) {
+                if (label.getValue() == instruction) {
+                    label.setValue(jump.get(0));
+                }
+            }
+
+            instructions.remove(i);
+            instructions.addAll(i, jump);
+            i += jump.size() - 1;
+            replaced++;
+        }
+
+        return replaced;
+    }
+
+    /**
+     * @return true if the call is to this method, and not to another method with the same name
+     */
+    private boolean isSelfCall(CallInstruction call) {
+        if (!Inliner.getMethodName(call).equals(method.getMethodName())) {
+            return false;
+        }
+
+        var params = method.getParams();
+        var arguments = call.getArguments();
+        if (params.size() != arguments.size()) {
+            return false;
+        }
+
+        for (int i = 0; i < params.size(); i++) {
+            if (!params.get(i).getType().toString().equals(arguments.get(i).getType().toString())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return true if the result of the call at the given index is returned without being changed
+     */
+    private boolean isReturned(Instruction call, int index) {
+        var instructions = method.getInstructions();
+        String result = call instanceof AssignInstruction assign ? ((Operand) assign.getDest()).getName() : null;
+        Set<Integer> visited = new HashSet<>();
+
+        for (int i = index + 1; i < instructions.size() && visited.add(i); ) {
+            var instruction = instructions.get(i);
+
+            if (instruction instanceof ReturnInstruction ret) {
+                if (!ret.hasReturnValue()) {
+                    return true;
+                }
+                return result != null && ret.getOperand() instanceof Operand operand
+                        && !(operand instanceof ArrayOperand) && operand.getName().equals(result);
+            }
+
+            if (instruction instanceof GotoInstruction gotoInstruction) {
+                i = instructions.indexOf(method.getLabels().get(gotoInstruction.getLabel()));
+                continue;
+            }
+
+            // A copy of the result, which the return can read instead
+            if (result != null && instruction instanceof AssignInstruction assign
+                    && !(assign.getDest() instanceof ArrayOperand)
+                    && assign.getRhs() instanceof SingleOpInstruction singleOp
+                    && singleOp.getSingleOperand() instanceof Operand operand && !(operand instanceof ArrayOperand)
+                    && operand.getName().equals(result)) {
+                result = ((Operand) assign.getDest()).getName();
+                i++;
+                continue;
+            }
+
+            return false;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the copies of the arguments of the call to the parameters, followed by the jump to the entry
+     */
+    private List<Instruction> jumpToEntry(CallInstruction call) {
+        var params = method.getParams();
+        var arguments = call.getArguments();
+        List<Instruction> jump = new ArrayList<>();
+        List<Instruction> assignParams = new ArrayList<>();
+
+        for (int i = 0; i < params.size(); i++) {
+            var param = (Operand) params.get(i);
+            var argument = arguments.get(i);
+            var type = param.getType();
+
+            // A parameter passed in its own position keeps its value
+            if (argument instanceof Operand operand && !(operand instanceof ArrayOperand)
+                    && operand.getName().equals(param.getName())) {
+                continue;
+            }
+
+            var temp = newArgument(type);
+            jump.add(new AssignInstruction(new Operand(temp, type), type, new SingleOpInstruction(argument)));
+            assignParams.add(new AssignInstruction(new Operand(param.getName(), type), type,
+                    new SingleOpInstruction(new Operand(temp, type))));
+        }
+
+        jump.addAll(assignParams);
+        jump.add(new GotoInstruction(getEntryLabel()));
+        return jump;
+    }
+
+    private String newArgument(Type type) {
+        String name;
+        int suffix = 0;
+        do {
+            name = ARGUMENT_PREFIX + suffix++;
+        } while (varTable.containsKey(name));
+
+        varTable.put(name, new Descriptor(VarScope.LOCAL, nextRegister++, type));
+        return name;
+    }
+
+    /**
+     * @return the label of the first instruction, which is added the first time it is needed
+     */
+    private String getEntryLabel() {
+        if (entryLabel == null) {
+            var labels = method.getLabels();
+            var label = ENTRY_LABEL;
+            for (int suffix = 0; labels.containsKey(label); suffix++) {
+                label = ENTRY_LABEL + suffix;
+            }
+
+            labels.put(label, method.getInstructions().get(0));
+            entryLabel = label;
+        }
+
+        return entryLabel;
+    }
+}
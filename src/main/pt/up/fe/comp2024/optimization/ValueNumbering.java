@@ -0,0 +1,235 @@
+package pt.up.fe.comp2024.optimization;
+
+import org.specs.comp.ollir.*;
+
+import java.util.*;
+
+/**
+ * Dominator-based value numbering over a method in {@link SsaForm}, which removes common subexpressions.
+ * <p>
+ * Each block is numbered like in local value numbering, starting from the table of its immediate dominator: since
+ * every version is written once, an expression computed in a dominator still has the same value. An assignment whose
+ * right side was already computed becomes a copy of the earlier result. Copies give their target the number of their
+ * source, so expressions over copies of the same value also match.
+ * <p>
+ * The expressions are binary and unary operations, array loads and array lengths. Lengths never change, but loads
+ * depend on memory: they only match while no array store or call runs in between. A block only keeps the loads of its
+ * dominator if that dominator is its only predecessor, otherwise another path could have written the arrays. A store
+ * also makes the stored value the result of loading the same element afterwards.
+ */
+public class ValueNumbering {
+
+    private static final Set<OperationType> COMMUTATIVE = EnumSet.of(OperationType.ADD, OperationType.MUL,
+            OperationType.AND, OperationType.OR, OperationType.XOR, OperationType.ANDB, OperationType.ORB,
+            OperationType.EQ, OperationType.NEQ);
+
+    private final SsaForm ssa;
+
+    // The version that first held each value, found by following copies
+    private final Map<String, String> leaders;
+    private final Map<String, Element> available;
+    private int nextMemoryState;
+    private int removed;
+
+    public ValueNumbering(SsaForm ssa) {
+        this.ssa = ssa;
+        this.leaders = new HashMap<>();
+        this.available = new HashMap<>();
+        this.nextMemoryState = 0;
+        this.removed = 0;
+    }
+
+    /**
+     * Replaces the expressions that were already computed with copies of their results.
+     *
+     * @return the number of expressions replaced
+     */
+    public int apply() {
+        var cfg = ssa.getCfg();
+        var dominatorTree = ssa.getDominatorTree();
+        if (cfg.getEntry() == null) {
+            return 0;
+        }
+
+        // Depth-first over the dominator tree, undoing the expressions of each block after its children
+        Deque<BasicBlock> stack = new ArrayDeque<>();
+        Deque<List<String>> added = new ArrayDeque<>();
+        Deque<Integer> memoryStates = new ArrayDeque<>();
+        Deque<Iterator<BasicBlock>> children = new ArrayDeque<>();
+
+        stack.push(cfg.getEntry());
+        added.push(new ArrayList<>());
+        memoryStates.push(numberBlock(cfg.getEntry(), nextMemoryState++, added.peek()));
+        children.push(dominatorTree.getChildren(cfg.getEntry()).iterator());
+
+        while (!stack.isEmpty()) {
+            var blockChildren = children.peek();
+            if (blockChildren.hasNext()) {
+                var child = blockChildren.next();
+                var predecessors = child.getPredecessors();
+                int memoryState = predecessors.size() == 1 && predecessors.get(0) == stack.peek() ?
+                        memoryStates.peek() : nextMemoryState++;
+
+                stack.push(child);
+                added.push(new ArrayList<>());
+                memoryStates.push(numberBlock(child, memoryState, added.peek()));
+                children.push(dominatorTree.getChildren(child).iterator());
+            } else {
+                stack.pop();
+                memoryStates.pop();
+                children.pop();
+                added.pop().forEach(available::remove);
+            }
+        }
+
+        return removed;
+    }
+
+    /**
+     * @return the memory state at the end of the block
+     */
+    private int numberBlock(BasicBlock block, int memoryState, List<String> added) {
+        var instructions = block.getInstructions();
+
+        for (int i = 0; i < instructions.size(); i++) {
+            var instruction = instructions.get(i);
+
+            if (instruction instanceof CallInstruction call && writesMemory(call)) {
+                memoryState = nextMemoryState++;
+                continue;
+            }
+            if (!(instruction instanceof AssignInstruction assign) || !(assign.getDest() instanceof Operand dest)) {
+                continue;
+            }
+            if (assign.getRhs() instanceof CallInstruction call && writesMemory(call)) {
+                memoryState = nextMemoryState++;
+                continue;
+            }
+
+            // Storing in an array changes memory, but the stored element is known until the next change
+            if (dest instanceof ArrayOperand arrayOperand) {
+                memoryState = nextMemoryState++;
+                var value = getValue(assign.getRhs());
+                if (value != null) {
+                    addExpression(getLoadKey(arrayOperand, memoryState), value, added);
+                }
+                continue;
+            }
+
+            var rhs = assign.getRhs();
+            if (rhs instanceof SingleOpInstruction singleOp && !(singleOp.getSingleOperand() instanceof ArrayOperand)) {
+                if (singleOp.getSingleOperand() instanceof Operand source) {
+                    leaders.put(dest.getName(), getLeader(source.getName()));
+                }
+                continue;
+            }
+
+            var key = getKey(rhs, memoryState);
+            if (key == null) {
+                continue;
+            }
+
+            var previous = available.get(key);
+            if (previous != null) {
+                var type = assign.getTypeOfAssign();
+                var copy = new SingleOpInstruction(copyOf(previous));
+                instructions.set(i, new AssignInstruction(dest, type, copy));
+                if (previous instanceof Operand operand) {
+                    leaders.put(dest.getName(), getLeader(operand.getName()));
+                }
+                removed++;
+            } else {
+                addExpression(key, new Operand(dest.getName(), dest.getType()), added);
+            }
+        }
+
+        return memoryState;
+    }
+
+    private void addExpression(String key, Element value, List<String> added) {
+        if (available.putIfAbsent(key, value) == null) {
+            added.add(key);
+        }
+    }
+
+    private static boolean writesMemory(CallInstruction call) {
+        var invocationType = call.getInvocationType();
+        return invocationType != CallType.arraylength && invocationType != CallType.NEW;
+    }
+
+    /**
+     * @return the key of the value computed by the instruction, or null if it cannot be reused
+     */
+    private String getKey(Instruction instruction, int memoryState) {
+        if (instruction instanceof BinaryOpInstruction binaryOp) {
+            var operation = binaryOp.getOperation().getOpType();
+            var left = getElementKey(binaryOp.getLeftOperand());
+            var right = getElementKey(binaryOp.getRightOperand());
+            if (COMMUTATIVE.contains(operation) && left.compareTo(right) > 0) {
+                var swap = left;
+                left = right;
+                right = swap;
+            }
+
+            return operation + "(" + left + "," + right + ")" + binaryOp.getOperation().getTypeInfo();
+        }
+
+        if (instruction instanceof UnaryOpInstruction unaryOp) {
+            return unaryOp.getOperation().getOpType() + "(" + getElementKey(unaryOp.getOperand()) + ")";
+        }
+
+        if (instruction instanceof SingleOpInstruction singleOp
+                && singleOp.getSingleOperand() instanceof ArrayOperand arrayOperand) {
+            return getLoadKey(arrayOperand, memoryState);
+        }
+
+        if (instruction instanceof CallInstruction call && call.getInvocationType() == CallType.arraylength) {
+            return "length(" + getElementKey(call.getCaller()) + ")";
+        }
+
+        return null;
+    }
+
+    private String getLoadKey(ArrayOperand arrayOperand, int memoryState) {
+        var key = new StringBuilder("load(").append(getLeader(arrayOperand.getName()));
+        for (var index : arrayOperand.getIndexOperands()) {
+            key.append(",").append(getElementKey(index));
+        }
+
+        return key.append(")@").append(memoryState).toString();
+    }
+
+    private String getElementKey(Element element) {
+        if (element instanceof LiteralElement literal) {
+            return "#" + literal.getLiteral();
+        }
+
+        return getLeader(((Operand) element).getName());
+    }
+
+    private String getLeader(String name) {
+        return leaders.getOrDefault(name, name);
+    }
+
+    /**
+     * @return the element holding the value written by the instruction, or null if it is not a single element
+     */
+    private static Element getValue(Instruction instruction) {
+        if (instruction instanceof SingleOpInstruction singleOp
+                && !(singleOp.getSingleOperand() instanceof ArrayOperand)) {
+            return singleOp.getSingleOperand();
+        }
+
+        return null;
+    }
+
+    private static Element copyOf(Element element) {
+        // Operands cannot be shared between instructions, since SSA renames them in place
+        if (element instanceof LiteralElement literal) {
+            return new LiteralElement(literal.getLiteral(), literal.getType());
+        }
+
+        var operand = (Operand) element;
+        return new Operand(operand.getName(), operand.getType());
+    }
+}
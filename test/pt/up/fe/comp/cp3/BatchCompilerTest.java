@@ -0,0 +1,77 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import pt.up.fe.comp2024.BatchCompiler;
+import pt.up.fe.comp2024.CompilationResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchCompilerTest {
+
+    private static final File CORPUS_FOLDER = new File("test/pt/up/fe/comp/cpf/4_jasmin/control_flow");
+    private static final File FAILING_FILE = new File("test/pt/up/fe/comp/cp2/semanticanalysis/VarNotDeclared.jmm");
+
+    private static String getJasminCode(CompilationResult result) {
+        return result.getJasminResult().orElseThrow().getJasminCode();
+    }
+
+    @Test
+    public void batchMatchesSequentialCompilation() {
+        var files = BatchCompiler.collectFiles(CORPUS_FOLDER);
+        assertFalse(files.isEmpty());
+
+        // Compile every file several times, to have more tasks than threads
+        List<File> batch = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            batch.addAll(files);
+        }
+
+        var entries = new BatchCompiler(4).compile(batch, CompilerConfig.getDefault());
+        assertEquals(batch.size(), entries.size());
+
+        var compiler = new JmmCompiler();
+        for (var entry : entries) {
+            assertFalse(entry.getResult().getReports().toString(), entry.getResult().hasErrors());
+
+            var config = CompilerConfig.withInputFile(CompilerConfig.getDefault(), entry.getFile());
+            var sequential = compiler.compile(SpecsIo.read(entry.getFile()), config);
+            assertEquals(getJasminCode(sequential), getJasminCode(entry.getResult()));
+        }
+    }
+
+    @Test
+    public void reportsAreIsolatedPerFile() {
+        var files = new ArrayList<>(BatchCompiler.collectFiles(CORPUS_FOLDER));
+        files.add(0, FAILING_FILE);
+
+        var entries = new BatchCompiler(2).compile(files, CompilerConfig.getDefault());
+
+        assertTrue(entries.get(0).getResult().hasErrors());
+        assertTrue(entries.get(0).getResult().getJasminResult().isEmpty());
+
+        for (var entry : entries.subList(1, entries.size())) {
+            assertFalse(entry.getResult().hasErrors());
+            assertTrue(entry.getResult().getReports().isEmpty());
+        }
+    }
+
+    @Test
+    public void listFileIsResolvedAgainstItsFolder() {
+        var folder = SpecsIo.getTempFolder("batch-list");
+        var source = new File(folder, "SimpleWhileStat.jmm");
+        SpecsIo.copy(new File(CORPUS_FOLDER, "SimpleWhileStat.jmm"), source);
+
+        var list = new File(folder, "files.txt");
+        SpecsIo.write(list, "# files to compile\n\nSimpleWhileStat.jmm\n");
+
+        var files = BatchCompiler.collectFiles(list);
+        assertEquals(List.of(source.getAbsoluteFile()), files);
+    }
+}
@@ -0,0 +1,104 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.comp2024.backend.BytecodeBackendImpl;
+import pt.up.fe.comp2024.backend.BytecodeResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class BytecodeBackendTest {
+
+    private static final File JASMIN_TESTS = new File("test/pt/up/fe/comp/cpf/4_jasmin");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static List<File> getOllirFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(JASMIN_TESTS.toPath())) {
+            return files.filter(file -> file.toString().endsWith(".ollir"))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static OllirResult readOllir(File file) {
+        return new OllirResult(SpecsIo.read(file), Collections.emptyMap());
+    }
+
+    @Test
+    public void runsLikeJasminBackend() throws IOException {
+        var files = getOllirFiles();
+        assertFalse(files.isEmpty());
+
+        for (var file : files) {
+            var expected = new JasminBackendImpl().toJasmin(readOllir(file)).runWithFullOutput();
+            var actual = new BytecodeBackendImpl().toJasmin(readOllir(file)).runWithFullOutput();
+
+            assertEquals(file.getPath(), expected.getReturnValue(), actual.getReturnValue());
+            assertEquals(file.getPath(), expected.getOutput(), actual.getOutput());
+        }
+    }
+
+    @Test
+    public void deadCodeIsVerifiable() {
+        var ollirCode = SpecsIo.getResource("pt/up/fe/comp/cp3/bytecode/DeadCode.ollir");
+        var result = (BytecodeResult) new BytecodeBackendImpl().toJasmin(new OllirResult(ollirCode,
+                Collections.emptyMap()));
+
+        // Major version 52, which needs stack map frames
+        var classBytes = result.getClassBytes();
+        assertEquals(52, ((classBytes[6] & 0xFF) << 8) | (classBytes[7] & 0xFF));
+
+        var output = result.runWithFullOutput();
+        assertEquals(output.getStdErr(), 0, output.getReturnValue());
+        assertEquals("1", output.getOutput().strip());
+    }
+
+    @Test
+    public void jasminCodeIsDebugRendering() throws IOException {
+        var file = new File(JASMIN_TESTS, "control_flow/SimpleWhileStat.ollir");
+        var result = (BytecodeResult) new BytecodeBackendImpl().toJasmin(readOllir(file));
+
+        // The class file is written as is, without assembling the Jasmin code
+        var classFile = result.compile(folder.getRoot());
+        assertEquals("SimpleWhileStat.class", classFile.getName());
+        assertArrayEquals(result.getClassBytes(), Files.readAllBytes(classFile.toPath()));
+
+        assertEquals(new JasminBackendImpl().toJasmin(readOllir(file)).getJasminCode(), result.getJasminCode());
+    }
+
+    @Test
+    public void classStageUsesGeneratedBytes() {
+        var inputFile = new File(JASMIN_TESTS, "arrays/ArrayAccess.jmm");
+        var config = CompilerConfig.parseArgs(new String[]{"-i=" + inputFile.getPath(), "-t=class"});
+        var result = new JmmCompiler().compile(SpecsIo.read(inputFile), config);
+        assertFalse(result.getReports().toString(), result.hasErrors());
+
+        // The backend is the one of config.properties, and only the bytecode backend skips assembling
+        var jasminResult = result.getJasminResult().orElseThrow();
+        var classFile = result.getClassFile().orElseThrow();
+        if (jasminResult instanceof BytecodeResult bytecodeResult) {
+            assertArrayEquals(bytecodeResult.getClassBytes(), classFile);
+        } else {
+            assertEquals(0xCAFEBABE, ((classFile[0] & 0xFF) << 24) | ((classFile[1] & 0xFF) << 16)
+                    | ((classFile[2] & 0xFF) << 8) | (classFile[3] & 0xFF));
+        }
+    }
+}
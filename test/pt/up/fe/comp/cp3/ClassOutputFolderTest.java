@@ -0,0 +1,64 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp2024.ClassOutputFolder;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ClassOutputFolderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesClassesByPackage() throws IOException {
+        var output = new ClassOutputFolder(folder.newFolder());
+        output.add("Simple", new byte[]{1, 2, 3});
+        output.add("pt/up/Other", new byte[]{4});
+        output.flush();
+
+        var outputFolder = output.getFolder();
+        assertArrayEquals(new byte[]{1, 2, 3}, Files.readAllBytes(new File(outputFolder, "Simple.class").toPath()));
+        assertArrayEquals(new byte[]{4}, Files.readAllBytes(new File(outputFolder, "pt/up/Other.class").toPath()));
+        assertEquals(2, output.getWritten());
+    }
+
+    @Test
+    public void skipsUnchangedClasses() throws IOException {
+        var output = new ClassOutputFolder(folder.newFolder());
+        var classFile = new File(output.getFolder(), "Simple.class");
+
+        output.add("Simple", new byte[]{1, 2, 3});
+        output.flush();
+        assertTrue(classFile.setLastModified(1_000_000));
+
+        output.add("Simple", new byte[]{1, 2, 3});
+        output.flush();
+        assertEquals(1, output.getUnchanged());
+        assertEquals(1_000_000, classFile.lastModified());
+
+        output.add("Simple", new byte[]{1, 2, 4});
+        output.flush();
+        assertEquals(2, output.getWritten());
+        assertArrayEquals(new byte[]{1, 2, 4}, Files.readAllBytes(classFile.toPath()));
+    }
+
+    @Test
+    public void classFolderImpliesClassStage() throws IOException {
+        var inputFile = "test/pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm";
+        var config = CompilerConfig.parseArgs(new String[]{"-i=" + inputFile, "-d=" + folder.newFolder()});
+
+        var result = new JmmCompiler().compile(SpecsIo.read(inputFile), config);
+
+        assertTrue(result.getClassFile().isPresent());
+    }
+}
@@ -0,0 +1,119 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp2024.CompilationCache;
+import pt.up.fe.comp2024.CompilationResult;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.comp2024.backend.BytecodeBackendImpl;
+import pt.up.fe.comp2024.backend.BytecodeResult;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompilationCacheTest {
+
+    private static final String WHILE_CODE =
+            SpecsIo.read("test/pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm");
+    private static final String IF_CODE =
+            SpecsIo.read("test/pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleIfElseStat.jmm");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void hitSkipsCompilation() throws IOException {
+        var cache = new CompilationCache(folder.newFolder());
+        var compiler = new JmmCompiler(cache);
+        var config = CompilerConfig.getDefault();
+
+        var first = compiler.compile(WHILE_CODE, config);
+        assertFalse(first.isCached());
+        assertTrue(first.getParserResult().isPresent());
+
+        var second = compiler.compile(WHILE_CODE, config);
+        assertTrue(second.isCached());
+        assertFalse(second.getParserResult().isPresent());
+
+        assertEquals(first.getOllirCode(), second.getOllirCode());
+        assertEquals(first.getJasminResult().orElseThrow().getJasminCode(),
+                second.getJasminResult().orElseThrow().getJasminCode());
+        assertEquals(first.getJasminResult().orElseThrow().getClassName(),
+                second.getJasminResult().orElseThrow().getClassName());
+
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    public void entriesPersistAndDependOnOptions() throws IOException {
+        var cacheFolder = folder.newFolder();
+        var config = CompilerConfig.getDefault();
+        new JmmCompiler(new CompilationCache(cacheFolder)).compile(WHILE_CODE, config);
+
+        // A new cache over the same folder sees the entry
+        var cache = new CompilationCache(cacheFolder);
+        assertTrue(new JmmCompiler(cache).compile(WHILE_CODE, config).isCached());
+
+        var optimizedConfig = CompilerConfig.getDefault();
+        optimizedConfig.put("optimize", "true");
+        assertFalse(new JmmCompiler(cache).compile(WHILE_CODE, optimizedConfig).isCached());
+
+        assertNotEquals(CompilationCache.key(WHILE_CODE, config), CompilationCache.key(WHILE_CODE, optimizedConfig));
+    }
+
+    @Test
+    public void failedCompilationsAreNotCached() throws IOException {
+        var cache = new CompilationCache(folder.newFolder());
+        var code = SpecsIo.read("test/pt/up/fe/comp/cp2/semanticanalysis/VarNotDeclared.jmm");
+
+        assertTrue(new JmmCompiler(cache).compile(code, CompilerConfig.getDefault()).hasErrors());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        var cacheFolder = folder.newFolder();
+        var config = CompilerConfig.getDefault();
+        var whileKey = CompilationCache.key(WHILE_CODE, config);
+        var ifKey = CompilationCache.key(IF_CODE, config);
+
+        var entry = new CompilationCache.Entry("A", "ollir", "jasmin".repeat(100), List.of());
+        var cache = new CompilationCache(cacheFolder, 1000);
+        cache.put(whileKey, entry);
+        assertTrue(cache.get(whileKey).isPresent());
+
+        // Does not fit together with the first entry
+        cache.put(ifKey, entry);
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.get(whileKey).isPresent());
+        assertTrue(cache.get(ifKey).isPresent());
+        assertEquals(1, cacheFolder.listFiles().length);
+    }
+
+    @Test
+    public void bytecodeResultsAreStoredWithoutJasmin() throws IOException {
+        var ollirResult = TestUtils.optimize(WHILE_CODE);
+        var bytecodeResult = (BytecodeResult) new BytecodeBackendImpl().toJasmin(ollirResult);
+        var result = new CompilationResult(null, null, ollirResult, bytecodeResult, bytecodeResult.getReports());
+
+        var cache = new CompilationCache(folder.newFolder());
+        var config = CompilerConfig.getDefault();
+        var key = CompilationCache.key(WHILE_CODE, config);
+        cache.put(key, CompilationCache.Entry.fromResult(result));
+
+        var entry = cache.get(key).orElseThrow();
+        assertNull(entry.getJasminCode());
+
+        var cached = CompilationResult.fromCache(entry, config).getJasminResult().orElseThrow();
+        assertTrue(cached instanceof BytecodeResult);
+        assertArrayEquals(bytecodeResult.getClassBytes(), ((BytecodeResult) cached).getClassBytes());
+        assertEquals(bytecodeResult.run(), cached.run());
+    }
+}
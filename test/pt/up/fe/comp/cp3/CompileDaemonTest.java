@@ -0,0 +1,93 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import pt.up.fe.comp2024.CompileDaemon;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompileDaemonTest {
+
+    private static final String INPUT_FOLDER = "test/pt/up/fe/comp/cpf/4_jasmin/control_flow";
+
+    private static int port;
+    private static String token;
+
+    @BeforeClass
+    public static void startDaemon() throws Exception {
+        var portFile = File.createTempFile("jmm-daemon", ".port");
+        portFile.delete();
+        portFile.deleteOnExit();
+        System.setProperty("jmm.daemon.portFile", portFile.getAbsolutePath());
+
+        var daemon = new Thread(() -> new CompileDaemon(0).run(), "jmm-daemon-test");
+        daemon.setDaemon(true);
+        daemon.start();
+
+        for (int i = 0; i < 600 && !portFile.isFile(); i++) {
+            Thread.sleep(100);
+        }
+        assertTrue("Daemon did not start", portFile.isFile());
+
+        // The file may exist before its contents are written
+        String contents = "";
+        for (int i = 0; i < 50 && contents.isBlank(); i++) {
+            contents = SpecsIo.read(portFile).strip();
+            Thread.sleep(10);
+        }
+
+        var parts = contents.split(" ");
+        port = Integer.parseInt(parts[0]);
+        token = parts[1];
+    }
+
+    private static List<String> request(String token, String workingDir, String... args) throws IOException {
+        try (var socket = new Socket(InetAddress.getLoopbackAddress(), port);
+             var out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+             var in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+
+            out.append("JMM ").append(token).append('\n').append(workingDir).append('\n');
+            for (var arg : args) {
+                out.append(arg).append('\n');
+            }
+            out.append('\n').flush();
+
+            List<String> lines = new ArrayList<>();
+            for (var line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    @Test
+    public void compilesRelativeToClientFolder() throws IOException {
+        var lines = request(token, new File(INPUT_FOLDER).getAbsolutePath(), "-i=IfWhileNested.jmm");
+
+        assertEquals("X 0", lines.get(lines.size() - 1));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("1 .class")));
+    }
+
+    @Test
+    public void reportsFailuresWithExitCode() throws IOException {
+        var lines = request(token, new File(".").getAbsolutePath(), "-i=does/not/exist.jmm");
+
+        assertEquals("X 1", lines.get(lines.size() - 1));
+        assertTrue(lines.stream().anyMatch(line -> line.startsWith("2 ")));
+    }
+
+    @Test
+    public void rejectsWrongToken() throws IOException {
+        var lines = request("wrong", new File(".").getAbsolutePath(), "-i=IfWhileNested.jmm");
+
+        assertEquals("X 2", lines.get(lines.size() - 1));
+    }
+}
@@ -0,0 +1,69 @@
+package pt.up.fe.comp.cp3;
+
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.CompilerMetrics;
+import pt.up.fe.comp2024.JmmCompiler;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CompilerMetricsTest {
+
+    private static final String CODE = SpecsIo.read("test/pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm");
+
+    private static CompilerMetrics compileWithMetrics() {
+        var config = CompilerConfig.getDefault();
+        config.put("metrics", "true");
+
+        var result = new JmmCompiler().compile(CODE, config);
+        assertFalse(result.hasErrors());
+
+        return result.getMetrics().orElseThrow();
+    }
+
+    @Test
+    public void disabledByDefault() {
+        var result = new JmmCompiler().compile(CODE, CompilerConfig.getDefault());
+
+        assertTrue(result.getMetrics().isEmpty());
+    }
+
+    @Test
+    public void measuresStagesAndPasses() {
+        var metrics = compileWithMetrics();
+
+        var stageNames = metrics.getStages().stream().map(CompilerMetrics.Measurement::getName).toList();
+        assertEquals(List.of("parse", "semanticAnalysis", "optimizeAst", "toOllir", "optimizeOllir", "toJasmin"),
+                stageNames);
+
+        var analysis = metrics.getStages().get(1);
+        var passNames = analysis.getPasses().stream().map(CompilerMetrics.Measurement::getName).toList();
+        assertEquals(List.of("symbolTable", "EssentialAnalyzer", "ExpressionAnalyzer", "StatementAnalyzer"), passNames);
+
+        for (var stage : metrics.getStages()) {
+            assertTrue(stage.getWallTimeNs() >= 0);
+        }
+
+        // Nested measurements are part of the enclosing one
+        long passesTime = analysis.getPasses().stream().mapToLong(CompilerMetrics.Measurement::getWallTimeNs).sum();
+        assertTrue(passesTime <= analysis.getWallTimeNs());
+    }
+
+    @Test
+    public void jsonIsMachineReadable() {
+        var json = JsonParser.parseString(compileWithMetrics().toJson("SimpleWhileStat.jmm")).getAsJsonObject();
+
+        assertEquals("SimpleWhileStat.jmm", json.get("file").getAsString());
+        assertTrue(json.has("compilerVersion"));
+
+        var parse = json.getAsJsonArray("stages").get(0).getAsJsonObject();
+        assertEquals("parse", parse.get("name").getAsString());
+        assertTrue(parse.has("wallTimeNs"));
+        assertTrue(parse.has("cpuTimeNs"));
+        assertTrue(parse.has("allocatedBytes"));
+    }
+}
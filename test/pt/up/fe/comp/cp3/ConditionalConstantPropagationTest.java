@@ -0,0 +1,131 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.ConditionalConstantPropagation;
+import pt.up.fe.comp2024.optimization.SsaForm;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class ConditionalConstantPropagationTest {
+
+    private static final File JASMIN_TESTS = new File("test/pt/up/fe/comp/cpf/4_jasmin");
+
+    private static final String DEAD_PATH_IN_LOOP = SpecsIo.getResource("pt/up/fe/comp/cp3/sccp/DeadPath.jmm");
+
+    private static Method propagate(OllirResult ollirResult, String name) {
+        var method = CpUtils.getMethod(ollirResult, name);
+        var ssa = SsaForm.toSsa(method);
+        new ConditionalConstantPropagation(ssa).apply();
+        ssa.fromSsa();
+        return method;
+    }
+
+    private static <T extends Instruction> List<T> getInstructions(Method method, Class<T> type) {
+        return method.getInstructions().stream()
+                .filter(type::isInstance)
+                .map(type::cast)
+                .toList();
+    }
+
+    @Test
+    public void deadPathOfLoopIsRemoved() {
+        var ollirResult = TestUtils.optimize(DEAD_PATH_IN_LOOP);
+        var expected = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput().getOutput();
+
+        ollirResult = TestUtils.optimize(DEAD_PATH_IN_LOOP);
+        var method = propagate(ollirResult, "foo");
+
+        // Only the loop condition is left, and a stays 3 around the loop
+        assertFalse(method.getLabels().toString(), method.getLabels().containsKey("if_0"));
+        assertTrue(getInstructions(method, CondBranchInstruction.class).stream()
+                .noneMatch(branch -> branch.getLabel().equals("if_0")));
+
+        var sum = method.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign
+                        && assign.getRhs() instanceof BinaryOpInstruction binaryOp
+                        && binaryOp.getRightOperand() instanceof LiteralElement literal
+                        && literal.getLiteral().equals("3"))
+                .count();
+        assertEquals(method.getInstructions().toString(), 2, sum);
+
+        var output = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput().getOutput();
+        assertEquals(expected, output);
+        assertEquals("18", output.strip());
+    }
+
+    @Test
+    public void constantUsesBecomeLiterals() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/sccp/Literals.jmm");
+
+        var method = propagate(TestUtils.optimize(code), "foo");
+
+        assertTrue(getInstructions(method, CondBranchInstruction.class).isEmpty());
+        var add = getInstructions(method, AssignInstruction.class).stream()
+                .map(AssignInstruction::getRhs)
+                .filter(rhs -> rhs instanceof BinaryOpInstruction)
+                .map(rhs -> (BinaryOpInstruction) rhs)
+                .filter(binaryOp -> binaryOp.getOperation().getOpType() == OperationType.ADD)
+                .findFirst()
+                .orElseThrow();
+        assertTrue(add.toString(), add.getRightOperand() instanceof LiteralElement);
+        assertEquals("12", ((LiteralElement) add.getRightOperand()).getLiteral());
+
+        // Only the addition with the parameter is left
+        assertEquals(method.getInstructions().toString(), 1, getInstructions(method, AssignInstruction.class)
+                .stream().filter(assign -> !(assign.getRhs() instanceof SingleOpInstruction)).count());
+    }
+
+    @Test
+    public void divisionByZeroIsNotFolded() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/sccp/Zero.jmm");
+
+        var method = propagate(TestUtils.optimize(code), "foo");
+
+        var division = getInstructions(method, AssignInstruction.class).stream()
+                .map(AssignInstruction::getRhs)
+                .filter(rhs -> rhs instanceof BinaryOpInstruction binaryOp
+                        && binaryOp.getOperation().getOpType() == OperationType.DIV)
+                .count();
+        assertEquals(1, division);
+    }
+
+    @Test
+    public void optimizedProgramsKeepBehaviour() throws IOException {
+        List<String> codes;
+        try (Stream<Path> paths = Files.walk(JASMIN_TESTS.toPath())) {
+            codes = paths.filter(file -> file.toString().endsWith(".jmm")).sorted()
+                    .map(file -> SpecsIo.read(file.toFile()))
+                    .collect(Collectors.toList());
+        }
+        assertFalse(codes.isEmpty());
+        codes.add(DEAD_PATH_IN_LOOP);
+
+        for (var code : codes) {
+            var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(code)).runWithFullOutput();
+
+            // Some of the programs have no main, or are not compiled correctly yet
+            if (expected.getReturnValue() != 0) {
+                continue;
+            }
+
+            var optimized = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+            var output = new JasminBackendImpl().toJasmin(optimized).runWithFullOutput();
+            assertEquals(code, expected.getOutput(), output.getOutput());
+        }
+    }
+}
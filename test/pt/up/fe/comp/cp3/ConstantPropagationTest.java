@@ -0,0 +1,77 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConstantPropagationTest {
+
+    private static OllirResult optimize(String code) {
+        return TestUtils.optimize(code, Map.of("optimize", "true"), false);
+    }
+
+    private static String getMethod(OllirResult ollirResult, String name) {
+        var code = ollirResult.getOllirCode();
+        int start = code.indexOf(" " + name + "(");
+        assertTrue(code, start != -1);
+        return code.substring(start, code.indexOf("\n}", start));
+    }
+
+    @Test
+    public void foldsExpressionsOfKnownVariables() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/constantpropagation/Fold.jmm");
+
+        var method = getMethod(optimize(code), "foo");
+        assertTrue(method, method.contains("b.i32 :=.i32 15.i32;"));
+        assertTrue(method, method.contains("ret.i32 15.i32;"));
+        assertFalse(method, method.contains("*.i32"));
+
+        // q is a parameter, so only the left side is known
+        assertTrue(method, method.contains("q.bool"));
+    }
+
+    @Test
+    public void keepsOnlyValuesAllBranchesAgreeOn() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/constantpropagation/Branches.jmm");
+
+        var method = getMethod(optimize(code), "foo");
+        assertTrue(method, method.contains("1.i32 +.i32 b.i32"));
+    }
+
+    @Test
+    public void variablesChangedInLoopsAreNotConstant() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/constantpropagation/Loop.jmm");
+
+        var ollirResult = optimize(code);
+        var method = getMethod(ollirResult, "main");
+        assertTrue(method, method.contains("sum.i32 +.i32 2.i32"));
+        assertTrue(method, method.contains("i.i32 +.i32 1.i32"));
+        assertTrue(method, method.contains("if (loop.bool)"));
+
+        var output = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput();
+        assertEquals(output.getStdErr(), 0, output.getReturnValue());
+        assertEquals("12", output.getOutput().strip());
+    }
+
+    @Test
+    public void divisionByZeroIsNotFolded() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/constantpropagation/Zero.jmm");
+
+        var method = getMethod(optimize(code), "foo");
+        assertTrue(method, method.contains("1.i32 /.i32 0.i32"));
+    }
+
+    @Test
+    public void disabledWithoutOption() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/constantpropagation/Simple.jmm");
+
+        var method = getMethod(TestUtils.optimize(code, Map.of(), false), "foo");
+        assertTrue(method, method.contains("ret.i32 a.i32;"));
+    }
+}
@@ -0,0 +1,30 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import static org.junit.Assert.*;
+
+public class ControlFlowTest {
+
+    private static String run(String code) {
+        var output = new JasminBackendImpl().toJasmin(TestUtils.optimize(code)).run();
+        return output.strip().replace("\r\n", "\n");
+    }
+
+    @Test
+    public void whileConditionIsRecomputed() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/controlflow/WhileCondition.jmm");
+
+        assertEquals("3", run(code));
+    }
+
+    @Test
+    public void callsInsideBodiesAreGenerated() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/controlflow/Calls.jmm");
+
+        assertEquals("0\n1\n20\n30", run(code));
+    }
+}
@@ -0,0 +1,86 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.CopyPropagation;
+import pt.up.fe.comp2024.optimization.RegisterAllocator;
+import pt.up.fe.comp2024.optimization.SsaForm;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class CopyPropagationTest {
+
+    private static final String LOOP = SpecsIo.getResource("pt/up/fe/comp/cp3/copypropagation/Sums.jmm");
+
+    private static long countCopies(Method method) {
+        return method.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign
+                        && assign.getRhs() instanceof SingleOpInstruction singleOp
+                        && singleOp.getSingleOperand() instanceof Operand operand
+                        && !(operand instanceof ArrayOperand))
+                .count();
+    }
+
+    private static int getLimitLocals(String jasminCode, String methodName) {
+        var matcher = Pattern.compile("(?s)\\.method[^\\n]* " + methodName + "\\(.*?\\.limit locals (\\d+)")
+                .matcher(jasminCode);
+        assertTrue(jasminCode, matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+
+    @Test
+    public void copiesOfTemporariesAreRemoved() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/copypropagation/Copies.jmm");
+
+        var ollirResult = TestUtils.optimize(code);
+        var method = CpUtils.getMethod(ollirResult, "foo");
+        assertTrue(method.getInstructions().toString(), countCopies(method) > 0);
+
+        var ssa = SsaForm.toSsa(method);
+        assertTrue(new CopyPropagation(ssa).apply() > 0);
+        ssa.fromSsa();
+
+        assertEquals(method.getInstructions().toString(), 0, countCopies(method));
+        assertEquals("14", new JasminBackendImpl().toJasmin(ollirResult).run().strip());
+    }
+
+    @Test
+    public void coalescingUsesFewerLocals() {
+        var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(LOOP)).run();
+        var before = new JasminBackendImpl().toJasmin(TestUtils.optimize(LOOP)).getJasminCode();
+
+        var ollirResult = TestUtils.optimize(LOOP, Map.of("optimize", "true"), false);
+        var jasminResult = new JasminBackendImpl().toJasmin(ollirResult);
+
+        // The copies of the phis of 'i' and 's' take the registers of the values they copy
+        assertEquals(CpUtils.getMethod(ollirResult, "sum").getInstructions().toString(), 0,
+                countCopies(CpUtils.getMethod(ollirResult, "sum")));
+        assertTrue(getLimitLocals(jasminResult.getJasminCode(), "sum") < getLimitLocals(before, "sum"));
+        assertEquals(expected, jasminResult.run());
+    }
+
+    @Test
+    public void labelsOfRemovedCopiesMoveToTheNextInstruction() {
+        var ollirCode = SpecsIo.getResource("pt/up/fe/comp/cp3/copypropagation/Labels.ollir");
+
+        var ollirResult = new OllirResult(ollirCode, Collections.emptyMap());
+        new RegisterAllocator(ollirResult.getOllirClass(), 0).allocate();
+
+        var method = CpUtils.getMethod(ollirResult, "main");
+        assertEquals(1, CopyPropagation.removeCoalescedCopies(method));
+        assertEquals(0, countCopies(method));
+        assertTrue(method.getLabels().get("loop") instanceof AssignInstruction assign
+                && assign.getRhs() instanceof BinaryOpInstruction);
+
+        assertEquals("3", new JasminBackendImpl().toJasmin(ollirResult).run().strip());
+    }
+}
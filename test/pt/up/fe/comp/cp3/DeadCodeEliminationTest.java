@@ -0,0 +1,100 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.Report;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.DeadCodeElimination;
+import pt.up.fe.comp2024.optimization.SsaForm;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class DeadCodeEliminationTest {
+
+    private static int eliminate(Method method) {
+        var ssa = SsaForm.toSsa(method);
+        int removed = new DeadCodeElimination(ssa).apply();
+        ssa.fromSsa();
+        return removed;
+    }
+
+    private static long countRhs(Method method, Predicate<Instruction> filter) {
+        return method.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign && filter.test(assign.getRhs()))
+                .count();
+    }
+
+    private static boolean isOperation(Instruction instruction, OperationType type) {
+        return instruction instanceof BinaryOpInstruction binaryOp && binaryOp.getOperation().getOpType() == type;
+    }
+
+    @Test
+    public void deadStoresAreRemoved() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/deadcode/Stores.jmm");
+
+        var method = CpUtils.getMethod(TestUtils.optimize(code), "foo");
+        assertTrue(eliminate(method) > 0);
+
+        assertEquals(method.getInstructions().toString(), 0,
+                countRhs(method, inst -> isOperation(inst, OperationType.MUL)));
+        assertEquals(method.getInstructions().toString(), 0,
+                countRhs(method, inst -> isOperation(inst, OperationType.SUB)));
+
+        // The load can throw and the call prints, so both stay
+        assertEquals(method.getInstructions().toString(), 1, countRhs(method, inst ->
+                inst instanceof SingleOpInstruction singleOp && singleOp.getSingleOperand() instanceof ArrayOperand));
+        assertTrue(method.getInstructions().stream().anyMatch(inst -> inst instanceof CallInstruction));
+    }
+
+    @Test
+    public void valuesOnlyUsedByTheirLoopAreRemoved() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/deadcode/Loop.jmm");
+
+        var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(code)).run();
+
+        var ollirResult = TestUtils.optimize(code);
+        var method = CpUtils.getMethod(ollirResult, "foo");
+        eliminate(method);
+
+        assertEquals(method.getInstructions().toString(), 0, countRhs(method, inst ->
+                inst instanceof BinaryOpInstruction binaryOp
+                        && binaryOp.getRightOperand() instanceof LiteralElement literal
+                        && literal.getLiteral().equals("7")));
+        assertEquals(expected, new JasminBackendImpl().toJasmin(ollirResult).run());
+    }
+
+    @Test
+    public void unreachableCodeIsRemoved() {
+        var ollirCode = SpecsIo.getResource("pt/up/fe/comp/cp3/deadcode/Unreachable.ollir");
+
+        var ollirResult = new OllirResult(ollirCode, Collections.emptyMap());
+        var method = CpUtils.getMethod(ollirResult, "main");
+
+        // The addition and the call after the jump
+        assertEquals(2, eliminate(method));
+        assertEquals("1", new JasminBackendImpl().toJasmin(ollirResult).run().strip());
+    }
+
+    @Test
+    public void removedInstructionsAreReportedPerMethod() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/deadcode/Report.jmm");
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+        var logs = ollirResult.getReports().stream()
+                .filter(report -> report.getType() == ReportType.LOG)
+                .map(Report::getMessage)
+                .toList();
+
+        assertTrue(logs.toString(), logs.stream().anyMatch(log -> log.startsWith("Method 'foo': removed 2 dead")));
+        assertTrue(logs.toString(), logs.stream().anyMatch(log -> log.startsWith("Method 'main': removed 0 dead")));
+    }
+}
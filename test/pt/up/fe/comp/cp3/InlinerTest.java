@@ -0,0 +1,72 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class InlinerTest {
+
+    private static final String HELPERS = SpecsIo.getResource("pt/up/fe/comp/cp3/inlining/Helpers.jmm");
+
+    private static boolean calls(Method method, String name) {
+        return method.getInstructions().stream()
+                .map(inst -> inst instanceof AssignInstruction assign ? assign.getRhs() : inst)
+                .anyMatch(inst -> inst instanceof CallInstruction call
+                        && call.getMethodName() instanceof LiteralElement literal
+                        && literal.getLiteral().equals("\"" + name + "\""));
+    }
+
+    @Test
+    public void smallMethodsAreInlined() {
+        var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(HELPERS)).run();
+
+        var ollirResult = TestUtils.optimize(HELPERS, Map.of("inline", "12"), false);
+        var sum = CpUtils.getMethod(ollirResult, "sum");
+
+        assertFalse(sum.getInstructions().toString(), calls(sum, "abs"));
+        assertTrue(sum.getVarTable().keySet().stream().anyMatch(name -> name.startsWith("inl")));
+        assertEquals(expected, new JasminBackendImpl().toJasmin(ollirResult).run());
+    }
+
+    @Test
+    public void recursiveMethodsStayCalls() {
+        var ollirResult = TestUtils.optimize(HELPERS, Map.of("inline", "12"), false);
+
+        assertTrue(calls(CpUtils.getMethod(ollirResult, "sum"), "fact"));
+        assertTrue(calls(CpUtils.getMethod(ollirResult, "fact"), "fact"));
+    }
+
+    @Test
+    public void largeMethodsStayCalls() {
+        var ollirResult = TestUtils.optimize(HELPERS, Map.of("inline", "0"), false);
+
+        assertTrue(calls(CpUtils.getMethod(ollirResult, "sum"), "abs"));
+    }
+
+    @Test
+    public void sizeGrowthIsReported() {
+        var ollirResult = TestUtils.optimize(HELPERS, Map.of("inline", "12"), false);
+
+        assertTrue(ollirResult.getReports().toString(), ollirResult.getReports().stream()
+                .anyMatch(report -> report.getType() == ReportType.LOG
+                        && report.getMessage().startsWith("Inlined 1 calls")));
+    }
+
+    @Test
+    public void inlinedCodeIsOptimized() {
+        var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(HELPERS)).run();
+
+        var ollirResult = TestUtils.optimize(HELPERS, Map.of("inline", "12", "optimize", "true"), false);
+
+        assertFalse(calls(CpUtils.getMethod(ollirResult, "sum"), "abs"));
+        assertEquals(expected, new JasminBackendImpl().toJasmin(ollirResult).run());
+    }
+}
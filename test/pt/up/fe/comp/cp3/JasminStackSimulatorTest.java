@@ -0,0 +1,81 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.backend.JasminStackSimulator;
+import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.specs.util.SpecsStrings;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class JasminStackSimulatorTest {
+
+    @Test
+    public void followsBothSidesOfBranches() {
+        var code = """
+                    iload_1
+                    iload_2
+                    if_icmplt cmp_true_0
+                    iconst_0
+                    goto cmp_end_0
+                cmp_true_0:
+                    iconst_1
+                cmp_end_0:
+                    aload_0
+                    iload_1
+                    iload_2
+                    invokevirtual Foo/bar(II)I
+                    iadd
+                    ireturn
+                """;
+
+        assertEquals(4, JasminStackSimulator.computeMaxStack(code));
+    }
+
+    @Test
+    public void ignoresCommentsAndDirectives() {
+        var code = """
+                    ; a comment
+                    .line 3
+                    getstatic java/lang/System/out Ljava/io/PrintStream;
+                    ldc "two words"
+                    invokevirtual java/io/PrintStream/println(Ljava/lang/String;)V
+                    return
+                """;
+
+        assertEquals(2, JasminStackSimulator.computeMaxStack(code));
+    }
+
+    @Test
+    public void inconsistentDepthAtLabelFails() {
+        var code = """
+                    iload_1
+                    ifeq skip
+                    iconst_1
+                skip:
+                    return
+                """;
+
+        try {
+            JasminStackSimulator.computeMaxStack(code);
+            fail("Expected an inconsistent stack depth");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("label 'skip'"));
+        }
+    }
+
+    @Test
+    public void generatorUsesExactLimit() {
+        var ollirCode = SpecsIo.read("test/pt/up/fe/comp/cpf/4_jasmin/limits/LocalLimits.ollir");
+        var jasminResult = new JasminBackendImpl().toJasmin(new OllirResult(ollirCode, Collections.emptyMap()));
+        var methodCode = CpUtils.getJasminMethod(jasminResult);
+        var numStack = Integer.parseInt(SpecsStrings.getRegexGroup(methodCode, CpUtils.getLimitStackRegex(), 1));
+
+        assertEquals(methodCode, 3, numStack);
+        jasminResult.compile();
+    }
+}
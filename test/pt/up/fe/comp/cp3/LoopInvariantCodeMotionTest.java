@@ -0,0 +1,126 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.LoopInvariantCodeMotion;
+import pt.up.fe.comp2024.optimization.SsaForm;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class LoopInvariantCodeMotionTest {
+
+    private static Method hoist(OllirResult ollirResult, String name) {
+        var method = CpUtils.getMethod(ollirResult, name);
+        var ssa = SsaForm.toSsa(method);
+        new LoopInvariantCodeMotion(ssa).apply();
+        ssa.fromSsa();
+        return method;
+    }
+
+    /**
+     * @return the position of the first instruction whose right side matches, or -1 if there is none
+     */
+    private static int indexOfRhs(Method method, Predicate<Instruction> filter) {
+        var instructions = method.getInstructions();
+        for (int i = 0; i < instructions.size(); i++) {
+            if (instructions.get(i) instanceof AssignInstruction assign && filter.test(assign.getRhs())) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int indexOfLabel(Method method, String label) {
+        assertTrue(method.getLabels().toString(), method.getLabels().containsKey(label));
+        return method.getInstructions().indexOf(method.getLabels().get(label));
+    }
+
+    private static boolean isOperation(Instruction instruction, OperationType type) {
+        return instruction instanceof BinaryOpInstruction binaryOp && binaryOp.getOperation().getOpType() == type;
+    }
+
+    private static String run(OllirResult ollirResult) {
+        var output = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput();
+        assertEquals(output.getStdErr(), 0, output.getReturnValue());
+        return output.getOutput();
+    }
+
+    @Test
+    public void invariantsLeaveNestedLoops() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/licm/Nested.jmm");
+
+        var expected = run(TestUtils.optimize(code));
+        var ollirResult = TestUtils.optimize(code);
+        var method = hoist(ollirResult, "run");
+
+        // n * 2 leaves both loops, n * 2 + i and the length of the field only the inner one
+        int outer = indexOfLabel(method, "whilecond_0");
+        int inner = indexOfLabel(method, "whilecond_1");
+        assertTrue(method.getInstructions().toString(),
+                indexOfRhs(method, inst -> inst instanceof GetFieldInstruction) < outer);
+        assertTrue(method.getInstructions().toString(),
+                indexOfRhs(method, inst -> isOperation(inst, OperationType.MUL)) < outer);
+        int add = indexOfRhs(method, inst -> isOperation(inst, OperationType.ADD));
+        assertTrue(method.getInstructions().toString(), add > outer && add < inner);
+        int length = indexOfRhs(method, inst -> inst instanceof CallInstruction call
+                && call.getInvocationType() == CallType.arraylength);
+        assertTrue(method.getInstructions().toString(), length > outer && length < inner);
+
+        assertEquals(expected, run(ollirResult));
+    }
+
+    @Test
+    public void loadsStayWhenTheLoopStores() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/licm/Stores.jmm");
+
+        var method = hoist(TestUtils.optimize(code), "foo");
+
+        int header = indexOfLabel(method, "whilecond_0");
+        var loads = method.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign
+                        && assign.getRhs() instanceof SingleOpInstruction singleOp
+                        && singleOp.getSingleOperand() instanceof ArrayOperand)
+                .map(inst -> method.getInstructions().indexOf(inst))
+                .toList();
+
+        assertEquals(2, loads.size());
+        assertTrue(loads.toString(), loads.stream().allMatch(index -> index > header));
+    }
+
+    @Test
+    public void divisionsInTheBodyDoNotRunEarly() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/licm/Division.jmm");
+
+        var ollirResult = TestUtils.optimize(code);
+        var method = hoist(ollirResult, "foo");
+
+        // The loop can run no iteration, so the division stays in the body, where the label is
+        assertTrue(method.getInstructions().toString(), indexOfRhs(method, inst -> isOperation(inst, OperationType.DIV))
+                >= indexOfLabel(method, "whilebody_0"));
+        assertEquals("0\n60", run(ollirResult).strip().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void preheaderIsAddedForSeveralEntries() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/licm/Entries.jmm");
+
+        var expected = run(TestUtils.optimize(code));
+        var ollirResult = TestUtils.optimize(code);
+        var method = hoist(ollirResult, "foo");
+
+        int preheader = indexOfLabel(method, "preheader_0");
+        int multiplication = indexOfRhs(method, inst -> isOperation(inst, OperationType.MUL));
+        assertTrue(method.getInstructions().toString(),
+                multiplication >= preheader && multiplication < indexOfLabel(method, "whilecond_0"));
+
+        assertEquals(expected, run(ollirResult));
+    }
+}
@@ -0,0 +1,79 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class LoopUnrollingTest {
+
+    private static long countLoops(OllirResult ollirResult) {
+        return Pattern.compile("whilecond_\\d+:").matcher(ollirResult.getOllirCode()).results().count();
+    }
+
+    private static String run(OllirResult ollirResult) {
+        return new JasminBackendImpl().toJasmin(ollirResult).run().strip();
+    }
+
+    @Test
+    public void shortLoopsAreFullyUnrolled() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/unrolling/ShortLoop.jmm");
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+
+        assertEquals(ollirResult.getOllirCode(), 0, countLoops(ollirResult));
+        assertEquals("18", run(ollirResult));
+    }
+
+    @Test
+    public void longLoopsArePartiallyUnrolled() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/unrolling/LongLoop.jmm");
+        var expected = run(TestUtils.optimize(code));
+
+        // 11 iterations are too many to unroll fully, so 3 copies of the body run 3 times and the rest runs twice
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true", "unroll", "3"), false);
+
+        assertEquals(ollirResult.getOllirCode(), 2, countLoops(ollirResult));
+        assertTrue(ollirResult.getOllirCode().contains("<.bool 10.i32"));
+        assertEquals(expected, run(ollirResult));
+    }
+
+    @Test
+    public void innerLoopsAreUnrolledFirst() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/unrolling/NestedLoops.jmm");
+        var expected = run(TestUtils.optimize(code));
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+
+        // The inner loop is gone, and the outer loop gets a partially unrolled copy
+        assertEquals(ollirResult.getOllirCode(), 2, countLoops(ollirResult));
+        assertEquals(expected, run(ollirResult));
+    }
+
+    @Test
+    public void factorOfOneOnlyUnrollsShortLoops() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/unrolling/SumLoop.jmm");
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true", "unroll", "1"), false);
+
+        assertEquals(1, countLoops(ollirResult));
+        assertEquals("66", run(ollirResult));
+    }
+
+    @Test
+    public void loopsThatAssignTheirVariableStay() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/unrolling/AssignedCounter.jmm");
+        var expected = run(TestUtils.optimize(code));
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+
+        assertEquals(1, countLoops(ollirResult));
+        assertEquals(expected, run(ollirResult));
+    }
+}
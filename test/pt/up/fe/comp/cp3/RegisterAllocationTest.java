@@ -0,0 +1,129 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp.jmm.report.ReportType;
+import pt.up.fe.comp2024.CompilerConfig;
+import pt.up.fe.comp2024.backend.BytecodeBackendImpl;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+import pt.up.fe.specs.util.SpecsStrings;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class RegisterAllocationTest {
+
+    private static final File JASMIN_TESTS = new File("test/pt/up/fe/comp/cpf/4_jasmin");
+    private static final String REG_ALLOC = "pt/up/fe/comp/cpf/5_optimizations/reg_alloc/regalloc.jmm";
+
+    private static List<File> getJmmFiles() throws IOException {
+        try (Stream<Path> files = Files.walk(JASMIN_TESTS.toPath())) {
+            return files.filter(file -> file.toString().endsWith(".jmm"))
+                    .sorted()
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static OllirResult optimize(String code, int registers) {
+        return TestUtils.optimize(code, Map.of("registerAllocation", String.valueOf(registers)), false);
+    }
+
+    private static OllirResult optimizeLinearScan(String code, int registers) {
+        return TestUtils.optimize(code, Map.of("registerAllocation", String.valueOf(registers),
+                "registerAllocator", CompilerConfig.LINEAR_SCAN_ALLOCATOR), false);
+    }
+
+    private static int getLimitLocals(String jasminMethod) {
+        return Integer.parseInt(SpecsStrings.getRegexGroup(jasminMethod, "\\.limit\\s+locals\\s+(\\d+)", 1));
+    }
+
+    @Test
+    public void minimumRegistersKeepBehaviour() throws IOException {
+        var files = getJmmFiles();
+        assertFalse(files.isEmpty());
+
+        for (var file : files) {
+            var code = SpecsIo.read(file);
+            var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(code)).runWithFullOutput();
+
+            // Some of the programs have no main, or are not compiled correctly yet
+            if (expected.getReturnValue() != 0) {
+                continue;
+            }
+
+            var jasmin = new JasminBackendImpl().toJasmin(optimize(code, 0)).runWithFullOutput();
+            assertEquals(file.getPath(), expected.getReturnValue(), jasmin.getReturnValue());
+            assertEquals(file.getPath(), expected.getOutput(), jasmin.getOutput());
+
+            var bytecode = new BytecodeBackendImpl().toJasmin(optimize(code, 0)).runWithFullOutput();
+            assertEquals(file.getPath(), expected.getReturnValue(), bytecode.getReturnValue());
+            assertEquals(file.getPath(), expected.getOutput(), bytecode.getOutput());
+
+            var linearScan = new BytecodeBackendImpl().toJasmin(optimizeLinearScan(code, 0)).runWithFullOutput();
+            assertEquals(file.getPath(), expected.getReturnValue(), linearScan.getReturnValue());
+            assertEquals(file.getPath(), expected.getOutput(), linearScan.getOutput());
+        }
+    }
+
+    @Test
+    public void deadVariablesShareRegisters() {
+        var ollirResult = optimize(SpecsIo.getResource(REG_ALLOC), 0);
+        assertTrue(ollirResult.getReports().toString(), ollirResult.getReports().stream()
+                .noneMatch(report -> report.getType() == ReportType.ERROR));
+
+        // 'this' and 'arg' are dead, so a, b, c and d can all use one of their registers
+        var jasminResult = new JasminBackendImpl().toJasmin(ollirResult);
+        assertEquals(2, getLimitLocals(CpUtils.getJasminMethod(jasminResult, "soManyRegisters")));
+    }
+
+    @Test
+    public void overlappingVariablesNeedDifferentRegisters() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/registerallocation/Overlap.jmm");
+
+        // n, a and b are live at the same time, and 'this' is never used, so its register can be reused
+        var jasminResult = new JasminBackendImpl().toJasmin(optimize(code, 0));
+        assertEquals(3, getLimitLocals(CpUtils.getJasminMethod(jasminResult, "sum")));
+
+        var reports = optimize(code, 2).getReports();
+        assertTrue(reports.toString(), reports.stream().anyMatch(report -> report.getType() == ReportType.ERROR
+                && report.getMessage().contains("'sum' needs at least 3 registers")));
+    }
+
+    @Test
+    public void linearScanReusesRegistersOfEndedIntervals() {
+        var ollirResult = optimizeLinearScan(SpecsIo.getResource(REG_ALLOC), 0);
+        var jasminResult = new JasminBackendImpl().toJasmin(ollirResult);
+        assertEquals(2, getLimitLocals(CpUtils.getJasminMethod(jasminResult, "soManyRegisters")));
+
+        // The reduction is logged
+        assertTrue(ollirResult.getReports().toString(), ollirResult.getReports().stream()
+                .anyMatch(report -> report.getType() == ReportType.LOG
+                        && report.getMessage().equals("Method 'soManyRegisters' uses 2 registers instead of 6")));
+    }
+
+    @Test
+    public void linearScanKeepsLoopVariablesAlive() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/registerallocation/Loop.jmm");
+
+        var ollirResult = optimizeLinearScan(code, 0);
+        var output = new BytecodeBackendImpl().toJasmin(ollirResult).runWithFullOutput();
+        assertEquals(output.getStdErr(), 0, output.getReturnValue());
+        assertEquals("10", output.getOutput().strip());
+
+        var reports = optimizeLinearScan(code, 1).getReports();
+        assertTrue(reports.toString(), reports.stream().anyMatch(report -> report.getType() == ReportType.ERROR
+                && report.getMessage().contains("'main' needs")));
+    }
+}
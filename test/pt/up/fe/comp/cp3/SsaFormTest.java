@@ -0,0 +1,143 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.AssignInstruction;
+import org.specs.comp.ollir.Operand;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.BytecodeBackendImpl;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.BasicBlock;
+import pt.up.fe.comp2024.optimization.ControlFlowGraph;
+import pt.up.fe.comp2024.optimization.DominatorTree;
+import pt.up.fe.comp2024.optimization.SsaForm;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SsaFormTest {
+
+    private static final File JASMIN_TESTS = new File("test/pt/up/fe/comp/cpf/4_jasmin");
+
+    private static final String DIAMOND = SpecsIo.getResource("pt/up/fe/comp/cp3/ssa/Diamond.jmm");
+    private static final String LOOP = SpecsIo.getResource("pt/up/fe/comp/cp3/ssa/Loop.jmm");
+
+    private static List<SsaForm.Phi> getAllPhis(SsaForm ssa) {
+        List<SsaForm.Phi> phis = new ArrayList<>();
+        ssa.getCfg().getBlocks().forEach(block -> phis.addAll(ssa.getPhis(block)));
+        return phis;
+    }
+
+    private static OllirResult roundTrip(String code) {
+        var ollirResult = TestUtils.optimize(code);
+        for (var method : ollirResult.getOllirClass().getMethods()) {
+            if (!method.isConstructMethod()) {
+                SsaForm.toSsa(method).fromSsa();
+            }
+        }
+
+        return ollirResult;
+    }
+
+    @Test
+    public void dominatorsOfLoop() {
+        var cfg = new ControlFlowGraph(CpUtils.getMethod(TestUtils.optimize(LOOP), "main"));
+        var dominatorTree = new DominatorTree(cfg);
+        var entry = cfg.getEntry();
+
+        BasicBlock header = null;
+        BasicBlock exit = null;
+        for (var block : cfg.getBlocks()) {
+            assertTrue(block.toString(), dominatorTree.dominates(entry, block));
+            if (block.getLabels().contains("whilecond_0")) {
+                header = block;
+            } else if (block.getLabels().contains("endwhile_0")) {
+                exit = block;
+            }
+        }
+
+        // The body jumps back to the condition, which is the only way out of the loop
+        assertNotNull(header);
+        assertNotNull(exit);
+        assertTrue(dominatorTree.getDominanceFrontier(header).contains(header));
+        assertTrue(dominatorTree.dominates(header, exit));
+        assertFalse(dominatorTree.dominates(exit, header));
+        assertNull(dominatorTree.getIdom(entry));
+    }
+
+    @Test
+    public void phisOnlyForLiveVariables() {
+        var method = CpUtils.getMethod(TestUtils.optimize(DIAMOND), "foo");
+        var ssa = SsaForm.toSsa(method);
+
+        // d is written in both branches, but it is never read after the join
+        var phiVariables = getAllPhis(ssa).stream().map(SsaForm.Phi::getVariable).sorted().toList();
+        assertEquals(List.of("a", "b"), phiVariables);
+
+        for (var phi : getAllPhis(ssa)) {
+            assertEquals(phi.toString(), 2, phi.getSources().size());
+            var first = (Operand) phi.getSources().get(0);
+            var second = (Operand) phi.getSources().get(1);
+            assertNotEquals(phi.toString(), first.getName(), second.getName());
+            assertEquals(phi.getVariable(), ssa.getOriginalName(phi.getTarget()));
+        }
+    }
+
+    @Test
+    public void everyVariableIsWrittenOnce() {
+        var method = CpUtils.getMethod(TestUtils.optimize(LOOP), "main");
+        var ssa = SsaForm.toSsa(method);
+
+        List<String> targets = new ArrayList<>();
+        getAllPhis(ssa).forEach(phi -> targets.add(phi.getTarget()));
+        for (var instruction : method.getInstructions()) {
+            if (instruction instanceof AssignInstruction assign
+                    && assign.getDest() instanceof Operand operand) {
+                targets.add(operand.getName());
+            }
+        }
+
+        assertEquals(targets.toString(), targets.size(), targets.stream().distinct().count());
+        // i and sum at the start of the body, and sum after the loop, since the loop can be skipped
+        assertEquals(getAllPhis(ssa).toString(), 3, getAllPhis(ssa).stream()
+                .filter(phi -> !phi.getVariable().startsWith("tmp")).count());
+    }
+
+    @Test
+    public void roundTripKeepsBehaviour() throws IOException {
+        List<String> codes;
+        try (Stream<Path> paths = Files.walk(JASMIN_TESTS.toPath())) {
+            codes = paths.filter(file -> file.toString().endsWith(".jmm")).sorted()
+                    .map(file -> SpecsIo.read(file.toFile()))
+                    .collect(Collectors.toList());
+        }
+        assertFalse(codes.isEmpty());
+        codes.add(DIAMOND);
+        codes.add(LOOP);
+
+        for (var code : codes) {
+            var expected = new JasminBackendImpl().toJasmin(TestUtils.optimize(code)).runWithFullOutput();
+
+            // Some of the programs have no main, or are not compiled correctly yet
+            if (expected.getReturnValue() != 0) {
+                continue;
+            }
+
+            var jasmin = new JasminBackendImpl().toJasmin(roundTrip(code)).runWithFullOutput();
+            assertEquals(code, expected.getOutput(), jasmin.getOutput());
+
+            var bytecode = new BytecodeBackendImpl().toJasmin(roundTrip(code)).runWithFullOutput();
+            assertEquals(code, expected.getOutput(), bytecode.getOutput());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import pt.up.fe.comp2024.*;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StageSelectionTest {
+
+    private static final File INPUT_FILE = new File("test/pt/up/fe/comp/cpf/4_jasmin/control_flow/SimpleWhileStat.jmm");
+    private static final String CODE = SpecsIo.read(INPUT_FILE);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CompilationResult compileUntil(String stage) {
+        var config = CompilerConfig.parseArgs(new String[]{"-i=" + INPUT_FILE.getPath(), "-t=" + stage});
+        var result = new JmmCompiler().compile(CODE, config);
+        assertFalse(result.getReports().toString(), result.hasErrors());
+
+        return result;
+    }
+
+    private static String write(Map<String, String> config, CompilationResult result) {
+        var output = new ByteArrayOutputStream();
+        new OutputWriter(config, new PrintStream(output, true, StandardCharsets.UTF_8)).write(INPUT_FILE, result, true);
+
+        return output.toString(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void stopsAfterSelectedStage() {
+        var parsed = compileUntil("parse");
+        assertTrue(parsed.getParserResult().isPresent());
+        assertTrue(parsed.getSemanticsResult().isEmpty());
+
+        var analysed = compileUntil("semantic");
+        assertTrue(analysed.getSemanticsResult().isPresent());
+        assertTrue(analysed.getOllirResult().isEmpty());
+
+        var ollir = compileUntil("ollir");
+        assertTrue(ollir.getOllirResult().isPresent());
+        assertTrue(ollir.getJasminResult().isEmpty());
+
+        var jasmin = compileUntil("jasmin");
+        assertTrue(jasmin.getJasminResult().isPresent());
+        assertTrue(jasmin.getClassFile().isEmpty());
+    }
+
+    @Test
+    public void classStageAssemblesInMemory() {
+        var classFile = compileUntil("class").getClassFile().orElseThrow();
+
+        assertEquals((byte) 0xCA, classFile[0]);
+        assertEquals((byte) 0xFE, classFile[1]);
+        assertEquals((byte) 0xBA, classFile[2]);
+        assertEquals((byte) 0xBE, classFile[3]);
+    }
+
+    @Test
+    public void quietPrintsNothing() {
+        var config = CompilerConfig.parseArgs(new String[]{"-i=" + INPUT_FILE.getPath(), "-q"});
+
+        assertEquals("", write(config, new JmmCompiler().compile(CODE, config)));
+    }
+
+    @Test
+    public void dumpsAreWrittenToFolder() throws IOException {
+        var dumpFolder = folder.newFolder();
+        var config = CompilerConfig.parseArgs(new String[]{"-i=" + INPUT_FILE.getPath(), "-t=class",
+                "-w=" + dumpFolder.getAbsolutePath()});
+
+        var output = write(config, new JmmCompiler().compile(CODE, config));
+
+        assertEquals("", output);
+        assertTrue(new File(dumpFolder, "SimpleWhileStat.ast").isFile());
+        assertTrue(SpecsIo.read(new File(dumpFolder, "SimpleWhileStat.ollir")).contains("SimpleWhileStat"));
+        assertTrue(SpecsIo.read(new File(dumpFolder, "SimpleWhileStat.j")).contains(".class"));
+        assertTrue(new File(dumpFolder, "SimpleWhileStat.class").isFile());
+    }
+
+    @Test
+    public void onlyExecutedStagesArePrinted() {
+        var config = CompilerConfig.parseArgs(new String[]{"-i=" + INPUT_FILE.getPath(), "-t=parse"});
+
+        var output = write(config, new JmmCompiler().compile(CODE, config));
+
+        assertTrue(output.contains("ClassDecl"));
+        assertFalse(output.contains(".method"));
+    }
+}
@@ -0,0 +1,98 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.BytecodeBackendImpl;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class StrengthReductionTest {
+
+    private static final String POWERS_OF_TWO = SpecsIo.getResource("pt/up/fe/comp/cp3/strengthreduction/Powers.jmm");
+
+    private static OllirResult optimize(String code) {
+        return TestUtils.optimize(code, Map.of("optimize", "true"), false);
+    }
+
+    private static List<OperationType> getOperations(OllirResult ollirResult, String methodName) {
+        var method = CpUtils.getMethod(ollirResult, methodName);
+        return method.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign
+                        && assign.getRhs() instanceof BinaryOpInstruction)
+                .map(inst -> ((BinaryOpInstruction) ((AssignInstruction) inst).getRhs()).getOperation().getOpType())
+                .toList();
+    }
+
+    @Test
+    public void multiplicationsBecomeShifts() {
+        var operations = getOperations(optimize(POWERS_OF_TWO), "times");
+
+        // The constant of 4 * x moves to the right, x * 6 is not a power of two
+        assertEquals(operations.toString(), 2, operations.stream().filter(OperationType.SHL::equals).count());
+        assertEquals(operations.toString(), 1, operations.stream().filter(OperationType.MUL::equals).count());
+    }
+
+    @Test
+    public void divisionsRoundTowardsZero() {
+        var expected = "3\n-3\n-2\n-2\n0\n3\n-54";
+
+        var jasminResult = new JasminBackendImpl().toJasmin(optimize(POWERS_OF_TWO));
+        assertFalse(jasminResult.getJasminCode(), jasminResult.getJasminCode().contains("idiv"));
+        assertEquals(expected, jasminResult.run().strip().replace("\r\n", "\n"));
+
+        var bytecodeResult = new BytecodeBackendImpl().toJasmin(optimize(POWERS_OF_TWO));
+        assertEquals(expected, bytecodeResult.run().strip().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void constantsAreAddedWithIinc() {
+        var ollirCode = SpecsIo.getResource("pt/up/fe/comp/cp3/strengthreduction/Increments.ollir");
+
+        var jasminResult = new JasminBackendImpl().toJasmin(new OllirResult(ollirCode, Collections.emptyMap()));
+        var jasminCode = jasminResult.getJasminCode();
+        assertTrue(jasminCode, jasminCode.matches("(?s).*iinc 1 -3\\s+iinc 1 5\\s+iinc_w 1 1000\\s.*"));
+
+        // The last constant does not fit in 16 bits
+        assertEquals(jasminCode, 3, jasminCode.split("iinc").length - 1);
+        assertEquals("-38988", jasminResult.run().strip());
+
+        var bytecodeResult = new BytecodeBackendImpl().toJasmin(new OllirResult(ollirCode, Collections.emptyMap()));
+        assertEquals("-38988", bytecodeResult.run().strip());
+    }
+
+    @Test
+    public void compiledIncrementsUseIinc() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/strengthreduction/Counter.jmm");
+
+        // 'i = i + 1' is generated as a temporary and a copy, and as different SSA versions with optimizations
+        var configs = List.of(
+                Map.<String, String>of(),
+                Map.of("registerAllocation", "0"),
+                Map.of("optimize", "true"),
+                Map.of("optimize", "true", "registerAllocation", "0"));
+        for (var config : configs) {
+            var ollirResult = TestUtils.optimize(code, config, false);
+            var jasminResult = new JasminBackendImpl().toJasmin(ollirResult);
+            var jasminCode = jasminResult.getJasminCode();
+            assertTrue(config + "\n" + jasminCode, jasminCode.matches("(?s).*iinc \\d+ 1\\s.*"));
+
+            // With optimizations the last version of s is only returned, and may be given another register
+            if (!config.containsKey("optimize")) {
+                assertTrue(config + "\n" + jasminCode, jasminCode.matches("(?s).*iinc_w \\d+ -300\\s.*"));
+            }
+            assertEquals("135", jasminResult.run().strip());
+
+            var bytecodeResult = new BytecodeBackendImpl().toJasmin(TestUtils.optimize(code, config, false));
+            assertEquals("135", bytecodeResult.run().strip());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.TailRecursion;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class TailRecursionTest {
+
+    private static boolean calls(Method method, String name) {
+        return method.getInstructions().stream()
+                .map(inst -> inst instanceof AssignInstruction assign ? assign.getRhs() : inst)
+                .anyMatch(inst -> inst instanceof CallInstruction call
+                        && call.getMethodName() instanceof LiteralElement literal
+                        && literal.getLiteral().equals("\"" + name + "\""));
+    }
+
+    @Test
+    public void tailCallsBecomeLoops() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/tailrecursion/Tail.jmm");
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+
+        var sum = CpUtils.getMethod(ollirResult, "sum");
+        assertFalse(sum.getInstructions().toString(), calls(sum, "sum"));
+        // A million frames would overflow the stack
+        assertEquals("1784293664", new JasminBackendImpl().toJasmin(ollirResult).run().strip());
+    }
+
+    @Test
+    public void callsWhoseResultIsChangedStay() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/tailrecursion/Fact.jmm");
+
+        var ollirResult = TestUtils.optimize(code, Map.of("optimize", "true"), false);
+
+        assertTrue(calls(CpUtils.getMethod(ollirResult, "fact"), "fact"));
+        assertEquals("120", new JasminBackendImpl().toJasmin(ollirResult).run().strip());
+    }
+
+    @Test
+    public void swappedParametersKeepTheirValues() {
+        var ollirCode = SpecsIo.getResource("pt/up/fe/comp/cp3/tailrecursion/Gcd.ollir");
+
+        var ollirResult = new OllirResult(ollirCode, Collections.emptyMap());
+        var method = CpUtils.getMethod(ollirResult, "gcd");
+
+        assertEquals(1, new TailRecursion(method).apply());
+        assertFalse(calls(method, "gcd"));
+        assertEquals("21", new JasminBackendImpl().toJasmin(ollirResult).run().strip());
+    }
+
+    @Test
+    public void callsThatStartTheMethodStay() {
+        var ollirCode = SpecsIo.getResource("pt/up/fe/comp/cp3/tailrecursion/Forever.ollir");
+
+        var method = CpUtils.getMethod(new OllirResult(ollirCode, Collections.emptyMap()), "forever");
+
+        // Jumping to the entry would jump to itself, and the stack overflow would become a loop that never ends
+        assertEquals(0, new TailRecursion(method).apply());
+        assertTrue(calls(method, "forever"));
+    }
+}
@@ -0,0 +1,99 @@
+package pt.up.fe.comp.cp3;
+
+import org.junit.Test;
+import org.specs.comp.ollir.*;
+import pt.up.fe.comp.CpUtils;
+import pt.up.fe.comp.TestUtils;
+import pt.up.fe.comp.jmm.ollir.OllirResult;
+import pt.up.fe.comp2024.backend.JasminBackendImpl;
+import pt.up.fe.comp2024.optimization.SsaForm;
+import pt.up.fe.comp2024.optimization.ValueNumbering;
+import pt.up.fe.specs.util.SpecsIo;
+
+import java.util.function.Predicate;
+
+import static org.junit.Assert.*;
+
+public class ValueNumberingTest {
+
+    private static Method number(OllirResult ollirResult, String name) {
+        var method = CpUtils.getMethod(ollirResult, name);
+        var ssa = SsaForm.toSsa(method);
+        new ValueNumbering(ssa).apply();
+        ssa.fromSsa();
+        return method;
+    }
+
+    private static long countRhs(Method method, Predicate<Instruction> filter) {
+        return method.getInstructions().stream()
+                .filter(inst -> inst instanceof AssignInstruction assign && filter.test(assign.getRhs()))
+                .count();
+    }
+
+    private static boolean isLoad(Instruction instruction) {
+        return instruction instanceof SingleOpInstruction singleOp
+                && singleOp.getSingleOperand() instanceof ArrayOperand;
+    }
+
+    private static boolean isOperation(Instruction instruction, OperationType type) {
+        return instruction instanceof BinaryOpInstruction binaryOp && binaryOp.getOperation().getOpType() == type;
+    }
+
+    @Test
+    public void repeatedLoadsAndOperations() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/valuenumbering/Repeated.jmm");
+
+        var method = number(TestUtils.optimize(code), "foo");
+
+        assertEquals(method.getInstructions().toString(), 1, countRhs(method, ValueNumberingTest::isLoad));
+        // a[i] * a[i], and x * y once with the operands in either order
+        assertEquals(method.getInstructions().toString(), 2,
+                countRhs(method, inst -> isOperation(inst, OperationType.MUL)));
+    }
+
+    @Test
+    public void dominatingExpressionsAreReused() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/valuenumbering/Dominators.jmm");
+
+        var ollirResult = TestUtils.optimize(code);
+        var expected = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput().getOutput();
+
+        ollirResult = TestUtils.optimize(code);
+        var method = number(ollirResult, "foo");
+
+        assertEquals(method.getInstructions().toString(), 1,
+                countRhs(method, inst -> isOperation(inst, OperationType.MUL)));
+        assertEquals(method.getInstructions().toString(), 1, countRhs(method, inst ->
+                inst instanceof CallInstruction call && call.getInvocationType() == CallType.arraylength));
+
+        var output = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput().getOutput();
+        assertEquals(expected, output);
+    }
+
+    @Test
+    public void storesAndCallsInvalidateLoads() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/valuenumbering/Stores.jmm");
+
+        var ollirResult = TestUtils.optimize(code);
+        var expected = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput().getOutput();
+
+        ollirResult = TestUtils.optimize(code);
+        var method = number(ollirResult, "foo");
+
+        // b can be the same array as a, and the call can change it, but b[0] is the value just stored
+        assertEquals(method.getInstructions().toString(), 3, countRhs(method, ValueNumberingTest::isLoad));
+
+        var output = new JasminBackendImpl().toJasmin(ollirResult).runWithFullOutput().getOutput();
+        assertEquals(expected, output);
+        assertEquals("15\n22", output.strip().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void loadsAreNotReusedAcrossJoins() {
+        var code = SpecsIo.getResource("pt/up/fe/comp/cp3/valuenumbering/Joins.jmm");
+
+        var method = number(TestUtils.optimize(code), "foo");
+
+        assertEquals(method.getInstructions().toString(), 2, countRhs(method, ValueNumberingTest::isLoad));
+    }
+}